@@ -0,0 +1,155 @@
+package org.pantouflemc.economy.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.jetbrains.annotations.NotNull;
+import org.pantouflemc.economy.PlayerBalance;
+import org.pantouflemc.economy.database.DatabaseManager;
+import org.pantouflemc.economy.metrics.Metrics;
+import org.pantouflemc.economy.storage.MappedStorageEngine;
+import org.pantouflemc.economy.storage.StorageEngine;
+
+/**
+ * An embedded database filled with players, used by the benchmarks.
+ */
+final class BenchmarkDatabase implements AutoCloseable {
+
+    // Large enough for the removals of a whole run to never fail
+    static final long INITIAL_BALANCE = 1_000_000_000L;
+
+    private final @NotNull Path directory;
+    private final @NotNull String url;
+    private final @NotNull DatabaseManager databaseManager;
+    private final @NotNull StorageEngine storageEngine;
+    private final @NotNull UUID[] playerUuids;
+    private final int[] accountIds;
+
+    /**
+     * Create a database and fill it with players
+     *
+     * @param database the database to use, "sqlite", "h2" (in MySQL mode) or
+     *                 "mapped" (imported from SQLite)
+     * @param players  the number of players to create
+     */
+    BenchmarkDatabase(@NotNull String database, int players) throws Exception {
+        this.directory = Files.createTempDirectory("economy-benchmark");
+        this.url = url(database, this.directory);
+        this.databaseManager = new DatabaseManager(configuration(this.url));
+
+        this.playerUuids = new UUID[players];
+        this.accountIds = new int[players];
+
+        SplittableRandom random = new SplittableRandom(42);
+        Map<Integer, Long> balances = new HashMap<>();
+        for (int i = 0; i < players; i++) {
+            UUID playerUuid = new UUID(random.nextLong(), random.nextLong());
+            PlayerBalance account = this.databaseManager.ensurePlayer(playerUuid, "player" + i);
+
+            this.playerUuids[i] = playerUuid;
+            this.accountIds[i] = account.accountId();
+            balances.put(account.accountId(), INITIAL_BALANCE + random.nextLong(INITIAL_BALANCE));
+        }
+        this.databaseManager.setBalancesMinor(balances);
+
+        this.storageEngine = database.equals("mapped")
+                ? new MappedStorageEngine(mappedConfiguration(this.directory), configuration(this.url), 64,
+                        new Metrics(false), Logger.getLogger("economy-benchmark"))
+                : this.databaseManager;
+    }
+
+    /**
+     * Get the JDBC URL of a database
+     */
+    private static @NotNull String url(@NotNull String database, @NotNull Path directory) {
+        return switch (database) {
+            case "sqlite", "mapped" -> "jdbc:sqlite:" + directory.resolve("database.db");
+            // Kept open between connections, the in-memory database would be
+            // dropped with the last one otherwise
+            case "h2" -> "jdbc:h2:mem:" + directory.getFileName()
+                    + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+            default -> throw new IllegalArgumentException("Unknown database " + database);
+        };
+    }
+
+    /**
+     * Build the database section of the configuration
+     */
+    private static @NotNull ConfigurationSection configuration(@NotNull String url) {
+        ConfigurationSection config = new MemoryConfiguration();
+        config.set("url", url);
+        config.set("username", "");
+        config.set("password", "");
+        config.set("pool.maximum-pool-size", 10);
+        config.set("pool.minimum-idle", 10);
+        config.set("pool.connection-timeout", 30000L);
+        config.set("pool.idle-timeout", 600000L);
+        config.set("pool.max-lifetime", 1800000L);
+        config.set("pool.leak-detection-threshold", 0L);
+        return config;
+    }
+
+    /**
+     * Build the storage.mapped section of the configuration
+     */
+    private static @NotNull ConfigurationSection mappedConfiguration(@NotNull Path directory) {
+        ConfigurationSection config = new MemoryConfiguration();
+        config.set("directory", directory.resolve("storage").toString());
+        config.set("checkpoint-interval", 1000L);
+        config.set("import-from-database", true);
+        return config;
+    }
+
+    @NotNull
+    String getUrl() {
+        return this.url;
+    }
+
+    @NotNull
+    DatabaseManager getDatabaseManager() {
+        return this.databaseManager;
+    }
+
+    @NotNull
+    StorageEngine getStorageEngine() {
+        return this.storageEngine;
+    }
+
+    int getPlayers() {
+        return this.playerUuids.length;
+    }
+
+    @NotNull
+    UUID getPlayerUuid(int index) {
+        return this.playerUuids[index];
+    }
+
+    int getAccountId(int index) {
+        return this.accountIds[index];
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.storageEngine != this.databaseManager) {
+            this.storageEngine.close();
+        }
+        this.databaseManager.close();
+
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package org.pantouflemc.economy.benchmarks;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pantouflemc.economy.PlayerBalance;
+import org.pantouflemc.economy.storage.StorageEngine;
+
+import com.google.common.primitives.UnsignedInteger;
+
+/**
+ * Benchmarks of the database operations behind the hot paths of the plugin.
+ * <p>
+ * Economy itself needs a running server, so the benchmarks call the
+ * DatabaseManager methods the Economy methods delegate to when the balance
+ * cache is disabled. The "mapped" database runs them against the
+ * memory-mapped engine, imported from a SQLite database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class DatabaseManagerBenchmark {
+
+    @Param({ "sqlite", "h2", "mapped" })
+    public String database;
+
+    @Param({ "1000", "100000" })
+    public int accounts;
+
+    private BenchmarkDatabase benchmarkDatabase;
+    private StorageEngine storageEngine;
+
+    /**
+     * The random source of a benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.benchmarkDatabase = new BenchmarkDatabase(this.database, this.accounts);
+        this.storageEngine = this.benchmarkDatabase.getStorageEngine();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        this.benchmarkDatabase.close();
+    }
+
+    /**
+     * Pick a random account of the database
+     */
+    private UnsignedInteger randomAccount(ThreadState state) {
+        return UnsignedInteger.fromIntBits(
+                this.benchmarkDatabase.getAccountId(state.random.nextInt(this.benchmarkDatabase.getPlayers())));
+    }
+
+    @Benchmark
+    public long getBalance(ThreadState state) throws Exception {
+        return this.storageEngine.getBalanceMinor(this.randomAccount(state));
+    }
+
+    @Benchmark
+    public void addBalance(ThreadState state) throws Exception {
+        this.storageEngine.addBalanceMinor(this.randomAccount(state), 1);
+    }
+
+    @Benchmark
+    public void removeBalance(ThreadState state) throws Exception {
+        this.storageEngine.removeBalanceMinor(this.randomAccount(state), 1);
+    }
+
+    @Benchmark
+    public void transferMoney(ThreadState state) throws Exception {
+        UnsignedInteger fromAccountId = this.randomAccount(state);
+        UnsignedInteger toAccountId = this.randomAccount(state);
+        this.storageEngine.transferBalanceMinor(fromAccountId, toAccountId, 1);
+    }
+
+    @Benchmark
+    public List<PlayerBalance> getTopPlayerAccounts() throws Exception {
+        return this.storageEngine.getTopPlayerBalances(10, 0);
+    }
+
+    @Benchmark
+    public PlayerBalance joinKnownPlayer(ThreadState state) throws Exception {
+        int index = state.random.nextInt(this.benchmarkDatabase.getPlayers());
+        return this.storageEngine.ensurePlayer(this.benchmarkDatabase.getPlayerUuid(index), "player" + index);
+    }
+
+    @Benchmark
+    public PlayerBalance joinNewPlayer(ThreadState state) throws Exception {
+        UUID playerUuid = new UUID(state.random.nextLong(), state.random.nextLong());
+        return this.storageEngine.ensurePlayer(playerUuid, "newplayer");
+    }
+
+}
@@ -0,0 +1,92 @@
+package org.pantouflemc.economy.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pantouflemc.economy.journal.Journal;
+import org.pantouflemc.economy.journal.JournalReason;
+
+/**
+ * Throughput of the journal appends, with the background syncs running.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class JournalBenchmark {
+
+    @Param({ "10" })
+    public long syncInterval;
+
+    private Path directory;
+    private Journal journal;
+
+    /**
+     * The random source of a benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("economy-journal-benchmark");
+        this.journal = new Journal(this.directory, 64 * 1024 * 1024, this.syncInterval, 0,
+                Logger.getLogger("JournalBenchmark"));
+    }
+
+    /**
+     * Delete the full segments, as the flushes of the balance cache do
+     */
+    @TearDown(Level.Iteration)
+    public void acknowledge() {
+        this.journal.acknowledge(this.journal.getLastSequence());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.journal.close();
+
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public long appendAdd(ThreadState state) throws IOException {
+        return this.journal.append(JournalReason.ADD, new int[] { state.random.nextInt(100000) },
+                new long[] { 100 });
+    }
+
+    @Benchmark
+    public long appendTransfer(ThreadState state) throws IOException {
+        return this.journal.append(JournalReason.TRANSFER,
+                new int[] { state.random.nextInt(100000), state.random.nextInt(100000) },
+                new long[] { -100, 100 });
+    }
+
+}
@@ -0,0 +1,144 @@
+package org.pantouflemc.economy.benchmarks;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.primitives.UnsignedInteger;
+
+/**
+ * Per-call latency of the balance queries, with and without reusing the
+ * prepared statements.
+ * <p>
+ * The "PreparedPerCall" benchmarks prepare and close the statement on every
+ * call, as the DatabaseManager used to, while the "PreparedOnce" benchmarks
+ * reuse it on the same connection. The DatabaseManager benchmarks measure the
+ * whole call, pool and statement cache included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class StatementCacheBenchmark {
+
+    private static final String GET_BALANCE = "SELECT balance FROM accounts WHERE id = ?;";
+    private static final String ADD_BALANCE = "UPDATE accounts SET balance = balance + ? WHERE id = ?;";
+
+    @Param({ "sqlite", "h2" })
+    public String database;
+
+    @Param({ "10000" })
+    public int accounts;
+
+    private BenchmarkDatabase benchmarkDatabase;
+
+    /**
+     * A connection of a benchmark thread, outside of the pool
+     */
+    @State(Scope.Thread)
+    public static class ConnectionState {
+        private final SplittableRandom random = new SplittableRandom();
+        private Connection connection;
+        private PreparedStatement getBalanceStatement;
+        private PreparedStatement addBalanceStatement;
+
+        @Setup(Level.Trial)
+        public void setUp(StatementCacheBenchmark benchmark) throws SQLException {
+            this.connection = DriverManager.getConnection(benchmark.benchmarkDatabase.getUrl());
+            this.getBalanceStatement = this.connection.prepareStatement(GET_BALANCE);
+            this.addBalanceStatement = this.connection.prepareStatement(ADD_BALANCE);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws SQLException {
+            this.connection.close();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.benchmarkDatabase = new BenchmarkDatabase(this.database, this.accounts);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        this.benchmarkDatabase.close();
+    }
+
+    /**
+     * Pick a random account of the database
+     */
+    private int randomAccount(ConnectionState state) {
+        return this.benchmarkDatabase.getAccountId(state.random.nextInt(this.benchmarkDatabase.getPlayers()));
+    }
+
+    @Benchmark
+    public long getBalancePreparedPerCall(ConnectionState state) throws SQLException {
+        try (PreparedStatement statement = state.connection.prepareStatement(GET_BALANCE)) {
+            return readBalance(statement, this.randomAccount(state));
+        }
+    }
+
+    @Benchmark
+    public long getBalancePreparedOnce(ConnectionState state) throws SQLException {
+        return readBalance(state.getBalanceStatement, this.randomAccount(state));
+    }
+
+    @Benchmark
+    public long getBalanceDatabaseManager(ConnectionState state) throws Exception {
+        return this.benchmarkDatabase.getDatabaseManager()
+                .getBalanceMinor(UnsignedInteger.fromIntBits(this.randomAccount(state)));
+    }
+
+    @Benchmark
+    public int addBalancePreparedPerCall(ConnectionState state) throws SQLException {
+        try (PreparedStatement statement = state.connection.prepareStatement(ADD_BALANCE)) {
+            return addBalance(statement, this.randomAccount(state));
+        }
+    }
+
+    @Benchmark
+    public int addBalancePreparedOnce(ConnectionState state) throws SQLException {
+        return addBalance(state.addBalanceStatement, this.randomAccount(state));
+    }
+
+    @Benchmark
+    public void addBalanceDatabaseManager(ConnectionState state) throws Exception {
+        this.benchmarkDatabase.getDatabaseManager()
+                .addBalanceMinor(UnsignedInteger.fromIntBits(this.randomAccount(state)), 1);
+    }
+
+    private static long readBalance(PreparedStatement statement, int accountId) throws SQLException {
+        statement.setInt(1, accountId);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+
+    private static int addBalance(PreparedStatement statement, int accountId) throws SQLException {
+        statement.setLong(1, 1);
+        statement.setInt(2, accountId);
+        return statement.executeUpdate();
+    }
+
+}
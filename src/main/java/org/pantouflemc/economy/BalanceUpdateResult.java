@@ -0,0 +1,34 @@
+package org.pantouflemc.economy;
+
+/**
+ * The outcome of the update of one balance in a bulk operation.
+ */
+public enum BalanceUpdateResult {
+
+    /**
+     * The balance was updated.
+     */
+    SUCCESS,
+
+    /**
+     * The player has no main account.
+     */
+    ACCOUNT_NOT_FOUND,
+
+    /**
+     * The account does not have enough balance for the amount to be removed.
+     */
+    INSUFFICIENT_BALANCE,
+
+    /**
+     * The amount is negative or not a number, or the balance would overflow.
+     */
+    INVALID_AMOUNT,
+
+    /**
+     * Players sharing the account were given different balances, none of them
+     * was applied.
+     */
+    CONFLICTING_AMOUNTS,
+
+}
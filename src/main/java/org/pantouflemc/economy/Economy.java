@@ -1,32 +1,70 @@
 package org.pantouflemc.economy;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.DoubleUnaryOperator;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.command.PluginCommand;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.IllegalPluginAccessException;
 import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.pantouflemc.economy.cache.BalanceCache;
+import org.pantouflemc.economy.cache.ChangeFeedPoller;
+import org.pantouflemc.economy.cache.Leaderboard;
+import org.pantouflemc.economy.cache.MainAccountCache;
 import org.pantouflemc.economy.commands.EconomyAddCommand;
 import org.pantouflemc.economy.commands.EconomyBalanceCommand;
 import org.pantouflemc.economy.commands.EconomyBalanceTopCommand;
 import org.pantouflemc.economy.commands.EconomyCommand;
 import org.pantouflemc.economy.commands.EconomyCommandExecutor;
+import org.pantouflemc.economy.commands.EconomyHistoryCommand;
 import org.pantouflemc.economy.commands.EconomyPayCommand;
 import org.pantouflemc.economy.commands.EconomyRemoveCommand;
 import org.pantouflemc.economy.commands.EconomySetCommand;
-import org.pantouflemc.economy.database.DatabaseManager;
+import org.pantouflemc.economy.commands.EconomyStatsCommand;
+import org.pantouflemc.economy.concurrent.StripedLock;
+import org.pantouflemc.economy.database.DatabaseExecutor;
+import org.pantouflemc.economy.database.DatabaseTask;
 import org.pantouflemc.economy.exceptions.EconomyAccountNotFoundError;
 import org.pantouflemc.economy.exceptions.EconomyDatabaseError;
 import org.pantouflemc.economy.exceptions.EconomyDriverNotFoundException;
 import org.pantouflemc.economy.exceptions.EconomyInsufficientBalance;
 import org.pantouflemc.economy.exceptions.EconomyInvalidAmountError;
+import org.pantouflemc.economy.history.HistoryCompactor;
+import org.pantouflemc.economy.history.TransactionSummary;
+import org.pantouflemc.economy.history.TransactionWriter;
+import org.pantouflemc.economy.journal.Journal;
+import org.pantouflemc.economy.journal.JournalRecord;
+import org.pantouflemc.economy.metrics.Metrics;
+import org.pantouflemc.economy.metrics.PrometheusExporter;
+import org.pantouflemc.economy.storage.StorageEngine;
+import org.pantouflemc.economy.storage.StorageEngineType;
+import org.pantouflemc.economy.vault.VaultEconomyProvider;
 
 import com.google.common.primitives.UnsignedInteger;
 
@@ -35,22 +73,204 @@ public final class Economy extends JavaPlugin implements Listener {
     private static @NotNull Economy plugin;
     private static @NotNull Logger logger;
     private static @NotNull FileConfiguration config;
-    private static @NotNull DatabaseManager databaseManager;
+    private static @NotNull Metrics metrics;
+    private static @NotNull StorageEngine storageEngine;
+    private static @NotNull DatabaseExecutor databaseExecutor;
+    private static @NotNull MainAccountCache mainAccountCache;
+    private static @NotNull StripedLock accountLocks;
+    private static @Nullable Journal journal;
+    private static @Nullable BalanceCache balanceCache;
+    private static @Nullable Leaderboard leaderboard;
+    private static @Nullable TransactionWriter transactionWriter;
+    private static @Nullable HistoryCompactor historyCompactor;
+    private static @Nullable ChangeFeedPoller changeFeedPoller;
+    private static @Nullable PrometheusExporter prometheusExporter;
+    private static final @NotNull AtomicBoolean leaderboardReconciling = new AtomicBoolean();
+
+    /**
+     * The operations applied by the bulk balance updates.
+     */
+    private enum BulkOperation {
+        SET, ADD, REMOVE
+    }
 
     @Override
     public void onEnable() {
         plugin = this;
         logger = this.getLogger();
         config = this.getConfig();
+
+        // Initialize the configuration file
+        this.initConfig();
+        Money.setDecimals(config.getInt("currency.decimals"));
+        metrics = new Metrics(config.getBoolean("metrics.enabled"));
+
+        // Serialize the mutations of each account, the different accounts run in parallel
+        accountLocks = new StripedLock(config.getInt("concurrency.lock-stripes"));
+
+        StorageEngineType storageEngineType;
+        try {
+            storageEngineType = StorageEngineType.fromName(config.getString("storage.engine"));
+        } catch (IllegalArgumentException e) {
+            logger.severe("Unknown storage engine " + config.getString("storage.engine") + ".");
+            throw e;
+        }
+
+        // Each server sharing the database acknowledges its own journal
+        if (config.getString("database.server-id", "").isEmpty()) {
+            try {
+                config.set("database.server-id", this.loadServerId());
+            } catch (IOException e) {
+                logger.severe("An error occurred while trying to read the ID of the server.");
+                throw new RuntimeException(e);
+            }
+        }
+
         try {
-            databaseManager = new DatabaseManager();
+            storageEngine = storageEngineType.open(config, metrics, logger);
         } catch (EconomyDriverNotFoundException | EconomyDatabaseError e) {
             logger.severe("An error occurred while trying to connect to the database.");
             throw new RuntimeException(e);
         }
 
-        // Initialize the configuration file
-        this.initConfig();
+        // Replay the balance mutations a crash kept from reaching the database
+        Path journalDirectory = this.getDataFolder().toPath().resolve("journal");
+        long journalSequence;
+        try {
+            journalSequence = this.recoverJournal(journalDirectory);
+        } catch (IOException | EconomyDatabaseError e) {
+            logger.severe("An error occurred while trying to replay the journal.");
+            throw new RuntimeException(e);
+        }
+
+        // Start the executor running the database operations off the main thread
+        databaseExecutor = new DatabaseExecutor(
+                config.getInt("database.executor.threads"),
+                config.getBoolean("database.executor.virtual-threads"));
+
+        // Keep the main accounts of the players in memory
+        mainAccountCache = new MainAccountCache(
+                config.getLong("cache.main-accounts.maximum-size"),
+                config.getLong("cache.main-accounts.expire-after") * 1000);
+
+        // Vault calls are synchronous, its provider needs the balances in memory
+        boolean vaultEnabled = config.getBoolean("vault.enabled")
+                && this.getServer().getPluginManager().getPlugin("Vault") != null;
+
+        // Keep the balances in memory and write them back in batches, if enabled
+        if (config.getBoolean("cache.balances.enabled") || vaultEnabled) {
+            // Record the mutations before they are applied, so the ones not yet
+            // written back survive a crash
+            if (config.getBoolean("cache.balances.journal.enabled")) {
+                try {
+                    journal = new Journal(
+                            journalDirectory,
+                            config.getInt("cache.balances.journal.segment-size") * 1024 * 1024,
+                            config.getLong("cache.balances.journal.sync-interval"),
+                            journalSequence,
+                            logger);
+                } catch (IOException e) {
+                    logger.severe("An error occurred while trying to open the journal.");
+                    throw new RuntimeException(e);
+                }
+            }
+
+            balanceCache = new BalanceCache(
+                    storageEngine,
+                    journal,
+                    logger,
+                    config.getLong("cache.balances.flush-interval"),
+                    config.getInt("cache.balances.flush-threshold"),
+                    config.getInt("cache.balances.write-retries"),
+                    config.getLong("cache.balances.revalidate-interval"));
+        }
+
+        // Record the transactions in the history, written in batches in the background
+        if (config.getBoolean("history.enabled") && !storageEngine.supportsHistory()) {
+            logger.warning("The " + config.getString("storage.engine")
+                    + " storage engine keeps no history, the history is disabled.");
+        } else if (config.getBoolean("history.enabled")) {
+            transactionWriter = new TransactionWriter(
+                    storageEngine,
+                    logger,
+                    config.getLong("history.flush-interval"),
+                    config.getInt("history.flush-threshold"),
+                    config.getInt("history.max-pending"));
+
+            // Summarize the old transactions by day, archiving them by month
+            historyCompactor = new HistoryCompactor(
+                    storageEngine,
+                    logger,
+                    config.getBoolean("history.archive.enabled")
+                            ? this.getDataFolder().toPath().resolve("history")
+                            : null,
+                    config.getInt("history.retention-days"),
+                    config.getInt("history.compaction.chunk-size"),
+                    config.getLong("history.compaction.chunk-delay"),
+                    config.getLong("history.compaction.interval"));
+        }
+
+        // Keep the top balances in memory, reconciled periodically with the database
+        if (config.getBoolean("leaderboard.enabled")) {
+            leaderboard = new Leaderboard(config.getInt("leaderboard.size"));
+            long refreshInterval = config.getLong("leaderboard.refresh-interval") * 20;
+            this.getServer().getScheduler().runTaskTimer(this, this::reconcileLeaderboard, 0, refreshInterval);
+        }
+
+        // Refresh the caches with the changes made by the other servers sharing the
+        // database
+        if (storageEngine.supportsChangeFeed()) {
+            try {
+                changeFeedPoller = new ChangeFeedPoller(
+                        storageEngine,
+                        logger,
+                        mainAccountCache,
+                        balanceCache,
+                        leaderboard,
+                        config.getLong("database.change-feed.poll-interval"),
+                        config.getInt("database.change-feed.batch-size"),
+                        config.getLong("database.change-feed.retention"),
+                        config.getLong("database.change-feed.gap-timeout"));
+            } catch (EconomyDatabaseError e) {
+                logger.severe("An error occurred while trying to read the change feed.");
+                throw new RuntimeException(e);
+            }
+        } else if (config.getBoolean("database.change-feed.enabled")) {
+            logger.warning("The " + config.getString("storage.engine")
+                    + " storage engine is not shared, the change feed is disabled.");
+        }
+
+        // Report the state of the executor, queues and caches along with the operations
+        metrics.gauge("executor.pending-tasks", databaseExecutor::getPendingTasks);
+        metrics.ratio("cache.main-accounts", mainAccountCache::getHitCount, mainAccountCache::getMissCount);
+        if (balanceCache != null) {
+            metrics.gauge("cache.balances.pending-changes", balanceCache::getPendingChanges);
+            metrics.ratio("cache.balances", balanceCache::getHitCount, balanceCache::getMissCount);
+        }
+        if (transactionWriter != null)
+            metrics.gauge("history.queued-transactions", transactionWriter::getQueueSize);
+
+        long metricsLogInterval = config.getLong("metrics.log-interval") * 20;
+        if (metrics.isEnabled() && metricsLogInterval > 0) {
+            this.getServer().getScheduler().runTaskTimerAsynchronously(this,
+                    () -> logger.info("Metrics: " + metrics.summarize("database")),
+                    metricsLogInterval, metricsLogInterval);
+        }
+
+        // Serve the metrics to Prometheus
+        if (config.getBoolean("metrics.prometheus.enabled")) {
+            try {
+                prometheusExporter = new PrometheusExporter(
+                        metrics,
+                        storageEngine,
+                        logger,
+                        config.getString("metrics.prometheus.host"),
+                        config.getInt("metrics.prometheus.port"),
+                        config.getLong("metrics.prometheus.totals-max-age") * 1000);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Could not start the Prometheus exporter", e);
+            }
+        }
 
         // Register listeners
         PluginManager pluginManager = this.getServer().getPluginManager();
@@ -64,6 +284,8 @@ public final class Economy extends JavaPlugin implements Listener {
         var economySetCommand = new EconomySetCommand();
         var economyAddCommand = new EconomyAddCommand();
         var economyRemoveCommand = new EconomyRemoveCommand();
+        var economyHistoryCommand = new EconomyHistoryCommand();
+        var economyStatsCommand = new EconomyStatsCommand();
 
         economyCommand.registerSubCommand(economyBalanceCommand);
         economyCommand.registerSubCommand(economyBalanceTopCommand);
@@ -71,36 +293,146 @@ public final class Economy extends JavaPlugin implements Listener {
         economyCommand.registerSubCommand(economySetCommand);
         economyCommand.registerSubCommand(economyAddCommand);
         economyCommand.registerSubCommand(economyRemoveCommand);
+        economyCommand.registerSubCommand(economyHistoryCommand);
+        economyCommand.registerSubCommand(economyStatsCommand);
 
         this.registerCommand(economyCommand);
         this.registerCommand(economyBalanceCommand);
         this.registerCommand(economyBalanceTopCommand);
         this.registerCommand(economyPayCommand);
+
+        // Serve the plugins using the economy of Vault
+        if (vaultEnabled) {
+            this.getServer().getServicesManager().register(
+                    net.milkbowl.vault.economy.Economy.class,
+                    new VaultEconomyProvider(
+                            this,
+                            config.getString("currency.name.singular"),
+                            config.getString("currency.name.plural")),
+                    this,
+                    ServicePriority.Normal);
+        }
     }
 
     @Override
     public void onDisable() {
         // We still need to check for null because the plugin can fail and call
         // onDisable prematurely
-        if (databaseManager != null)
-            databaseManager.close();
+        if (prometheusExporter != null)
+            prometheusExporter.close();
+        if (changeFeedPoller != null)
+            changeFeedPoller.close();
+        if (databaseExecutor != null) {
+            // Let the pending operations finish before closing the database
+            if (!databaseExecutor.shutdown(10, TimeUnit.SECONDS)) {
+                logger.warning("Some database operations did not finish before the shutdown.");
+            }
+            databaseExecutor.close();
+        }
+        // Write the cached balances back before closing the database
+        if (balanceCache != null)
+            balanceCache.close();
+        if (journal != null)
+            journal.close();
+        if (transactionWriter != null)
+            transactionWriter.close();
+        if (historyCompactor != null)
+            historyCompactor.close();
+        if (storageEngine != null)
+            storageEngine.close();
+    }
+
+    @EventHandler
+    public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+
+        // The event is called off the main thread, so the player is loaded before
+        // they join without blocking the server
+        try {
+            PlayerBalance account = storageEngine.ensurePlayer(event.getUniqueId(), event.getName());
+            this.pinMainAccount(event.getUniqueId(), account);
+        } catch (EconomyDatabaseError e) {
+            // The player is loaded again when they join
+            logger.log(Level.WARNING, "Could not load the account of " + event.getName(), e);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPlayerPreLoginResult(AsyncPlayerPreLoginEvent event) {
+        // Another plugin may have refused the player after they were loaded
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED)
+            this.releaseMainAccount(event.getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerLogin(PlayerLoginEvent event) {
+        if (event.getResult() != PlayerLoginEvent.Result.ALLOWED)
+            this.releaseMainAccount(event.getPlayer().getUniqueId());
     }
 
     @EventHandler
-    public void onPlayerJoin(PlayerJoinEvent event) throws Exception {
-        // Create the main account of the player if it does not exist
+    public void onPlayerJoin(PlayerJoinEvent event) {
         org.bukkit.entity.Player player = event.getPlayer();
+        UUID playerUuid = player.getUniqueId();
+        String playerName = player.getName();
 
-        // Check if the player already has a main account
-        if (Economy.plugin.hasMainAccount(player)) {
+        // The player was loaded before joining
+        if (mainAccountCache.get(playerUuid) != null) {
             return;
         }
 
-        // Add the player to the database
-        Economy.databaseManager.addPlayer(player.getUniqueId(), player.getName());
+        this.supplyAsync(() -> {
+            PlayerBalance account = storageEngine.ensurePlayer(playerUuid, playerName);
+            this.pinMainAccount(playerUuid, account);
+            return account;
+        }).exceptionally(e -> {
+            logger.log(Level.SEVERE, "Could not create the main account of " + playerName, e);
+            return null;
+        });
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        UUID playerUuid = event.getPlayer().getUniqueId();
+
+        // Keep the account for a while in case the player comes back right away
+        long gracePeriod = config.getLong("cache.players.grace-period") * 20;
+        this.getServer().getScheduler().runTaskLater(this, () -> {
+            if (this.getServer().getPlayer(playerUuid) == null)
+                this.releaseMainAccount(playerUuid);
+        }, gracePeriod);
+    }
+
+    /**
+     * Keep the main account of a player and its balance in memory.
+     */
+    private void pinMainAccount(@NotNull UUID playerUuid, @NotNull PlayerBalance account) {
+        UnsignedInteger accountId = UnsignedInteger.fromIntBits(account.accountId());
+        mainAccountCache.pin(playerUuid, accountId);
+        if (balanceCache != null)
+            balanceCache.preload(accountId, account.balance());
+    }
+
+    /**
+     * Release the main account of a player who left, along with its balance.
+     */
+    private void releaseMainAccount(@NotNull UUID playerUuid) {
+        UnsignedInteger accountId = mainAccountCache.unpin(playerUuid);
+        if (accountId == null || balanceCache == null || balanceCache.evict(accountId)) {
+            return;
+        }
 
-        // If the player does not have a main account, create one
-        Economy.plugin.createAccount(player, true);
+        // The balance has pending changes or the cache is busy, write them before
+        // evicting it off the main thread
+        this.supplyAsync(() -> {
+            balanceCache.flush();
+            return balanceCache.evict(accountId);
+        }).exceptionally(e -> {
+            logger.log(Level.WARNING, "Could not evict the balance of account " + accountId, e);
+            return false;
+        });
     }
 
     /**
@@ -110,24 +442,200 @@ public final class Economy extends JavaPlugin implements Listener {
         return plugin;
     }
 
+    /**
+     * Get the metrics of the operations of the plugin.
+     * 
+     * @return The metrics of the plugin.
+     */
+    public @NotNull Metrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Initialize the configuration file.
      */
     private void initConfig() {
+        config.addDefault("currency.decimals", 2);
+        config.addDefault("currency.name.singular", "coin");
+        config.addDefault("currency.name.plural", "coins");
+        config.addDefault("storage.engine", "jdbc");
+        config.addDefault("storage.mapped.directory", "plugins/economy/storage");
+        config.addDefault("storage.mapped.checkpoint-interval", 1000L);
+        config.addDefault("storage.mapped.import-from-database", true);
+        config.addDefault("storage.sharded.directory", "plugins/economy/shards");
+        config.addDefault("storage.sharded.shards", 4);
+        config.addDefault("storage.sharded.retry-interval", 30L);
         config.addDefault("database.url", "jdbc:sqlite:plugins/economy/database.db");
         config.addDefault("database.username", "username");
         config.addDefault("database.password", "password");
+        // Empty to generate it, it must differ between the servers sharing the database
+        config.addDefault("database.server-id", "");
+        config.addDefault("database.pool.maximum-pool-size", 10);
+        config.addDefault("database.pool.minimum-idle", 2);
+        config.addDefault("database.pool.connection-timeout", 30000L);
+        config.addDefault("database.pool.idle-timeout", 600000L);
+        config.addDefault("database.pool.max-lifetime", 1800000L);
+        config.addDefault("database.pool.leak-detection-threshold", 0L);
+        config.addDefault("database.executor.threads", 4);
+        config.addDefault("database.executor.virtual-threads", true);
+        config.addDefault("database.change-feed.enabled", false);
+        config.addDefault("database.change-feed.poll-interval", 1000L);
+        config.addDefault("database.change-feed.batch-size", 500);
+        config.addDefault("database.change-feed.retention", 3600L);
+        config.addDefault("database.change-feed.gap-timeout", 60L);
+        config.addDefault("cache.players.grace-period", 60L);
+        config.addDefault("cache.main-accounts.maximum-size", 10000L);
+        config.addDefault("cache.main-accounts.expire-after", 600L);
+        config.addDefault("cache.balances.enabled", false);
+        config.addDefault("cache.balances.flush-interval", 1000L);
+        config.addDefault("cache.balances.flush-threshold", 500);
+        config.addDefault("cache.balances.write-retries", 3);
+        config.addDefault("cache.balances.revalidate-interval", 0L);
+        config.addDefault("cache.balances.journal.enabled", true);
+        config.addDefault("cache.balances.journal.segment-size", 64);
+        config.addDefault("cache.balances.journal.sync-interval", 10L);
+        config.addDefault("history.enabled", true);
+        config.addDefault("history.flush-interval", 1000L);
+        config.addDefault("history.flush-threshold", 500);
+        config.addDefault("history.max-pending", 100000);
+        config.addDefault("history.retention-days", 30);
+        config.addDefault("history.compaction.chunk-size", 500);
+        config.addDefault("history.compaction.chunk-delay", 50L);
+        config.addDefault("history.compaction.interval", 600L);
+        config.addDefault("history.archive.enabled", true);
+        config.addDefault("concurrency.lock-stripes", 256);
+        // Opt-in, the provider turns the balance cache on
+        config.addDefault("vault.enabled", false);
+        config.addDefault("metrics.enabled", true);
+        config.addDefault("metrics.log-interval", 300L);
+        config.addDefault("metrics.prometheus.enabled", false);
+        config.addDefault("metrics.prometheus.host", "127.0.0.1");
+        config.addDefault("metrics.prometheus.port", 9225);
+        config.addDefault("metrics.prometheus.totals-max-age", 60L);
+        config.addDefault("leaderboard.enabled", true);
+        config.addDefault("leaderboard.size", 100);
+        config.addDefault("leaderboard.refresh-interval", 5L);
+        config.addDefault("leaderboard.reconcile-interval", 300L);
+        config.addDefault("leaderboard.maximum-rank", 10000L);
         config.options().copyDefaults(true);
         saveConfig();
     }
 
+    /**
+     * Read the ID telling this server apart from the others sharing the
+     * database, generating it on the first start.
+     * 
+     * @return The ID of the server.
+     */
+    private @NotNull String loadServerId() throws IOException {
+        Path path = this.getDataFolder().toPath().resolve("server-id");
+        if (Files.exists(path))
+            return Files.readString(path).trim();
+
+        String serverId = UUID.randomUUID().toString();
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, serverId);
+        return serverId;
+    }
+
+    /**
+     * Apply the journal records the database has not acknowledged.
+     * 
+     * @param directory the directory of the journal
+     * @return The sequence number of the last record written to the database.
+     */
+    private long recoverJournal(@NotNull Path directory) throws IOException, EconomyDatabaseError {
+        long sequence = storageEngine.getJournalSequence();
+        List<JournalRecord> records = Journal.read(directory, sequence);
+        if (records.isEmpty())
+            return sequence;
+
+        int skipped = storageEngine.replayJournal(records);
+        logger.warning("Replayed " + records.size() + " balance mutations from the journal.");
+        if (skipped > 0)
+            logger.severe(skipped + " balance changes of the journal could not be applied, their accounts were"
+                    + " deleted or their balances would leave their bounds. They were kept aside for review.");
+        return records.get(records.size() - 1).sequence();
+    }
+
     /**
      * Register a command executor.
      * 
      * @param executor the executor to register
      */
     private void registerCommand(@NotNull EconomyCommandExecutor executor) {
-        Economy.getPlugin().getCommand(executor.getCommandName()).setExecutor(executor);
+        PluginCommand command = Economy.getPlugin().getCommand(executor.getCommandName());
+        command.setExecutor(executor::execute);
+        command.setTabCompleter(executor);
+    }
+
+    /**
+     * Run a task on the database executor.
+     * 
+     * @param task the task to run
+     * @return A future completed on the main thread with the result of the task.
+     */
+    private <T> @NotNull CompletableFuture<T> supplyAsync(@NotNull DatabaseTask<T> task) {
+        return databaseExecutor.submit(task, this::runOnMainThread);
+    }
+
+    /**
+     * Run a task on the main thread, or directly if the plugin is being disabled.
+     * 
+     * @param task the task to run
+     */
+    private void runOnMainThread(@NotNull Runnable task) {
+        if (this.isEnabled()) {
+            try {
+                this.getServer().getScheduler().runTask(this, task);
+                return;
+            } catch (IllegalPluginAccessException e) {
+                // The plugin got disabled in the meantime
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * Queue a transaction to be written to the history, if it is enabled.
+     * 
+     * @param fromAccountId the ID of the account the money was taken from, or
+     *                      null
+     * @param toAccountId   the ID of the account the money was given to, or null
+     * @param amount        the amount of the transaction, in minor units
+     * @param kind          the kind of the transaction
+     * @param actor         the UUID of the player who made the transaction, or
+     *                      null
+     */
+    private void recordTransaction(@Nullable Integer fromAccountId, @Nullable Integer toAccountId, long amount,
+            @NotNull TransactionKind kind, @Nullable UUID actor) {
+        if (transactionWriter != null)
+            transactionWriter.record(fromAccountId, toAccountId, amount, kind, actor);
+    }
+
+    /**
+     * Reload the leaderboard from the database if it is stale or too old.
+     */
+    private void reconcileLeaderboard() {
+        long maximumAge = config.getLong("leaderboard.reconcile-interval") * 1000;
+        if (!leaderboard.needsReconciliation(maximumAge) || !leaderboardReconciling.compareAndSet(false, true)) {
+            return;
+        }
+
+        this.supplyAsync(() -> {
+            long modifications = leaderboard.getModifications();
+            // The ranking is computed by the database, so it needs the cached balances
+            if (balanceCache != null)
+                balanceCache.flush();
+            // One more account bounds the balances of the accounts left out
+            leaderboard.reconcile(storageEngine.getTopPlayerBalances(leaderboard.getCapacity() + 1, 0),
+                    modifications);
+            return null;
+        }).whenComplete((result, e) -> {
+            leaderboardReconciling.set(false);
+            if (e != null)
+                logger.log(Level.WARNING, "Could not reload the leaderboard", e);
+        });
     }
 
     /// The following methods are used to interact with the database.
@@ -138,7 +646,7 @@ public final class Economy extends JavaPlugin implements Listener {
      * @return The ID of the new account.
      */
     public @NotNull UnsignedInteger createAccount() throws EconomyDatabaseError {
-        return databaseManager.createAccount();
+        return storageEngine.createAccount();
     }
 
     /**
@@ -154,7 +662,9 @@ public final class Economy extends JavaPlugin implements Listener {
         UnsignedInteger accountId = this.createAccount();
 
         // Add the player to the account
-        databaseManager.createPlayerAccountRelation(playerUuid, accountId, main);
+        storageEngine.createPlayerAccountRelation(playerUuid, accountId, main);
+        if (main)
+            mainAccountCache.put(playerUuid, accountId);
 
         // Return the ID of the new account
         return accountId;
@@ -172,6 +682,22 @@ public final class Economy extends JavaPlugin implements Listener {
         return this.createAccount(player.getUniqueId(), main);
     }
 
+    /**
+     * Register a player in the database, creating their main account if they
+     * don't have one yet.
+     * 
+     * @param playerUuid The UUID of the player.
+     * @param playerName The name of the player.
+     * @return The ID of the main account of the player.
+     */
+    public @NotNull UnsignedInteger ensurePlayer(@NotNull UUID playerUuid, @NotNull String playerName)
+            throws EconomyDatabaseError {
+        PlayerBalance account = storageEngine.ensurePlayer(playerUuid, playerName);
+        UnsignedInteger accountId = UnsignedInteger.fromIntBits(account.accountId());
+        mainAccountCache.put(playerUuid, accountId);
+        return accountId;
+    }
+
     /**
      * Delete an account from the database.
      * 
@@ -179,7 +705,14 @@ public final class Economy extends JavaPlugin implements Listener {
      */
     public void deleteAccount(@NotNull UnsignedInteger accountId)
             throws EconomyAccountNotFoundError, EconomyDatabaseError {
-        databaseManager.deleteAccount(accountId);
+        try (StripedLock.Held held = accountLocks.lock(accountId.intValue())) {
+            storageEngine.deleteAccount(accountId);
+            mainAccountCache.invalidateAccount(accountId);
+            if (balanceCache != null)
+                balanceCache.invalidate(accountId);
+            if (leaderboard != null)
+                leaderboard.remove(accountId.intValue());
+        }
     }
 
     /**
@@ -190,7 +723,7 @@ public final class Economy extends JavaPlugin implements Listener {
      */
     public void addPlayerToAccount(@NotNull UUID playerUuid, @NotNull UnsignedInteger accountId)
             throws EconomyAccountNotFoundError, EconomyDatabaseError {
-        databaseManager.createPlayerAccountRelation(
+        storageEngine.createPlayerAccountRelation(
                 playerUuid,
                 accountId,
                 false);
@@ -215,7 +748,13 @@ public final class Economy extends JavaPlugin implements Listener {
      */
     public void removePlayerFromAccount(@NotNull UUID playerUuid, @NotNull UnsignedInteger accountId)
             throws EconomyAccountNotFoundError, EconomyDatabaseError {
-        databaseManager.deletePlayerAccountRelation(playerUuid, accountId);
+        storageEngine.deletePlayerAccountRelation(playerUuid, accountId);
+        mainAccountCache.invalidate(playerUuid);
+        // The account is deleted with its last player
+        if (balanceCache != null)
+            balanceCache.invalidate(accountId);
+        if (leaderboard != null)
+            leaderboard.remove(accountId.intValue());
     }
 
     /**
@@ -240,8 +779,87 @@ public final class Economy extends JavaPlugin implements Listener {
             @NotNull double amount)
             throws EconomyAccountNotFoundError, EconomyInsufficientBalance, EconomyInvalidAmountError,
             EconomyDatabaseError {
-        databaseManager.removeBalance(accountId1, amount);
-        databaseManager.addBalance(accountId2, amount);
+        this.transferMoneyMinor(accountId1, accountId2, Money.toMinor(amount));
+    }
+
+    /**
+     * Transfer money in minor units from one account to another.
+     * 
+     * @param accountId1 The ID of the account to remove money from.
+     * @param accountId2 The ID of the account to add money to.
+     * @param amount     The amount of money to transfer, in minor units.
+     */
+    public void transferMoneyMinor(@NotNull UnsignedInteger accountId1, @NotNull UnsignedInteger accountId2,
+            long amount)
+            throws EconomyAccountNotFoundError, EconomyInsufficientBalance, EconomyInvalidAmountError,
+            EconomyDatabaseError {
+        this.transferMoneyMinor(accountId1, accountId2, amount, null);
+    }
+
+    /**
+     * Transfer money in minor units from one account to another on behalf of a
+     * player.
+     * 
+     * @param accountId1 The ID of the account to remove money from.
+     * @param accountId2 The ID of the account to add money to.
+     * @param amount     The amount of money to transfer, in minor units.
+     * @param actor      The UUID of the player making the transfer, recorded in
+     *                   the history, or null.
+     */
+    private void transferMoneyMinor(@NotNull UnsignedInteger accountId1, @NotNull UnsignedInteger accountId2,
+            long amount, @Nullable UUID actor)
+            throws EconomyAccountNotFoundError, EconomyInsufficientBalance, EconomyInvalidAmountError,
+            EconomyDatabaseError {
+        try (StripedLock.Held held = accountLocks.lock(accountId1.intValue(), accountId2.intValue())) {
+            if (balanceCache != null)
+                balanceCache.transferBalance(accountId1, accountId2, amount);
+            else
+                storageEngine.transferBalanceMinor(accountId1, accountId2, amount);
+
+            if (leaderboard != null) {
+                leaderboard.adjust(accountId1.intValue(), -amount);
+                leaderboard.adjust(accountId2.intValue(), amount);
+            }
+
+            this.recordTransaction(accountId1.intValue(), accountId2.intValue(), amount, TransactionKind.TRANSFER,
+                    actor);
+        }
+    }
+
+    /**
+     * Apply several transfers at once.
+     * <p>
+     * The transfers are applied as a whole: only the net change of each account
+     * has to be covered by its balance, and if one transfer fails none of them is
+     * applied.
+     * 
+     * @param transfers The transfers to apply.
+     */
+    public void transferMany(@NotNull List<Transfer> transfers)
+            throws EconomyAccountNotFoundError, EconomyInsufficientBalance, EconomyInvalidAmountError,
+            EconomyDatabaseError {
+        int[] accountIds = new int[transfers.size() * 2];
+        for (int i = 0; i < transfers.size(); i++) {
+            accountIds[2 * i] = transfers.get(i).from().intValue();
+            accountIds[2 * i + 1] = transfers.get(i).to().intValue();
+        }
+
+        try (StripedLock.Held held = accountLocks.lock(accountIds)) {
+            if (balanceCache != null)
+                balanceCache.transferBalances(transfers);
+            else
+                storageEngine.transferBalances(transfers);
+
+            for (Transfer transfer : transfers) {
+                long amount = Money.toMinor(transfer.amount());
+                if (leaderboard != null) {
+                    leaderboard.adjust(transfer.from().intValue(), -amount);
+                    leaderboard.adjust(transfer.to().intValue(), amount);
+                }
+                this.recordTransaction(transfer.from().intValue(), transfer.to().intValue(), amount,
+                        TransactionKind.TRANSFER, null);
+            }
+        }
     }
 
     /**
@@ -254,10 +872,42 @@ public final class Economy extends JavaPlugin implements Listener {
     public void transferMoney(@NotNull UUID playerUuid1, @NotNull UUID playerUuid2, @NotNull double amount)
             throws EconomyAccountNotFoundError, EconomyInsufficientBalance, EconomyInvalidAmountError,
             EconomyDatabaseError {
+        this.transferMoney(playerUuid1, playerUuid2, amount, null);
+    }
+
+    /**
+     * Transfer money from one player to another on behalf of a player.
+     * 
+     * @param playerUuid1 The UUID of the player to remove money from.
+     * @param playerUuid2 The UUID of the player to add money to.
+     * @param amount      The amount of money to transfer.
+     * @param actor       The UUID of the player making the transfer, recorded in
+     *                    the history, or null.
+     */
+    public void transferMoney(@NotNull UUID playerUuid1, @NotNull UUID playerUuid2, @NotNull double amount,
+            @Nullable UUID actor)
+            throws EconomyAccountNotFoundError, EconomyInsufficientBalance, EconomyInvalidAmountError,
+            EconomyDatabaseError {
+        UnsignedInteger accountId1 = this.getMainAccount(playerUuid1);
+        UnsignedInteger accountId2 = this.getMainAccount(playerUuid2);
+
+        this.transferMoneyMinor(accountId1, accountId2, Money.toMinor(amount), actor);
+    }
+
+    /**
+     * Transfer money in minor units from one player to another.
+     * 
+     * @param playerUuid1 The UUID of the player to remove money from.
+     * @param playerUuid2 The UUID of the player to add money to.
+     * @param amount      The amount of money to transfer, in minor units.
+     */
+    public void transferMoneyMinor(@NotNull UUID playerUuid1, @NotNull UUID playerUuid2, long amount)
+            throws EconomyAccountNotFoundError, EconomyInsufficientBalance, EconomyInvalidAmountError,
+            EconomyDatabaseError {
         UnsignedInteger accountId1 = this.getMainAccount(playerUuid1);
         UnsignedInteger accountId2 = this.getMainAccount(playerUuid2);
 
-        this.transferMoney(accountId1, accountId2, amount);
+        this.transferMoneyMinor(accountId1, accountId2, amount);
     }
 
     /**
@@ -281,7 +931,20 @@ public final class Economy extends JavaPlugin implements Listener {
      */
     public @NotNull double getBalance(@NotNull UnsignedInteger accountId)
             throws EconomyAccountNotFoundError, EconomyDatabaseError {
-        return databaseManager.getBalance(accountId);
+        return Money.toMajor(this.getBalanceMinor(accountId));
+    }
+
+    /**
+     * Get the balance of an account in minor units.
+     * 
+     * @param accountId The ID of the account
+     * @return The balance of the account, in minor units.
+     */
+    public long getBalanceMinor(@NotNull UnsignedInteger accountId)
+            throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        if (balanceCache != null)
+            return balanceCache.getBalance(accountId);
+        return storageEngine.getBalanceMinor(accountId);
     }
 
     /**
@@ -296,6 +959,18 @@ public final class Economy extends JavaPlugin implements Listener {
         return this.getBalance(accountId);
     }
 
+    /**
+     * Get the balance of a player in minor units.
+     * 
+     * @param playerUuid The UUID of the player to get the balance of.
+     * @return The balance of the player, in minor units.
+     */
+    public long getBalanceMinor(@NotNull UUID playerUuid)
+            throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        UnsignedInteger accountId = this.getMainAccount(playerUuid);
+        return this.getBalanceMinor(accountId);
+    }
+
     /**
      * Get the balance of a player.
      * 
@@ -315,7 +990,41 @@ public final class Economy extends JavaPlugin implements Listener {
      */
     public void setBalance(@NotNull UnsignedInteger accountId, @NotNull double amount)
             throws EconomyInvalidAmountError, EconomyAccountNotFoundError, EconomyDatabaseError {
-        databaseManager.setBalance(accountId, amount);
+        this.setBalanceMinor(accountId, Money.toMinor(amount));
+    }
+
+    /**
+     * Set the balance of an account in minor units.
+     * 
+     * @param accountId The ID of the account.
+     * @param amount    The new balance of the account, in minor units.
+     */
+    public void setBalanceMinor(@NotNull UnsignedInteger accountId, long amount)
+            throws EconomyInvalidAmountError, EconomyAccountNotFoundError, EconomyDatabaseError {
+        this.setBalanceMinor(accountId, amount, null);
+    }
+
+    /**
+     * Set the balance of an account in minor units on behalf of a player.
+     * 
+     * @param accountId The ID of the account.
+     * @param amount    The new balance of the account, in minor units.
+     * @param actor     The UUID of the player making the change, recorded in the
+     *                  history, or null.
+     */
+    private void setBalanceMinor(@NotNull UnsignedInteger accountId, long amount, @Nullable UUID actor)
+            throws EconomyInvalidAmountError, EconomyAccountNotFoundError, EconomyDatabaseError {
+        try (StripedLock.Held held = accountLocks.lock(accountId.intValue())) {
+            if (balanceCache != null)
+                balanceCache.setBalance(accountId, amount);
+            else
+                storageEngine.setBalanceMinor(accountId, amount);
+
+            if (leaderboard != null)
+                leaderboard.update(accountId.intValue(), amount);
+
+            this.recordTransaction(null, accountId.intValue(), amount, TransactionKind.SET, actor);
+        }
     }
 
     /**
@@ -326,8 +1035,33 @@ public final class Economy extends JavaPlugin implements Listener {
      */
     public void setBalance(@NotNull UUID playerUuid, @NotNull double amount)
             throws EconomyInvalidAmountError, EconomyAccountNotFoundError, EconomyDatabaseError {
+        this.setBalance(playerUuid, amount, null);
+    }
+
+    /**
+     * Set the balance of a player on behalf of another player.
+     * 
+     * @param playerUuid The UUID of the player to set the balance of.
+     * @param amount     The new balance of the player.
+     * @param actor      The UUID of the player making the change, recorded in the
+     *                   history, or null.
+     */
+    public void setBalance(@NotNull UUID playerUuid, @NotNull double amount, @Nullable UUID actor)
+            throws EconomyInvalidAmountError, EconomyAccountNotFoundError, EconomyDatabaseError {
+        UnsignedInteger accountId = this.getMainAccount(playerUuid);
+        this.setBalanceMinor(accountId, Money.toMinor(amount), actor);
+    }
+
+    /**
+     * Set the balance of a player in minor units.
+     * 
+     * @param playerUuid The UUID of the player to set the balance of.
+     * @param amount     The new balance of the player, in minor units.
+     */
+    public void setBalanceMinor(@NotNull UUID playerUuid, long amount)
+            throws EconomyInvalidAmountError, EconomyAccountNotFoundError, EconomyDatabaseError {
         UnsignedInteger accountId = this.getMainAccount(playerUuid);
-        this.setBalance(accountId, amount);
+        this.setBalanceMinor(accountId, amount);
     }
 
     /**
@@ -349,7 +1083,41 @@ public final class Economy extends JavaPlugin implements Listener {
      */
     public void addBalance(@NotNull UnsignedInteger accountId, @NotNull double amount)
             throws EconomyInvalidAmountError, EconomyAccountNotFoundError, EconomyDatabaseError {
-        databaseManager.addBalance(accountId, amount);
+        this.addBalanceMinor(accountId, Money.toMinor(amount));
+    }
+
+    /**
+     * Add money to an account in minor units.
+     * 
+     * @param accountId The ID of the account.
+     * @param amount    The amount of money to add, in minor units.
+     */
+    public void addBalanceMinor(@NotNull UnsignedInteger accountId, long amount)
+            throws EconomyInvalidAmountError, EconomyAccountNotFoundError, EconomyDatabaseError {
+        this.addBalanceMinor(accountId, amount, null);
+    }
+
+    /**
+     * Add money to an account in minor units on behalf of a player.
+     * 
+     * @param accountId The ID of the account.
+     * @param amount    The amount of money to add, in minor units.
+     * @param actor     The UUID of the player making the change, recorded in the
+     *                  history, or null.
+     */
+    private void addBalanceMinor(@NotNull UnsignedInteger accountId, long amount, @Nullable UUID actor)
+            throws EconomyInvalidAmountError, EconomyAccountNotFoundError, EconomyDatabaseError {
+        try (StripedLock.Held held = accountLocks.lock(accountId.intValue())) {
+            if (balanceCache != null)
+                balanceCache.addBalance(accountId, amount);
+            else
+                storageEngine.addBalanceMinor(accountId, amount);
+
+            if (leaderboard != null)
+                leaderboard.adjust(accountId.intValue(), amount);
+
+            this.recordTransaction(null, accountId.intValue(), amount, TransactionKind.ADD, actor);
+        }
     }
 
     /**
@@ -360,8 +1128,33 @@ public final class Economy extends JavaPlugin implements Listener {
      */
     public void addBalance(@NotNull UUID playerUuid, @NotNull double amount)
             throws EconomyInvalidAmountError, EconomyAccountNotFoundError, EconomyDatabaseError {
+        this.addBalance(playerUuid, amount, null);
+    }
+
+    /**
+     * Add money to a player on behalf of another player.
+     * 
+     * @param playerUuid The UUID of the player to add money to.
+     * @param amount     The amount of money to add.
+     * @param actor      The UUID of the player making the change, recorded in the
+     *                   history, or null.
+     */
+    public void addBalance(@NotNull UUID playerUuid, @NotNull double amount, @Nullable UUID actor)
+            throws EconomyInvalidAmountError, EconomyAccountNotFoundError, EconomyDatabaseError {
+        UnsignedInteger accountId = this.getMainAccount(playerUuid);
+        this.addBalanceMinor(accountId, Money.toMinor(amount), actor);
+    }
+
+    /**
+     * Add money to a player in minor units.
+     * 
+     * @param playerUuid The UUID of the player to add money to.
+     * @param amount     The amount of money to add, in minor units.
+     */
+    public void addBalanceMinor(@NotNull UUID playerUuid, long amount)
+            throws EconomyInvalidAmountError, EconomyAccountNotFoundError, EconomyDatabaseError {
         UnsignedInteger accountId = this.getMainAccount(playerUuid);
-        this.addBalance(accountId, amount);
+        this.addBalanceMinor(accountId, amount);
     }
 
     /**
@@ -383,19 +1176,78 @@ public final class Economy extends JavaPlugin implements Listener {
      */
     public void removeBalance(@NotNull UnsignedInteger accountId, @NotNull double amount)
             throws EconomyInsufficientBalance, EconomyInvalidAmountError, EconomyDatabaseError {
-        databaseManager.removeBalance(accountId, amount);
+        this.removeBalanceMinor(accountId, Money.toMinor(amount));
     }
 
     /**
-     * Remove money from a player.
+     * Remove money from an account in minor units.
      * 
-     * @param playerUuid The UUID of the player to remove money from.
-     * @param amount     The amount of money to remove.
+     * @param accountId The ID of the account.
+     * @param amount    The amount of money to remove, in minor units.
+     */
+    public void removeBalanceMinor(@NotNull UnsignedInteger accountId, long amount)
+            throws EconomyInsufficientBalance, EconomyInvalidAmountError, EconomyDatabaseError {
+        this.removeBalanceMinor(accountId, amount, null);
+    }
+
+    /**
+     * Remove money from an account in minor units on behalf of a player.
+     * 
+     * @param accountId The ID of the account.
+     * @param amount    The amount of money to remove, in minor units.
+     * @param actor     The UUID of the player making the change, recorded in the
+     *                  history, or null.
+     */
+    private void removeBalanceMinor(@NotNull UnsignedInteger accountId, long amount, @Nullable UUID actor)
+            throws EconomyInsufficientBalance, EconomyInvalidAmountError, EconomyDatabaseError {
+        try (StripedLock.Held held = accountLocks.lock(accountId.intValue())) {
+            if (balanceCache != null)
+                balanceCache.removeBalance(accountId, amount);
+            else
+                storageEngine.removeBalanceMinor(accountId, amount);
+
+            if (leaderboard != null)
+                leaderboard.adjust(accountId.intValue(), -amount);
+
+            this.recordTransaction(accountId.intValue(), null, amount, TransactionKind.REMOVE, actor);
+        }
+    }
+
+    /**
+     * Remove money from a player.
+     * 
+     * @param playerUuid The UUID of the player to remove money from.
+     * @param amount     The amount of money to remove.
      */
     public void removeBalance(@NotNull UUID playerUuid, @NotNull double amount)
             throws EconomyInsufficientBalance, EconomyInvalidAmountError, EconomyDatabaseError {
+        this.removeBalance(playerUuid, amount, null);
+    }
+
+    /**
+     * Remove money from a player on behalf of another player.
+     * 
+     * @param playerUuid The UUID of the player to remove money from.
+     * @param amount     The amount of money to remove.
+     * @param actor      The UUID of the player making the change, recorded in the
+     *                   history, or null.
+     */
+    public void removeBalance(@NotNull UUID playerUuid, @NotNull double amount, @Nullable UUID actor)
+            throws EconomyInsufficientBalance, EconomyInvalidAmountError, EconomyDatabaseError {
+        UnsignedInteger accountId = this.getMainAccount(playerUuid);
+        this.removeBalanceMinor(accountId, Money.toMinor(amount), actor);
+    }
+
+    /**
+     * Remove money from a player in minor units.
+     * 
+     * @param playerUuid The UUID of the player to remove money from.
+     * @param amount     The amount of money to remove, in minor units.
+     */
+    public void removeBalanceMinor(@NotNull UUID playerUuid, long amount)
+            throws EconomyInsufficientBalance, EconomyInvalidAmountError, EconomyDatabaseError {
         UnsignedInteger accountId = this.getMainAccount(playerUuid);
-        this.removeBalance(accountId, amount);
+        this.removeBalanceMinor(accountId, amount);
     }
 
     /**
@@ -409,6 +1261,233 @@ public final class Economy extends JavaPlugin implements Listener {
         this.removeBalance(player.getUniqueId(), amount);
     }
 
+    /**
+     * Update the balance of an account atomically.
+     * <p>
+     * The account is locked while the new balance is computed from the current
+     * one and applied, so no other mutation of the account can happen in between.
+     * The operator must not use other accounts, whose locks could be held by
+     * another thread waiting for this one.
+     * 
+     * @param accountId The ID of the account.
+     * @param operator  The function computing the new balance from the current
+     *                  one.
+     * @return The new balance of the account.
+     */
+    public double updateBalance(@NotNull UnsignedInteger accountId, @NotNull DoubleUnaryOperator operator)
+            throws EconomyAccountNotFoundError, EconomyInsufficientBalance, EconomyInvalidAmountError,
+            EconomyDatabaseError {
+        try (StripedLock.Held held = accountLocks.lock(accountId.intValue())) {
+            long balance = this.getBalanceMinor(accountId);
+            long newBalance = Money.toMinor(operator.applyAsDouble(Money.toMajor(balance)));
+
+            // Applied as a change rather than a new balance, so the history keeps
+            // the amount
+            if (newBalance > balance)
+                this.addBalanceMinor(accountId, newBalance - balance, null);
+            else if (newBalance < balance)
+                this.removeBalanceMinor(accountId, balance - newBalance, null);
+
+            return Money.toMajor(newBalance);
+        }
+    }
+
+    /**
+     * Update the balance of a player atomically.
+     * 
+     * @param playerUuid The UUID of the player.
+     * @param operator   The function computing the new balance from the current
+     *                   one.
+     * @return The new balance of the player.
+     * @see #updateBalance(UnsignedInteger, DoubleUnaryOperator)
+     */
+    public double updateBalance(@NotNull UUID playerUuid, @NotNull DoubleUnaryOperator operator)
+            throws EconomyAccountNotFoundError, EconomyInsufficientBalance, EconomyInvalidAmountError,
+            EconomyDatabaseError {
+        UnsignedInteger accountId = this.getMainAccount(playerUuid);
+        return this.updateBalance(accountId, operator);
+    }
+
+    /**
+     * Set the balance of several players at once.
+     * <p>
+     * The main accounts of the players are resolved with a single query and the
+     * balances are updated in a single transaction. An entry that can't be applied
+     * doesn't prevent the others from being applied. Players sharing an account
+     * must be given the same balance.
+     * 
+     * @param balances The new balances, by player UUID.
+     * @return The result of each entry, in the iteration order of the balances.
+     */
+    public @NotNull Map<UUID, BalanceUpdateResult> setBalances(@NotNull Map<UUID, Double> balances)
+            throws EconomyDatabaseError {
+        return this.updateBalances(BulkOperation.SET, balances);
+    }
+
+    /**
+     * Add money to several players at once.
+     * <p>
+     * The main accounts of the players are resolved with a single query and the
+     * balances are updated in a single transaction. An entry that can't be applied
+     * doesn't prevent the others from being applied.
+     * 
+     * @param amounts The amounts of money to add, by player UUID.
+     * @return The result of each entry, in the iteration order of the amounts.
+     */
+    public @NotNull Map<UUID, BalanceUpdateResult> addBalances(@NotNull Map<UUID, Double> amounts)
+            throws EconomyDatabaseError {
+        return this.updateBalances(BulkOperation.ADD, amounts);
+    }
+
+    /**
+     * Remove money from several players at once.
+     * <p>
+     * The main accounts of the players are resolved with a single query and the
+     * balances are updated in a single transaction. The players without enough
+     * balance are skipped, the others are updated.
+     * 
+     * @param amounts The amounts of money to remove, by player UUID.
+     * @return The result of each entry, in the iteration order of the amounts.
+     */
+    public @NotNull Map<UUID, BalanceUpdateResult> removeBalances(@NotNull Map<UUID, Double> amounts)
+            throws EconomyDatabaseError {
+        return this.updateBalances(BulkOperation.REMOVE, amounts);
+    }
+
+    /**
+     * Apply a bulk operation to the main accounts of several players.
+     * 
+     * @param operation The operation to apply.
+     * @param amounts   The amounts of the operation, by player UUID.
+     * @return The result of each entry, in the iteration order of the amounts.
+     */
+    private @NotNull Map<UUID, BalanceUpdateResult> updateBalances(@NotNull BulkOperation operation,
+            @NotNull Map<UUID, Double> amounts) throws EconomyDatabaseError {
+        Map<UUID, BalanceUpdateResult> results = new LinkedHashMap<>();
+        Map<UUID, Long> minorAmounts = new LinkedHashMap<>();
+        for (Map.Entry<UUID, Double> entry : amounts.entrySet()) {
+            // Keeps the position of the entry, the result is set below
+            results.put(entry.getKey(), BalanceUpdateResult.SUCCESS);
+            try {
+                long amount = Money.toMinor(entry.getValue());
+                if (amount < 0)
+                    results.put(entry.getKey(), BalanceUpdateResult.INVALID_AMOUNT);
+                else
+                    minorAmounts.put(entry.getKey(), amount);
+            } catch (EconomyInvalidAmountError e) {
+                results.put(entry.getKey(), BalanceUpdateResult.INVALID_AMOUNT);
+            }
+        }
+
+        // Resolve the main accounts, the ones missing from the cache with a single query
+        Map<UUID, Integer> accountIds = new HashMap<>();
+        List<UUID> missingPlayers = new ArrayList<>();
+        for (UUID playerUuid : minorAmounts.keySet()) {
+            UnsignedInteger accountId = mainAccountCache.get(playerUuid);
+            if (accountId != null)
+                accountIds.put(playerUuid, accountId.intValue());
+            else
+                missingPlayers.add(playerUuid);
+        }
+        if (!missingPlayers.isEmpty()) {
+            Map<UUID, Integer> loadedAccountIds = storageEngine.getMainAccounts(missingPlayers);
+            for (Map.Entry<UUID, Integer> entry : loadedAccountIds.entrySet()) {
+                mainAccountCache.put(entry.getKey(), UnsignedInteger.fromIntBits(entry.getValue()));
+            }
+            accountIds.putAll(loadedAccountIds);
+        }
+
+        // Several players may share an account, their amounts are combined. The
+        // accounts that can't be combined are rejected for all their players.
+        Map<Integer, Long> accountAmounts = new HashMap<>();
+        Map<Integer, List<UUID>> accountPlayers = new HashMap<>();
+        Map<Integer, BalanceUpdateResult> rejectedAccounts = new HashMap<>();
+        for (Map.Entry<UUID, Long> entry : minorAmounts.entrySet()) {
+            Integer accountId = accountIds.get(entry.getKey());
+            if (accountId == null) {
+                results.put(entry.getKey(), BalanceUpdateResult.ACCOUNT_NOT_FOUND);
+                continue;
+            }
+
+            accountPlayers.computeIfAbsent(accountId, id -> new ArrayList<>()).add(entry.getKey());
+            Long combined = accountAmounts.get(accountId);
+            if (combined == null) {
+                accountAmounts.put(accountId, entry.getValue());
+            } else if (operation == BulkOperation.SET) {
+                if (!combined.equals(entry.getValue()))
+                    rejectedAccounts.put(accountId, BalanceUpdateResult.CONFLICTING_AMOUNTS);
+            } else {
+                try {
+                    accountAmounts.put(accountId, Math.addExact(combined, entry.getValue()));
+                } catch (ArithmeticException e) {
+                    rejectedAccounts.putIfAbsent(accountId, BalanceUpdateResult.INVALID_AMOUNT);
+                }
+            }
+        }
+        accountAmounts.keySet().removeAll(rejectedAccounts.keySet());
+
+        int[] lockedAccountIds = accountAmounts.keySet().stream().mapToInt(Integer::intValue).toArray();
+        try (StripedLock.Held held = accountLocks.lock(lockedAccountIds)) {
+            Map<Integer, BalanceUpdateResult> accountResults = new HashMap<>(rejectedAccounts);
+            if (balanceCache != null) {
+                for (Map.Entry<Integer, Long> entry : accountAmounts.entrySet()) {
+                    UnsignedInteger accountId = UnsignedInteger.fromIntBits(entry.getKey());
+                    BalanceUpdateResult result = BalanceUpdateResult.SUCCESS;
+                    try {
+                        switch (operation) {
+                            case SET -> balanceCache.setBalance(accountId, entry.getValue());
+                            case ADD -> balanceCache.addBalance(accountId, entry.getValue());
+                            case REMOVE -> balanceCache.removeBalance(accountId, entry.getValue());
+                        }
+                    } catch (EconomyAccountNotFoundError e) {
+                        result = BalanceUpdateResult.ACCOUNT_NOT_FOUND;
+                    } catch (EconomyInsufficientBalance e) {
+                        result = BalanceUpdateResult.INSUFFICIENT_BALANCE;
+                    } catch (EconomyInvalidAmountError e) {
+                        result = BalanceUpdateResult.INVALID_AMOUNT;
+                    }
+                    accountResults.put(entry.getKey(), result);
+                }
+            } else {
+                Map<Integer, BalanceUpdateResult> failedAccounts = switch (operation) {
+                    case SET -> storageEngine.setBalancesMinor(accountAmounts);
+                    case ADD -> storageEngine.addBalancesMinor(accountAmounts);
+                    case REMOVE -> storageEngine.removeBalancesMinor(accountAmounts);
+                };
+                for (Integer accountId : accountAmounts.keySet()) {
+                    accountResults.put(accountId,
+                            failedAccounts.getOrDefault(accountId, BalanceUpdateResult.SUCCESS));
+                }
+            }
+
+            for (Map.Entry<Integer, List<UUID>> entry : accountPlayers.entrySet()) {
+                BalanceUpdateResult result = accountResults.get(entry.getKey());
+                for (UUID playerUuid : entry.getValue()) {
+                    results.put(playerUuid, result);
+                }
+
+                if (result != BalanceUpdateResult.SUCCESS)
+                    continue;
+
+                long amount = accountAmounts.get(entry.getKey());
+                if (leaderboard != null) {
+                    switch (operation) {
+                        case SET -> leaderboard.update(entry.getKey(), amount);
+                        case ADD -> leaderboard.adjust(entry.getKey(), amount);
+                        case REMOVE -> leaderboard.adjust(entry.getKey(), -amount);
+                    }
+                }
+                switch (operation) {
+                    case SET -> this.recordTransaction(null, entry.getKey(), amount, TransactionKind.SET, null);
+                    case ADD -> this.recordTransaction(null, entry.getKey(), amount, TransactionKind.ADD, null);
+                    case REMOVE -> this.recordTransaction(entry.getKey(), null, amount, TransactionKind.REMOVE, null);
+                }
+            }
+        }
+
+        return results;
+    }
+
     /**
      * Get every player that is in an account.
      * 
@@ -416,7 +1495,7 @@ public final class Economy extends JavaPlugin implements Listener {
      * @return A list of UUIDs of the players in the account.
      */
     public @NotNull List<UUID> getPlayers(@NotNull UnsignedInteger accountId) throws EconomyDatabaseError {
-        return databaseManager.getPlayers(accountId);
+        return storageEngine.getPlayers(accountId);
     }
 
     /**
@@ -426,7 +1505,7 @@ public final class Economy extends JavaPlugin implements Listener {
      * @return A list of account IDs of the player.
      */
     public @NotNull List<Integer> getAccounts(@NotNull UUID playerUuid) throws EconomyDatabaseError {
-        return databaseManager.getAccounts(playerUuid);
+        return storageEngine.getAccounts(playerUuid);
     }
 
     /**
@@ -448,7 +1527,158 @@ public final class Economy extends JavaPlugin implements Listener {
      */
     public @NotNull List<ImmutablePair<String, Double>> getTopPlayerAccounts(@NotNull int limit, @NotNull int offset)
             throws EconomyDatabaseError {
-        return databaseManager.getTopPlayerAccounts(limit, offset);
+        List<PlayerBalance> balances = this.getTopPlayerBalances(limit, offset);
+
+        List<ImmutablePair<String, Double>> accounts = new ArrayList<>(balances.size());
+        for (PlayerBalance balance : balances) {
+            accounts.add(ImmutablePair.of(balance.playerName(), Money.toMajor(balance.balance())));
+        }
+
+        return accounts;
+    }
+
+    /**
+     * Get the top player accounts with their balance in minor units.
+     * <p>
+     * The pages past the leaderboard are read from the database, which holds
+     * the balances as of the last flush of the balance cache: the changes of
+     * the last flush interval may not be ranked yet.
+     * 
+     * @param limit  the maximum number of accounts to return
+     * @param offset the number of accounts to skip
+     * @return The main accounts of the players, by decreasing balance.
+     */
+    public @NotNull List<PlayerBalance> getTopPlayerBalances(int limit, int offset) throws EconomyDatabaseError {
+        // Serve the page from memory when the leaderboard holds it
+        if (leaderboard != null) {
+            List<PlayerBalance> top = leaderboard.getTop(limit, offset);
+            if (top != null)
+                return top;
+        }
+
+        return storageEngine.getTopPlayerBalances(limit, offset);
+    }
+
+    /**
+     * Get the top player accounts following a position of the ranking.
+     * <p>
+     * Reading the ranking page by page with the cursor of the last account of
+     * the previous page costs the same whatever the depth of the page. The pages
+     * read from the database lag like {@link #getTopPlayerBalances(int, int)}.
+     * 
+     * @param limit the maximum number of accounts to return
+     * @param after the position after which the accounts are read, or
+     *              {@link LeaderboardCursor#START} for the first page
+     * @return The main accounts of the players, by decreasing balance.
+     */
+    public @NotNull List<PlayerBalance> getTopPlayerBalances(int limit, @NotNull LeaderboardCursor after)
+            throws EconomyDatabaseError {
+        // Serve the page from memory when the leaderboard holds it
+        if (leaderboard != null) {
+            List<PlayerBalance> top = leaderboard.getTop(limit, after);
+            if (top != null)
+                return top;
+        }
+
+        return storageEngine.getTopPlayerBalances(limit, after);
+    }
+
+    /**
+     * Get the rank of an account in the ranking of the main accounts.
+     * <p>
+     * Past the leaderboard, the current balance of the account is ranked among
+     * the others as read from the database, which lag like
+     * {@link #getTopPlayerBalances(int, int)}.
+     * 
+     * @param accountId The ID of the account.
+     * @return The rank of the account starting at 1, or 0 if it is ranked after
+     *         the maximum rank that is counted.
+     */
+    public long getRank(@NotNull UnsignedInteger accountId)
+            throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        if (leaderboard != null) {
+            long rank = leaderboard.getRank(accountId.intValue());
+            if (rank > 0)
+                return rank;
+        }
+
+        long balance = this.getBalanceMinor(accountId);
+        return storageEngine.getRank(accountId, balance, this.getMaximumRank());
+    }
+
+    /**
+     * Get the highest rank that is counted, the accounts ranked after it have no
+     * rank.
+     * 
+     * @return The maximum rank.
+     */
+    public long getMaximumRank() {
+        return config.getLong("leaderboard.maximum-rank");
+    }
+
+    /**
+     * Get the rank of a player in the ranking of the main accounts.
+     * 
+     * @param playerUuid The UUID of the player.
+     * @return The rank of the main account of the player starting at 1, or 0 if
+     *         it is ranked after the maximum rank that is counted.
+     */
+    public long getRank(@NotNull UUID playerUuid) throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        UnsignedInteger accountId = this.getMainAccount(playerUuid);
+        return this.getRank(accountId);
+    }
+
+    /**
+     * Get a page of the transaction history of an account.
+     * <p>
+     * The history is written in the background, so the transactions of the last
+     * flush interval may be missing from it.
+     * 
+     * @param accountId The ID of the account.
+     * @param limit     The maximum number of transactions to return.
+     * @param after     The cursor the page starts after, {@link TransactionCursor#START}
+     *                  for the most recent transactions.
+     * @return The transactions of the account, from the most recent to the oldest.
+     */
+    public @NotNull List<TransactionRecord> getTransactions(@NotNull UnsignedInteger accountId, int limit,
+            @NotNull TransactionCursor after) throws EconomyDatabaseError {
+        // The history is read from the database, the queued transactions are only
+        // written sooner and show up in the next reads
+        if (transactionWriter != null && transactionWriter.getQueueSize() > 0)
+            transactionWriter.requestFlush();
+        return storageEngine.getTransactions(accountId, limit, after);
+    }
+
+    /**
+     * Get the daily summaries of the transactions of an account older than the
+     * history retention, which replace them once compacted.
+     * 
+     * @param accountId The ID of the account.
+     * @param limit     The maximum number of summaries to return.
+     * @param beforeDay The day before which the summaries are read, in days since
+     *                  the epoch (UTC).
+     * @return The summaries of the account, from the most recent day to the
+     *         oldest.
+     */
+    public @NotNull List<TransactionSummary> getTransactionSummaries(@NotNull UnsignedInteger accountId, int limit,
+            long beforeDay) throws EconomyDatabaseError {
+        return storageEngine.getTransactionSummaries(accountId, limit, beforeDay);
+    }
+
+    /**
+     * Get a page of the transaction history of a player.
+     * 
+     * @param playerUuid The UUID of the player.
+     * @param limit      The maximum number of transactions to return.
+     * @param after      The cursor the page starts after, {@link TransactionCursor#START}
+     *                   for the most recent transactions.
+     * @return The transactions of the main account of the player, from the most
+     *         recent to the oldest.
+     */
+    public @NotNull List<TransactionRecord> getTransactions(@NotNull UUID playerUuid, int limit,
+            @NotNull TransactionCursor after) throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        UnsignedInteger accountId = this.getMainAccount(playerUuid);
+        return this.getTransactions(accountId, limit, after);
     }
 
     /**
@@ -459,7 +1689,13 @@ public final class Economy extends JavaPlugin implements Listener {
      */
     public @NotNull UnsignedInteger getMainAccount(@NotNull UUID playerUuid)
             throws EconomyAccountNotFoundError, EconomyDatabaseError {
-        return databaseManager.getMainAccount(playerUuid);
+        UnsignedInteger accountId = mainAccountCache.get(playerUuid);
+        if (accountId != null)
+            return accountId;
+
+        accountId = storageEngine.getMainAccount(playerUuid);
+        mainAccountCache.put(playerUuid, accountId);
+        return accountId;
     }
 
     /**
@@ -498,4 +1734,629 @@ public final class Economy extends JavaPlugin implements Listener {
         return this.hasMainAccount(player.getUniqueId());
     }
 
+    /// The following methods are the asynchronous counterparts of the methods
+    /// above. They run on the database executor and complete their future on the
+    /// main thread.
+
+    /**
+     * Create a new account in the database asynchronously.
+     * 
+     * @return A future completed with the ID of the new account.
+     */
+    public @NotNull CompletableFuture<UnsignedInteger> createAccountAsync() {
+        return this.supplyAsync(() -> this.createAccount());
+    }
+
+    /**
+     * Create a new account in the database asynchronously.
+     * 
+     * @param playerUuid The UUID of the player to create the account for.
+     * @param main       Whether the account is the main account of the player.
+     * @return A future completed with the ID of the new account.
+     */
+    public @NotNull CompletableFuture<UnsignedInteger> createAccountAsync(@NotNull UUID playerUuid,
+            @NotNull boolean main) {
+        return this.supplyAsync(() -> this.createAccount(playerUuid, main));
+    }
+
+    /**
+     * Create a new account in the database asynchronously.
+     * 
+     * @param player The player to create the account for.
+     * @param main   Whether the account is the main account of the player.
+     * @return A future completed with the ID of the new account.
+     */
+    public @NotNull CompletableFuture<UnsignedInteger> createAccountAsync(@NotNull Player player,
+            @NotNull boolean main) {
+        return this.createAccountAsync(player.getUniqueId(), main);
+    }
+
+    /**
+     * Delete an account from the database asynchronously.
+     * 
+     * @param accountId The ID of the account to delete.
+     * @return A future completed once the account is deleted.
+     */
+    public @NotNull CompletableFuture<Void> deleteAccountAsync(@NotNull UnsignedInteger accountId) {
+        return this.supplyAsync(() -> {
+            this.deleteAccount(accountId);
+            return null;
+        });
+    }
+
+    /**
+     * Add a player to an account asynchronously.
+     * 
+     * @param playerUuid The UUID of the player to add to the account.
+     * @param accountId  The ID of the account to add the player to.
+     * @return A future completed once the player is added to the account.
+     */
+    public @NotNull CompletableFuture<Void> addPlayerToAccountAsync(@NotNull UUID playerUuid,
+            @NotNull UnsignedInteger accountId) {
+        return this.supplyAsync(() -> {
+            this.addPlayerToAccount(playerUuid, accountId);
+            return null;
+        });
+    }
+
+    /**
+     * Add a player to an account asynchronously.
+     * 
+     * @param player    The player to add to the account.
+     * @param accountId The ID of the account to add the player to.
+     * @return A future completed once the player is added to the account.
+     */
+    public @NotNull CompletableFuture<Void> addPlayerToAccountAsync(@NotNull Player player,
+            @NotNull UnsignedInteger accountId) {
+        return this.addPlayerToAccountAsync(player.getUniqueId(), accountId);
+    }
+
+    /**
+     * Remove a player from an account asynchronously.
+     * 
+     * @param playerUuid The UUID of the player to remove from the account.
+     * @param accountId  The ID of the account to remove the player from.
+     * @return A future completed once the player is removed from the account.
+     */
+    public @NotNull CompletableFuture<Void> removePlayerFromAccountAsync(@NotNull UUID playerUuid,
+            @NotNull UnsignedInteger accountId) {
+        return this.supplyAsync(() -> {
+            this.removePlayerFromAccount(playerUuid, accountId);
+            return null;
+        });
+    }
+
+    /**
+     * Remove a player from an account asynchronously.
+     * 
+     * @param player    The player to remove from the account.
+     * @param accountId The ID of the account to remove the player from.
+     * @return A future completed once the player is removed from the account.
+     */
+    public @NotNull CompletableFuture<Void> removePlayerFromAccountAsync(@NotNull Player player,
+            @NotNull UnsignedInteger accountId) {
+        return this.removePlayerFromAccountAsync(player.getUniqueId(), accountId);
+    }
+
+    /**
+     * Transfer money from one account to another asynchronously.
+     * 
+     * @param accountId1 The ID of the account to remove money from.
+     * @param accountId2 The ID of the account to add money to.
+     * @param amount     The amount of money to transfer.
+     * @return A future completed once the money is transferred.
+     */
+    public @NotNull CompletableFuture<Void> transferMoneyAsync(@NotNull UnsignedInteger accountId1,
+            @NotNull UnsignedInteger accountId2, @NotNull double amount) {
+        return this.supplyAsync(() -> {
+            this.transferMoney(accountId1, accountId2, amount);
+            return null;
+        });
+    }
+
+    /**
+     * Transfer money from one player to another asynchronously.
+     * 
+     * @param playerUuid1 The UUID of the player to remove money from.
+     * @param playerUuid2 The UUID of the player to add money to.
+     * @param amount      The amount of money to transfer.
+     * @return A future completed once the money is transferred.
+     */
+    public @NotNull CompletableFuture<Void> transferMoneyAsync(@NotNull UUID playerUuid1, @NotNull UUID playerUuid2,
+            @NotNull double amount) {
+        return this.supplyAsync(() -> {
+            this.transferMoney(playerUuid1, playerUuid2, amount);
+            return null;
+        });
+    }
+
+    /**
+     * Transfer money from one player to another on behalf of a player
+     * asynchronously.
+     * 
+     * @param playerUuid1 The UUID of the player to remove money from.
+     * @param playerUuid2 The UUID of the player to add money to.
+     * @param amount      The amount of money to transfer.
+     * @param actor       The UUID of the player making the transfer, recorded in
+     *                    the history, or null.
+     * @return A future completed once the money is transferred.
+     */
+    public @NotNull CompletableFuture<Void> transferMoneyAsync(@NotNull UUID playerUuid1, @NotNull UUID playerUuid2,
+            @NotNull double amount, @Nullable UUID actor) {
+        return this.supplyAsync(() -> {
+            this.transferMoney(playerUuid1, playerUuid2, amount, actor);
+            return null;
+        });
+    }
+
+    /**
+     * Transfer money from one player to another asynchronously.
+     * 
+     * @param player1 The player to remove money from.
+     * @param player2 The player to add money to.
+     * @param amount  The amount of money to transfer.
+     * @return A future completed once the money is transferred.
+     */
+    public @NotNull CompletableFuture<Void> transferMoneyAsync(@NotNull Player player1, @NotNull Player player2,
+            @NotNull double amount) {
+        return this.transferMoneyAsync(player1.getUniqueId(), player2.getUniqueId(), amount);
+    }
+
+    /**
+     * Apply several transfers at once asynchronously.
+     * 
+     * @param transfers The transfers to apply.
+     * @return A future completed once the transfers are applied.
+     */
+    public @NotNull CompletableFuture<Void> transferManyAsync(@NotNull List<Transfer> transfers) {
+        List<Transfer> copy = List.copyOf(transfers);
+        return this.supplyAsync(() -> {
+            this.transferMany(copy);
+            return null;
+        });
+    }
+
+    /**
+     * Get the balance of an account asynchronously.
+     * 
+     * @param accountId The ID of the account
+     * @return A future completed with the balance of the account.
+     */
+    public @NotNull CompletableFuture<Double> getBalanceAsync(@NotNull UnsignedInteger accountId) {
+        return this.supplyAsync(() -> this.getBalance(accountId));
+    }
+
+    /**
+     * Get the balance of a player asynchronously.
+     * 
+     * @param playerUuid The UUID of the player to get the balance of.
+     * @return A future completed with the balance of the player.
+     */
+    public @NotNull CompletableFuture<Double> getBalanceAsync(@NotNull UUID playerUuid) {
+        return this.supplyAsync(() -> this.getBalance(playerUuid));
+    }
+
+    /**
+     * Get the balance of a player asynchronously.
+     * 
+     * @param player The player to get the balance of.
+     * @return A future completed with the balance of the player.
+     */
+    public @NotNull CompletableFuture<Double> getBalanceAsync(@NotNull Player player) {
+        return this.getBalanceAsync(player.getUniqueId());
+    }
+
+    /**
+     * Set the balance of an account asynchronously.
+     * 
+     * @param accountId The ID of the account.
+     * @param amount    The new balance of the account.
+     * @return A future completed once the balance is set.
+     */
+    public @NotNull CompletableFuture<Void> setBalanceAsync(@NotNull UnsignedInteger accountId,
+            @NotNull double amount) {
+        return this.supplyAsync(() -> {
+            this.setBalance(accountId, amount);
+            return null;
+        });
+    }
+
+    /**
+     * Set the balance of a player asynchronously.
+     * 
+     * @param playerUuid The UUID of the player to set the balance of.
+     * @param amount     The new balance of the player.
+     * @return A future completed once the balance is set.
+     */
+    public @NotNull CompletableFuture<Void> setBalanceAsync(@NotNull UUID playerUuid, @NotNull double amount) {
+        return this.supplyAsync(() -> {
+            this.setBalance(playerUuid, amount);
+            return null;
+        });
+    }
+
+    /**
+     * Set the balance of a player on behalf of another player asynchronously.
+     * 
+     * @param playerUuid The UUID of the player to set the balance of.
+     * @param amount     The new balance of the player.
+     * @param actor      The UUID of the player making the change, recorded in the
+     *                   history, or null.
+     * @return A future completed once the balance is set.
+     */
+    public @NotNull CompletableFuture<Void> setBalanceAsync(@NotNull UUID playerUuid, @NotNull double amount,
+            @Nullable UUID actor) {
+        return this.supplyAsync(() -> {
+            this.setBalance(playerUuid, amount, actor);
+            return null;
+        });
+    }
+
+    /**
+     * Set the balance of a player asynchronously.
+     * 
+     * @param player The player to set the balance of.
+     * @param amount The new balance of the player.
+     * @return A future completed once the balance is set.
+     */
+    public @NotNull CompletableFuture<Void> setBalanceAsync(@NotNull Player player, @NotNull double amount) {
+        return this.setBalanceAsync(player.getUniqueId(), amount);
+    }
+
+    /**
+     * Add money to an account asynchronously.
+     * 
+     * @param accountId The ID of the account to add money to.
+     * @param amount    The amount of money to add.
+     * @return A future completed once the money is added.
+     */
+    public @NotNull CompletableFuture<Void> addBalanceAsync(@NotNull UnsignedInteger accountId,
+            @NotNull double amount) {
+        return this.supplyAsync(() -> {
+            this.addBalance(accountId, amount);
+            return null;
+        });
+    }
+
+    /**
+     * Add money to a player asynchronously.
+     * 
+     * @param playerUuid The UUID of the player to add money to.
+     * @param amount     The amount of money to add.
+     * @return A future completed once the money is added.
+     */
+    public @NotNull CompletableFuture<Void> addBalanceAsync(@NotNull UUID playerUuid, @NotNull double amount) {
+        return this.supplyAsync(() -> {
+            this.addBalance(playerUuid, amount);
+            return null;
+        });
+    }
+
+    /**
+     * Add money to a player on behalf of another player asynchronously.
+     * 
+     * @param playerUuid The UUID of the player to add money to.
+     * @param amount     The amount of money to add.
+     * @param actor      The UUID of the player making the change, recorded in the
+     *                   history, or null.
+     * @return A future completed once the money is added.
+     */
+    public @NotNull CompletableFuture<Void> addBalanceAsync(@NotNull UUID playerUuid, @NotNull double amount,
+            @Nullable UUID actor) {
+        return this.supplyAsync(() -> {
+            this.addBalance(playerUuid, amount, actor);
+            return null;
+        });
+    }
+
+    /**
+     * Add money to a player asynchronously.
+     * 
+     * @param player The player to add money to.
+     * @param amount The amount of money to add.
+     * @return A future completed once the money is added.
+     */
+    public @NotNull CompletableFuture<Void> addBalanceAsync(@NotNull Player player, @NotNull double amount) {
+        return this.addBalanceAsync(player.getUniqueId(), amount);
+    }
+
+    /**
+     * Remove money from an account asynchronously.
+     * 
+     * @param accountId The ID of the account to remove money from.
+     * @param amount    The amount of money to remove.
+     * @return A future completed once the money is removed.
+     */
+    public @NotNull CompletableFuture<Void> removeBalanceAsync(@NotNull UnsignedInteger accountId,
+            @NotNull double amount) {
+        return this.supplyAsync(() -> {
+            this.removeBalance(accountId, amount);
+            return null;
+        });
+    }
+
+    /**
+     * Remove money from a player asynchronously.
+     * 
+     * @param playerUuid The UUID of the player to remove money from.
+     * @param amount     The amount of money to remove.
+     * @return A future completed once the money is removed.
+     */
+    public @NotNull CompletableFuture<Void> removeBalanceAsync(@NotNull UUID playerUuid, @NotNull double amount) {
+        return this.supplyAsync(() -> {
+            this.removeBalance(playerUuid, amount);
+            return null;
+        });
+    }
+
+    /**
+     * Remove money from a player on behalf of another player asynchronously.
+     * 
+     * @param playerUuid The UUID of the player to remove money from.
+     * @param amount     The amount of money to remove.
+     * @param actor      The UUID of the player making the change, recorded in the
+     *                   history, or null.
+     * @return A future completed once the money is removed.
+     */
+    public @NotNull CompletableFuture<Void> removeBalanceAsync(@NotNull UUID playerUuid, @NotNull double amount,
+            @Nullable UUID actor) {
+        return this.supplyAsync(() -> {
+            this.removeBalance(playerUuid, amount, actor);
+            return null;
+        });
+    }
+
+    /**
+     * Remove money from a player asynchronously.
+     * 
+     * @param player The player to remove money from.
+     * @param amount The amount of money to remove.
+     * @return A future completed once the money is removed.
+     */
+    public @NotNull CompletableFuture<Void> removeBalanceAsync(@NotNull Player player, @NotNull double amount) {
+        return this.removeBalanceAsync(player.getUniqueId(), amount);
+    }
+
+    /**
+     * Update the balance of an account atomically and asynchronously.
+     * 
+     * @param accountId The ID of the account.
+     * @param operator  The function computing the new balance from the current
+     *                  one, called on the database executor.
+     * @return A future completed with the new balance of the account.
+     */
+    public @NotNull CompletableFuture<Double> updateBalanceAsync(@NotNull UnsignedInteger accountId,
+            @NotNull DoubleUnaryOperator operator) {
+        return this.supplyAsync(() -> this.updateBalance(accountId, operator));
+    }
+
+    /**
+     * Update the balance of a player atomically and asynchronously.
+     * 
+     * @param playerUuid The UUID of the player.
+     * @param operator   The function computing the new balance from the current
+     *                   one, called on the database executor.
+     * @return A future completed with the new balance of the player.
+     */
+    public @NotNull CompletableFuture<Double> updateBalanceAsync(@NotNull UUID playerUuid,
+            @NotNull DoubleUnaryOperator operator) {
+        return this.supplyAsync(() -> this.updateBalance(playerUuid, operator));
+    }
+
+    /**
+     * Set the balance of several players at once asynchronously.
+     * 
+     * @param balances The new balances, by player UUID.
+     * @return A future completed with the result of each entry.
+     */
+    public @NotNull CompletableFuture<Map<UUID, BalanceUpdateResult>> setBalancesAsync(
+            @NotNull Map<UUID, Double> balances) {
+        Map<UUID, Double> copy = new LinkedHashMap<>(balances);
+        return this.supplyAsync(() -> this.setBalances(copy));
+    }
+
+    /**
+     * Add money to several players at once asynchronously.
+     * 
+     * @param amounts The amounts of money to add, by player UUID.
+     * @return A future completed with the result of each entry.
+     */
+    public @NotNull CompletableFuture<Map<UUID, BalanceUpdateResult>> addBalancesAsync(
+            @NotNull Map<UUID, Double> amounts) {
+        Map<UUID, Double> copy = new LinkedHashMap<>(amounts);
+        return this.supplyAsync(() -> this.addBalances(copy));
+    }
+
+    /**
+     * Remove money from several players at once asynchronously.
+     * 
+     * @param amounts The amounts of money to remove, by player UUID.
+     * @return A future completed with the result of each entry.
+     */
+    public @NotNull CompletableFuture<Map<UUID, BalanceUpdateResult>> removeBalancesAsync(
+            @NotNull Map<UUID, Double> amounts) {
+        Map<UUID, Double> copy = new LinkedHashMap<>(amounts);
+        return this.supplyAsync(() -> this.removeBalances(copy));
+    }
+
+    /**
+     * Get every player that is in an account asynchronously.
+     * 
+     * @param accountId The ID of the account.
+     * @return A future completed with the UUIDs of the players in the account.
+     */
+    public @NotNull CompletableFuture<List<UUID>> getPlayersAsync(@NotNull UnsignedInteger accountId) {
+        return this.supplyAsync(() -> this.getPlayers(accountId));
+    }
+
+    /**
+     * Get every account of a player asynchronously.
+     * 
+     * @param playerUuid The UUID of the player to get the accounts of.
+     * @return A future completed with the account IDs of the player.
+     */
+    public @NotNull CompletableFuture<List<Integer>> getAccountsAsync(@NotNull UUID playerUuid) {
+        return this.supplyAsync(() -> this.getAccounts(playerUuid));
+    }
+
+    /**
+     * Get every account of a player asynchronously.
+     * 
+     * @param player The player to get the accounts of.
+     * @return A future completed with the account IDs of the player.
+     */
+    public @NotNull CompletableFuture<List<Integer>> getAccountsAsync(@NotNull Player player) {
+        return this.getAccountsAsync(player.getUniqueId());
+    }
+
+    /**
+     * Get the top player accounts asynchronously.
+     * 
+     * @param limit  the maximum number of accounts to return
+     * @param offset the number of accounts to skip
+     * @return A future completed with the pairs of player names and their account
+     *         balances.
+     */
+    public @NotNull CompletableFuture<List<ImmutablePair<String, Double>>> getTopPlayerAccountsAsync(
+            @NotNull int limit, @NotNull int offset) {
+        return this.supplyAsync(() -> this.getTopPlayerAccounts(limit, offset));
+    }
+
+    /**
+     * Get the top player accounts with their balance in minor units
+     * asynchronously.
+     * 
+     * @param limit  the maximum number of accounts to return
+     * @param offset the number of accounts to skip
+     * @return A future completed with the main accounts of the players, by
+     *         decreasing balance.
+     */
+    public @NotNull CompletableFuture<List<PlayerBalance>> getTopPlayerBalancesAsync(int limit, int offset) {
+        return this.supplyAsync(() -> this.getTopPlayerBalances(limit, offset));
+    }
+
+    /**
+     * Get the top player accounts following a position of the ranking
+     * asynchronously.
+     * 
+     * @param limit the maximum number of accounts to return
+     * @param after the position after which the accounts are read, or
+     *              {@link LeaderboardCursor#START} for the first page
+     * @return A future completed with the main accounts of the players, by
+     *         decreasing balance.
+     */
+    public @NotNull CompletableFuture<List<PlayerBalance>> getTopPlayerBalancesAsync(int limit,
+            @NotNull LeaderboardCursor after) {
+        return this.supplyAsync(() -> this.getTopPlayerBalances(limit, after));
+    }
+
+    /**
+     * Get the rank of an account in the ranking of the main accounts
+     * asynchronously.
+     * 
+     * @param accountId The ID of the account.
+     * @return A future completed with the rank of the account starting at 1, or
+     *         0 if it is ranked after the maximum rank that is counted.
+     */
+    public @NotNull CompletableFuture<Long> getRankAsync(@NotNull UnsignedInteger accountId) {
+        return this.supplyAsync(() -> this.getRank(accountId));
+    }
+
+    /**
+     * Get the rank of a player in the ranking of the main accounts
+     * asynchronously.
+     * 
+     * @param playerUuid The UUID of the player.
+     * @return A future completed with the rank of the main account of the
+     *         player starting at 1, or 0 if it is ranked after the maximum rank
+     *         that is counted.
+     */
+    public @NotNull CompletableFuture<Long> getRankAsync(@NotNull UUID playerUuid) {
+        return this.supplyAsync(() -> this.getRank(playerUuid));
+    }
+
+    /**
+     * Get a page of the transaction history of an account asynchronously.
+     * 
+     * @param accountId The ID of the account.
+     * @param limit     The maximum number of transactions to return.
+     * @param after     The cursor the page starts after.
+     * @return A future completed with the transactions of the account, from the
+     *         most recent to the oldest.
+     */
+    public @NotNull CompletableFuture<List<TransactionRecord>> getTransactionsAsync(
+            @NotNull UnsignedInteger accountId, int limit, @NotNull TransactionCursor after) {
+        return this.supplyAsync(() -> this.getTransactions(accountId, limit, after));
+    }
+
+    /**
+     * Get the daily summaries of the compacted transactions of an account
+     * asynchronously.
+     * 
+     * @param accountId The ID of the account.
+     * @param limit     The maximum number of summaries to return.
+     * @param beforeDay The day before which the summaries are read, in days since
+     *                  the epoch (UTC).
+     * @return A future completed with the summaries of the account, from the most
+     *         recent day to the oldest.
+     */
+    public @NotNull CompletableFuture<List<TransactionSummary>> getTransactionSummariesAsync(
+            @NotNull UnsignedInteger accountId, int limit, long beforeDay) {
+        return this.supplyAsync(() -> this.getTransactionSummaries(accountId, limit, beforeDay));
+    }
+
+    /**
+     * Get a page of the transaction history of a player asynchronously.
+     * 
+     * @param playerUuid The UUID of the player.
+     * @param limit      The maximum number of transactions to return.
+     * @param after      The cursor the page starts after.
+     * @return A future completed with the transactions of the main account of the
+     *         player, from the most recent to the oldest.
+     */
+    public @NotNull CompletableFuture<List<TransactionRecord>> getTransactionsAsync(@NotNull UUID playerUuid,
+            int limit, @NotNull TransactionCursor after) {
+        return this.supplyAsync(() -> this.getTransactions(playerUuid, limit, after));
+    }
+
+    /**
+     * Get the main account of a player asynchronously.
+     * 
+     * @param playerUuid The UUID of the player to get the main account of.
+     * @return A future completed with the ID of the main account of the player.
+     */
+    public @NotNull CompletableFuture<UnsignedInteger> getMainAccountAsync(@NotNull UUID playerUuid) {
+        return this.supplyAsync(() -> this.getMainAccount(playerUuid));
+    }
+
+    /**
+     * Get the main account of a player asynchronously.
+     * 
+     * @param player The player to get the main account of.
+     * @return A future completed with the ID of the main account of the player.
+     */
+    public @NotNull CompletableFuture<UnsignedInteger> getMainAccountAsync(@NotNull Player player) {
+        return this.getMainAccountAsync(player.getUniqueId());
+    }
+
+    /**
+     * Check if a player has a main account asynchronously.
+     * 
+     * @param playerUuid The UUID of the player to check.
+     * @return A future completed with whether the player has a main account.
+     */
+    public @NotNull CompletableFuture<Boolean> hasMainAccountAsync(@NotNull UUID playerUuid) {
+        return this.supplyAsync(() -> this.hasMainAccount(playerUuid));
+    }
+
+    /**
+     * Check if a player has a main account asynchronously.
+     * 
+     * @param player The player to check.
+     * @return A future completed with whether the player has a main account.
+     */
+    public @NotNull CompletableFuture<Boolean> hasMainAccountAsync(@NotNull Player player) {
+        return this.hasMainAccountAsync(player.getUniqueId());
+    }
+
 }
@@ -0,0 +1,32 @@
+package org.pantouflemc.economy;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A position in the ranking of the main accounts, used to read the ranking
+ * page by page.
+ * <p>
+ * The accounts are ranked by decreasing balance, then by increasing ID. A page
+ * read after a cursor starts right after the account the cursor points to.
+ *
+ * @param balance   The balance of the account, in minor units.
+ * @param accountId The ID of the account.
+ */
+public record LeaderboardCursor(long balance, int accountId) {
+
+    /**
+     * The cursor placed before the first account of the ranking.
+     */
+    public static final @NotNull LeaderboardCursor START = new LeaderboardCursor(Long.MAX_VALUE, Integer.MIN_VALUE);
+
+    /**
+     * Get the cursor placed right after an account.
+     * 
+     * @param balance The account.
+     * @return The cursor placed after the account.
+     */
+    public static @NotNull LeaderboardCursor after(@NotNull PlayerBalance balance) {
+        return new LeaderboardCursor(balance.balance(), balance.accountId());
+    }
+
+}
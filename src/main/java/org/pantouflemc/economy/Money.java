@@ -0,0 +1,89 @@
+package org.pantouflemc.economy;
+
+import java.math.BigDecimal;
+
+import org.jetbrains.annotations.NotNull;
+import org.pantouflemc.economy.exceptions.EconomyInvalidAmountError;
+
+/**
+ * Conversion between amounts of money and the minor units they are stored in.
+ * <p>
+ * Balances are stored as a whole number of minor units (cents with two
+ * decimals), which keeps the arithmetic exact. The storage records the number
+ * of decimals of its balances and refuses to open with another one.
+ */
+public final class Money {
+
+    private static int decimals = 2;
+    private static long factor = 100;
+
+    private Money() {
+    }
+
+    /**
+     * Set the number of decimals of the currency.
+     * 
+     * @param decimals The number of decimals, between 0 and 9.
+     */
+    public static void setDecimals(int decimals) {
+        if (decimals < 0 || decimals > 9) {
+            throw new IllegalArgumentException("The number of decimals must be between 0 and 9");
+        }
+
+        Money.decimals = decimals;
+        Money.factor = (long) Math.pow(10, decimals);
+    }
+
+    /**
+     * Get the number of decimals of the currency.
+     * 
+     * @return The number of decimals.
+     */
+    public static int getDecimals() {
+        return decimals;
+    }
+
+    /**
+     * Get the number of minor units in one unit of the currency.
+     * 
+     * @return The number of minor units in one unit.
+     */
+    public static long getFactor() {
+        return factor;
+    }
+
+    /**
+     * Convert an amount to minor units, rounding to the nearest one.
+     * 
+     * @param amount The amount to convert.
+     * @return The amount in minor units.
+     */
+    public static long toMinor(double amount) throws EconomyInvalidAmountError {
+        double minor = Math.rint(amount * factor);
+        if (Double.isNaN(minor) || minor >= Long.MAX_VALUE || minor <= Long.MIN_VALUE) {
+            throw new EconomyInvalidAmountError();
+        }
+        return (long) minor;
+    }
+
+    /**
+     * Convert an amount in minor units to a decimal amount.
+     * 
+     * @param minor The amount in minor units.
+     * @return The decimal amount.
+     */
+    public static double toMajor(long minor) {
+        return (double) minor / factor;
+    }
+
+    /**
+     * Format an amount in minor units with the decimals of the currency.
+     * 
+     * @param minor The amount in minor units.
+     * @return The formatted amount.
+     */
+    public static @NotNull String format(long minor) {
+        return BigDecimal.valueOf(minor, decimals).toPlainString();
+    }
+
+}
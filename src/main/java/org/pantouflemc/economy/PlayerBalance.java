@@ -0,0 +1,13 @@
+package org.pantouflemc.economy;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The balance of the main account of a player.
+ *
+ * @param accountId  The ID of the account.
+ * @param playerName The name of the player.
+ * @param balance    The balance of the account, in minor units.
+ */
+public record PlayerBalance(int accountId, @NotNull String playerName, long balance) {
+}
@@ -0,0 +1,32 @@
+package org.pantouflemc.economy;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A position in the history of an account, used to read the history page by
+ * page.
+ * <p>
+ * The transactions are ordered from the most recent to the oldest. A page read
+ * after a cursor starts right after the transaction the cursor points to.
+ *
+ * @param timestamp The time of the transaction, in milliseconds since the epoch.
+ * @param id        The ID of the transaction.
+ */
+public record TransactionCursor(long timestamp, long id) {
+
+    /**
+     * The cursor placed before the most recent transaction.
+     */
+    public static final @NotNull TransactionCursor START = new TransactionCursor(Long.MAX_VALUE, Long.MAX_VALUE);
+
+    /**
+     * Get the cursor placed right after a transaction.
+     * 
+     * @param transaction The transaction.
+     * @return The cursor placed after the transaction.
+     */
+    public static @NotNull TransactionCursor after(@NotNull TransactionRecord transaction) {
+        return new TransactionCursor(transaction.timestamp(), transaction.id());
+    }
+
+}
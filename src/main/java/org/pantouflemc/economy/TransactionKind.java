@@ -0,0 +1,29 @@
+package org.pantouflemc.economy;
+
+/**
+ * The kind of a transaction of the history.
+ */
+public enum TransactionKind {
+
+    /**
+     * Money transferred from one account to another.
+     */
+    TRANSFER,
+
+    /**
+     * The balance of an account set to a new value, the amount of the
+     * transaction.
+     */
+    SET,
+
+    /**
+     * Money added to an account.
+     */
+    ADD,
+
+    /**
+     * Money removed from an account.
+     */
+    REMOVE,
+
+}
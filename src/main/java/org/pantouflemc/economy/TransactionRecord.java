@@ -0,0 +1,30 @@
+package org.pantouflemc.economy;
+
+import java.util.UUID;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A transaction of the history.
+ *
+ * @param id            The ID of the transaction.
+ * @param fromAccountId The ID of the account the money was taken from, or null
+ *                      if the money was added.
+ * @param fromName      The name of the player whose main account the money was
+ *                      taken from, or null if it is not a main account.
+ * @param toAccountId   The ID of the account the money was given to, or null if
+ *                      the money was removed.
+ * @param toName        The name of the player whose main account the money was
+ *                      given to, or null if it is not a main account.
+ * @param amount        The amount of the transaction, in minor units.
+ * @param kind          The kind of the transaction.
+ * @param actor         The UUID of the player who made the transaction, or null
+ *                      if it was made by the server or another plugin.
+ * @param timestamp     The time of the transaction, in milliseconds since the
+ *                      epoch.
+ */
+public record TransactionRecord(long id, @Nullable Integer fromAccountId, @Nullable String fromName,
+        @Nullable Integer toAccountId, @Nullable String toName, long amount, @NotNull TransactionKind kind,
+        @Nullable UUID actor, long timestamp) {
+}
@@ -0,0 +1,15 @@
+package org.pantouflemc.economy;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.google.common.primitives.UnsignedInteger;
+
+/**
+ * A transfer of money from one account to another.
+ *
+ * @param from   The ID of the account to remove money from.
+ * @param to     The ID of the account to add money to.
+ * @param amount The amount of money to transfer.
+ */
+public record Transfer(@NotNull UnsignedInteger from, @NotNull UnsignedInteger to, double amount) {
+}
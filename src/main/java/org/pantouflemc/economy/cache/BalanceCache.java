@@ -0,0 +1,874 @@
+package org.pantouflemc.economy.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.pantouflemc.economy.Money;
+import org.pantouflemc.economy.Transfer;
+import org.pantouflemc.economy.database.VersionedBalance;
+import org.pantouflemc.economy.exceptions.EconomyAccountNotFoundError;
+import org.pantouflemc.economy.exceptions.EconomyDatabaseError;
+import org.pantouflemc.economy.exceptions.EconomyInsufficientBalance;
+import org.pantouflemc.economy.exceptions.EconomyInvalidAmountError;
+import org.pantouflemc.economy.journal.Journal;
+import org.pantouflemc.economy.journal.JournalReason;
+import org.pantouflemc.economy.storage.StorageEngine;
+
+import com.google.common.primitives.UnsignedInteger;
+
+/**
+ * Write-behind cache of the account balances.
+ * <p>
+ * Once an account is loaded, its balance is kept in memory and is the
+ * authoritative value: reads never reach the database and mutations are
+ * applied lock-free. The modified accounts are written back to the database
+ * in a single batched transaction every flush interval, or as soon as the
+ * number of pending changes reaches the flush threshold.
+ * <p>
+ * If a journal is given, every mutation is recorded in it before it is
+ * applied. Each written balance records the last journal record it includes,
+ * and each flush acknowledges the records up to the first one of an account
+ * still to write, so that only the mutations lost with the memory are
+ * replayed after a crash.
+ * <p>
+ * The balances are written only if the version of their account did not
+ * change since it was read, so the changes made by other servers sharing the
+ * database are not overwritten: the accounts changed in the meantime are
+ * rebased on their new balance, keeping the local changes, and written again
+ * a bounded number of times. Concurrent withdrawals on two servers can
+ * overdraw an account, its balance is then kept negative and reported.
+ */
+public class BalanceCache implements Closeable {
+
+    private final @NotNull StorageEngine storageEngine;
+    private final @Nullable Journal journal;
+    private final @NotNull Logger logger;
+    private final int flushThreshold;
+    private final int writeRetries;
+
+    // The version of a preloaded account is unknown until it is read
+    private static final long UNKNOWN_VERSION = -1;
+
+    // Balances are stored in minor units so they can be updated with a
+    // compare-and-set
+    private final @NotNull Map<Integer, AtomicLong> balances = new ConcurrentHashMap<>();
+    // The balance and version of the cached accounts as last read from or written
+    // to the database, the difference with the cached balance being the local
+    // changes
+    private final @NotNull Map<Integer, VersionedBalance> storedBalances = new ConcurrentHashMap<>();
+    private final @NotNull Set<Integer> dirtyAccounts = ConcurrentHashMap.newKeySet();
+    private final @NotNull Set<Integer> flushingAccounts = ConcurrentHashMap.newKeySet();
+    // The sequence number of the first journal record of each dirty account not
+    // written yet, the records from it can't be acknowledged
+    private final @NotNull Map<Integer, Long> pendingSince = new ConcurrentHashMap<>();
+    private final @NotNull AtomicInteger pendingChanges = new AtomicInteger();
+    private final @NotNull LongAdder hits = new LongAdder();
+    private final @NotNull LongAdder misses = new LongAdder();
+    private final @NotNull AtomicBoolean flushRequested = new AtomicBoolean();
+    private final @NotNull ScheduledExecutorService flusher;
+
+    // Mutations hold the read lock while the flush and the eviction hold the
+    // write lock, so a flush never writes half of a transfer and an account is
+    // never evicted between its load and its modification. The balances are read
+    // from the database before the lock is taken.
+    private final @NotNull ReadWriteLock flushLock = new ReentrantReadWriteLock();
+    // The revalidations read the database outside of the flush monitor, so a
+    // slow read never delays the flushes
+    private final @NotNull Object revalidateLock = new Object();
+
+    /**
+     * Create a new BalanceCache
+     *
+     * @param storageEngine  the storage the balances are loaded from and
+     *                       written to
+     * @param journal        the journal the mutations are recorded in, or null
+     * @param logger         the logger used to report the failed flushes
+     * @param flushInterval      the time between two flushes, in milliseconds
+     * @param flushThreshold     the number of pending changes triggering a
+     *                           flush
+     * @param writeRetries       the number of times a flush writes again the
+     *                           accounts changed by another server
+     * @param revalidateInterval the time between two checks of the versions of
+     *                           the cached accounts, in milliseconds, or 0 to
+     *                           only check them when they are written
+     */
+    public BalanceCache(@NotNull StorageEngine storageEngine, @Nullable Journal journal, @NotNull Logger logger,
+            long flushInterval, int flushThreshold, int writeRetries, long revalidateInterval) {
+        this.storageEngine = storageEngine;
+        this.journal = journal;
+        this.logger = logger;
+        this.flushThreshold = flushThreshold;
+        this.writeRetries = writeRetries;
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "economy-balance-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        if (revalidateInterval > 0) {
+            this.flusher.scheduleWithFixedDelay(this::revalidateQuietly, revalidateInterval, revalidateInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Get the cached balance of an account, loading it from the database if
+     * needed
+     *
+     * @param accountId the ID of the account
+     * @return the cached balance of the account
+     */
+    private @NotNull AtomicLong load(@NotNull UnsignedInteger accountId)
+            throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        AtomicLong balance = this.balances.get(accountId.intValue());
+        if (balance != null) {
+            this.hits.increment();
+            return balance;
+        }
+
+        this.misses.increment();
+        VersionedBalance loadedBalance = this.storageEngine.getVersionedBalanceMinor(accountId);
+
+        // Another thread may have loaded (and modified) the account in the meantime,
+        // in which case its value wins
+        return this.balances.computeIfAbsent(accountId.intValue(), id -> {
+            this.storedBalances.put(id, loadedBalance);
+            return new AtomicLong(loadedBalance.balance());
+        });
+    }
+
+    /**
+     * Load the cached balances of some accounts, then take the read lock
+     * <p>
+     * The accounts missing from the cache are read before the lock is taken, so
+     * the flush is not blocked by the database, and read again if they were
+     * evicted in the meantime. The caller must release the lock.
+     *
+     * @param accountIds the IDs of the accounts, loaded in order
+     * @return the cached balances of the accounts, in the same order
+     */
+    private @NotNull AtomicLong @NotNull [] lockLoaded(@NotNull UnsignedInteger @NotNull... accountIds)
+            throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        while (true) {
+            for (UnsignedInteger accountId : accountIds) {
+                this.load(accountId);
+            }
+
+            this.flushLock.readLock().lock();
+            AtomicLong[] balances = new AtomicLong[accountIds.length];
+            boolean cached = true;
+            for (int i = 0; i < accountIds.length && cached; i++) {
+                balances[i] = this.balances.get(accountIds[i].intValue());
+                cached = balances[i] != null;
+            }
+            if (cached) {
+                return balances;
+            }
+
+            // Evicted between its load and the lock
+            this.flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the balance of an account
+     *
+     * @param accountId the ID of the account
+     * @return the balance of the account, in minor units
+     */
+    public long getBalance(@NotNull UnsignedInteger accountId)
+            throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        return this.load(accountId).get();
+    }
+
+    /**
+     * Set the balance of an account
+     *
+     * @param accountId the ID of the account
+     * @param balance   the new balance of the account, in minor units (must be
+     *                  positive)
+     */
+    public void setBalance(@NotNull UnsignedInteger accountId, long balance)
+            throws EconomyInvalidAmountError, EconomyAccountNotFoundError, EconomyDatabaseError {
+        if (balance < 0) {
+            throw new EconomyInvalidAmountError();
+        }
+
+        AtomicLong cachedBalance = this.lockLoaded(accountId)[0];
+        try {
+            long previousBalance = cachedBalance.getAndSet(balance);
+            this.record(JournalReason.SET, new int[] { accountId.intValue() },
+                    new long[] { balance - previousBalance });
+            this.markDirty(accountId.intValue());
+        } finally {
+            this.flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add an amount to the balance of an account
+     *
+     * @param accountId the ID of the account
+     * @param amount    the amount to add, in minor units (must be positive)
+     */
+    public void addBalance(@NotNull UnsignedInteger accountId, long amount)
+            throws EconomyInvalidAmountError, EconomyAccountNotFoundError, EconomyDatabaseError {
+        if (amount < 0) {
+            throw new EconomyInvalidAmountError();
+        }
+
+        AtomicLong balance = this.lockLoaded(accountId)[0];
+        try {
+            if (!add(balance, amount)) {
+                throw new EconomyInvalidAmountError();
+            }
+            this.record(JournalReason.ADD, new int[] { accountId.intValue() }, new long[] { amount });
+            this.markDirty(accountId.intValue());
+        } finally {
+            this.flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove an amount from the balance of an account
+     *
+     * @param accountId the ID of the account
+     * @param amount    the amount to remove, in minor units (must be positive)
+     */
+    public void removeBalance(@NotNull UnsignedInteger accountId, long amount)
+            throws EconomyInsufficientBalance, EconomyInvalidAmountError, EconomyDatabaseError {
+        if (amount < 0) {
+            throw new EconomyInvalidAmountError();
+        }
+
+        AtomicLong balance;
+        try {
+            balance = this.lockLoaded(accountId)[0];
+        } catch (EconomyAccountNotFoundError e) {
+            // Same behavior as the database, which can't tell both cases apart
+            throw new EconomyInsufficientBalance();
+        }
+
+        try {
+            if (!subtract(balance, amount)) {
+                throw new EconomyInsufficientBalance();
+            }
+            this.record(JournalReason.REMOVE, new int[] { accountId.intValue() }, new long[] { -amount });
+            this.markDirty(accountId.intValue());
+        } finally {
+            this.flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Transfer an amount from one account to another
+     *
+     * @param fromAccountId the ID of the account to remove the amount from
+     * @param toAccountId   the ID of the account to add the amount to
+     * @param amount        the amount to transfer, in minor units (must be
+     *                      positive)
+     */
+    public void transferBalance(@NotNull UnsignedInteger fromAccountId, @NotNull UnsignedInteger toAccountId,
+            long amount) throws EconomyAccountNotFoundError, EconomyInsufficientBalance,
+            EconomyInvalidAmountError, EconomyDatabaseError {
+        if (amount < 0) {
+            throw new EconomyInvalidAmountError();
+        }
+
+        // Both accounts are loaded first so that, once the amount is removed,
+        // adding it to the other account can't fail
+        AtomicLong[] balances;
+        try {
+            balances = this.lockLoaded(fromAccountId, toAccountId);
+        } catch (EconomyAccountNotFoundError e) {
+            // The accounts are loaded in order, a missing payer is never cached
+            if (!this.balances.containsKey(fromAccountId.intValue())) {
+                throw new EconomyInsufficientBalance();
+            }
+            throw e;
+        }
+        AtomicLong fromBalance = balances[0];
+        AtomicLong toBalance = balances[1];
+
+        try {
+            if (!subtract(fromBalance, amount)) {
+                throw new EconomyInsufficientBalance();
+            }
+            if (!add(toBalance, amount)) {
+                add(fromBalance, amount);
+                throw new EconomyInvalidAmountError();
+            }
+            this.record(JournalReason.TRANSFER, new int[] { fromAccountId.intValue(), toAccountId.intValue() },
+                    new long[] { -amount, amount });
+
+            this.markDirty(fromAccountId.intValue());
+            this.markDirty(toAccountId.intValue());
+        } finally {
+            this.flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Apply several transfers as a whole
+     * <p>
+     * Only the net change of each account has to be covered by its balance, and
+     * if one account can't be updated none of them is.
+     *
+     * @param transfers the transfers to apply
+     */
+    public void transferBalances(@NotNull List<Transfer> transfers) throws EconomyAccountNotFoundError,
+            EconomyInsufficientBalance, EconomyInvalidAmountError, EconomyDatabaseError {
+        SortedMap<Integer, Long> deltas = new TreeMap<>();
+        for (Transfer transfer : transfers) {
+            long amount = Money.toMinor(transfer.amount());
+            if (amount < 0) {
+                throw new EconomyInvalidAmountError();
+            }
+
+            try {
+                deltas.merge(transfer.from().intValue(), -amount, Math::addExact);
+                deltas.merge(transfer.to().intValue(), amount, Math::addExact);
+            } catch (ArithmeticException e) {
+                throw new EconomyInvalidAmountError();
+            }
+        }
+
+        UnsignedInteger[] loadedAccounts = new UnsignedInteger[deltas.size()];
+        int index = 0;
+        for (Integer accountId : deltas.keySet()) {
+            loadedAccounts[index++] = UnsignedInteger.fromIntBits(accountId);
+        }
+        AtomicLong[] loadedBalances = this.lockLoaded(loadedAccounts);
+
+        try {
+            Map<Integer, AtomicLong> balances = new HashMap<>();
+            for (int i = 0; i < loadedAccounts.length; i++) {
+                balances.put(loadedAccounts[i].intValue(), loadedBalances[i]);
+            }
+
+            // Remove the money first, giving it back if one of the accounts does not
+            // have enough balance
+            List<Integer> debited = new ArrayList<>();
+            for (Map.Entry<Integer, Long> delta : deltas.entrySet()) {
+                if (delta.getValue() >= 0) {
+                    continue;
+                }
+
+                if (!subtract(balances.get(delta.getKey()), -delta.getValue())) {
+                    for (Integer accountId : debited) {
+                        add(balances.get(accountId), -deltas.get(accountId));
+                    }
+                    throw new EconomyInsufficientBalance();
+                }
+                debited.add(delta.getKey());
+            }
+
+            // Then add it, taking everything back if a balance would overflow
+            List<Integer> credited = new ArrayList<>();
+            for (Map.Entry<Integer, Long> delta : deltas.entrySet()) {
+                if (delta.getValue() <= 0) {
+                    continue;
+                }
+
+                if (!add(balances.get(delta.getKey()), delta.getValue())) {
+                    for (Integer accountId : credited) {
+                        add(balances.get(accountId), -deltas.get(accountId));
+                    }
+                    for (Integer accountId : debited) {
+                        add(balances.get(accountId), -deltas.get(accountId));
+                    }
+                    throw new EconomyInvalidAmountError();
+                }
+                credited.add(delta.getKey());
+            }
+
+            int[] accountIds = new int[deltas.size()];
+            long[] amounts = new long[deltas.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Long> delta : deltas.entrySet()) {
+                accountIds[i] = delta.getKey();
+                amounts[i++] = delta.getValue();
+            }
+            this.record(JournalReason.TRANSFER, accountIds, amounts);
+
+            for (Integer accountId : deltas.keySet()) {
+                this.markDirty(accountId);
+            }
+        } finally {
+            this.flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Record a mutation that was just applied in the journal, undoing it if it
+     * can't be recorded
+     * <p>
+     * Must be called with the read lock held, so the mutation and its record
+     * are both part of the same flush.
+     *
+     * @param reason     the operation that caused the mutation
+     * @param accountIds the IDs of the modified accounts
+     * @param deltas     the change of the balance of each account, in minor units
+     */
+    private void record(@NotNull JournalReason reason, int @NotNull [] accountIds, long @NotNull [] deltas)
+            throws EconomyDatabaseError {
+        if (this.journal == null) {
+            return;
+        }
+
+        try {
+            long sequence = this.journal.append(reason, accountIds, deltas);
+            for (int accountId : accountIds) {
+                this.pendingSince.putIfAbsent(accountId, sequence);
+            }
+        } catch (IOException e) {
+            for (int i = 0; i < accountIds.length; i++) {
+                AtomicLong balance = this.balances.get(accountIds[i]);
+                if (balance != null) {
+                    add(balance, -deltas[i]);
+                }
+            }
+            this.logger.log(Level.SEVERE, "Could not record a mutation in the journal", e);
+            throw new EconomyDatabaseError();
+        }
+    }
+
+    /**
+     * Atomically add an amount to a cached balance, if it does not overflow
+     *
+     * @param balance the cached balance
+     * @param amount  the amount to add
+     * @return true if the amount was added, false if the balance would overflow
+     */
+    private static boolean add(@NotNull AtomicLong balance, long amount) {
+        long current;
+        long updated;
+        do {
+            current = balance.get();
+            try {
+                updated = Math.addExact(current, amount);
+            } catch (ArithmeticException e) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, updated));
+        return true;
+    }
+
+    /**
+     * Atomically subtract an amount from a cached balance, if it is large enough
+     *
+     * @param balance the cached balance
+     * @param amount  the amount to subtract
+     * @return true if the amount was subtracted, false if the balance is too low
+     */
+    private static boolean subtract(@NotNull AtomicLong balance, long amount) {
+        long current;
+        do {
+            current = balance.get();
+            if (current < amount) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - amount));
+        return true;
+    }
+
+    /**
+     * Put the balance of an account read from the database in the cache, unless
+     * the account is already cached
+     *
+     * @param accountId the ID of the account
+     * @param balance   the balance of the account, in minor units
+     */
+    public void preload(@NotNull UnsignedInteger accountId, long balance) {
+        this.balances.computeIfAbsent(accountId.intValue(), id -> {
+            this.storedBalances.put(id, new VersionedBalance(balance, UNKNOWN_VERSION));
+            return new AtomicLong(balance);
+        });
+    }
+
+    /**
+     * Remove an account from the cache if its balance was written to the
+     * database
+     * <p>
+     * The eviction never waits, so it can be called from the main thread: it
+     * gives up if a mutation or the start of a flush holds the lock.
+     *
+     * @param accountId the ID of the account
+     * @return true if the account is no longer cached, false if it has pending
+     *         changes or the cache is busy
+     */
+    public boolean evict(@NotNull UnsignedInteger accountId) {
+        if (!this.flushLock.writeLock().tryLock()) {
+            return false;
+        }
+        try {
+            // The accounts being written by a flush are no longer dirty
+            if (this.dirtyAccounts.contains(accountId.intValue())
+                    || this.flushingAccounts.contains(accountId.intValue())) {
+                return false;
+            }
+
+            this.balances.remove(accountId.intValue());
+            this.storedBalances.remove(accountId.intValue());
+            return true;
+        } finally {
+            this.flushLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forget an account, for example because it was deleted from the database
+     *
+     * @param accountId the ID of the account
+     */
+    public void invalidate(@NotNull UnsignedInteger accountId) {
+        this.dirtyAccounts.remove(accountId.intValue());
+        this.pendingSince.remove(accountId.intValue());
+        this.balances.remove(accountId.intValue());
+        this.storedBalances.remove(accountId.intValue());
+    }
+
+    /**
+     * Mark an account as modified and trigger a flush if enough changes are
+     * pending
+     *
+     * @param accountId the ID of the account
+     */
+    private void markDirty(int accountId) {
+        this.dirtyAccounts.add(accountId);
+
+        if (this.pendingChanges.incrementAndGet() >= this.flushThreshold
+                && this.flushRequested.compareAndSet(false, true)) {
+            this.flusher.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Write the modified balances back to the database
+     */
+    public synchronized void flush() throws EconomyDatabaseError {
+        this.flushRequested.set(false);
+        this.pendingChanges.set(0);
+
+        if (this.dirtyAccounts.isEmpty()) {
+            return;
+        }
+
+        // An account is removed from the dirty set before its value is read, so a
+        // concurrent mutation marks it dirty again and is written by the next flush
+        Map<Integer, Long> snapshot = new HashMap<>();
+        Map<Integer, Long> firstSequences = new HashMap<>();
+        long sequence;
+        this.flushLock.writeLock().lock();
+        try {
+            // The mutations record themselves under the read lock, so every record
+            // up to this one is part of the snapshot
+            sequence = this.journal != null ? this.journal.getLastSequence() : 0;
+
+            for (Integer accountId : this.dirtyAccounts) {
+                this.dirtyAccounts.remove(accountId);
+                Long firstSequence = this.pendingSince.remove(accountId);
+
+                AtomicLong balance = this.balances.get(accountId);
+                if (balance != null) {
+                    snapshot.put(accountId, balance.get());
+                    if (firstSequence != null) {
+                        firstSequences.put(accountId, firstSequence);
+                    }
+                }
+            }
+            this.flushingAccounts.addAll(snapshot.keySet());
+        } finally {
+            this.flushLock.writeLock().unlock();
+        }
+
+        Set<Integer> unwrittenAccounts;
+        try {
+            unwrittenAccounts = this.write(snapshot, sequence);
+        } catch (EconomyDatabaseError e) {
+            // Keep the accounts dirty so they are written by the next flush
+            this.keepDirty(snapshot.keySet(), firstSequences);
+            throw e;
+        } finally {
+            this.flushingAccounts.clear();
+        }
+        this.keepDirty(unwrittenAccounts, firstSequences);
+
+        if (this.journal != null) {
+            // The records of the accounts still to write are kept, whatever was
+            // written after them
+            long acknowledged = sequence;
+            for (long firstSequence : this.pendingSince.values()) {
+                acknowledged = Math.min(acknowledged, firstSequence - 1);
+            }
+            if (acknowledged > 0) {
+                this.journal.acknowledge(this.storageEngine.acknowledgeJournal(acknowledged));
+            }
+        }
+    }
+
+    /**
+     * Mark accounts dirty again after a flush that did not write them
+     *
+     * @param accountIds     the IDs of the accounts
+     * @param firstSequences the sequence number of the first journal record of
+     *                       the accounts not written, by account ID
+     */
+    private void keepDirty(@NotNull Collection<Integer> accountIds, @NotNull Map<Integer, Long> firstSequences) {
+        for (Integer accountId : accountIds) {
+            Long firstSequence = firstSequences.get(accountId);
+            if (firstSequence != null) {
+                this.pendingSince.merge(accountId, firstSequence, Math::min);
+            }
+        }
+        this.dirtyAccounts.addAll(accountIds);
+    }
+
+    /**
+     * Write a snapshot of the balances if the versions of their accounts did not
+     * change, rebasing and writing again the accounts changed by another server
+     * <p>
+     * The accounts whose version did not change are written at once, only the
+     * ones changed by another server are retried.
+     *
+     * @param snapshot the balances to write in minor units, by account ID
+     *                 (rebased in place)
+     * @param sequence the sequence number of the last journal record included
+     *                 in the snapshot, or 0
+     * @return the IDs of the accounts that are still not written once the
+     *         retries are exhausted
+     */
+    private @NotNull Set<Integer> write(@NotNull Map<Integer, Long> snapshot, long sequence)
+            throws EconomyDatabaseError {
+        Map<Integer, Long> pending = new HashMap<>(snapshot);
+
+        // The accounts whose version is unknown are read first, their write would
+        // fail anyway
+        List<Integer> unknownAccounts = new ArrayList<>();
+        for (Integer accountId : pending.keySet()) {
+            VersionedBalance stored = this.storedBalances.get(accountId);
+            if (stored != null && stored.version() == UNKNOWN_VERSION) {
+                unknownAccounts.add(accountId);
+            }
+        }
+        if (!unknownAccounts.isEmpty()) {
+            this.rebase(unknownAccounts, this.storageEngine.getVersionedBalancesMinor(unknownAccounts), pending);
+        }
+
+        for (int attempt = 0; attempt <= this.writeRetries; attempt++) {
+            Map<Integer, VersionedBalance> writes = new HashMap<>();
+            for (Map.Entry<Integer, Long> balance : pending.entrySet()) {
+                VersionedBalance stored = this.storedBalances.get(balance.getKey());
+                if (stored != null) {
+                    writes.put(balance.getKey(), new VersionedBalance(balance.getValue(), stored.version()));
+                }
+            }
+            // The accounts invalidated in the meantime are no longer written
+            pending.keySet().retainAll(writes.keySet());
+
+            Set<Integer> failedAccounts = this.storageEngine.compareAndSetBalancesMinor(writes, sequence);
+            for (Map.Entry<Integer, VersionedBalance> write : writes.entrySet()) {
+                if (!failedAccounts.contains(write.getKey())) {
+                    this.storedBalances.computeIfPresent(write.getKey(), (id, stored) -> new VersionedBalance(
+                            write.getValue().balance(), write.getValue().version() + 1));
+                    pending.remove(write.getKey());
+                }
+            }
+
+            if (pending.isEmpty()) {
+                return Set.of();
+            }
+            this.rebase(pending.keySet(), this.storageEngine.getVersionedBalancesMinor(pending.keySet()), pending);
+        }
+
+        this.logger.warning("Could not write " + pending.size()
+                + " cached balances changed concurrently by another server, retrying at the next flush");
+        return pending.keySet();
+    }
+
+    /**
+     * Rebase cached accounts on their current balance in the database, keeping
+     * the local changes made since they were read
+     *
+     * @param accountIds the IDs of the accounts to rebase
+     * @param current    the current balances and versions, by account ID (the
+     *                   deleted accounts are missing)
+     * @param pending    the balances about to be written, by account ID, rebased
+     *                   along with the cached ones
+     */
+    private void rebase(@NotNull Collection<Integer> accountIds, @NotNull Map<Integer, VersionedBalance> current,
+            @NotNull Map<Integer, Long> pending) {
+        for (Integer accountId : new ArrayList<>(accountIds)) {
+            VersionedBalance stored = this.storedBalances.get(accountId);
+            AtomicLong balance = this.balances.get(accountId);
+            VersionedBalance now = current.get(accountId);
+            if (stored == null || balance == null || now == null) {
+                // Evicted, invalidated or deleted by another server
+                this.invalidate(UnsignedInteger.fromIntBits(accountId));
+                pending.remove(accountId);
+                continue;
+            }
+            if (now.version() <= stored.version()) {
+                // Read before the last write of this server, nothing to rebase on
+                continue;
+            }
+
+            // The drift is already in the database, it is applied as is and not
+            // journaled. Clamping it would create the money spent on both sides.
+            long drift = now.balance() - stored.balance();
+            Long pendingBalance = pending.get(accountId);
+            this.storedBalances.put(accountId, now);
+            long rebased = balance.addAndGet(drift);
+            if (rebased < 0 && rebased - drift >= 0) {
+                this.logger.warning("The account " + accountId + " was overdrawn by " + -rebased
+                        + " minor units by concurrent changes of another server");
+            }
+            if (pendingBalance != null) {
+                pending.put(accountId, pendingBalance + drift);
+            }
+        }
+    }
+
+    /**
+     * Check the versions of the cached accounts, rebasing the ones changed by
+     * another server
+     */
+    public void revalidate() throws EconomyDatabaseError {
+        this.revalidate(this.storedBalances.keySet());
+    }
+
+    /**
+     * Check the versions of some accounts, rebasing the cached ones changed by
+     * another server
+     * <p>
+     * The versions are read without blocking the flush. The accounts being
+     * flushed are skipped, their write is checked against the version anyway.
+     *
+     * @param accountIds the IDs of the accounts, the ones that are not cached
+     *                   are skipped
+     */
+    public void revalidate(@NotNull Collection<Integer> accountIds) throws EconomyDatabaseError {
+        synchronized (this.revalidateLock) {
+            List<Integer> cachedAccounts = new ArrayList<>();
+            for (Integer accountId : accountIds) {
+                if (this.storedBalances.containsKey(accountId)) {
+                    cachedAccounts.add(accountId);
+                }
+            }
+            if (cachedAccounts.isEmpty()) {
+                return;
+            }
+
+            Map<Integer, VersionedBalance> current = this.storageEngine.getVersionedBalancesMinor(cachedAccounts);
+
+            // A flush updates the stored versions of its accounts before they leave
+            // the flushing set, so the others can't be written in the meantime
+            this.flushLock.writeLock().lock();
+            try {
+                List<Integer> changedAccounts = new ArrayList<>();
+                for (Integer accountId : cachedAccounts) {
+                    VersionedBalance stored = this.storedBalances.get(accountId);
+                    VersionedBalance now = current.get(accountId);
+                    if (stored != null && !this.flushingAccounts.contains(accountId)
+                            && (now == null || now.version() > stored.version())) {
+                        changedAccounts.add(accountId);
+                    }
+                }
+
+                if (!changedAccounts.isEmpty()) {
+                    this.rebase(changedAccounts, current, new HashMap<>());
+                }
+            } finally {
+                this.flushLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Check the versions of the cached accounts, logging the failures
+     */
+    private void revalidateQuietly() {
+        try {
+            this.revalidate();
+        } catch (EconomyDatabaseError e) {
+            this.logger.log(Level.SEVERE, "Could not check the versions of the cached balances", e);
+        }
+    }
+
+    /**
+     * Write the modified balances back to the database, logging the failures
+     */
+    private void flushQuietly() {
+        try {
+            this.flush();
+        } catch (EconomyDatabaseError e) {
+            this.logger.log(Level.SEVERE, "Could not write the cached balances to the database", e);
+        }
+    }
+
+    /**
+     * Get the number of balances found in the cache
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Get the number of balances loaded from the database
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Get the number of changes waiting for the next flush
+     *
+     * @return the number of pending changes
+     */
+    public int getPendingChanges() {
+        return this.pendingChanges.get();
+    }
+
+    /**
+     * Stop the background flushes and write the pending changes to the database
+     */
+    @Override
+    public void close() {
+        this.flusher.shutdown();
+        try {
+            this.flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.flushQuietly();
+    }
+
+}
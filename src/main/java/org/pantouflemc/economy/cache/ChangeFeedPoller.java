@@ -0,0 +1,291 @@
+package org.pantouflemc.economy.cache;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.pantouflemc.economy.database.AccountChange;
+import org.pantouflemc.economy.exceptions.EconomyDatabaseError;
+import org.pantouflemc.economy.storage.StorageEngine;
+
+import com.google.common.primitives.UnsignedInteger;
+
+/**
+ * Background reader of the changes made to the accounts by the other servers
+ * sharing the database.
+ * <p>
+ * Every poll interval, the new changes are read by batches in the order of
+ * their IDs and applied to the caches: a changed balance has its version
+ * checked and is only read again if it moved, a changed relation refreshes the
+ * main account of the player, and a deleted account is forgotten. The changes
+ * older than the retention period are pruned along the way.
+ * <p>
+ * The IDs are given when the changes are made, not when they are committed,
+ * so a change can be committed after a change with a higher ID was read. The
+ * IDs skipped by the feed are read again at every poll until their change
+ * appears, which also refreshes the pinned main accounts it concerns, or
+ * until the gap timeout, after which the ID is taken as rolled back.
+ * <p>
+ * A poller stopped for longer than the retention period may have missed
+ * pruned changes, and a poller tracking too many skipped IDs may miss late
+ * ones, so it checks every cached entry again, pinned main accounts included.
+ */
+public class ChangeFeedPoller implements Closeable {
+
+    private static final long PRUNE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final int MAXIMUM_GAPS = 10000;
+
+    private final @NotNull StorageEngine storageEngine;
+    private final @NotNull Logger logger;
+    private final @NotNull MainAccountCache mainAccountCache;
+    private final @Nullable BalanceCache balanceCache;
+    private final @Nullable Leaderboard leaderboard;
+    private final int batchSize;
+    private final long retention;
+    private final long gapTimeout;
+    private final @NotNull ScheduledExecutorService poller;
+
+    // The IDs skipped by the feed whose change may still be committed, with the
+    // time they were first skipped
+    private final @NotNull SortedMap<Long, Long> gaps = new TreeMap<>();
+
+    private long lastChange;
+    private long lastPoll;
+    private long lastPrune;
+
+    /**
+     * Create a new ChangeFeedPoller, reading the changes made from now on
+     *
+     * @param storageEngine    the storage shared with the other servers
+     * @param logger           the logger used to report the failed polls
+     * @param mainAccountCache the cache of the main accounts of the players
+     * @param balanceCache     the cache of the balances, or null
+     * @param leaderboard      the leaderboard, or null
+     * @param pollInterval     the time between two polls, in milliseconds
+     * @param batchSize        the number of changes read at once
+     * @param retention        the time the changes are kept, in seconds
+     * @param gapTimeout       the time a skipped ID is read again before it is
+     *                         taken as rolled back, in seconds
+     */
+    public ChangeFeedPoller(@NotNull StorageEngine storageEngine, @NotNull Logger logger,
+            @NotNull MainAccountCache mainAccountCache, @Nullable BalanceCache balanceCache,
+            @Nullable Leaderboard leaderboard, long pollInterval, int batchSize, long retention, long gapTimeout)
+            throws EconomyDatabaseError {
+        this.storageEngine = storageEngine;
+        this.logger = logger;
+        this.mainAccountCache = mainAccountCache;
+        this.balanceCache = balanceCache;
+        this.leaderboard = leaderboard;
+        this.batchSize = batchSize;
+        this.retention = TimeUnit.SECONDS.toMillis(retention);
+        this.gapTimeout = TimeUnit.SECONDS.toMillis(gapTimeout);
+
+        // Nothing is cached yet, only the changes made from now on matter
+        this.lastChange = storageEngine.getLastAccountChange();
+        this.lastPoll = System.currentTimeMillis();
+
+        this.poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "economy-change-feed");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.poller.scheduleWithFixedDelay(this::pollQuietly, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Read the changes made since the last poll and the ones committed late,
+     * apply them to the caches, pruning the old changes from time to time
+     *
+     * @return the number of changes read
+     */
+    public synchronized int poll() throws EconomyDatabaseError {
+        long now = System.currentTimeMillis();
+        if (now - this.lastPoll > this.retention) {
+            this.logger.warning("The change feed was not read for longer than its retention,"
+                    + " every cached entry is checked again");
+            this.resynchronize();
+        }
+
+        int count = 0;
+        if (!this.gaps.isEmpty()) {
+            List<AccountChange> lateChanges = this.storageEngine.getAccountChanges(this.gaps.keySet());
+            for (AccountChange change : lateChanges) {
+                this.gaps.remove(change.id());
+            }
+            this.apply(lateChanges);
+            count += lateChanges.size();
+
+            // A rolled back change never appears, its ID is given up after a while
+            this.gaps.values().removeIf(skippedAt -> now - skippedAt > this.gapTimeout);
+        }
+
+        boolean overflow = false;
+        List<AccountChange> changes;
+        do {
+            changes = this.storageEngine.getAccountChanges(this.lastChange, this.batchSize);
+            if (changes.isEmpty()) {
+                break;
+            }
+
+            overflow |= !this.trackGaps(changes, now);
+            this.apply(changes);
+            this.lastChange = changes.get(changes.size() - 1).id();
+            count += changes.size();
+        } while (changes.size() == this.batchSize);
+        this.lastPoll = now;
+
+        if (overflow) {
+            this.logger.warning("Too many changes of the feed are not committed yet,"
+                    + " every cached entry is checked again");
+            this.resynchronize();
+        }
+
+        // Every server prunes, deleting the same changes twice is harmless
+        if (now - this.lastPrune >= PRUNE_INTERVAL) {
+            this.storageEngine.pruneAccountChanges(now - this.retention);
+            this.lastPrune = now;
+        }
+        return count;
+    }
+
+    /**
+     * Remember the IDs skipped by a batch of changes, whose change may be
+     * committed later
+     *
+     * @param changes the changes following the last one read, by increasing ID
+     * @param now     the time of the poll, in milliseconds since the epoch
+     * @return true if the IDs are tracked, false if there were too many
+     */
+    private boolean trackGaps(@NotNull List<AccountChange> changes, long now) {
+        boolean tracked = true;
+        long expected = this.lastChange + 1;
+        for (AccountChange change : changes) {
+            if (this.gaps.size() + (change.id() - expected) > MAXIMUM_GAPS) {
+                tracked = false;
+            } else {
+                for (long id = expected; id < change.id(); id++) {
+                    this.gaps.put(id, now);
+                }
+            }
+            expected = change.id() + 1;
+        }
+        return tracked;
+    }
+
+    /**
+     * Apply a batch of changes to the caches
+     *
+     * @param changes the changes, the local ones are skipped
+     */
+    private void apply(@NotNull List<AccountChange> changes) throws EconomyDatabaseError {
+        Set<Integer> changedAccounts = new HashSet<>();
+        Set<Integer> deletedAccounts = new HashSet<>();
+        Set<UUID> changedPlayers = new HashSet<>();
+        for (AccountChange change : changes) {
+            if (change.local()) {
+                continue;
+            }
+
+            if (change.deleted()) {
+                deletedAccounts.add(change.accountId());
+            } else {
+                changedAccounts.add(change.accountId());
+            }
+            if (change.playerUuid() != null) {
+                changedPlayers.add(change.playerUuid());
+            }
+        }
+
+        for (int accountId : deletedAccounts) {
+            UnsignedInteger id = UnsignedInteger.fromIntBits(accountId);
+            this.mainAccountCache.invalidateAccount(id);
+            if (this.balanceCache != null)
+                this.balanceCache.invalidate(id);
+            if (this.leaderboard != null)
+                this.leaderboard.remove(accountId);
+        }
+
+        // The account IDs are never given again, a deleted account has no later
+        // change
+        changedAccounts.removeAll(deletedAccounts);
+        if (this.balanceCache != null && !changedAccounts.isEmpty()) {
+            this.balanceCache.revalidate(changedAccounts);
+        }
+
+        List<UUID> pinnedPlayers = new ArrayList<>();
+        for (UUID playerUuid : changedPlayers) {
+            if (this.mainAccountCache.invalidateLookup(playerUuid)) {
+                pinnedPlayers.add(playerUuid);
+            }
+        }
+        this.repin(pinnedPlayers);
+    }
+
+    /**
+     * Read again the main accounts of players who are pinned
+     *
+     * @param playerUuids the UUIDs of the players
+     */
+    private void repin(@NotNull Collection<UUID> playerUuids) throws EconomyDatabaseError {
+        if (playerUuids.isEmpty()) {
+            return;
+        }
+
+        Map<UUID, Integer> mainAccounts = this.storageEngine.getMainAccounts(playerUuids);
+        for (UUID playerUuid : playerUuids) {
+            Integer accountId = mainAccounts.get(playerUuid);
+            this.mainAccountCache.repin(playerUuid,
+                    accountId != null ? UnsignedInteger.fromIntBits(accountId) : null);
+        }
+    }
+
+    /**
+     * Check every cached entry again, the changes that were missed being unknown
+     */
+    private void resynchronize() throws EconomyDatabaseError {
+        // The late changes are covered too
+        this.gaps.clear();
+        if (this.balanceCache != null)
+            this.balanceCache.revalidate();
+        this.repin(this.mainAccountCache.invalidateLookups());
+    }
+
+    /**
+     * Read the changes made since the last poll, logging the failures
+     */
+    private void pollQuietly() {
+        try {
+            this.poll();
+        } catch (EconomyDatabaseError e) {
+            this.logger.log(Level.SEVERE, "Could not read the changes of the accounts", e);
+        }
+    }
+
+    /**
+     * Stop the background polls, the poll in progress is finished
+     */
+    @Override
+    public void close() {
+        this.poller.shutdown();
+        try {
+            this.poller.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
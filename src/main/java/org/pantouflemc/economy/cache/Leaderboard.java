@@ -0,0 +1,338 @@
+package org.pantouflemc.economy.cache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.pantouflemc.economy.LeaderboardCursor;
+import org.pantouflemc.economy.PlayerBalance;
+
+/**
+ * In-memory ranking of the main accounts with the highest balances.
+ * <p>
+ * The leaderboard keeps the top accounts sorted by decreasing balance and is
+ * updated by every balance mutation going through the plugin, so reading a
+ * page of it never reaches the database. Mutations that may change which
+ * accounts belong to the top (an untracked account gaining enough money, a
+ * tracked account falling to the bottom) only mark the leaderboard as stale,
+ * and the next reconciliation reloads it from the database.
+ * <p>
+ * To tell whether an untracked account may have entered the top, the
+ * leaderboard keeps an upper bound of the balances of the untracked accounts:
+ * the balance of the first account past the top when it was loaded, raised by
+ * the money the untracked accounts gained since.
+ */
+public class Leaderboard {
+
+    private static final @NotNull Comparator<PlayerBalance> ORDER = Comparator
+            .comparingLong(PlayerBalance::balance).reversed()
+            .thenComparingInt(PlayerBalance::accountId);
+
+    private final int capacity;
+
+    // The ranking is read without locking, the writers synchronize on the
+    // leaderboard and make the count of writes odd while they change it, so that
+    // a reader seeing a change in progress reads again
+    private final @NotNull NavigableSet<PlayerBalance> ranking = new ConcurrentSkipListSet<>(ORDER);
+    private final @NotNull Map<Integer, PlayerBalance> entries = new HashMap<>();
+    private final @NotNull AtomicLong writes = new AtomicLong();
+    private long untrackedCeiling = Long.MAX_VALUE;
+
+    private volatile boolean loaded = false;
+    private volatile boolean stale = true;
+    private volatile long lastReconciliation = 0;
+    private long modifications = 0;
+
+    /**
+     * Create a new Leaderboard
+     *
+     * @param capacity the number of accounts kept in the leaderboard
+     */
+    public Leaderboard(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Get the number of accounts kept in the leaderboard
+     *
+     * @return the capacity of the leaderboard
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Get a page of the leaderboard
+     *
+     * @param limit  the maximum number of accounts to return
+     * @param offset the number of accounts to skip
+     * @return the accounts by decreasing balance, or null if the page is not held
+     *         by the leaderboard
+     */
+    public @Nullable List<PlayerBalance> getTop(int limit, int offset) {
+        if (!this.loaded || offset < 0 || limit < 0 || (long) offset + limit > this.capacity) {
+            return null;
+        }
+
+        return this.read(() -> {
+            List<PlayerBalance> top = new ArrayList<>(limit);
+            Iterator<PlayerBalance> iterator = this.ranking.iterator();
+            for (int i = 0; i < offset && iterator.hasNext(); i++) {
+                iterator.next();
+            }
+            while (top.size() < limit && iterator.hasNext()) {
+                top.add(iterator.next());
+            }
+            return top;
+        });
+    }
+
+    /**
+     * Get a page of the leaderboard following a position of the ranking
+     *
+     * @param limit the maximum number of accounts to return
+     * @param after the position after which the accounts are read
+     * @return the accounts by decreasing balance, or null if the page is not held
+     *         by the leaderboard
+     */
+    public @Nullable List<PlayerBalance> getTop(int limit, @NotNull LeaderboardCursor after) {
+        if (!this.loaded) {
+            return null;
+        }
+
+        PlayerBalance position = new PlayerBalance(after.accountId(), "", after.balance());
+
+        return this.read(() -> {
+            List<PlayerBalance> top = new ArrayList<>(limit);
+            for (PlayerBalance entry : this.ranking.tailSet(position, false)) {
+                if (top.size() >= limit) {
+                    break;
+                }
+                top.add(entry);
+            }
+
+            // The accounts past the end of a full leaderboard are only known by the
+            // database
+            if (top.size() < limit && this.ranking.size() >= this.capacity) {
+                return null;
+            }
+            return top;
+        });
+    }
+
+    /**
+     * Get the rank of an account in the leaderboard
+     *
+     * @param accountId the ID of the account
+     * @return the rank of the account starting at 1, or 0 if the account is not
+     *         held by the leaderboard
+     */
+    public long getRank(int accountId) {
+        if (!this.loaded) {
+            return 0;
+        }
+
+        return this.read(() -> {
+            long rank = 1;
+            for (PlayerBalance entry : this.ranking) {
+                if (entry.accountId() == accountId) {
+                    return rank;
+                }
+                rank++;
+            }
+            return 0L;
+        });
+    }
+
+    /**
+     * Read the ranking, reading it again if a writer changed it meanwhile
+     *
+     * @param reader the function reading the ranking
+     * @return the value read
+     */
+    private <T> T read(@NotNull Supplier<T> reader) {
+        while (true) {
+            long before = this.writes.get();
+            if ((before & 1) == 0) {
+                T value = reader.get();
+                if (this.writes.get() == before) {
+                    return value;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Set the balance of an account
+     *
+     * @param accountId the ID of the account
+     * @param balance   the new balance of the account, in minor units
+     */
+    public synchronized void update(int accountId, long balance) {
+        this.modifications++;
+
+        PlayerBalance entry = this.entries.get(accountId);
+        if (entry == null) {
+            // The name of the player is unknown, the next reconciliation adds the
+            // account if it belongs to the top
+            this.untrackedCeiling = Math.max(this.untrackedCeiling, balance);
+            if (this.mayEnter(balance)) {
+                this.stale = true;
+            }
+            return;
+        }
+
+        this.replace(entry, new PlayerBalance(accountId, entry.playerName(), balance));
+    }
+
+    /**
+     * Add an amount to the balance of an account
+     *
+     * @param accountId the ID of the account
+     * @param delta     the amount added to the balance, in minor units (negative
+     *                  when removed)
+     */
+    public synchronized void adjust(int accountId, long delta) {
+        this.modifications++;
+
+        PlayerBalance entry = this.entries.get(accountId);
+        if (entry == null) {
+            if (delta > 0) {
+                // Without its balance we only know that no untracked account is
+                // above the raised bound, the next reconciliation decides if it is
+                // above the last tracked one
+                this.untrackedCeiling = saturatedAdd(this.untrackedCeiling, delta);
+                if (this.mayEnter(this.untrackedCeiling)) {
+                    this.stale = true;
+                }
+            }
+            return;
+        }
+
+        this.replace(entry, new PlayerBalance(accountId, entry.playerName(), entry.balance() + delta));
+    }
+
+    /**
+     * Remove an account, for example because it was deleted
+     *
+     * @param accountId the ID of the account
+     */
+    public synchronized void remove(int accountId) {
+        this.modifications++;
+
+        PlayerBalance entry = this.entries.remove(accountId);
+        if (entry != null) {
+            this.writes.incrementAndGet();
+            try {
+                this.ranking.remove(entry);
+            } finally {
+                this.writes.incrementAndGet();
+            }
+            // Another account takes the free spot
+            this.stale = true;
+        }
+    }
+
+    /**
+     * Replace an entry of the ranking
+     */
+    private void replace(@NotNull PlayerBalance oldEntry, @NotNull PlayerBalance newEntry) {
+        this.writes.incrementAndGet();
+        try {
+            this.ranking.remove(oldEntry);
+            this.ranking.add(newEntry);
+        } finally {
+            this.writes.incrementAndGet();
+        }
+        this.entries.put(newEntry.accountId(), newEntry);
+
+        // An untracked account may now be above the last tracked one
+        if (newEntry.balance() < oldEntry.balance() && this.ranking.last() == newEntry
+                && this.mayEnter(this.untrackedCeiling)) {
+            this.stale = true;
+        }
+    }
+
+    /**
+     * Check whether an untracked account with the given balance may belong to
+     * the leaderboard
+     */
+    private boolean mayEnter(long balance) {
+        return this.ranking.size() < this.capacity || balance > this.ranking.last().balance();
+    }
+
+    /**
+     * Add two amounts, stopping at the largest value instead of overflowing
+     */
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return ((a ^ sum) & (b ^ sum)) < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    /**
+     * Check whether the leaderboard needs to be reloaded from the database
+     *
+     * @param maximumAge the time after which the leaderboard is reloaded even if
+     *                   it is not stale, in milliseconds
+     * @return true if the leaderboard should be reconciled
+     */
+    public boolean needsReconciliation(long maximumAge) {
+        return this.stale || System.currentTimeMillis() - this.lastReconciliation >= maximumAge;
+    }
+
+    /**
+     * Get the number of modifications applied so far, to be given to
+     * {@link #reconcile(List, long)} along with the top accounts read after it
+     *
+     * @return the number of modifications
+     */
+    public synchronized long getModifications() {
+        return this.modifications;
+    }
+
+    /**
+     * Replace the content of the leaderboard with the top accounts read from the
+     * database
+     *
+     * @param top           the top accounts, by decreasing balance, followed by
+     *                      the first account past the capacity if there is one
+     * @param modifications the number of modifications before the accounts were
+     *                      read
+     */
+    public synchronized void reconcile(@NotNull List<PlayerBalance> top, long modifications) {
+        this.writes.incrementAndGet();
+        try {
+            this.ranking.clear();
+            this.entries.clear();
+            for (PlayerBalance entry : top) {
+                if (this.entries.size() >= this.capacity) {
+                    break;
+                }
+                this.ranking.add(entry);
+                this.entries.put(entry.accountId(), entry);
+            }
+        } finally {
+            this.writes.incrementAndGet();
+        }
+
+        // Without an account past the top, only the accounts created since are
+        // left out, and they start empty
+        this.untrackedCeiling = top.size() > this.capacity ? top.get(this.capacity).balance() : 0;
+
+        this.loaded = true;
+        this.lastReconciliation = System.currentTimeMillis();
+        // Mutations applied while the accounts were read may be missing
+        this.stale = this.modifications != modifications;
+    }
+
+}
@@ -0,0 +1,195 @@
+package org.pantouflemc.economy.cache;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.primitives.UnsignedInteger;
+
+/**
+ * Cache of the main accounts of the players.
+ * <p>
+ * The main account of a player is pinned when they log in and stays in memory
+ * until they leave, so the operations on online players don't have to look it
+ * up in the database. The main accounts of the other players are kept in a
+ * bounded cache once they have been looked up, and expire after a while.
+ */
+public class MainAccountCache {
+
+    private final @NotNull Map<UUID, UnsignedInteger> pinned = new ConcurrentHashMap<>();
+    private final @NotNull Cache<UUID, UnsignedInteger> lookups;
+
+    private final @NotNull LongAdder hits = new LongAdder();
+    private final @NotNull LongAdder misses = new LongAdder();
+
+    /**
+     * Create a new MainAccountCache
+     *
+     * @param maximumSize the maximum number of main accounts kept for the players
+     *                    who are not pinned
+     * @param expireAfter the time after which the main account of a player who
+     *                    is not pinned is looked up again, in milliseconds
+     */
+    public MainAccountCache(long maximumSize, long expireAfter) {
+        this.lookups = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfter, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Get the main account of a player
+     *
+     * @param playerUuid the UUID of the player
+     * @return the ID of the main account of the player, or null if it is not
+     *         cached
+     */
+    public @Nullable UnsignedInteger get(@NotNull UUID playerUuid) {
+        UnsignedInteger accountId = this.pinned.get(playerUuid);
+        if (accountId == null) {
+            accountId = this.lookups.getIfPresent(playerUuid);
+        }
+
+        if (accountId != null) {
+            this.hits.increment();
+        } else {
+            this.misses.increment();
+        }
+        return accountId;
+    }
+
+    /**
+     * Remember the main account of a player read from the database
+     *
+     * @param playerUuid the UUID of the player
+     * @param accountId  the ID of the main account of the player
+     */
+    public void put(@NotNull UUID playerUuid, @NotNull UnsignedInteger accountId) {
+        this.lookups.put(playerUuid, accountId);
+    }
+
+    /**
+     * Keep the main account of a player in memory until it is unpinned
+     *
+     * @param playerUuid the UUID of the player
+     * @param accountId  the ID of the main account of the player
+     */
+    public void pin(@NotNull UUID playerUuid, @NotNull UnsignedInteger accountId) {
+        this.pinned.put(playerUuid, accountId);
+    }
+
+    /**
+     * Release the main account of a player, for example because they left
+     * <p>
+     * The main account stays in the bounded cache until it expires.
+     *
+     * @param playerUuid the UUID of the player
+     * @return the ID of the main account that was pinned, or null if there was
+     *         none
+     */
+    public @Nullable UnsignedInteger unpin(@NotNull UUID playerUuid) {
+        UnsignedInteger accountId = this.pinned.remove(playerUuid);
+        if (accountId != null) {
+            this.lookups.put(playerUuid, accountId);
+        }
+        return accountId;
+    }
+
+    /**
+     * Forget the main account of a player, for example because the relation with
+     * the account was deleted
+     *
+     * @param playerUuid the UUID of the player
+     */
+    public void invalidate(@NotNull UUID playerUuid) {
+        this.pinned.remove(playerUuid);
+        this.lookups.invalidate(playerUuid);
+    }
+
+    /**
+     * Forget the main account of a player looked up from the database, keeping
+     * it if it is pinned
+     *
+     * @param playerUuid the UUID of the player
+     * @return true if the main account of the player is pinned, false otherwise
+     */
+    public boolean invalidateLookup(@NotNull UUID playerUuid) {
+        this.lookups.invalidate(playerUuid);
+        return this.pinned.containsKey(playerUuid);
+    }
+
+    /**
+     * Forget the main accounts looked up from the database, keeping the pinned
+     * ones
+     *
+     * @return the UUIDs of the players whose main account is pinned
+     */
+    public @NotNull Set<UUID> invalidateLookups() {
+        this.lookups.invalidateAll();
+        return new HashSet<>(this.pinned.keySet());
+    }
+
+    /**
+     * Replace the main account of a player if it is pinned, for example because
+     * it was changed by another server
+     *
+     * @param playerUuid the UUID of the player
+     * @param accountId  the ID of the new main account of the player, or null to
+     *                   unpin it if the player no longer has one
+     */
+    public void repin(@NotNull UUID playerUuid, @Nullable UnsignedInteger accountId) {
+        if (accountId == null) {
+            this.pinned.remove(playerUuid);
+        } else {
+            this.pinned.replace(playerUuid, accountId);
+        }
+    }
+
+    /**
+     * Forget the players whose main account is the given account, for example
+     * because it was deleted
+     *
+     * @param accountId the ID of the account
+     */
+    public void invalidateAccount(@NotNull UnsignedInteger accountId) {
+        this.pinned.values().removeIf(accountId::equals);
+        this.lookups.asMap().values().removeIf(accountId::equals);
+    }
+
+    /**
+     * Get the number of lookups answered by the cache
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Get the number of lookups the cache could not answer
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Get the number of main accounts in memory
+     *
+     * @return the number of pinned and cached main accounts
+     */
+    public long size() {
+        return this.pinned.size() + this.lookups.size();
+    }
+
+}
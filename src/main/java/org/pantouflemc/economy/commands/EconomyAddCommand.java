@@ -41,17 +41,23 @@ public class EconomyAddCommand extends EconomyCommandExecutor {
             }
 
             // Add the balance
-            Economy.getPlugin().addBalance(targetPlayer.getUniqueId(), amount);
-
-            sender.sendMessage("$" + amount + " added to the balance of " + targetPlayer.getName());
+            Economy.getPlugin().addBalanceAsync(targetPlayer.getUniqueId(), amount, actorOf(sender))
+                    .whenComplete((unused, error) -> {
+                        if (error instanceof EconomyAccountNotFoundError) {
+                            sender.sendMessage("Target not found");
+                        } else if (error instanceof EconomyInvalidAmountError) {
+                            sender.sendMessage("Amount must be positive");
+                        } else if (error != null) {
+                            sender.sendMessage("An error occurred");
+                        } else {
+                            sender.sendMessage("$" + amount + " added to the balance of " + targetPlayer.getName());
+                        }
+                    });
 
             return true;
         } catch (EconomyAccountNotFoundError e) {
             sender.sendMessage("Target not found");
             return false;
-        } catch (EconomyInvalidAmountError e) {
-            sender.sendMessage("Amount must be positive");
-            return false;
         } catch (NumberFormatException e) {
             sender.sendMessage("Invalid amount");
             return false;
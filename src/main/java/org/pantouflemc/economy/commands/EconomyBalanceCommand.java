@@ -35,9 +35,14 @@ public class EconomyBalanceCommand extends EconomyCommandExecutor {
             Player player = (Player) sender;
 
             // Get the balance of the player
-            double balance = Economy.getPlugin().getBalance(player);
-
-            player.sendMessage("Your balance is $" + balance);
+            Economy.getPlugin().getBalanceAsync(player).whenComplete((balance, error) -> {
+                if (error != null) {
+                    player.sendMessage("An error occurred");
+                    return;
+                }
+
+                player.sendMessage("Your balance is $" + balance);
+            });
 
             return true;
         } catch (Exception e) {
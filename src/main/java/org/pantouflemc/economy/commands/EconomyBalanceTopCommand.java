@@ -1,12 +1,36 @@
 package org.pantouflemc.economy.commands;
 
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.Nullable;
+
+import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 import org.pantouflemc.economy.Economy;
+import org.pantouflemc.economy.LeaderboardCursor;
+import org.pantouflemc.economy.Money;
+import org.pantouflemc.economy.PlayerBalance;
+import org.pantouflemc.economy.exceptions.EconomyAccountNotFoundError;
 
 public class EconomyBalanceTopCommand extends EconomyCommandExecutor {
 
+    private static final int PAGE_SIZE = 10;
+
+    /**
+     * The last page read by a sender, along with the cursor of its last account
+     */
+    private record LastPage(int page, @NotNull LeaderboardCursor cursor) {
+    }
+
+    // Only accessed from the main thread
+    private final @NotNull Map<CommandSender, LastPage> lastPages = new WeakHashMap<>();
+
     public EconomyBalanceTopCommand() {
         super("balancetop");
     }
@@ -20,23 +44,118 @@ public class EconomyBalanceTopCommand extends EconomyCommandExecutor {
         }
 
         try {
-            // Check if the command has no arguments
-            if (args.length != 0) {
+            if (args.length >= 1 && args[0].equals("rank")) {
+                return this.showRank(sender, args);
+            }
+
+            // Parse the arguments
+            if (args.length > 1)
+                return false;
+            int page = args.length == 1 ? Integer.parseInt(args[0]) : 1;
+            if (page < 1) {
+                sender.sendMessage("Invalid page");
                 return false;
             }
 
-            // Get the accounts
-            var accounts = Economy.getPlugin().getTopPlayerAccounts(10, 0);
-            for (int i = 0; i < accounts.size(); i++) {
-                var account = accounts.get(i);
-                sender.sendMessage((i + 1) + ". " + account.getLeft() + " - $" + account.getRight());
+            // The page following the last one read by the sender is read from its
+            // cursor, any other page is read by its offset
+            CompletableFuture<List<PlayerBalance>> accountsFuture;
+            LastPage lastPage = this.lastPages.get(sender);
+            if (page == 1) {
+                accountsFuture = Economy.getPlugin().getTopPlayerBalancesAsync(PAGE_SIZE, LeaderboardCursor.START);
+            } else if (lastPage != null && lastPage.page() == page - 1) {
+                accountsFuture = Economy.getPlugin().getTopPlayerBalancesAsync(PAGE_SIZE, lastPage.cursor());
+            } else {
+                accountsFuture = Economy.getPlugin().getTopPlayerBalancesAsync(PAGE_SIZE, (page - 1) * PAGE_SIZE);
             }
 
+            // Get the accounts
+            accountsFuture.whenComplete((accounts, error) -> {
+                if (error != null) {
+                    sender.sendMessage("An error occurred");
+                    return;
+                }
+
+                if (accounts.isEmpty()) {
+                    this.lastPages.remove(sender);
+                    sender.sendMessage("No accounts on page " + page);
+                    return;
+                }
+
+                this.lastPages.put(sender, new LastPage(page, LeaderboardCursor.after(accounts.get(accounts.size() - 1))));
+
+                int first = (page - 1) * PAGE_SIZE;
+                for (int i = 0; i < accounts.size(); i++) {
+                    var account = accounts.get(i);
+                    sender.sendMessage((first + i + 1) + ". " + account.playerName() + " - $"
+                            + Money.format(account.balance()));
+                }
+            });
+
             return true;
+        } catch (NumberFormatException e) {
+            sender.sendMessage("Invalid page");
+            return false;
         } catch (Exception e) {
             sender.sendMessage("An error occurred");
             return false;
         }
     }
 
+    /**
+     * Show the rank of a player
+     */
+    private boolean showRank(@NotNull CommandSender sender, @NotNull String[] args) {
+        // Get the target player
+        OfflinePlayer targetPlayer;
+        if (args.length == 2) {
+            @Nullable
+            OfflinePlayer cachedPlayer = sender.getServer().getOfflinePlayerIfCached(args[1]);
+            if (cachedPlayer == null) {
+                sender.sendMessage("Player not found");
+                return false;
+            }
+            targetPlayer = cachedPlayer;
+        } else if (args.length == 1 && sender instanceof Player) {
+            targetPlayer = (Player) sender;
+        } else {
+            return false;
+        }
+
+        // Get the rank
+        Economy.getPlugin().getRankAsync(targetPlayer.getUniqueId()).whenComplete((rank, error) -> {
+            if (error instanceof EconomyAccountNotFoundError) {
+                sender.sendMessage("Player not found");
+            } else if (error != null) {
+                sender.sendMessage("An error occurred");
+            } else if (rank == 0) {
+                sender.sendMessage(
+                        targetPlayer.getName() + " is ranked after #" + Economy.getPlugin().getMaximumRank());
+            } else {
+                sender.sendMessage(targetPlayer.getName() + " is ranked #" + rank);
+            }
+        });
+
+        return true;
+    }
+
+    @Override
+    public @NotNull List<String> onTabComplete(
+            @NotNull CommandSender sender,
+            @NotNull Command command,
+            @NotNull String alias,
+            @NotNull String[] args) {
+        if (args.length == 1) {
+            return List.of("rank", "1", "2", "3");
+        }
+
+        if (args.length == 2 && args[0].equals("rank")) {
+            return Economy.getPlugin().getServer().getOnlinePlayers().stream()
+                    .map(player -> player.getName())
+                    .toList();
+        }
+
+        return List.of();
+    }
+
 }
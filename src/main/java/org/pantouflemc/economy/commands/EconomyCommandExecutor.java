@@ -5,20 +5,26 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import org.bukkit.command.Command;
-import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabExecutor;
+import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.pantouflemc.economy.Economy;
+import org.pantouflemc.economy.metrics.Metrics;
 
 public abstract class EconomyCommandExecutor implements TabExecutor {
 
     protected final String commandName;
     protected Map<String, EconomyCommandExecutor> subCommands = new HashMap<>();
+    private final String metricName;
 
     EconomyCommandExecutor(String name) {
         this.commandName = name;
+        this.metricName = "command." + name;
     }
 
     @Override
@@ -31,12 +37,34 @@ public abstract class EconomyCommandExecutor implements TabExecutor {
             return false;
         }
 
-        CommandExecutor executor = subCommands.get(args[0]);
+        EconomyCommandExecutor executor = subCommands.get(args[0]);
         if (executor == null) {
             return false;
         }
 
-        return executor.onCommand(sender, command, label, Arrays.copyOfRange(args, 1, args.length));
+        return executor.execute(sender, command, label, Arrays.copyOfRange(args, 1, args.length));
+    }
+
+    /**
+     * Run the command, recording its latency and failures in the metrics
+     *
+     * @return true if the command was valid, false otherwise
+     */
+    public boolean execute(
+            @NotNull CommandSender sender,
+            @NotNull Command command,
+            @NotNull String label,
+            @NotNull String[] args) {
+        Metrics metrics = Economy.getPlugin().getMetrics();
+        long start = metrics.start();
+        boolean failed = true;
+        try {
+            boolean result = this.onCommand(sender, command, label, args);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(this.metricName, start, failed);
+        }
     }
 
     @Override
@@ -78,6 +106,16 @@ public abstract class EconomyCommandExecutor implements TabExecutor {
         return this.commandName;
     }
 
+    /**
+     * Get the UUID recorded in the history for the transactions made by a sender
+     *
+     * @param sender the sender of the command
+     * @return the UUID of the player, or null for the console
+     */
+    protected static @Nullable UUID actorOf(@NotNull CommandSender sender) {
+        return sender instanceof Player ? ((Player) sender).getUniqueId() : null;
+    }
+
     /**
      * Register a sub-command
      *
@@ -0,0 +1,284 @@
+package org.pantouflemc.economy.commands;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.pantouflemc.economy.Economy;
+import org.pantouflemc.economy.Money;
+import org.pantouflemc.economy.TransactionCursor;
+import org.pantouflemc.economy.TransactionRecord;
+import org.pantouflemc.economy.exceptions.EconomyAccountNotFoundError;
+import org.pantouflemc.economy.history.TransactionSummary;
+
+import com.google.common.primitives.UnsignedInteger;
+
+public class EconomyHistoryCommand extends EconomyCommandExecutor {
+
+    private static final int PAGE_SIZE = 10;
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * The last page of a player's history read by a sender, along with the cursor
+     * of its last transaction, and the day of its last summary if the raw
+     * transactions ended on it
+     */
+    private record LastPage(@NotNull UUID playerUuid, int page, @NotNull TransactionCursor cursor,
+            @Nullable Long summaryDay) {
+    }
+
+    // Only accessed from the main thread
+    private final @NotNull Map<CommandSender, LastPage> lastPages = new WeakHashMap<>();
+
+    public EconomyHistoryCommand() {
+        super("history");
+    }
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label,
+            @NotNull String[] args) {
+        if (!sender.hasPermission("economy.history")) {
+            sender.sendMessage("You don't have permission to use this command");
+            return false;
+        }
+
+        try {
+            // Parse the arguments, a single number is a page of the sender's history
+            if (args.length > 2)
+                return false;
+            String targetName = null;
+            int page = 1;
+            if (args.length == 2) {
+                targetName = args[0];
+                page = Integer.parseInt(args[1]);
+            } else if (args.length == 1 && isNumber(args[0]) && sender instanceof Player) {
+                page = Integer.parseInt(args[0]);
+            } else if (args.length == 1) {
+                targetName = args[0];
+            }
+            if (page < 1) {
+                sender.sendMessage("Invalid page");
+                return false;
+            }
+
+            // Get the target player
+            OfflinePlayer targetPlayer;
+            if (targetName != null) {
+                @Nullable
+                OfflinePlayer cachedPlayer = sender.getServer().getOfflinePlayerIfCached(targetName);
+                if (cachedPlayer == null) {
+                    throw new EconomyAccountNotFoundError();
+                }
+                targetPlayer = cachedPlayer;
+            } else if (sender instanceof Player) {
+                targetPlayer = (Player) sender;
+            } else {
+                return false;
+            }
+
+            if (!(sender instanceof Player && ((Player) sender).getUniqueId().equals(targetPlayer.getUniqueId()))
+                    && !sender.hasPermission("economy.history.others")) {
+                sender.sendMessage("You don't have permission to see the history of other players");
+                return false;
+            }
+
+            this.showPage(sender, targetPlayer, page);
+
+            return true;
+        } catch (EconomyAccountNotFoundError e) {
+            sender.sendMessage("Player not found");
+            return false;
+        } catch (NumberFormatException e) {
+            sender.sendMessage("Invalid page");
+            return false;
+        } catch (Exception e) {
+            sender.sendMessage("An error occurred");
+            return false;
+        }
+    }
+
+    /**
+     * Show a page of the history of a player
+     * <p>
+     * The transactions compacted by the history retention only remain as daily
+     * summaries, which follow the raw transactions in the pages.
+     */
+    private void showPage(@NotNull CommandSender sender, @NotNull OfflinePlayer targetPlayer, int page) {
+        UUID playerUuid = targetPlayer.getUniqueId();
+
+        // The page following the last one read by the sender starts after its
+        // cursor. Any other page is read from the most recent transaction, along
+        // with the pages before it
+        LastPage lastPage = this.lastPages.get(sender);
+        boolean following = lastPage != null && lastPage.playerUuid().equals(playerUuid)
+                && lastPage.page() == page - 1;
+        TransactionCursor cursor;
+        int limit;
+        if (following) {
+            cursor = lastPage.cursor();
+            limit = PAGE_SIZE;
+        } else {
+            cursor = TransactionCursor.START;
+            limit = page * PAGE_SIZE;
+        }
+
+        Economy.getPlugin().getMainAccountAsync(playerUuid).whenComplete((accountId, accountError) -> {
+            if (accountError instanceof EconomyAccountNotFoundError) {
+                sender.sendMessage("Player not found");
+                return;
+            } else if (accountError != null) {
+                sender.sendMessage("An error occurred");
+                return;
+            }
+
+            // The raw transactions ended on the last page, only summaries are left
+            if (following && lastPage.summaryDay() != null) {
+                this.showSummaries(sender, targetPlayer, page, accountId, List.of(), PAGE_SIZE, 0,
+                        lastPage.summaryDay());
+                return;
+            }
+
+            Economy.getPlugin().getTransactionsAsync(accountId, limit, cursor).whenComplete((transactions, error) -> {
+                if (error != null) {
+                    sender.sendMessage("An error occurred");
+                    return;
+                }
+
+                List<TransactionRecord> pageTransactions = transactions.subList(
+                        Math.min(transactions.size(), limit - PAGE_SIZE), transactions.size());
+                if (transactions.size() == limit) {
+                    this.show(sender, targetPlayer, page, accountId, pageTransactions, List.of());
+                    return;
+                }
+
+                // The summaries fill the rest of the page, and the summaries of the
+                // pages before it are skipped
+                long boundary = transactions.isEmpty() ? cursor.timestamp()
+                        : transactions.get(transactions.size() - 1).timestamp();
+                this.showSummaries(sender, targetPlayer, page, accountId, pageTransactions,
+                        limit - transactions.size(), Math.max(0, limit - PAGE_SIZE - transactions.size()),
+                        Math.floorDiv(boundary, DAY) + 1);
+            });
+        });
+    }
+
+    /**
+     * Read the daily summaries of the history of a player, then show a page
+     * ending with them
+     *
+     * @param count     the number of summaries up to the end of the page
+     * @param skip      the number of summaries shown by the pages before
+     * @param beforeDay the day before which the summaries are read
+     */
+    private void showSummaries(@NotNull CommandSender sender, @NotNull OfflinePlayer targetPlayer, int page,
+            @NotNull UnsignedInteger accountId, @NotNull List<TransactionRecord> pageTransactions, int count,
+            int skip, long beforeDay) {
+        Economy.getPlugin().getTransactionSummariesAsync(accountId, count, beforeDay)
+                .whenComplete((summaries, error) -> {
+                    if (error != null) {
+                        sender.sendMessage("An error occurred");
+                        return;
+                    }
+
+                    this.show(sender, targetPlayer, page, accountId, pageTransactions,
+                            summaries.subList(Math.min(summaries.size(), skip), summaries.size()));
+                });
+    }
+
+    /**
+     * Show a page of the history of a player and remember where it ends
+     */
+    private void show(@NotNull CommandSender sender, @NotNull OfflinePlayer targetPlayer, int page,
+            @NotNull UnsignedInteger accountId, @NotNull List<TransactionRecord> pageTransactions,
+            @NotNull List<TransactionSummary> pageSummaries) {
+        if (pageTransactions.isEmpty() && pageSummaries.isEmpty()) {
+            this.lastPages.remove(sender);
+            sender.sendMessage("No transactions on page " + page);
+            return;
+        }
+
+        TransactionCursor cursor = pageTransactions.isEmpty() ? TransactionCursor.START
+                : TransactionCursor.after(pageTransactions.get(pageTransactions.size() - 1));
+        Long summaryDay = pageSummaries.isEmpty() ? null : pageSummaries.get(pageSummaries.size() - 1).day();
+        this.lastPages.put(sender, new LastPage(targetPlayer.getUniqueId(), page, cursor, summaryDay));
+
+        sender.sendMessage("History of " + targetPlayer.getName() + " (page " + page + ")");
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        for (TransactionRecord transaction : pageTransactions) {
+            sender.sendMessage("[" + dateFormat.format(new Date(transaction.timestamp())) + "] "
+                    + describe(transaction, accountId));
+        }
+
+        // The days are counted in UTC
+        SimpleDateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd");
+        dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        for (TransactionSummary summary : pageSummaries) {
+            long net = summary.netDelta();
+            sender.sendMessage("[" + dayFormat.format(new Date(summary.day() * DAY)) + "] "
+                    + summary.count() + " transactions, net " + (net < 0 ? "-" : "+") + "$"
+                    + Money.format(Math.abs(net)));
+        }
+    }
+
+    /**
+     * Describe a transaction from the point of view of an account
+     */
+    private static @NotNull String describe(@NotNull TransactionRecord transaction,
+            @NotNull UnsignedInteger accountId) {
+        String amount = "$" + Money.format(transaction.amount());
+        return switch (transaction.kind()) {
+            case TRANSFER -> Integer.valueOf(accountId.intValue()).equals(transaction.fromAccountId())
+                    ? "Sent " + amount + " to " + name(transaction.toName(), transaction.toAccountId())
+                    : "Received " + amount + " from " + name(transaction.fromName(), transaction.fromAccountId());
+            case SET -> "Balance set to " + amount;
+            case ADD -> "Received " + amount;
+            case REMOVE -> "Lost " + amount;
+        };
+    }
+
+    /**
+     * Get the name shown for the other account of a transfer
+     */
+    private static @NotNull String name(@Nullable String playerName, @Nullable Integer accountId) {
+        return playerName != null ? playerName : "account #" + accountId;
+    }
+
+    /**
+     * Check whether an argument is a page number rather than a player name
+     */
+    private static boolean isNumber(@NotNull String argument) {
+        return !argument.isEmpty() && argument.chars().allMatch(Character::isDigit);
+    }
+
+    @Override
+    public @NotNull List<String> onTabComplete(
+            @NotNull CommandSender sender,
+            @NotNull Command command,
+            @NotNull String alias,
+            @NotNull String[] args) {
+        if (args.length == 1 && sender.hasPermission("economy.history.others")) {
+            return Economy.getPlugin().getServer().getOnlinePlayers().stream()
+                    .map(player -> player.getName())
+                    .toList();
+        }
+
+        if (args.length == 1 || args.length == 2) {
+            return List.of("1", "2", "3");
+        }
+
+        return List.of();
+    }
+
+}
@@ -57,20 +57,26 @@ public class EconomyPayCommand extends EconomyCommandExecutor {
             }
 
             // Transfer the balance
-            Economy.getPlugin().transferMoney(player.getUniqueId(), targetPlayer.getUniqueId(), amount);
-
-            sender.sendMessage("$" + amount + " transferred to " + targetPlayer.getName());
+            Economy.getPlugin().transferMoneyAsync(player.getUniqueId(), targetPlayer.getUniqueId(), amount,
+                    player.getUniqueId())
+                    .whenComplete((unused, error) -> {
+                        if (error instanceof EconomyAccountNotFoundError) {
+                            sender.sendMessage("Target not found");
+                        } else if (error instanceof EconomyInsufficientBalance) {
+                            sender.sendMessage("You do not have enough balance");
+                        } else if (error instanceof EconomyInvalidAmountError) {
+                            sender.sendMessage("Amount must be positive");
+                        } else if (error != null) {
+                            sender.sendMessage("An error occurred");
+                        } else {
+                            sender.sendMessage("$" + amount + " transferred to " + targetPlayer.getName());
+                        }
+                    });
 
             return true;
         } catch (EconomyAccountNotFoundError e) {
             sender.sendMessage("Target not found");
             return false;
-        } catch (EconomyInsufficientBalance e) {
-            sender.sendMessage("You do not have enough balance");
-            return false;
-        } catch (EconomyInvalidAmountError e) {
-            sender.sendMessage("Amount must be positive");
-            return false;
         } catch (NumberFormatException e) {
             sender.sendMessage("Invalid amount");
             return false;
@@ -41,20 +41,25 @@ public class EconomyRemoveCommand extends EconomyCommandExecutor {
                 throw new EconomyAccountNotFoundError();
             }
 
-            Economy.getPlugin().removeBalance(targetPlayer.getUniqueId(), amount);
-
-            sender.sendMessage("$" + amount + " removed from the balance of " + targetPlayer.getName());
+            Economy.getPlugin().removeBalanceAsync(targetPlayer.getUniqueId(), amount, actorOf(sender))
+                    .whenComplete((unused, error) -> {
+                        if (error instanceof EconomyAccountNotFoundError) {
+                            sender.sendMessage("Target not found");
+                        } else if (error instanceof EconomyInsufficientBalance) {
+                            sender.sendMessage("Player does not have enough balance");
+                        } else if (error instanceof EconomyInvalidAmountError) {
+                            sender.sendMessage("Amount must be positive");
+                        } else if (error != null) {
+                            sender.sendMessage("An error occurred");
+                        } else {
+                            sender.sendMessage("$" + amount + " removed from the balance of " + targetPlayer.getName());
+                        }
+                    });
 
             return true;
         } catch (EconomyAccountNotFoundError e) {
             sender.sendMessage("Target not found");
             return false;
-        } catch (EconomyInsufficientBalance e) {
-            sender.sendMessage("Player does not have enough balance");
-            return false;
-        } catch (EconomyInvalidAmountError e) {
-            sender.sendMessage("Amount must be positive");
-            return false;
         } catch (NumberFormatException e) {
             sender.sendMessage("Invalid amount");
             return false;
@@ -40,17 +40,23 @@ public class EconomySetCommand extends EconomyCommandExecutor {
                 throw new EconomyAccountNotFoundError();
             }
 
-            Economy.getPlugin().setBalance(targetPlayer.getUniqueId(), amount);
-
-            sender.sendMessage("Balance of " + targetPlayer.getName() + " set to $" + amount);
+            Economy.getPlugin().setBalanceAsync(targetPlayer.getUniqueId(), amount, actorOf(sender))
+                    .whenComplete((unused, error) -> {
+                        if (error instanceof EconomyAccountNotFoundError) {
+                            sender.sendMessage("Target not found");
+                        } else if (error instanceof EconomyInvalidAmountError) {
+                            sender.sendMessage("Amount must be positive");
+                        } else if (error != null) {
+                            sender.sendMessage("An error occurred");
+                        } else {
+                            sender.sendMessage("Balance of " + targetPlayer.getName() + " set to $" + amount);
+                        }
+                    });
 
             return true;
         } catch (EconomyAccountNotFoundError e) {
             sender.sendMessage("Target not found");
             return false;
-        } catch (EconomyInvalidAmountError e) {
-            sender.sendMessage("Amount must be positive");
-            return false;
         } catch (NumberFormatException e) {
             sender.sendMessage("Invalid amount");
             return false;
@@ -0,0 +1,42 @@
+package org.pantouflemc.economy.commands;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.jetbrains.annotations.NotNull;
+import org.pantouflemc.economy.Economy;
+import org.pantouflemc.economy.metrics.Metrics;
+
+public class EconomyStatsCommand extends EconomyCommandExecutor {
+
+    public EconomyStatsCommand() {
+        super("stats");
+    }
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label,
+            @NotNull String[] args) {
+        if (!sender.hasPermission("economy.stats")) {
+            sender.sendMessage("You don't have permission to use this command");
+            return false;
+        }
+
+        // Check if the command has no arguments
+        if (args.length != 0) {
+            return false;
+        }
+
+        Metrics metrics = Economy.getPlugin().getMetrics();
+        if (!metrics.isEnabled()) {
+            sender.sendMessage("The metrics are disabled");
+            return true;
+        }
+
+        sender.sendMessage("Economy metrics (latencies since the start of the server):");
+        for (String line : metrics.report()) {
+            sender.sendMessage("  " + line);
+        }
+
+        return true;
+    }
+
+}
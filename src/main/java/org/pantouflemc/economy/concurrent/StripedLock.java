@@ -0,0 +1,107 @@
+package org.pantouflemc.economy.concurrent;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Striped locks of the accounts.
+ * <p>
+ * Each account ID is mapped to one of a fixed number of locks, so the
+ * mutations of the same account are serialized while the mutations of
+ * different accounts run in parallel, except for the rare accounts sharing a
+ * stripe. The locks are reentrant, an operation holding the lock of an
+ * account can call another operation on it.
+ * <p>
+ * The operations on several accounts acquire their stripes in ascending
+ * order, so two of them can never wait for each other.
+ */
+public class StripedLock {
+
+    /**
+     * The stripes held by an operation, released when closed
+     */
+    public static final class Held implements AutoCloseable {
+
+        private final @NotNull ReentrantLock @NotNull [] locks;
+
+        private Held(@NotNull ReentrantLock @NotNull [] locks) {
+            this.locks = locks;
+        }
+
+        /**
+         * Release the stripes, in the reverse order of their acquisition
+         */
+        @Override
+        public void close() {
+            for (int i = this.locks.length - 1; i >= 0; i--) {
+                this.locks[i].unlock();
+            }
+        }
+
+    }
+
+    private final @NotNull ReentrantLock @NotNull [] stripes;
+    private final int mask;
+
+    /**
+     * Create a new StripedLock
+     *
+     * @param stripes the minimum number of locks, rounded up to a power of two
+     */
+    public StripedLock(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Get the stripe of an account
+     *
+     * @param accountId the ID of the account
+     * @return the index of the lock of the account
+     */
+    private int stripe(int accountId) {
+        // The IDs are sequential, the spreading keeps the neighbours apart
+        int hash = accountId * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & this.mask;
+    }
+
+    /**
+     * Lock an account
+     *
+     * @param accountId the ID of the account
+     * @return the held stripe, to be closed once the operation is done
+     */
+    public @NotNull Held lock(int accountId) {
+        ReentrantLock lock = this.stripes[this.stripe(accountId)];
+        lock.lock();
+        return new Held(new ReentrantLock[] { lock });
+    }
+
+    /**
+     * Lock several accounts, in the order of their stripes
+     *
+     * @param accountIds the IDs of the accounts
+     * @return the held stripes, to be closed once the operation is done
+     */
+    public @NotNull Held lock(int @NotNull... accountIds) {
+        int[] indexes = new int[accountIds.length];
+        for (int i = 0; i < accountIds.length; i++) {
+            indexes[i] = this.stripe(accountIds[i]);
+        }
+        indexes = Arrays.stream(indexes).sorted().distinct().toArray();
+
+        ReentrantLock[] locks = new ReentrantLock[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            locks[i] = this.stripes[indexes[i]];
+            locks[i].lock();
+        }
+        return new Held(locks);
+    }
+
+}
@@ -0,0 +1,20 @@
+package org.pantouflemc.economy.database;
+
+import java.util.UUID;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A change of an account, read from the change feed of a database shared by
+ * several servers.
+ *
+ * @param id         The ID of the change, increasing with the changes.
+ * @param accountId  The ID of the changed account.
+ * @param playerUuid The UUID of the player whose relation with the account
+ *                   changed, or null if only the balance changed.
+ * @param deleted    Whether the account was deleted.
+ * @param local      Whether the change was made by this server, whose caches
+ *                   are already up to date.
+ */
+public record AccountChange(long id, int accountId, @Nullable UUID playerUuid, boolean deleted, boolean local) {
+}
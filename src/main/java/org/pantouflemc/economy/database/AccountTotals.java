@@ -0,0 +1,11 @@
+package org.pantouflemc.economy.database;
+
+/**
+ * The totals of the accounts of the database.
+ *
+ * @param accounts    The number of accounts.
+ * @param moneySupply The sum of the balances of the accounts, in minor units.
+ * @param players     The number of known players.
+ */
+public record AccountTotals(long accounts, long moneySupply, long players) {
+}
@@ -0,0 +1,92 @@
+package org.pantouflemc.economy.database;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The SQL variations between the supported databases.
+ */
+public enum DatabaseDialect {
+
+    // The rowid of SQLite is already 64 bits, and grows without AUTOINCREMENT as
+    // long as the last rows are not deleted
+    SQLITE("INTEGER PRIMARY KEY AUTOINCREMENT", "INTEGER PRIMARY KEY", "BLOB", "INTEGER", true),
+    // Also used for MariaDB and H2 in MySQL mode, which only cast to SIGNED and
+    // not to a column type
+    MYSQL("INTEGER PRIMARY KEY AUTO_INCREMENT", "BIGINT PRIMARY KEY AUTO_INCREMENT", "BINARY(16)", "SIGNED", false);
+
+    private final @NotNull String autoIncrementPrimaryKey;
+    private final @NotNull String autoIncrementBigPrimaryKey;
+    private final @NotNull String uuidType;
+    private final @NotNull String integerCastType;
+    private final boolean partialIndexes;
+
+    DatabaseDialect(@NotNull String autoIncrementPrimaryKey, @NotNull String autoIncrementBigPrimaryKey,
+            @NotNull String uuidType, @NotNull String integerCastType, boolean partialIndexes) {
+        this.autoIncrementPrimaryKey = autoIncrementPrimaryKey;
+        this.autoIncrementBigPrimaryKey = autoIncrementBigPrimaryKey;
+        this.uuidType = uuidType;
+        this.integerCastType = integerCastType;
+        this.partialIndexes = partialIndexes;
+    }
+
+    /**
+     * Get the dialect of a database from its JDBC URL
+     *
+     * @param databaseUrl the JDBC URL of the database
+     * @return the dialect of the database
+     */
+    public static @NotNull DatabaseDialect fromUrl(@Nullable String databaseUrl) {
+        if (databaseUrl != null && databaseUrl.startsWith("jdbc:sqlite:")) {
+            return SQLITE;
+        }
+        return MYSQL;
+    }
+
+    /**
+     * Get the definition of an integer primary key generated by the database
+     *
+     * @return the column type and constraints
+     */
+    public @NotNull String autoIncrementPrimaryKey() {
+        return this.autoIncrementPrimaryKey;
+    }
+
+    /**
+     * Get the definition of a 64 bits integer primary key generated by the
+     * database, for the tables that can outgrow the 32 bits ones
+     *
+     * @return the column type and constraints
+     */
+    public @NotNull String autoIncrementBigPrimaryKey() {
+        return this.autoIncrementBigPrimaryKey;
+    }
+
+    /**
+     * Get the type of the columns holding a UUID as 16 bytes
+     *
+     * @return the column type
+     */
+    public @NotNull String uuidType() {
+        return this.uuidType;
+    }
+
+    /**
+     * Get the type a value is cast to for a 64 bits integer
+     *
+     * @return the type used in a CAST expression
+     */
+    public @NotNull String integerCastType() {
+        return this.integerCastType;
+    }
+
+    /**
+     * Check whether the database supports indexes restricted by a WHERE clause
+     *
+     * @return true if partial indexes are supported, false otherwise
+     */
+    public boolean supportsPartialIndexes() {
+        return this.partialIndexes;
+    }
+
+}
@@ -0,0 +1,150 @@
+package org.pantouflemc.economy.database;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Executor running the database operations away from the server main thread.
+ * <p>
+ * The number of operations running at the same time is bounded. Virtual
+ * threads are used when the JVM provides them, otherwise a fixed pool of
+ * platform threads is used.
+ */
+public class DatabaseExecutor implements Closeable {
+
+    private final @NotNull ExecutorService executor;
+    private final @NotNull Semaphore permits;
+    private final @NotNull AtomicInteger pending = new AtomicInteger();
+    private final boolean virtual;
+
+    /**
+     * Create a new DatabaseExecutor
+     *
+     * @param threads        the maximum number of operations running at the same
+     *                       time
+     * @param virtualThreads whether to use virtual threads when available
+     */
+    public DatabaseExecutor(int threads, boolean virtualThreads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be positive");
+        }
+
+        ExecutorService virtualExecutor = virtualThreads ? createVirtualExecutor() : null;
+
+        this.virtual = virtualExecutor != null;
+        this.permits = new Semaphore(threads);
+        this.executor = virtualExecutor != null
+                ? virtualExecutor
+                : new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                        runnable -> {
+                            Thread thread = new Thread(runnable, "economy-database");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+    }
+
+    /**
+     * Create an executor starting a new virtual thread per task, if the JVM
+     * supports them
+     *
+     * @return the executor, or null if virtual threads are not available
+     */
+    private static ExecutorService createVirtualExecutor() {
+        try {
+            // Looked up reflectively because the plugin targets Java 17
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Run a task on the database executor
+     *
+     * @param task             the task to run
+     * @param callbackExecutor the executor used to complete the returned future
+     * @return a future completed with the result of the task
+     */
+    public <T> @NotNull CompletableFuture<T> submit(@NotNull DatabaseTask<T> task, @NotNull Executor callbackExecutor) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        this.pending.incrementAndGet();
+        try {
+            this.executor.execute(() -> {
+                T result;
+                try {
+                    this.permits.acquire();
+                    try {
+                        result = task.call();
+                    } finally {
+                        this.permits.release();
+                    }
+                } catch (Throwable e) {
+                    this.pending.decrementAndGet();
+                    callbackExecutor.execute(() -> future.completeExceptionally(e));
+                    return;
+                }
+
+                this.pending.decrementAndGet();
+                callbackExecutor.execute(() -> future.complete(result));
+            });
+        } catch (RejectedExecutionException e) {
+            this.pending.decrementAndGet();
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * Get the number of tasks waiting or running on the executor
+     *
+     * @return the number of pending tasks
+     */
+    public int getPendingTasks() {
+        return this.pending.get();
+    }
+
+    /**
+     * Check whether the executor runs its tasks on virtual threads
+     *
+     * @return true if virtual threads are used, false otherwise
+     */
+    public boolean isVirtual() {
+        return this.virtual;
+    }
+
+    /**
+     * Stop accepting new tasks and wait for the pending ones to finish
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return true if every pending task finished, false otherwise
+     */
+    public boolean shutdown(long timeout, @NotNull TimeUnit unit) {
+        this.executor.shutdown();
+        try {
+            return this.executor.awaitTermination(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+}
@@ -1,55 +1,119 @@
 package org.pantouflemc.economy.database;
 
-import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongUnaryOperator;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.bukkit.configuration.ConfigurationSection;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.pantouflemc.economy.BalanceUpdateResult;
+import org.pantouflemc.economy.LeaderboardCursor;
+import org.pantouflemc.economy.Money;
+import org.pantouflemc.economy.PlayerBalance;
+import org.pantouflemc.economy.TransactionCursor;
+import org.pantouflemc.economy.TransactionKind;
+import org.pantouflemc.economy.TransactionRecord;
+import org.pantouflemc.economy.Transfer;
 import org.pantouflemc.economy.exceptions.EconomyDriverNotFoundException;
 import org.pantouflemc.economy.exceptions.EconomyInsufficientBalance;
 import org.pantouflemc.economy.exceptions.EconomyInvalidAmountError;
 import org.pantouflemc.economy.exceptions.EconomyDatabaseError;
-import org.pantouflemc.economy.Economy;
 import org.pantouflemc.economy.exceptions.EconomyAccountNotFoundError;
 import org.pantouflemc.economy.exceptions.EconomyDatabaseConnectionError;
+import org.pantouflemc.economy.history.PendingTransaction;
+import org.pantouflemc.economy.history.TransactionArchive;
+import org.pantouflemc.economy.history.TransactionSummary;
+import org.pantouflemc.economy.journal.JournalRecord;
+import org.pantouflemc.economy.metrics.Metrics;
+import org.pantouflemc.economy.storage.StorageEngine;
 
 import com.google.common.primitives.UnsignedInteger;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 
-public class DatabaseManager implements Closeable {
+/**
+ * The storage engine keeping the economy in a SQL database, reached through
+ * JDBC.
+ */
+public class DatabaseManager implements StorageEngine {
 
-    private final @NotNull HikariConfig config;
+    // Below the limit of the older SQLite versions (999)
+    private static final int MAXIMUM_IN_PARAMETERS = 500;
+
+    private final @NotNull DatabaseDialect dialect;
     private final @NotNull HikariDataSource dataSource;
-    private final @NotNull Connection connection;
+    private final @Nullable HikariDataSource readDataSource;
+    private final @NotNull StatementCache statements = new StatementCache();
+    private final @NotNull Metrics metrics;
+    private final boolean changeFeed;
+    // Tells the changes made through this instance apart from the ones of the
+    // other servers
+    private final long changeOrigin = ThreadLocalRandom.current().nextLong();
+    // Tells the journal of this server apart from the ones of the other servers
+    private final @NotNull String serverId;
 
     /**
-     * Create a new DatabaseManager
+     * Create a new DatabaseManager without metrics
+     *
+     * @param config the database section of the configuration
      */
-    public DatabaseManager() throws EconomyDriverNotFoundException, EconomyDatabaseError,
-            EconomyDatabaseConnectionError {
-        String databaseUrl = Economy.getPlugin().getConfig().getString("database.url");
-        String databaseUsername = Economy.getPlugin().getConfig().getString("database.username");
-        String databasePassword = Economy.getPlugin().getConfig().getString("database.password");
-
-        // Connect to the database
-        this.config = new HikariConfig();
-        this.config.setJdbcUrl(databaseUrl);
-        this.config.setUsername(databaseUsername);
-        this.config.setPassword(databasePassword);
+    public DatabaseManager(@NotNull ConfigurationSection config) throws EconomyDriverNotFoundException,
+            EconomyDatabaseError, EconomyDatabaseConnectionError {
+        this(config, new Metrics(false));
+    }
 
-        this.dataSource = new HikariDataSource(config);
+    /**
+     * Create a new DatabaseManager
+     *
+     * @param config  the database section of the configuration
+     * @param metrics the metrics the operations are recorded in
+     */
+    public DatabaseManager(@NotNull ConfigurationSection config, @NotNull Metrics metrics)
+            throws EconomyDriverNotFoundException, EconomyDatabaseError, EconomyDatabaseConnectionError {
+        this.metrics = metrics;
+        this.dialect = DatabaseDialect.fromUrl(config.getString("url"));
+        this.changeFeed = config.getBoolean("change-feed.enabled");
+        this.serverId = config.getString("server-id", "");
+
+        if (this.dialect == DatabaseDialect.SQLITE) {
+            // SQLite only allows a single writer at a time, so the writes go through a
+            // single connection while the reads are spread over the rest of the pool.
+            // The WAL journal lets the readers run concurrently with the writer.
+            this.dataSource = createDataSource(config, "economy-write", 1);
+            this.readDataSource = createDataSource(config, "economy-read",
+                    config.getInt("pool.maximum-pool-size"));
+        } else {
+            this.dataSource = createDataSource(config, "economy", config.getInt("pool.maximum-pool-size"));
+            this.readDataSource = null;
+        }
 
+        // Check that the database is reachable
         try {
-            this.connection = dataSource.getConnection();
+            this.dataSource.getConnection().close();
         } catch (SQLException e) {
+            this.close();
             throw new EconomyDatabaseConnectionError();
         }
 
@@ -57,15 +121,96 @@ public class DatabaseManager implements Closeable {
         initialization();
     }
 
+    /**
+     * Create a connection pool
+     *
+     * @param config          the database section of the configuration
+     * @param poolName        the name of the pool
+     * @param maximumPoolSize the maximum number of connections of the pool
+     * @return the connection pool
+     */
+    private static @NotNull HikariDataSource createDataSource(@NotNull ConfigurationSection config,
+            @NotNull String poolName, int maximumPoolSize) {
+        String databaseUrl = config.getString("url");
+
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName(poolName);
+        hikariConfig.setJdbcUrl(databaseUrl);
+        hikariConfig.setUsername(config.getString("username"));
+        hikariConfig.setPassword(config.getString("password"));
+        hikariConfig.setMaximumPoolSize(maximumPoolSize);
+        hikariConfig.setMinimumIdle(Math.min(config.getInt("pool.minimum-idle"), maximumPoolSize));
+        hikariConfig.setConnectionTimeout(config.getLong("pool.connection-timeout"));
+        hikariConfig.setIdleTimeout(config.getLong("pool.idle-timeout"));
+        hikariConfig.setMaxLifetime(config.getLong("pool.max-lifetime"));
+        hikariConfig.setLeakDetectionThreshold(config.getLong("pool.leak-detection-threshold"));
+
+        if (DatabaseDialect.fromUrl(databaseUrl) == DatabaseDialect.SQLITE) {
+            hikariConfig.addDataSourceProperty("journal_mode", "WAL");
+            hikariConfig.addDataSourceProperty("synchronous", "NORMAL");
+            hikariConfig.addDataSourceProperty("busy_timeout",
+                    String.valueOf(config.getLong("pool.connection-timeout")));
+        } else {
+            // The statements are closed when their connection is given back to
+            // the pool, the driver keeps them prepared across borrows
+            hikariConfig.addDataSourceProperty("cachePrepStmts", "true");
+            hikariConfig.addDataSourceProperty("prepStmtCacheSize", "250");
+            hikariConfig.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+            hikariConfig.addDataSourceProperty("useServerPrepStmts", "true");
+        }
+
+        return new HikariDataSource(hikariConfig);
+    }
+
     @Override
-    public void close() throws RuntimeException {
+    public void close() {
+        this.statements.close();
+        if (this.readDataSource != null)
+            this.readDataSource.close();
+        if (this.dataSource != null)
+            this.dataSource.close();
+    }
+
+    /**
+     * Borrow a connection from the pool to modify the database
+     *
+     * @return the connection, to be closed to give it back to the pool
+     */
+    private @NotNull Connection getConnection() throws SQLException {
+        return this.dataSource.getConnection();
+    }
+
+    /**
+     * Borrow a connection from the pool to read the database
+     *
+     * @return the connection, to be closed to give it back to the pool
+     */
+    private @NotNull Connection getReadConnection() throws SQLException {
+        return this.readDataSource != null
+                ? this.readDataSource.getConnection()
+                : this.dataSource.getConnection();
+    }
+
+    /**
+     * Run an operation, recording its latency and failures in the metrics
+     *
+     * @param operation the name of the operation
+     * @param task      the operation
+     * @return the result of the operation
+     */
+    private <T> T timed(@NotNull String operation, @NotNull DatabaseTask<T> task) throws EconomyDatabaseError {
+        if (!this.metrics.isEnabled()) {
+            return task.call();
+        }
+
+        long start = this.metrics.start();
+        boolean failed = true;
         try {
-            if (this.connection != null)
-                this.connection.close();
-            if (this.dataSource != null)
-                this.dataSource.close();
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+            T result = task.call();
+            failed = false;
+            return result;
+        } finally {
+            this.metrics.record(operation, start, failed);
         }
     }
 
@@ -73,37 +218,35 @@ public class DatabaseManager implements Closeable {
      * Initialize the database
      */
     private void initialization() throws EconomyDatabaseError {
-        try (Statement statement = this.connection.createStatement()) {
-            // Create the accounts table
-            statement.execute("""
-                    CREATE TABLE IF NOT EXISTS accounts (
-                        id INTEGER PRIMARY KEY AUTOINCREMENT,
-                        balance DOUBLE NOT NULL
-                    );
-                    """);
-
-            // Create the players name - uuid relation table
-            statement.execute("""
-                    CREATE TABLE IF NOT EXISTS players (
-                        player_uuid VARCHAR(32) PRIMARY KEY,
-                        player_name VARCHAR(16) NOT NULL
-                    );
-                    """);
-
-            // Create the players - accounts relation table
-            statement.execute("""
-                    CREATE TABLE IF NOT EXISTS players_accounts (
-                        player_uuid VARCHAR(32),
-                        account_id INTEGER,
-                        main BOOLEAN DEFAULT FALSE,
-                        PRIMARY KEY (player_uuid, account_id),
-                        FOREIGN KEY (player_uuid) REFERENCES players(player_uuid),
-                        FOREIGN KEY (account_id) REFERENCES accounts(id),
-                        UNIQUE (player_uuid, account_id)
-                    );
-                    CREATE UNIQUE INDEX IF NOT EXISTS player_uuid_index
-                    ON players_accounts (player_uuid, account_id) WHERE main = TRUE;
-                    """);
+        try (Connection connection = this.getConnection()) {
+            new SchemaMigrator(this.dialect).migrate(connection);
+
+            // The balances are stored in minor units, another number of decimals
+            // would scale all of them
+            int decimals;
+            PreparedStatement decimalsStatement = this.statements.prepare(connection,
+                    Queries.SELECT_CURRENCY_DECIMALS);
+            try (ResultSet resultSet = decimalsStatement.executeQuery()) {
+                decimals = resultSet.next() ? resultSet.getInt(1) : Money.getDecimals();
+            }
+            if (decimals != Money.getDecimals()) {
+                throw new EconomyDatabaseError("The balances are stored with " + decimals
+                        + " decimals but currency.decimals is " + Money.getDecimals());
+            }
+
+            // Create the journal state of a server starting for the first time
+            PreparedStatement selectStatement = this.statements.prepare(connection,
+                    Queries.SELECT_JOURNAL_SEQUENCE);
+            selectStatement.setString(1, this.serverId);
+            try (ResultSet resultSet = selectStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    return;
+                }
+            }
+
+            PreparedStatement insertStatement = this.statements.prepare(connection, Queries.INSERT_JOURNAL_STATE);
+            insertStatement.setString(1, this.serverId);
+            insertStatement.executeUpdate();
         } catch (SQLException e) {
             throw new EconomyDatabaseError();
         }
@@ -114,26 +257,31 @@ public class DatabaseManager implements Closeable {
      *
      * @return the ID of the new account
      */
+    @Override
     public @NotNull UnsignedInteger createAccount() throws EconomyDatabaseError {
-        String query = "INSERT INTO accounts (balance) VALUES (0.0);";
-        try (PreparedStatement statement = this.connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
-            int affectedRows = statement.executeUpdate();
+        return this.timed("database.createAccount", () -> {
+            try (Connection connection = this.getConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.INSERT_ACCOUNT,
+                        Statement.RETURN_GENERATED_KEYS);
 
-            if (affectedRows == 0) {
-                // Should never happen
-                throw new EconomyDatabaseError();
-            }
+                int affectedRows = statement.executeUpdate();
 
-            ResultSet generatedKeys = statement.getGeneratedKeys();
+                if (affectedRows == 0) {
+                    // Should never happen
+                    throw new EconomyDatabaseError();
+                }
 
-            if (generatedKeys.next()) {
-                return UnsignedInteger.valueOf(generatedKeys.getInt(1));
-            }
+                try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                    if (generatedKeys.next()) {
+                        return UnsignedInteger.valueOf(generatedKeys.getInt(1));
+                    }
+                }
 
-            throw new EconomyDatabaseError();
-        } catch (SQLException e) {
-            throw new EconomyDatabaseError();
-        }
+                throw new EconomyDatabaseError();
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
     }
 
     /**
@@ -141,19 +289,23 @@ public class DatabaseManager implements Closeable {
      *
      * @param id the ID of the account
      */
+    @Override
     public void deleteAccount(UnsignedInteger accountId) throws EconomyAccountNotFoundError, EconomyDatabaseError {
-        String query = "DELETE FROM accounts WHERE id = ?;";
-        try (PreparedStatement statement = this.connection.prepareStatement(query)) {
-            statement.setInt(1, accountId.intValue());
+        this.timed("database.deleteAccount", () -> {
+            try (Connection connection = this.getConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.DELETE_ACCOUNT);
+                statement.setInt(1, accountId.intValue());
 
-            int affectedRows = statement.executeUpdate();
+                int affectedRows = this.executeRecorded(connection, statement, accountId.intValue(), null, true);
 
-            if (affectedRows == 0) {
-                throw new EconomyAccountNotFoundError();
+                if (affectedRows == 0) {
+                    throw new EconomyAccountNotFoundError();
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
             }
-        } catch (SQLException e) {
-            throw new EconomyDatabaseError();
-        }
+            return null;
+        });
     }
 
     /**
@@ -163,19 +315,112 @@ public class DatabaseManager implements Closeable {
      * @param playerName the name of the player
      */
     public void addPlayer(UUID playerUuid, String playerName) throws EconomyDatabaseError {
-        String query = "INSERT INTO players (player_uuid, player_name) VALUES (?, ?);";
-        try (PreparedStatement statement = this.connection.prepareStatement(query)) {
-            statement.setString(1, playerUuid.toString());
-            statement.setString(2, playerName);
-
-            int affectedRows = statement.executeUpdate();
+        this.timed("database.addPlayer", () -> {
+            try (Connection connection = this.getConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.INSERT_PLAYER);
+                statement.setBytes(1, UuidBytes.toBytes(playerUuid));
+                statement.setString(2, playerName);
+
+                int affectedRows = statement.executeUpdate();
+
+                if (affectedRows == 0) {
+                    throw new EconomyDatabaseError();
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+            return null;
+        });
+    }
 
-            if (affectedRows == 0) {
+    /**
+     * Register a player and make sure they have a main account, in a single
+     * transaction
+     * <p>
+     * The name of a known player is updated, and a main account is created for
+     * a player who has none.
+     *
+     * @param playerUuid the UUID of the player
+     * @param playerName the current name of the player
+     * @return the main account of the player with its balance
+     */
+    @Override
+    public @NotNull PlayerBalance ensurePlayer(UUID playerUuid, String playerName) throws EconomyDatabaseError {
+        return this.timed("database.ensurePlayer", () -> {
+            try (Connection connection = this.getConnection()) {
+                connection.setAutoCommit(false);
+                try {
+                    byte[] playerUuidBytes = UuidBytes.toBytes(playerUuid);
+
+                    // Insert the player, or update their name if they are already known
+                    PreparedStatement updatePlayerStatement = this.statements.prepare(connection,
+                            Queries.UPDATE_PLAYER_NAME);
+                    updatePlayerStatement.setString(1, playerName);
+                    updatePlayerStatement.setBytes(2, playerUuidBytes);
+
+                    if (updatePlayerStatement.executeUpdate() == 0) {
+                        PreparedStatement insertPlayerStatement = this.statements.prepare(connection,
+                                Queries.INSERT_PLAYER);
+                        insertPlayerStatement.setBytes(1, playerUuidBytes);
+                        insertPlayerStatement.setString(2, playerName);
+                        insertPlayerStatement.executeUpdate();
+                    }
+
+                    // Read the main account of the player
+                    PreparedStatement selectAccountStatement = this.statements.prepare(connection,
+                            Queries.SELECT_MAIN_ACCOUNT_BALANCE);
+                    selectAccountStatement.setBytes(1, playerUuidBytes);
+
+                    PlayerBalance account = null;
+                    try (ResultSet resultSet = selectAccountStatement.executeQuery()) {
+                        if (resultSet.next()) {
+                            account = new PlayerBalance(
+                                    resultSet.getInt("id"),
+                                    playerName,
+                                    resultSet.getLong("balance"));
+                        }
+                    }
+
+                    if (account != null) {
+                        connection.commit();
+                        return account;
+                    }
+
+                    // Create the main account of the player
+                    PreparedStatement insertAccountStatement = this.statements.prepare(connection,
+                            Queries.INSERT_ACCOUNT, Statement.RETURN_GENERATED_KEYS);
+                    insertAccountStatement.executeUpdate();
+
+                    int accountId;
+                    try (ResultSet generatedKeys = insertAccountStatement.getGeneratedKeys()) {
+                        if (!generatedKeys.next()) {
+                            // Should never happen
+                            connection.rollback();
+                            throw new EconomyDatabaseError();
+                        }
+                        accountId = generatedKeys.getInt(1);
+                    }
+
+                    PreparedStatement insertRelationStatement = this.statements.prepare(connection,
+                            Queries.INSERT_MAIN_RELATION);
+                    insertRelationStatement.setBytes(1, playerUuidBytes);
+                    insertRelationStatement.setInt(2, accountId);
+                    insertRelationStatement.executeUpdate();
+
+                    this.recordChanges(connection, List.of(accountId), playerUuid, false);
+
+                    connection.commit();
+                    return new PlayerBalance(accountId, playerName, 0);
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
                 throw new EconomyDatabaseError();
             }
-        } catch (SQLException e) {
-            throw new EconomyDatabaseError();
-        }
+        });
     }
 
     /**
@@ -185,27 +430,27 @@ public class DatabaseManager implements Closeable {
      * @param accountId  the ID of the account
      * @param main       whether the account is the main account of the player
      */
+    @Override
     public void createPlayerAccountRelation(UUID playerUuid, UnsignedInteger accountId, boolean main)
             throws EconomyAccountNotFoundError, EconomyDatabaseError {
-        String query = main
-                ? "INSERT INTO players_accounts (player_uuid, account_id, main) VALUES (?, ?, ?);"
-                : "INSERT INTO players_accounts (player_uuid, account_id) VALUES (?, ?);";
-        try (PreparedStatement statement = this.connection.prepareStatement(query)) {
-            statement.setString(1, playerUuid.toString());
-            statement.setInt(2, accountId.intValue());
-
-            if (main) {
-                statement.setBoolean(3, true);
-            }
-
-            int affectedRows = statement.executeUpdate();
-
-            if (affectedRows == 0) {
-                throw new EconomyAccountNotFoundError();
+        this.timed("database.createPlayerAccountRelation", () -> {
+            String query = main ? Queries.INSERT_MAIN_RELATION : Queries.INSERT_RELATION;
+            try (Connection connection = this.getConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, query);
+                statement.setBytes(1, UuidBytes.toBytes(playerUuid));
+                statement.setInt(2, accountId.intValue());
+
+                int affectedRows = this.executeRecorded(connection, statement, accountId.intValue(), playerUuid,
+                        false);
+
+                if (affectedRows == 0) {
+                    throw new EconomyAccountNotFoundError();
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
             }
-        } catch (SQLException e) {
-            throw new EconomyDatabaseError();
-        }
+            return null;
+        });
     }
 
     /**
@@ -215,26 +460,44 @@ public class DatabaseManager implements Closeable {
      * @param playerUuid the UUID of the player
      * @param accountId  the ID of the account
      */
+    @Override
     public void deletePlayerAccountRelation(UUID playerUuid, UnsignedInteger accountId)
             throws EconomyAccountNotFoundError, EconomyDatabaseError {
-        String query = """
-                DELETE FROM players_accounts WHERE player_uuid = ? AND account_id = ?;
-                DELETE FROM accounts WHERE id = ? AND NOT EXISTS (SELECT 1 FROM players_accounts WHERE account_id = ?);
-                """;
-        try (PreparedStatement statement = this.connection.prepareStatement(query)) {
-            statement.setString(1, playerUuid.toString());
-            statement.setInt(2, accountId.intValue());
-            statement.setInt(3, accountId.intValue());
-            statement.setInt(4, accountId.intValue());
-
-            int affectedRows = statement.executeUpdate();
-
-            if (affectedRows == 0) {
-                throw new EconomyAccountNotFoundError();
+        this.timed("database.deletePlayerAccountRelation", () -> {
+            try (Connection connection = this.getConnection()) {
+                connection.setAutoCommit(false);
+                try {
+                    PreparedStatement deleteRelation = this.statements.prepare(connection, Queries.DELETE_RELATION);
+                    deleteRelation.setBytes(1, UuidBytes.toBytes(playerUuid));
+                    deleteRelation.setInt(2, accountId.intValue());
+
+                    int affectedRows = deleteRelation.executeUpdate();
+
+                    if (affectedRows == 0) {
+                        connection.rollback();
+                        throw new EconomyAccountNotFoundError();
+                    }
+
+                    PreparedStatement deleteAccount = this.statements.prepare(connection,
+                            Queries.DELETE_ORPHAN_ACCOUNT);
+                    deleteAccount.setInt(1, accountId.intValue());
+                    deleteAccount.setInt(2, accountId.intValue());
+                    boolean deleted = deleteAccount.executeUpdate() > 0;
+
+                    this.recordChanges(connection, List.of(accountId.intValue()), playerUuid, deleted);
+
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
             }
-        } catch (SQLException e) {
-            throw new EconomyDatabaseError();
-        }
+            return null;
+        });
     }
 
     /**
@@ -245,20 +508,107 @@ public class DatabaseManager implements Closeable {
      */
     public @NotNull double getBalance(UnsignedInteger accountId) throws EconomyAccountNotFoundError,
             EconomyDatabaseError {
-        String query = "SELECT balance FROM accounts WHERE id = ?;";
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setInt(1, accountId.intValue());
+        return Money.toMajor(this.getBalanceMinor(accountId));
+    }
+
+    /**
+     * Get the balance of an account in minor units
+     *
+     * @param accountId the ID of the account
+     * @return the balance of the account, in minor units
+     */
+    @Override
+    public long getBalanceMinor(UnsignedInteger accountId) throws EconomyAccountNotFoundError,
+            EconomyDatabaseError {
+        return this.timed("database.getBalanceMinor", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.SELECT_BALANCE);
+                statement.setInt(1, accountId.intValue());
 
-            ResultSet resultSet = statement.executeQuery();
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        return resultSet.getLong("balance");
+                    }
+                }
 
-            if (resultSet.next()) {
-                return resultSet.getDouble("balance");
+                throw new EconomyAccountNotFoundError();
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
             }
+        });
+    }
 
-            throw new EconomyAccountNotFoundError();
-        } catch (SQLException e) {
-            throw new EconomyDatabaseError();
-        }
+    /**
+     * Get the balance of an account in minor units along with its version
+     *
+     * @param accountId the ID of the account
+     * @return the balance of the account and its version
+     */
+    @Override
+    public @NotNull VersionedBalance getVersionedBalanceMinor(UnsignedInteger accountId)
+            throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        return this.timed("database.getVersionedBalanceMinor", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.SELECT_VERSIONED_BALANCE);
+                statement.setInt(1, accountId.intValue());
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        return new VersionedBalance(resultSet.getLong("balance"), resultSet.getLong("version"));
+                    }
+                }
+
+                throw new EconomyAccountNotFoundError();
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Get the balances of several accounts in minor units along with their
+     * versions
+     *
+     * @param accountIds the IDs of the accounts
+     * @return the balances and versions, by account ID (the accounts that were
+     *         not found are missing)
+     */
+    @Override
+    public @NotNull Map<Integer, VersionedBalance> getVersionedBalancesMinor(@NotNull Collection<Integer> accountIds)
+            throws EconomyDatabaseError {
+        return this.timed("database.getVersionedBalancesMinor", () -> {
+            Map<Integer, VersionedBalance> balances = new HashMap<>();
+            List<Integer> accounts = new ArrayList<>(accountIds);
+
+            try (Connection connection = this.getReadConnection()) {
+                // The accounts are looked up by chunks, the databases limit the number of
+                // parameters of a query
+                for (int start = 0; start < accounts.size(); start += MAXIMUM_IN_PARAMETERS) {
+                    List<Integer> chunk = accounts.subList(start,
+                            Math.min(start + MAXIMUM_IN_PARAMETERS, accounts.size()));
+
+                    String query = "SELECT id, balance, version FROM accounts WHERE id IN ("
+                            + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ");";
+                    try (PreparedStatement statement = connection.prepareStatement(query)) {
+                        for (int i = 0; i < chunk.size(); i++) {
+                            statement.setInt(i + 1, chunk.get(i));
+                        }
+
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            while (resultSet.next()) {
+                                balances.put(resultSet.getInt("id"), new VersionedBalance(
+                                        resultSet.getLong("balance"),
+                                        resultSet.getLong("version")));
+                            }
+                        }
+                    }
+                }
+
+                return balances;
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
     }
 
     /**
@@ -269,23 +619,39 @@ public class DatabaseManager implements Closeable {
      */
     public void setBalance(UnsignedInteger accountId, double balance) throws EconomyInvalidAmountError,
             EconomyAccountNotFoundError, EconomyDatabaseError {
-        if (balance < 0) {
-            throw new EconomyInvalidAmountError();
-        }
+        this.setBalanceMinor(accountId, Money.toMinor(balance));
+    }
 
-        String query = "UPDATE accounts SET balance = ? WHERE id = ?;";
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setDouble(1, balance);
-            statement.setInt(2, accountId.intValue());
+    /**
+     * Set the balance of an account in minor units
+     *
+     * @param accountId the ID of the account
+     * @param balance   the new balance of the account, in minor units (must be
+     *                  positive)
+     */
+    @Override
+    public void setBalanceMinor(UnsignedInteger accountId, long balance) throws EconomyInvalidAmountError,
+            EconomyAccountNotFoundError, EconomyDatabaseError {
+        this.timed("database.setBalanceMinor", () -> {
+            if (balance < 0) {
+                throw new EconomyInvalidAmountError();
+            }
 
-            int affectedRows = statement.executeUpdate();
+            try (Connection connection = this.getConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.SET_BALANCE);
+                statement.setLong(1, balance);
+                statement.setInt(2, accountId.intValue());
 
-            if (affectedRows == 0) {
-                throw new EconomyAccountNotFoundError();
+                int affectedRows = this.executeRecorded(connection, statement, accountId.intValue(), null, false);
+
+                if (affectedRows == 0) {
+                    throw new EconomyAccountNotFoundError();
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
             }
-        } catch (SQLException e) {
-            throw new EconomyDatabaseError();
-        }
+            return null;
+        });
     }
 
     /**
@@ -296,23 +662,39 @@ public class DatabaseManager implements Closeable {
      */
     public void addBalance(UnsignedInteger accountId, double amount) throws EconomyInvalidAmountError,
             EconomyAccountNotFoundError, EconomyDatabaseError {
-        if (amount < 0) {
-            throw new EconomyInvalidAmountError();
-        }
+        this.addBalanceMinor(accountId, Money.toMinor(amount));
+    }
 
-        String query = "UPDATE accounts SET balance = balance + ? WHERE id = ?;";
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setDouble(1, amount);
-            statement.setInt(2, accountId.intValue());
+    /**
+     * Add an amount in minor units to the balance of an account
+     *
+     * @param accountId the ID of the account
+     * @param amount    the amount to add, in minor units (must be positive)
+     */
+    @Override
+    public void addBalanceMinor(UnsignedInteger accountId, long amount) throws EconomyInvalidAmountError,
+            EconomyAccountNotFoundError, EconomyDatabaseError {
+        this.timed("database.addBalanceMinor", () -> {
+            if (amount < 0) {
+                throw new EconomyInvalidAmountError();
+            }
 
-            int affectedRows = statement.executeUpdate();
+            try (Connection connection = this.getConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.ADD_BALANCE);
+                statement.setLong(1, amount);
+                statement.setInt(2, accountId.intValue());
+                statement.setLong(3, maximumBalanceBefore(amount));
 
-            if (affectedRows == 0) {
-                throw new EconomyAccountNotFoundError();
+                int affectedRows = this.executeRecorded(connection, statement, accountId.intValue(), null, false);
+
+                if (affectedRows == 0) {
+                    throw this.additionFailure(connection, accountId.intValue());
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
             }
-        } catch (SQLException e) {
-            throw new EconomyDatabaseError();
-        }
+            return null;
+        });
     }
 
     /**
@@ -323,164 +705,1746 @@ public class DatabaseManager implements Closeable {
      */
     public void removeBalance(UnsignedInteger accountId, double amount) throws EconomyInsufficientBalance,
             EconomyInvalidAmountError, EconomyDatabaseError {
-        if (amount < 0) {
-            throw new EconomyInvalidAmountError();
-        }
-
-        String query = "UPDATE accounts SET balance = balance - ? WHERE id = ? AND balance >= ?;";
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setDouble(1, amount);
-            statement.setInt(2, accountId.intValue());
-            statement.setDouble(3, amount);
-
-            int affectedRows = statement.executeUpdate();
-
-            if (affectedRows == 0) {
-                // We can't distinguish between the account not existing and the account not
-                // having enough balance, so we return ACCOUNT_HAS_NOT_ENOUGH_BALANCE in both
-                // cases in the hope that the caller will give a correct account ID
-
-                // throw new EconomyAccountNotFoundError();
-                throw new EconomyInsufficientBalance();
-            }
-        } catch (SQLException e) {
-            throw new EconomyDatabaseError();
-        }
+        this.removeBalanceMinor(accountId, Money.toMinor(amount));
     }
 
     /**
-     * Get the UUIDs of the players associated with an account
+     * Remove an amount in minor units from the balance of an account
      *
      * @param accountId the ID of the account
-     * @return the UUIDs of the players associated with the account
+     * @param amount    the amount to remove, in minor units (must be positive)
      */
-    public @NotNull List<UUID> getPlayers(UnsignedInteger accountId) throws EconomyDatabaseError {
-        String query = "SELECT player_uuid FROM players_accounts WHERE account_id = ?;";
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setInt(1, accountId.intValue());
+    @Override
+    public void removeBalanceMinor(UnsignedInteger accountId, long amount) throws EconomyInsufficientBalance,
+            EconomyInvalidAmountError, EconomyDatabaseError {
+        this.timed("database.removeBalanceMinor", () -> {
+            if (amount < 0) {
+                throw new EconomyInvalidAmountError();
+            }
 
-            ResultSet resultSet = statement.executeQuery();
+            try (Connection connection = this.getConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.REMOVE_BALANCE);
+                statement.setLong(1, amount);
+                statement.setInt(2, accountId.intValue());
+                statement.setLong(3, amount);
 
-            List<UUID> players = new ArrayList<>();
+                int affectedRows = this.executeRecorded(connection, statement, accountId.intValue(), null, false);
 
-            while (resultSet.next()) {
-                players.add(UUID.fromString(resultSet.getString("player_uuid")));
+                if (affectedRows == 0) {
+                    // We can't distinguish between the account not existing and the account not
+                    // having enough balance, so we return ACCOUNT_HAS_NOT_ENOUGH_BALANCE in both
+                    // cases in the hope that the caller will give a correct account ID
+
+                    // throw new EconomyAccountNotFoundError();
+                    throw new EconomyInsufficientBalance();
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
             }
+            return null;
+        });
+    }
 
-            // We can't distinguish between the account not existing and the account not
-            // having any players, so we return an empty list in both cases
-            return players;
-        } catch (SQLException e) {
-            throw new EconomyDatabaseError();
-        }
+    /**
+     * Transfer an amount from one account to another in a single transaction
+     *
+     * @param fromAccountId the ID of the account to remove the amount from
+     * @param toAccountId   the ID of the account to add the amount to
+     * @param amount        the amount to transfer (must be positive)
+     */
+    public void transferBalance(UnsignedInteger fromAccountId, UnsignedInteger toAccountId, double amount)
+            throws EconomyAccountNotFoundError, EconomyInsufficientBalance, EconomyInvalidAmountError,
+            EconomyDatabaseError {
+        this.transferBalanceMinor(fromAccountId, toAccountId, Money.toMinor(amount));
     }
 
     /**
-     * Get the accounts associated with a player
+     * Transfer an amount in minor units from one account to another in a single
+     * transaction
      *
-     * @param playerUuid the UUID of the player
-     * @return the IDs of the accounts associated with the player
+     * @param fromAccountId the ID of the account to remove the amount from
+     * @param toAccountId   the ID of the account to add the amount to
+     * @param amount        the amount to transfer, in minor units (must be
+     *                      positive)
      */
-    public @NotNull List<Integer> getAccounts(UUID playerUuid) throws EconomyDatabaseError {
-        String query = "SELECT account_id FROM players_accounts WHERE player_uuid = ?;";
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setString(1, playerUuid.toString());
+    @Override
+    public void transferBalanceMinor(UnsignedInteger fromAccountId, UnsignedInteger toAccountId, long amount)
+            throws EconomyAccountNotFoundError, EconomyInsufficientBalance, EconomyInvalidAmountError,
+            EconomyDatabaseError {
+        this.timed("database.transferBalanceMinor", () -> {
+            if (amount < 0) {
+                throw new EconomyInvalidAmountError();
+            }
 
-            ResultSet resultSet = statement.executeQuery();
+            try (Connection connection = this.getConnection()) {
+                connection.setAutoCommit(false);
+                try {
+                    PreparedStatement removeStatement = this.statements.prepare(connection, Queries.REMOVE_BALANCE);
+                    PreparedStatement addStatement = this.statements.prepare(connection, Queries.ADD_BALANCE);
+
+                    removeStatement.setLong(1, amount);
+                    removeStatement.setInt(2, fromAccountId.intValue());
+                    removeStatement.setLong(3, amount);
+
+                    addStatement.setLong(1, amount);
+                    addStatement.setInt(2, toAccountId.intValue());
+                    addStatement.setLong(3, maximumBalanceBefore(amount));
+
+                    // The rows are always locked by increasing account ID so that two
+                    // opposite transfers can't deadlock
+                    if (fromAccountId.compareTo(toAccountId) <= 0) {
+                        this.executeTransferRemove(connection, removeStatement);
+                        this.executeTransferAdd(connection, addStatement, toAccountId.intValue());
+                    } else {
+                        this.executeTransferAdd(connection, addStatement, toAccountId.intValue());
+                        this.executeTransferRemove(connection, removeStatement);
+                    }
+
+                    this.recordChanges(connection, List.of(fromAccountId.intValue(), toAccountId.intValue()), null,
+                            false);
+
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+            return null;
+        });
+    }
 
-            List<Integer> accounts = new ArrayList<>();
+    /**
+     * Execute the removal half of a transfer, rolling back the transaction if the
+     * account does not have enough balance
+     */
+    private void executeTransferRemove(Connection connection, PreparedStatement statement)
+            throws SQLException, EconomyInsufficientBalance {
+        if (statement.executeUpdate() == 0) {
+            connection.rollback();
+            throw new EconomyInsufficientBalance();
+        }
+    }
 
-            while (resultSet.next()) {
-                accounts.add(resultSet.getInt("account_id"));
+    /**
+     * Execute the addition half of a transfer, rolling back the transaction if the
+     * account does not exist or its balance would overflow
+     */
+    private void executeTransferAdd(Connection connection, PreparedStatement statement, int accountId)
+            throws SQLException, EconomyAccountNotFoundError, EconomyInvalidAmountError {
+        if (statement.executeUpdate() == 0) {
+            EconomyDatabaseError failure = this.additionFailure(connection, accountId);
+            connection.rollback();
+            if (failure instanceof EconomyInvalidAmountError invalidAmount) {
+                throw invalidAmount;
             }
-
-            // We can't distinguish between the player not existing and the player not
-            // having any accounts, so we return an empty list in both cases
-            return accounts;
-        } catch (SQLException e) {
-            throw new EconomyDatabaseError();
+            throw (EconomyAccountNotFoundError) failure;
         }
     }
 
     /**
-     * Get the top player accounts
-     * 
-     * @param limit  the maximum number of accounts to return
-     * @param offset the number of accounts to skip
-     * @return
+     * Get the error explaining why an addition updated no row: the account does
+     * not exist, or its balance would overflow
+     *
+     * @param accountId the ID of the account
+     * @return the error to throw
      */
-    public @NotNull List<ImmutablePair<String, Double>> getTopPlayerAccounts(int limit, int offset)
-            throws EconomyDatabaseError {
-        String query = """
-                SELECT player_name, balance FROM players_accounts
-                LEFT JOIN accounts ON players_accounts.account_id = accounts.id
-                LEFT JOIN players ON players_accounts.player_uuid = players.player_uuid
-                WHERE main = TRUE
-                ORDER BY balance DESC
-                LIMIT ? OFFSET ?;
-                """;
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setInt(1, limit);
-            statement.setInt(2, offset);
-
-            ResultSet resultSet = statement.executeQuery();
-
-            List<ImmutablePair<String, Double>> accounts = new ArrayList<>();
+    private @NotNull EconomyDatabaseError additionFailure(Connection connection, int accountId)
+            throws SQLException {
+        return this.accountExists(connection, accountId)
+                ? new EconomyInvalidAmountError()
+                : new EconomyAccountNotFoundError();
+    }
 
-            while (resultSet.next()) {
-                accounts.add(ImmutablePair.of(
-                        resultSet.getString("player_name"),
-                        resultSet.getDouble("balance")));
-            }
+    /**
+     * Check whether an account exists, as part of the current transaction
+     *
+     * @param accountId the ID of the account
+     * @return true if the account exists, false otherwise
+     */
+    private boolean accountExists(Connection connection, int accountId) throws SQLException {
+        PreparedStatement statement = this.statements.prepare(connection, Queries.SELECT_BALANCE);
+        statement.setInt(1, accountId);
 
-            return accounts;
-        } catch (SQLException e) {
-            throw new EconomyDatabaseError();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next();
         }
     }
 
     /**
-     * Get the main account of a player
+     * Get the highest balance an amount can be added to without overflowing
      *
-     * @param playerUuid the UUID of the player
-     * @return the ID of the main account of the player
+     * @param amount the amount to add, in minor units
+     * @return the highest balance, in minor units
      */
-    public @NotNull UnsignedInteger getMainAccount(UUID playerUuid) throws EconomyAccountNotFoundError,
-            EconomyDatabaseError {
-        String query = "SELECT account_id FROM players_accounts WHERE player_uuid = ? AND main = TRUE;";
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setString(1, playerUuid.toString());
+    private static long maximumBalanceBefore(long amount) {
+        return amount > 0 ? Long.MAX_VALUE - amount : Long.MAX_VALUE;
+    }
 
-            ResultSet resultSet = statement.executeQuery();
+    /**
+     * Apply several transfers in a single transaction
+     * <p>
+     * The transfers are applied as a whole: only the net change of each account
+     * has to be covered by its balance, and if one account can't be updated none
+     * of them is.
+     *
+     * @param transfers the transfers to apply
+     */
+    @Override
+    public void transferBalances(@NotNull List<Transfer> transfers) throws EconomyAccountNotFoundError,
+            EconomyInsufficientBalance, EconomyInvalidAmountError, EconomyDatabaseError {
+        this.timed("database.transferBalances", () -> {
+            // Sum the changes of each account, sorted by increasing account ID so that
+            // concurrent batches lock the rows in the same order
+            SortedMap<Integer, Long> deltas = new TreeMap<>();
+            for (Transfer transfer : transfers) {
+                long amount = Money.toMinor(transfer.amount());
+                if (amount < 0) {
+                    throw new EconomyInvalidAmountError();
+                }
+
+                try {
+                    deltas.merge(transfer.from().intValue(), -amount, Math::addExact);
+                    deltas.merge(transfer.to().intValue(), amount, Math::addExact);
+                } catch (ArithmeticException e) {
+                    throw new EconomyInvalidAmountError();
+                }
+            }
 
-            if (resultSet.next()) {
-                return UnsignedInteger.valueOf(resultSet.getInt("account_id"));
+            if (deltas.isEmpty()) {
+                return null;
             }
 
-            throw new EconomyAccountNotFoundError();
-        } catch (SQLException e) {
-            throw new EconomyDatabaseError();
-        }
+            try (Connection connection = this.getConnection()) {
+                connection.setAutoCommit(false);
+                PreparedStatement statement = this.statements.prepare(connection, Queries.APPLY_DELTA);
+                try {
+                    for (Map.Entry<Integer, Long> delta : deltas.entrySet()) {
+                        statement.setLong(1, delta.getValue());
+                        statement.setInt(2, delta.getKey());
+                        statement.setLong(3, delta.getValue());
+                        statement.setLong(4, maximumBalanceBefore(delta.getValue()));
+                        statement.addBatch();
+                    }
+
+                    int[] affectedRows = statement.executeBatch();
+
+                    int i = 0;
+                    for (Map.Entry<Integer, Long> delta : deltas.entrySet()) {
+                        if (affectedRows[i++] == 0) {
+                            if (delta.getValue() < 0) {
+                                connection.rollback();
+                                throw new EconomyInsufficientBalance();
+                            }
+                            EconomyDatabaseError failure = this.additionFailure(connection, delta.getKey());
+                            connection.rollback();
+                            throw failure;
+                        }
+                    }
+
+                    this.recordChanges(connection, deltas.keySet(), null, false);
+
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    // The statement is reused, don't leave a failed batch behind
+                    statement.clearBatch();
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+            return null;
+        });
     }
 
     /**
-     * Check if a player has a certain account
+     * Set the balance of several accounts in a single transaction
      *
-     * @param playerUuid the UUID of the player
-     * @param accountId  the ID of the account
-     * @return true if the player has the account, false otherwise
+     * @param balances the new balances in minor units, by account ID
+     * @return the reason each account that was not updated failed, by account
+     *         ID
      */
-    public @NotNull boolean hasAccount(UUID playerUuid, UnsignedInteger accountId) throws EconomyDatabaseError {
-        String query = "SELECT count(*) FROM players_accounts WHERE player_uuid = ? AND account_id = ?;";
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setString(1, playerUuid.toString());
-            statement.setInt(2, accountId.intValue());
+    @Override
+    public @NotNull Map<Integer, BalanceUpdateResult> setBalancesMinor(@NotNull Map<Integer, Long> balances)
+            throws EconomyDatabaseError {
+        return this.timed("database.setBalancesMinor",
+                () -> this.updateBalances(Queries.SET_BALANCE, balances, null, null, 0));
+    }
 
-            ResultSet resultSet = statement.executeQuery();
+    /**
+     * Set the balance of several accounts and record the journal records they
+     * include, in a single transaction
+     *
+     * @param balances        the new balances in minor units, by account ID
+     * @param journalSequence the sequence number of the last journal record
+     *                        included in the balances, or 0 if none
+     * @return the reason each account that was not updated failed, by account
+     *         ID
+     */
+    @Override
+    public @NotNull Map<Integer, BalanceUpdateResult> setBalancesMinor(@NotNull Map<Integer, Long> balances,
+            long journalSequence) throws EconomyDatabaseError {
+        return this.timed("database.setBalancesMinor",
+                () -> this.updateBalances(Queries.SET_BALANCE, balances, null, null, journalSequence));
+    }
 
-            return resultSet.getInt(1) > 0;
-        } catch (SQLException e) {
-            throw new EconomyDatabaseError();
-        }
+    /**
+     * Add an amount to the balance of several accounts in a single transaction
+     * <p>
+     * The accounts that can't be updated are skipped, the others are updated.
+     *
+     * @param amounts the amounts to add in minor units, by account ID
+     * @return the reason each account that was not updated failed, by account
+     *         ID: not found, or an overflow of the balance
+     */
+    @Override
+    public @NotNull Map<Integer, BalanceUpdateResult> addBalancesMinor(@NotNull Map<Integer, Long> amounts)
+            throws EconomyDatabaseError {
+        return this.timed("database.addBalancesMinor", () -> this.updateBalances(Queries.ADD_BALANCE, amounts,
+                DatabaseManager::maximumBalanceBefore, BalanceUpdateResult.INVALID_AMOUNT, 0));
+    }
+
+    /**
+     * Remove an amount from the balance of several accounts in a single
+     * transaction
+     * <p>
+     * The accounts that can't be updated are skipped, the others are updated.
+     *
+     * @param amounts the amounts to remove in minor units, by account ID
+     * @return the reason each account that was not updated failed, by account
+     *         ID: not found, or not enough balance
+     */
+    @Override
+    public @NotNull Map<Integer, BalanceUpdateResult> removeBalancesMinor(@NotNull Map<Integer, Long> amounts)
+            throws EconomyDatabaseError {
+        return this.timed("database.removeBalancesMinor", () -> this.updateBalances(Queries.REMOVE_BALANCE, amounts,
+                amount -> amount, BalanceUpdateResult.INSUFFICIENT_BALANCE, 0));
+    }
+
+    /**
+     * Set the balance of the accounts whose version did not change, and record
+     * the journal records their balances include, in a single transaction
+     * <p>
+     * The accounts that were not found or changed are skipped, the others are
+     * updated.
+     *
+     * @param balances        the new balances in minor units with the version
+     *                        each account is expected to have, by account ID
+     * @param journalSequence the sequence number of the last journal record
+     *                        included in the balances, or 0 if none
+     * @return the IDs of the accounts that were not updated
+     */
+    @Override
+    public @NotNull Set<Integer> compareAndSetBalancesMinor(@NotNull Map<Integer, VersionedBalance> balances,
+            long journalSequence) throws EconomyDatabaseError {
+        return this.timed("database.compareAndSetBalancesMinor", () -> {
+            if (balances.isEmpty()) {
+                return new HashSet<>();
+            }
+
+            try (Connection connection = this.getConnection()) {
+                connection.setAutoCommit(false);
+                try {
+                    PreparedStatement statement = this.statements.prepare(connection,
+                            Queries.COMPARE_AND_SET_BALANCE);
+
+                    // Executed one by one, a batch may not report which updates matched
+                    // (SUCCESS_NO_INFO)
+                    Set<Integer> failedAccounts = new HashSet<>();
+                    List<Integer> writtenAccounts = new ArrayList<>(balances.size());
+                    for (Map.Entry<Integer, VersionedBalance> balance : balances.entrySet()) {
+                        statement.setLong(1, balance.getValue().balance());
+                        statement.setInt(2, balance.getKey());
+                        statement.setLong(3, balance.getValue().version());
+
+                        if (statement.executeUpdate() == 0) {
+                            failedAccounts.add(balance.getKey());
+                        } else {
+                            writtenAccounts.add(balance.getKey());
+                        }
+                    }
+
+                    this.recordChanges(connection, writtenAccounts, null, false);
+
+                    if (journalSequence > 0) {
+                        this.markJournalApplied(connection, writtenAccounts, journalSequence);
+                    }
+
+                    connection.commit();
+                    return failedAccounts;
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Run a balance update for several accounts as a single batch
+     *
+     * @param query         the update, taking the amount then the account ID
+     * @param amounts       the amounts in minor units, by account ID
+     * @param guard           the bound the query checks the balance against,
+     *                        computed from the amount, or null if it takes none
+     * @param journalSequence the sequence number of the last journal record
+     *                        included in the balances, or 0 if none
+     * @return the IDs of the accounts that were not updated
+     */
+    private @NotNull Map<Integer, BalanceUpdateResult> updateBalances(@NotNull String query,
+            @NotNull Map<Integer, Long> amounts, @Nullable LongUnaryOperator guard,
+            @Nullable BalanceUpdateResult guardFailure, long journalSequence) throws EconomyDatabaseError {
+        Map<Integer, BalanceUpdateResult> failedAccounts = new HashMap<>();
+        if (amounts.isEmpty()) {
+            return failedAccounts;
+        }
+
+        try (Connection connection = this.getConnection()) {
+            connection.setAutoCommit(false);
+            PreparedStatement statement = this.statements.prepare(connection, query);
+            try {
+                List<Integer> accountIds = new ArrayList<>(amounts.size());
+                for (Map.Entry<Integer, Long> entry : amounts.entrySet()) {
+                    statement.setLong(1, entry.getValue());
+                    statement.setInt(2, entry.getKey());
+                    if (guard != null) {
+                        statement.setLong(3, guard.applyAsLong(entry.getValue()));
+                    }
+                    statement.addBatch();
+                    accountIds.add(entry.getKey());
+                }
+
+                int[] affectedRows = statement.executeBatch();
+
+                // Some drivers don't report the count of each update
+                // (SUCCESS_NO_INFO), only an explicit 0 is a failure
+                for (int i = 0; i < affectedRows.length; i++) {
+                    if (affectedRows[i] == 0) {
+                        int accountId = accountIds.get(i);
+                        failedAccounts.put(accountId, guardFailure != null && this.accountExists(connection, accountId)
+                                ? guardFailure
+                                : BalanceUpdateResult.ACCOUNT_NOT_FOUND);
+                    }
+                }
+
+                accountIds.removeAll(failedAccounts.keySet());
+                this.recordChanges(connection, accountIds, null, false);
+
+                if (journalSequence > 0) {
+                    this.markJournalApplied(connection, accountIds, journalSequence);
+                }
+
+                connection.commit();
+                return failedAccounts;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                // The statement is reused, don't leave a failed batch behind
+                statement.clearBatch();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new EconomyDatabaseError();
+        }
+    }
+
+    /**
+     * Get the sequence number of the last journal record of this server written
+     * to the database
+     *
+     * @return the acknowledged sequence number, 0 if none
+     */
+    @Override
+    public long getJournalSequence() throws EconomyDatabaseError {
+        return this.timed("database.getJournalSequence", () -> {
+            try (Connection connection = this.getConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.SELECT_JOURNAL_SEQUENCE);
+                statement.setString(1, this.serverId);
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getLong("sequence") : 0;
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Acknowledge the journal records of this server up to a sequence number
+     *
+     * @param journalSequence the sequence number of the last record included in
+     *                        the balance of every account it changes
+     * @return the acknowledged sequence number
+     */
+    @Override
+    public long acknowledgeJournal(long journalSequence) throws EconomyDatabaseError {
+        return this.timed("database.acknowledgeJournal", () -> {
+            try (Connection connection = this.getConnection()) {
+                connection.setAutoCommit(false);
+                try {
+                    this.acknowledgeJournal(connection, journalSequence);
+                    connection.commit();
+                    return journalSequence;
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Apply the journal records lost in a crash and acknowledge them, in a
+     * single transaction
+     * <p>
+     * The changes of an account already included in its balance are skipped.
+     * The change of an account that was deleted, or whose balance would leave
+     * its bounds, is kept in the journal_quarantine table instead.
+     *
+     * @param records the records to replay, in order
+     * @return the number of account changes quarantined
+     */
+    @Override
+    public int replayJournal(@NotNull List<JournalRecord> records) throws EconomyDatabaseError {
+        return this.timed("database.replayJournal", () -> {
+            if (records.isEmpty()) {
+                return 0;
+            }
+
+            try (Connection connection = this.getConnection()) {
+                connection.setAutoCommit(false);
+                PreparedStatement statement = this.statements.prepare(connection, Queries.APPLY_DELTA);
+                PreparedStatement quarantine = this.statements.prepare(connection,
+                        Queries.INSERT_JOURNAL_QUARANTINE);
+                try {
+                    Map<Integer, Long> applied = this.selectJournalApplied(connection);
+
+                    // The records only add deltas, so the changes of each account are
+                    // summed and applied at once
+                    SortedMap<Integer, Long> deltas = new TreeMap<>();
+                    Map<Integer, Long> lastSequences = new HashMap<>();
+                    for (JournalRecord record : records) {
+                        for (int i = 0; i < record.accountIds().length; i++) {
+                            if (record.sequence() > applied.getOrDefault(record.accountIds()[i], 0L)) {
+                                deltas.merge(record.accountIds()[i], record.deltas()[i], Long::sum);
+                                lastSequences.put(record.accountIds()[i], record.sequence());
+                            }
+                        }
+                    }
+
+                    List<Integer> updatedAccounts = new ArrayList<>(deltas.size());
+                    int quarantined = 0;
+                    for (Map.Entry<Integer, Long> delta : deltas.entrySet()) {
+                        statement.setLong(1, delta.getValue());
+                        statement.setInt(2, delta.getKey());
+                        statement.setLong(3, delta.getValue());
+                        statement.setLong(4, maximumBalanceBefore(delta.getValue()));
+                        if (statement.executeUpdate() > 0) {
+                            updatedAccounts.add(delta.getKey());
+                            continue;
+                        }
+
+                        quarantine.setString(1, this.serverId);
+                        quarantine.setInt(2, delta.getKey());
+                        quarantine.setLong(3, delta.getValue());
+                        quarantine.setLong(4, lastSequences.get(delta.getKey()));
+                        quarantine.setLong(5, System.currentTimeMillis());
+                        quarantine.executeUpdate();
+                        quarantined++;
+                    }
+
+                    // The quarantined changes are acknowledged too, they are kept aside
+                    this.recordChanges(connection, updatedAccounts, null, false);
+                    this.acknowledgeJournal(connection, records.get(records.size() - 1).sequence());
+
+                    connection.commit();
+                    return quarantined;
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Store the sequence number of the last journal record of this server
+     * written to the database, and forget the sequence numbers of the accounts
+     * it covers, as part of the current transaction
+     */
+    private void acknowledgeJournal(Connection connection, long journalSequence) throws SQLException {
+        PreparedStatement statement = this.statements.prepare(connection, Queries.UPDATE_JOURNAL_SEQUENCE);
+        statement.setLong(1, journalSequence);
+        statement.setString(2, this.serverId);
+        statement.setLong(3, journalSequence);
+        statement.executeUpdate();
+
+        PreparedStatement deleteStatement = this.statements.prepare(connection, Queries.DELETE_JOURNAL_APPLIED);
+        deleteStatement.setString(1, this.serverId);
+        deleteStatement.setLong(2, journalSequence);
+        deleteStatement.executeUpdate();
+    }
+
+    /**
+     * Read the sequence number of the last journal record of this server
+     * included in the balance of the accounts written since the acknowledged
+     * one
+     *
+     * @return the sequence numbers, by account ID
+     */
+    private @NotNull Map<Integer, Long> selectJournalApplied(Connection connection) throws SQLException {
+        PreparedStatement statement = this.statements.prepare(connection, Queries.SELECT_JOURNAL_APPLIED);
+        statement.setString(1, this.serverId);
+
+        Map<Integer, Long> applied = new HashMap<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                applied.put(resultSet.getInt("account_id"), resultSet.getLong("sequence"));
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Store the sequence number of the last journal record of this server
+     * included in the balance of accounts, as part of the current transaction
+     *
+     * @param accountIds      the IDs of the written accounts
+     * @param journalSequence the sequence number of the last record included
+     */
+    private void markJournalApplied(Connection connection, @NotNull Collection<Integer> accountIds,
+            long journalSequence) throws SQLException {
+        if (accountIds.isEmpty()) {
+            return;
+        }
+
+        PreparedStatement statement = this.statements.prepare(connection,
+                this.dialect == DatabaseDialect.SQLITE
+                        ? Queries.UPSERT_JOURNAL_APPLIED_SQLITE
+                        : Queries.UPSERT_JOURNAL_APPLIED_MYSQL);
+        try {
+            for (int accountId : accountIds) {
+                statement.setString(1, this.serverId);
+                statement.setInt(2, accountId);
+                statement.setLong(3, journalSequence);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            // The statement is reused, don't leave a failed batch behind
+            statement.clearBatch();
+        }
+    }
+
+    /**
+     * Record changes of accounts in the change feed, as part of the current
+     * transaction, if the change feed is enabled
+     *
+     * @param accountIds the IDs of the changed accounts
+     * @param playerUuid the UUID of the player whose relation with the accounts
+     *                   changed, or null
+     * @param deleted    whether the accounts were deleted
+     */
+    private void recordChanges(Connection connection, @NotNull Collection<Integer> accountIds,
+            @Nullable UUID playerUuid, boolean deleted) throws SQLException {
+        if (!this.changeFeed || accountIds.isEmpty()) {
+            return;
+        }
+
+        PreparedStatement statement = this.statements.prepare(connection, Queries.INSERT_ACCOUNT_CHANGE);
+        long now = System.currentTimeMillis();
+        try {
+            for (int accountId : accountIds) {
+                statement.setInt(1, accountId);
+                statement.setBytes(2, playerUuid != null ? UuidBytes.toBytes(playerUuid) : null);
+                statement.setBoolean(3, deleted);
+                statement.setLong(4, this.changeOrigin);
+                statement.setLong(5, now);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            // The statement is reused, don't leave a failed batch behind
+            statement.clearBatch();
+        }
+    }
+
+    /**
+     * Execute an update of a single account along with the record of its change,
+     * in a transaction if the change feed is enabled
+     *
+     * @param statement  the prepared update
+     * @param accountId  the ID of the account
+     * @param playerUuid the UUID of the player whose relation with the account
+     *                   changed, or null
+     * @param deleted    whether the update deletes the account
+     * @return the number of updated rows
+     */
+    private int executeRecorded(Connection connection, PreparedStatement statement, int accountId,
+            @Nullable UUID playerUuid, boolean deleted) throws SQLException {
+        if (!this.changeFeed) {
+            return statement.executeUpdate();
+        }
+
+        connection.setAutoCommit(false);
+        try {
+            int affectedRows = statement.executeUpdate();
+            if (affectedRows > 0) {
+                this.recordChanges(connection, List.of(accountId), playerUuid, deleted);
+            }
+
+            connection.commit();
+            return affectedRows;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Insert transactions into the history in a single batch
+     *
+     * @param transactions the transactions to insert
+     */
+    @Override
+    public void insertTransactions(@NotNull List<PendingTransaction> transactions) throws EconomyDatabaseError {
+        this.timed("database.insertTransactions", () -> {
+            if (transactions.isEmpty()) {
+                return null;
+            }
+
+            try (Connection connection = this.getConnection()) {
+                connection.setAutoCommit(false);
+                PreparedStatement statement = this.statements.prepare(connection, Queries.INSERT_TRANSACTION);
+                try {
+                    for (PendingTransaction transaction : transactions) {
+                        statement.setObject(1, transaction.fromAccountId(), Types.INTEGER);
+                        statement.setObject(2, transaction.toAccountId(), Types.INTEGER);
+                        statement.setLong(3, transaction.amount());
+                        statement.setString(4, transaction.kind().name());
+                        statement.setBytes(5,
+                                transaction.actor() != null ? UuidBytes.toBytes(transaction.actor()) : null);
+                        statement.setLong(6, transaction.timestamp());
+                        statement.addBatch();
+                    }
+
+                    statement.executeBatch();
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    statement.clearBatch();
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Get the transactions of an account, from the most recent to the oldest
+     *
+     * @param accountId the ID of the account
+     * @param limit     the maximum number of transactions to return
+     * @param after     the cursor the page starts after
+     * @return the transactions following the cursor
+     */
+    @Override
+    public @NotNull List<TransactionRecord> getTransactions(UnsignedInteger accountId, int limit,
+            @NotNull TransactionCursor after) throws EconomyDatabaseError {
+        return this.timed("database.getTransactions", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection,
+                        Queries.SELECT_TRANSACTIONS_AFTER_CURSOR);
+                // The same conditions for both sides of the transactions
+                for (int side = 0; side < 2; side++) {
+                    int offset = side * 5;
+                    statement.setInt(offset + 1, accountId.intValue());
+                    statement.setLong(offset + 2, after.timestamp());
+                    statement.setLong(offset + 3, after.timestamp());
+                    statement.setLong(offset + 4, after.id());
+                    statement.setInt(offset + 5, limit);
+                }
+                statement.setInt(11, limit);
+
+                return readTransactions(statement, true);
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Get the daily summaries of the compacted transactions of an account, from
+     * the most recent day to the oldest
+     *
+     * @param accountId the ID of the account
+     * @param limit     the maximum number of summaries to return
+     * @param beforeDay the day before which the summaries are read, in days
+     *                  since the epoch
+     * @return the summaries before the day
+     */
+    @Override
+    public @NotNull List<TransactionSummary> getTransactionSummaries(UnsignedInteger accountId, int limit,
+            long beforeDay) throws EconomyDatabaseError {
+        return this.timed("database.getTransactionSummaries", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection,
+                        Queries.SELECT_TRANSACTION_SUMMARIES);
+                statement.setInt(1, accountId.intValue());
+                statement.setLong(2, beforeDay);
+                statement.setInt(3, limit);
+
+                List<TransactionSummary> summaries = new ArrayList<>();
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        summaries.add(new TransactionSummary(resultSet.getInt("account_id"), resultSet.getLong("day"),
+                                resultSet.getLong("net_delta"), resultSet.getInt("transaction_count")));
+                    }
+                }
+                return summaries;
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Get the oldest transactions of the history
+     *
+     * @param before the time before which the transactions are read, in
+     *               milliseconds since the epoch
+     * @param limit  the maximum number of transactions to return
+     * @return the transactions before the time, from the oldest, without the
+     *         names of the players
+     */
+    @Override
+    public @NotNull List<TransactionRecord> getTransactionsBefore(long before, int limit)
+            throws EconomyDatabaseError {
+        return this.timed("database.getTransactionsBefore", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.SELECT_TRANSACTIONS_BEFORE);
+                statement.setLong(1, before);
+                statement.setInt(2, limit);
+
+                return readTransactions(statement, false);
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Run a query returning transactions
+     *
+     * @param statement the prepared query
+     * @param names     whether the query returns the names of the players
+     * @return the transactions, in the order of the query
+     */
+    private static @NotNull List<TransactionRecord> readTransactions(PreparedStatement statement, boolean names)
+            throws SQLException {
+        List<TransactionRecord> transactions = new ArrayList<>();
+
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                byte[] actor = resultSet.getBytes("actor");
+                transactions.add(new TransactionRecord(
+                        resultSet.getLong("id"),
+                        resultSet.getObject("from_account", Integer.class),
+                        names ? resultSet.getString("from_name") : null,
+                        resultSet.getObject("to_account", Integer.class),
+                        names ? resultSet.getString("to_name") : null,
+                        resultSet.getLong("amount"),
+                        TransactionKind.valueOf(resultSet.getString("kind")),
+                        actor != null ? UuidBytes.fromBytes(actor) : null,
+                        resultSet.getLong("created_at")));
+            }
+        }
+
+        return transactions;
+    }
+
+    /**
+     * Replace transactions of the history with their daily summaries, in a
+     * single transaction
+     * <p>
+     * The transactions are deleted one by one first, the deletion locking them
+     * until the commit, so a transaction deleted by another server is neither
+     * summarized nor archived again.
+     *
+     * @param transactions the transactions to compact
+     * @param archive      the archive of the compacted transactions, appended
+     *                     to before the deletion is committed, or null
+     * @return the number of transactions compacted
+     */
+    @Override
+    public int compactTransactions(@NotNull List<TransactionRecord> transactions,
+            @Nullable TransactionArchive archive) throws EconomyDatabaseError {
+        return this.timed("database.compactTransactions", () -> {
+            if (transactions.isEmpty()) {
+                return 0;
+            }
+
+            try (Connection connection = this.getConnection()) {
+                connection.setAutoCommit(false);
+                PreparedStatement delete = this.statements.prepare(connection, Queries.DELETE_TRANSACTION);
+                PreparedStatement upsert = this.statements.prepare(connection,
+                        this.dialect == DatabaseDialect.SQLITE
+                                ? Queries.UPSERT_TRANSACTION_SUMMARY_SQLITE
+                                : Queries.UPSERT_TRANSACTION_SUMMARY_MYSQL);
+                try {
+                    List<TransactionRecord> deleted = new ArrayList<>(transactions.size());
+                    for (TransactionRecord transaction : transactions) {
+                        delete.setLong(1, transaction.id());
+                        if (delete.executeUpdate() > 0) {
+                            deleted.add(transaction);
+                        }
+                    }
+
+                    for (TransactionSummary summary : TransactionSummary.summarize(deleted)) {
+                        upsert.setInt(1, summary.accountId());
+                        upsert.setLong(2, summary.day());
+                        upsert.setLong(3, summary.netDelta());
+                        upsert.setInt(4, summary.count());
+                        upsert.addBatch();
+                    }
+                    upsert.executeBatch();
+
+                    // A failed commit archives the transactions again at the next
+                    // compaction rather than losing them, the IDs tell the copies apart
+                    if (archive != null && !deleted.isEmpty()) {
+                        try {
+                            archive.append(deleted);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+
+                    connection.commit();
+                    return deleted.size();
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    upsert.clearBatch();
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Get the UUIDs of the players associated with an account
+     *
+     * @param accountId the ID of the account
+     * @return the UUIDs of the players associated with the account
+     */
+    @Override
+    public @NotNull List<UUID> getPlayers(UnsignedInteger accountId) throws EconomyDatabaseError {
+        return this.timed("database.getPlayers", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.SELECT_PLAYERS);
+                statement.setInt(1, accountId.intValue());
+
+                List<UUID> players = new ArrayList<>();
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        players.add(UuidBytes.fromBytes(resultSet.getBytes("player_uuid")));
+                    }
+                }
+
+                // We can't distinguish between the account not existing and the account not
+                // having any players, so we return an empty list in both cases
+                return players;
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Get the accounts associated with a player
+     *
+     * @param playerUuid the UUID of the player
+     * @return the IDs of the accounts associated with the player
+     */
+    @Override
+    public @NotNull List<Integer> getAccounts(UUID playerUuid) throws EconomyDatabaseError {
+        return this.timed("database.getAccounts", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.SELECT_ACCOUNTS);
+                statement.setBytes(1, UuidBytes.toBytes(playerUuid));
+
+                List<Integer> accounts = new ArrayList<>();
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        accounts.add(resultSet.getInt("account_id"));
+                    }
+                }
+
+                // We can't distinguish between the player not existing and the player not
+                // having any accounts, so we return an empty list in both cases
+                return accounts;
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Get the top player accounts
+     * 
+     * @param limit  the maximum number of accounts to return
+     * @param offset the number of accounts to skip
+     * @return the names of the players and the balances of their main account
+     */
+    public @NotNull List<ImmutablePair<String, Double>> getTopPlayerAccounts(int limit, int offset)
+            throws EconomyDatabaseError {
+        List<PlayerBalance> balances = this.getTopPlayerBalances(limit, offset);
+
+        List<ImmutablePair<String, Double>> accounts = new ArrayList<>(balances.size());
+        for (PlayerBalance balance : balances) {
+            accounts.add(ImmutablePair.of(balance.playerName(), Money.toMajor(balance.balance())));
+        }
+
+        return accounts;
+    }
+
+    /**
+     * Get the top player accounts with their balance in minor units
+     * 
+     * @param limit  the maximum number of accounts to return
+     * @param offset the number of accounts to skip
+     * @return the main accounts of the players, by decreasing balance
+     */
+    @Override
+    public @NotNull List<PlayerBalance> getTopPlayerBalances(int limit, int offset) throws EconomyDatabaseError {
+        return this.timed("database.getTopPlayerBalances", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.SELECT_TOP_BY_OFFSET);
+                statement.setInt(1, limit);
+                statement.setInt(2, offset);
+
+                return readPlayerBalances(statement);
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Get the top player accounts following a position of the ranking
+     * <p>
+     * The accounts are read from the balance index starting at the cursor, so the
+     * cost of a page does not depend on its depth.
+     * 
+     * @param limit the maximum number of accounts to return
+     * @param after the position after which the accounts are read
+     * @return the main accounts of the players, by decreasing balance
+     */
+    @Override
+    public @NotNull List<PlayerBalance> getTopPlayerBalances(int limit, @NotNull LeaderboardCursor after)
+            throws EconomyDatabaseError {
+        return this.timed("database.getTopPlayerBalances", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.SELECT_TOP_AFTER_CURSOR);
+                statement.setLong(1, after.balance());
+                statement.setLong(2, after.balance());
+                statement.setInt(3, after.accountId());
+                statement.setInt(4, limit);
+
+                return readPlayerBalances(statement);
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Execute a ranking query and read the accounts it returns
+     */
+    private static @NotNull List<PlayerBalance> readPlayerBalances(PreparedStatement statement)
+            throws SQLException {
+        List<PlayerBalance> accounts = new ArrayList<>();
+
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                accounts.add(new PlayerBalance(
+                        resultSet.getInt("account_id"),
+                        resultSet.getString("player_name"),
+                        resultSet.getLong("balance")));
+            }
+        }
+
+        return accounts;
+    }
+
+    /**
+     * Get the totals of the accounts, for the metrics
+     *
+     * @return the number of accounts and players and the sum of the balances
+     */
+    @Override
+    public @NotNull AccountTotals getAccountTotals() throws EconomyDatabaseError {
+        return this.timed("database.getAccountTotals", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.SELECT_ACCOUNT_TOTALS);
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    return new AccountTotals(
+                            resultSet.getLong("accounts"),
+                            resultSet.getLong("money_supply"),
+                            resultSet.getLong("players"));
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Get the balances of the accounts following an account ID, to export them
+     *
+     * @param after the account ID the page starts after
+     * @param limit the maximum number of accounts to return
+     * @return the balances in minor units, by increasing account ID
+     */
+    public @NotNull SortedMap<Integer, Long> getBalances(int after, int limit) throws EconomyDatabaseError {
+        return this.timed("database.getBalances", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.SELECT_BALANCES_AFTER);
+                statement.setInt(1, after);
+                statement.setInt(2, limit);
+
+                SortedMap<Integer, Long> balances = new TreeMap<>();
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        balances.put(resultSet.getInt("id"), resultSet.getLong("balance"));
+                    }
+                }
+                return balances;
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Get every relation between a player and an account, to export them
+     *
+     * @return the relations with the names of the players
+     */
+    public @NotNull List<PlayerAccountRelation> getRelations() throws EconomyDatabaseError {
+        return this.timed("database.getRelations", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.SELECT_RELATIONS);
+
+                List<PlayerAccountRelation> relations = new ArrayList<>();
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        relations.add(new PlayerAccountRelation(
+                                UuidBytes.fromBytes(resultSet.getBytes("player_uuid")),
+                                resultSet.getString("player_name"),
+                                resultSet.getInt("account_id"),
+                                resultSet.getBoolean("main")));
+                    }
+                }
+                return relations;
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Get the sequence number of the last journal record of this server
+     * included in the balance of the accounts written since the acknowledged
+     * one, to export them
+     *
+     * @return the sequence numbers, by account ID
+     */
+    public @NotNull Map<Integer, Long> getJournalApplied() throws EconomyDatabaseError {
+        return this.timed("database.getJournalApplied", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                return this.selectJournalApplied(connection);
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Remove the amounts of transfers to other shards from their accounts and
+     * record the transfers as pending, in a single transaction
+     * <p>
+     * An account must cover the sum of its transfers, or none of the transfers
+     * is recorded.
+     *
+     * @param transfers the transfers to record, their IDs are ignored
+     * @return the pending transfers, with their IDs
+     */
+    public @NotNull List<ShardTransfer> prepareShardTransfers(@NotNull List<ShardTransfer> transfers)
+            throws EconomyInsufficientBalance, EconomyDatabaseError {
+        return this.timed("database.prepareShardTransfers", () -> {
+            try (Connection connection = this.getConnection()) {
+                connection.setAutoCommit(false);
+                try {
+                    PreparedStatement removeStatement = this.statements.prepare(connection, Queries.REMOVE_BALANCE);
+                    PreparedStatement insertStatement = this.statements.prepare(connection,
+                            Queries.INSERT_SHARD_TRANSFER, Statement.RETURN_GENERATED_KEYS);
+
+                    List<ShardTransfer> pendingTransfers = new ArrayList<>(transfers.size());
+                    for (ShardTransfer transfer : transfers) {
+                        removeStatement.setLong(1, transfer.amount());
+                        removeStatement.setInt(2, transfer.fromAccountId());
+                        removeStatement.setLong(3, transfer.amount());
+                        this.executeTransferRemove(connection, removeStatement);
+
+                        insertStatement.setInt(1, transfer.fromAccountId());
+                        insertStatement.setInt(2, transfer.toShard());
+                        insertStatement.setInt(3, transfer.toAccountId());
+                        insertStatement.setLong(4, transfer.amount());
+                        insertStatement.executeUpdate();
+
+                        try (ResultSet generatedKeys = insertStatement.getGeneratedKeys()) {
+                            if (!generatedKeys.next()) {
+                                // Should never happen
+                                connection.rollback();
+                                throw new EconomyDatabaseError();
+                            }
+                            pendingTransfers.add(new ShardTransfer(generatedKeys.getLong(1),
+                                    transfer.fromAccountId(), transfer.toShard(), transfer.toAccountId(),
+                                    transfer.amount()));
+                        }
+                    }
+
+                    connection.commit();
+                    return pendingTransfers;
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Add the amount of a transfer from another shard to its account and mark
+     * the transfer as applied, in a single transaction
+     * <p>
+     * A transfer already marked as applied is ignored, so a transfer
+     * interrupted by a crash can be applied again.
+     *
+     * @param fromShard the index of the shard the transfer is pending in
+     * @param transfer  the pending transfer
+     */
+    public void applyShardTransfer(int fromShard, @NotNull ShardTransfer transfer)
+            throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        this.timed("database.applyShardTransfer", () -> {
+            try (Connection connection = this.getConnection()) {
+                connection.setAutoCommit(false);
+                try {
+                    PreparedStatement countStatement = this.statements.prepare(connection,
+                            Queries.COUNT_APPLIED_SHARD_TRANSFERS);
+                    countStatement.setInt(1, fromShard);
+                    countStatement.setLong(2, transfer.id());
+                    try (ResultSet resultSet = countStatement.executeQuery()) {
+                        if (resultSet.next() && resultSet.getInt(1) > 0) {
+                            connection.commit();
+                            return null;
+                        }
+                    }
+
+                    PreparedStatement insertStatement = this.statements.prepare(connection,
+                            Queries.INSERT_APPLIED_SHARD_TRANSFER);
+                    insertStatement.setInt(1, fromShard);
+                    insertStatement.setLong(2, transfer.id());
+                    insertStatement.executeUpdate();
+
+                    PreparedStatement addStatement = this.statements.prepare(connection, Queries.ADD_BALANCE);
+                    addStatement.setLong(1, transfer.amount());
+                    addStatement.setInt(2, transfer.toAccountId());
+                    addStatement.setLong(3, maximumBalanceBefore(transfer.amount()));
+                    try {
+                        this.executeTransferAdd(connection, addStatement, transfer.toAccountId());
+                    } catch (EconomyInvalidAmountError e) {
+                        // A balance that would overflow can't take the transfer either
+                        throw new EconomyAccountNotFoundError();
+                    }
+
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Delete a pending transfer once applied in the shard of its payee
+     *
+     * @param transferId the ID of the transfer
+     */
+    public void completeShardTransfer(long transferId) throws EconomyDatabaseError {
+        this.timed("database.completeShardTransfer", () -> {
+            try (Connection connection = this.getConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.DELETE_SHARD_TRANSFER);
+                statement.setLong(1, transferId);
+                statement.executeUpdate();
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Give the amount of a pending transfer back to its account and delete the
+     * transfer, in a single transaction
+     * <p>
+     * The transfer must not have been applied in the shard of its payee. If its
+     * amount can't be given back, because the account was deleted or its
+     * balance would overflow, the transfer is kept pending.
+     *
+     * @param transfer the pending transfer
+     */
+    public void cancelShardTransfer(@NotNull ShardTransfer transfer) throws EconomyDatabaseError {
+        this.timed("database.cancelShardTransfer", () -> {
+            try (Connection connection = this.getConnection()) {
+                connection.setAutoCommit(false);
+                try {
+                    PreparedStatement deleteStatement = this.statements.prepare(connection,
+                            Queries.DELETE_SHARD_TRANSFER);
+                    deleteStatement.setLong(1, transfer.id());
+
+                    // Cancelled by someone else already, the amount was given back
+                    if (deleteStatement.executeUpdate() == 0) {
+                        connection.rollback();
+                        return null;
+                    }
+
+                    PreparedStatement addStatement = this.statements.prepare(connection, Queries.ADD_BALANCE);
+                    addStatement.setLong(1, transfer.amount());
+                    addStatement.setInt(2, transfer.fromAccountId());
+                    addStatement.setLong(3, maximumBalanceBefore(transfer.amount()));
+                    if (addStatement.executeUpdate() == 0) {
+                        connection.rollback();
+                        throw new EconomyDatabaseError("The amount of the transfer " + transfer.id()
+                                + " can't be given back to the account " + transfer.fromAccountId()
+                                + ", the transfer is kept pending");
+                    }
+
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Get the transfers to other shards that are still pending
+     *
+     * @return the pending transfers, by increasing ID
+     */
+    public @NotNull List<ShardTransfer> getShardTransfers() throws EconomyDatabaseError {
+        return this.timed("database.getShardTransfers", () -> {
+            try (Connection connection = this.getConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.SELECT_SHARD_TRANSFERS);
+
+                List<ShardTransfer> transfers = new ArrayList<>();
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        transfers.add(new ShardTransfer(
+                                resultSet.getLong("id"),
+                                resultSet.getInt("from_account"),
+                                resultSet.getInt("to_shard"),
+                                resultSet.getInt("to_account"),
+                                resultSet.getLong("amount")));
+                    }
+                }
+                return transfers;
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Forget that a transfer from another shard was applied, once the transfer
+     * is no longer pending
+     *
+     * @param fromShard  the index of the shard the transfer was pending in
+     * @param transferId the ID of the transfer
+     */
+    public void forgetShardTransfer(int fromShard, long transferId) throws EconomyDatabaseError {
+        this.timed("database.forgetShardTransfer", () -> {
+            try (Connection connection = this.getConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection,
+                        Queries.DELETE_APPLIED_SHARD_TRANSFER);
+                statement.setInt(1, fromShard);
+                statement.setLong(2, transferId);
+                statement.executeUpdate();
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Forget every applied transfer from the other shards, once none of them is
+     * pending
+     */
+    public void forgetShardTransfers() throws EconomyDatabaseError {
+        this.timed("database.forgetShardTransfers", () -> {
+            try (Connection connection = this.getConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection,
+                        Queries.DELETE_APPLIED_SHARD_TRANSFERS);
+                statement.executeUpdate();
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Check whether the changes of the accounts are recorded for the other
+     * servers sharing the database
+     *
+     * @return true if the change feed is enabled, false otherwise
+     */
+    @Override
+    public boolean supportsChangeFeed() {
+        return this.changeFeed;
+    }
+
+    /**
+     * Get the changes of the accounts
+     *
+     * @param after the ID of the last change already read
+     * @param limit the maximum number of changes to return
+     * @return the changes following the given one, by increasing ID
+     */
+    @Override
+    public @NotNull List<AccountChange> getAccountChanges(long after, int limit) throws EconomyDatabaseError {
+        return this.timed("database.getAccountChanges", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.SELECT_ACCOUNT_CHANGES);
+                statement.setLong(1, after);
+                statement.setInt(2, limit);
+
+                List<AccountChange> changes = new ArrayList<>();
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        changes.add(this.readAccountChange(resultSet));
+                    }
+                }
+                return changes;
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Get some changes of the accounts by their IDs
+     *
+     * @param changeIds the IDs of the changes
+     * @return the changes that exist, by increasing ID
+     */
+    @Override
+    public @NotNull List<AccountChange> getAccountChanges(@NotNull Collection<Long> changeIds)
+            throws EconomyDatabaseError {
+        return this.timed("database.getAccountChangesById", () -> {
+            List<AccountChange> changes = new ArrayList<>();
+            List<Long> ids = new ArrayList<>(changeIds);
+
+            try (Connection connection = this.getReadConnection()) {
+                // The changes are looked up by chunks, the databases limit the number of
+                // parameters of a query
+                for (int start = 0; start < ids.size(); start += MAXIMUM_IN_PARAMETERS) {
+                    List<Long> chunk = ids.subList(start, Math.min(start + MAXIMUM_IN_PARAMETERS, ids.size()));
+
+                    String query = "SELECT id, account_id, player_uuid, deleted, origin FROM account_changes"
+                            + " WHERE id IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ");";
+                    try (PreparedStatement statement = connection.prepareStatement(query)) {
+                        for (int i = 0; i < chunk.size(); i++) {
+                            statement.setLong(i + 1, chunk.get(i));
+                        }
+
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            while (resultSet.next()) {
+                                changes.add(this.readAccountChange(resultSet));
+                            }
+                        }
+                    }
+                }
+
+                changes.sort(Comparator.comparingLong(AccountChange::id));
+                return changes;
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Read the change of an account at the current row of a result set
+     *
+     * @param resultSet the result set
+     * @return the change
+     */
+    private @NotNull AccountChange readAccountChange(@NotNull ResultSet resultSet) throws SQLException {
+        byte[] playerUuid = resultSet.getBytes("player_uuid");
+        return new AccountChange(
+                resultSet.getLong("id"),
+                resultSet.getInt("account_id"),
+                playerUuid != null ? UuidBytes.fromBytes(playerUuid) : null,
+                resultSet.getBoolean("deleted"),
+                resultSet.getLong("origin") == this.changeOrigin);
+    }
+
+    /**
+     * Get the ID of the last change of the accounts
+     *
+     * @return the ID of the last change, 0 if none
+     */
+    @Override
+    public long getLastAccountChange() throws EconomyDatabaseError {
+        return this.timed("database.getLastAccountChange", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection,
+                        Queries.SELECT_LAST_ACCOUNT_CHANGE);
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    // The maximum is NULL, read as 0, when there is no change
+                    return resultSet.next() ? resultSet.getLong(1) : 0;
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Delete the old changes of the accounts, except the last one
+     *
+     * @param before the time before which the changes are deleted, in
+     *               milliseconds since the epoch
+     */
+    @Override
+    public void pruneAccountChanges(long before) throws EconomyDatabaseError {
+        this.timed("database.pruneAccountChanges", () -> {
+            try (Connection connection = this.getConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection,
+                        Queries.DELETE_ACCOUNT_CHANGES_BEFORE);
+                statement.setLong(1, before);
+                statement.executeUpdate();
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Get the statistics of the connection pools, for the metrics
+     *
+     * @return the statistics of the pools, by pool name
+     */
+    @Override
+    public @NotNull Map<String, PoolStatistics> getPoolStatistics() {
+        Map<String, PoolStatistics> pools = new TreeMap<>();
+        putPoolStatistics(pools, this.dataSource);
+        if (this.readDataSource != null)
+            putPoolStatistics(pools, this.readDataSource);
+        return pools;
+    }
+
+    /**
+     * Add the statistics of a connection pool, if it is running
+     */
+    private static void putPoolStatistics(@NotNull Map<String, PoolStatistics> pools,
+            @NotNull HikariDataSource dataSource) {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        if (pool != null) {
+            pools.put(dataSource.getPoolName(), new PoolStatistics(pool.getActiveConnections(),
+                    pool.getIdleConnections(), pool.getTotalConnections(), pool.getThreadsAwaitingConnection()));
+        }
+    }
+
+    /**
+     * Get the rank of a main account in the ranking
+     * <p>
+     * Only the accounts ranked before it are counted, through the balance index,
+     * and the count stops at the maximum rank.
+     *
+     * @param accountId   the ID of the account
+     * @param balance     the balance of the account, in minor units
+     * @param maximumRank the highest rank that is counted
+     * @return the rank of the account starting at 1, or 0 if it is ranked after
+     *         the maximum rank
+     */
+    @Override
+    public long getRank(UnsignedInteger accountId, long balance, long maximumRank) throws EconomyDatabaseError {
+        return this.timed("database.getRank", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.COUNT_RANKED_BEFORE);
+                statement.setLong(1, balance);
+                statement.setLong(2, balance);
+                statement.setInt(3, accountId.intValue());
+                statement.setLong(4, maximumRank);
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    long rankedBefore = resultSet.next() ? resultSet.getLong(1) : 0;
+                    return rankedBefore < maximumRank ? rankedBefore + 1 : 0;
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Get the main account of a player
+     *
+     * @param playerUuid the UUID of the player
+     * @return the ID of the main account of the player
+     */
+    @Override
+    public @NotNull UnsignedInteger getMainAccount(UUID playerUuid) throws EconomyAccountNotFoundError,
+            EconomyDatabaseError {
+        return this.timed("database.getMainAccount", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.SELECT_MAIN_ACCOUNT);
+                statement.setBytes(1, UuidBytes.toBytes(playerUuid));
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        return UnsignedInteger.valueOf(resultSet.getInt("account_id"));
+                    }
+                }
+
+                throw new EconomyAccountNotFoundError();
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Get the main accounts of several players
+     *
+     * @param playerUuids the UUIDs of the players
+     * @return the IDs of the main accounts, by player UUID (the players without a
+     *         main account are missing)
+     */
+    @Override
+    public @NotNull Map<UUID, Integer> getMainAccounts(@NotNull Collection<UUID> playerUuids)
+            throws EconomyDatabaseError {
+        return this.timed("database.getMainAccounts", () -> {
+            Map<UUID, Integer> accounts = new HashMap<>();
+            List<UUID> players = new ArrayList<>(playerUuids);
+
+            try (Connection connection = this.getReadConnection()) {
+                // The players are looked up by chunks, the databases limit the number of
+                // parameters of a query
+                for (int start = 0; start < players.size(); start += MAXIMUM_IN_PARAMETERS) {
+                    List<UUID> chunk = players.subList(start,
+                            Math.min(start + MAXIMUM_IN_PARAMETERS, players.size()));
+
+                    String query = "SELECT player_uuid, account_id FROM players_accounts"
+                            + " WHERE main = TRUE AND player_uuid IN ("
+                            + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ");";
+                    try (PreparedStatement statement = connection.prepareStatement(query)) {
+                        for (int i = 0; i < chunk.size(); i++) {
+                            statement.setBytes(i + 1, UuidBytes.toBytes(chunk.get(i)));
+                        }
+
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            while (resultSet.next()) {
+                                accounts.put(UuidBytes.fromBytes(resultSet.getBytes("player_uuid")),
+                                        resultSet.getInt("account_id"));
+                            }
+                        }
+                    }
+                }
+
+                return accounts;
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    /**
+     * Check if a player has a certain account
+     *
+     * @param playerUuid the UUID of the player
+     * @param accountId  the ID of the account
+     * @return true if the player has the account, false otherwise
+     */
+    public @NotNull boolean hasAccount(UUID playerUuid, UnsignedInteger accountId) throws EconomyDatabaseError {
+        return this.timed("database.hasAccount", () -> {
+            try (Connection connection = this.getReadConnection()) {
+                PreparedStatement statement = this.statements.prepare(connection, Queries.COUNT_RELATIONS);
+                statement.setBytes(1, UuidBytes.toBytes(playerUuid));
+                statement.setInt(2, accountId.intValue());
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() && resultSet.getInt(1) > 0;
+                }
+            } catch (SQLException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
     }
 }
@@ -0,0 +1,20 @@
+package org.pantouflemc.economy.database;
+
+import org.pantouflemc.economy.exceptions.EconomyDatabaseError;
+
+/**
+ * A unit of work to run on the database executor.
+ *
+ * @param <T> the type of the result of the task
+ */
+@FunctionalInterface
+public interface DatabaseTask<T> {
+
+    /**
+     * Run the task
+     *
+     * @return the result of the task
+     */
+    T call() throws EconomyDatabaseError;
+
+}
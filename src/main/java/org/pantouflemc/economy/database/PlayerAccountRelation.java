@@ -0,0 +1,18 @@
+package org.pantouflemc.economy.database;
+
+import java.util.UUID;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A relation between a player and an account, read to export the database.
+ *
+ * @param playerUuid The UUID of the player.
+ * @param playerName The name of the player, or null if the player is unknown.
+ * @param accountId  The ID of the account.
+ * @param main       Whether the account is the main account of the player.
+ */
+public record PlayerAccountRelation(@NotNull UUID playerUuid, @Nullable String playerName, int accountId,
+        boolean main) {
+}
@@ -0,0 +1,12 @@
+package org.pantouflemc.economy.database;
+
+/**
+ * The statistics of a connection pool of the storage.
+ *
+ * @param activeConnections The number of connections in use.
+ * @param idleConnections   The number of idle connections.
+ * @param totalConnections  The number of open connections.
+ * @param pendingThreads    The number of threads waiting for a connection.
+ */
+public record PoolStatistics(int activeConnections, int idleConnections, int totalConnections, int pendingThreads) {
+}
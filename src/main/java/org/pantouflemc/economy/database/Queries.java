@@ -0,0 +1,304 @@
+package org.pantouflemc.economy.database;
+
+/**
+ * The fixed queries run by the DatabaseManager.
+ * <p>
+ * Each query is prepared once per pooled connection by the
+ * {@link StatementCache}, which uses the text of the query as its key: a query
+ * must always be prepared with the same options.
+ */
+final class Queries {
+
+    private Queries() {
+    }
+
+    /// Accounts
+
+    static final String INSERT_ACCOUNT = "INSERT INTO accounts (balance) VALUES (0);";
+
+    static final String DELETE_ACCOUNT = "DELETE FROM accounts WHERE id = ?;";
+
+    static final String DELETE_ORPHAN_ACCOUNT = """
+            DELETE FROM accounts WHERE id = ? AND NOT EXISTS (SELECT 1 FROM players_accounts WHERE account_id = ?);
+            """;
+
+    /// Balances
+
+    // Every change of a balance increments the version of the account
+
+    static final String SELECT_BALANCE = "SELECT balance FROM accounts WHERE id = ?;";
+
+    static final String SELECT_VERSIONED_BALANCE = "SELECT balance, version FROM accounts WHERE id = ?;";
+
+    static final String SET_BALANCE = "UPDATE accounts SET balance = ?, version = version + 1 WHERE id = ?;";
+
+    static final String COMPARE_AND_SET_BALANCE = """
+            UPDATE accounts SET balance = ?, version = version + 1 WHERE id = ? AND version = ?;
+            """;
+
+    // The additions are bound with the highest balance they can be applied to,
+    // so that a balance never overflows
+
+    static final String ADD_BALANCE = """
+            UPDATE accounts SET balance = balance + ?, version = version + 1 WHERE id = ? AND balance <= ?;
+            """;
+
+    static final String REMOVE_BALANCE = """
+            UPDATE accounts SET balance = balance - ?, version = version + 1 WHERE id = ? AND balance >= ?;
+            """;
+
+    static final String APPLY_DELTA = """
+            UPDATE accounts SET balance = balance + ?, version = version + 1
+            WHERE id = ? AND balance + ? >= 0 AND balance <= ?;
+            """;
+
+    /// Players
+
+    static final String INSERT_PLAYER = "INSERT INTO players (player_uuid, player_name) VALUES (?, ?);";
+
+    static final String UPDATE_PLAYER_NAME = "UPDATE players SET player_name = ? WHERE player_uuid = ?;";
+
+    /// Players - accounts relations
+
+    static final String INSERT_RELATION = "INSERT INTO players_accounts (player_uuid, account_id) VALUES (?, ?);";
+
+    static final String INSERT_MAIN_RELATION = """
+            INSERT INTO players_accounts (player_uuid, account_id, main) VALUES (?, ?, TRUE);
+            """;
+
+    static final String DELETE_RELATION = "DELETE FROM players_accounts WHERE player_uuid = ? AND account_id = ?;";
+
+    static final String SELECT_PLAYERS = "SELECT player_uuid FROM players_accounts WHERE account_id = ?;";
+
+    static final String SELECT_ACCOUNTS = "SELECT account_id FROM players_accounts WHERE player_uuid = ?;";
+
+    static final String SELECT_MAIN_ACCOUNT = """
+            SELECT account_id FROM players_accounts WHERE player_uuid = ? AND main = TRUE;
+            """;
+
+    static final String SELECT_MAIN_ACCOUNT_BALANCE = """
+            SELECT accounts.id, balance FROM players_accounts
+            JOIN accounts ON players_accounts.account_id = accounts.id
+            WHERE player_uuid = ? AND main = TRUE;
+            """;
+
+    static final String COUNT_RELATIONS = """
+            SELECT count(*) FROM players_accounts WHERE player_uuid = ? AND account_id = ?;
+            """;
+
+    /// Currency
+
+    static final String SELECT_CURRENCY_DECIMALS = "SELECT decimals FROM currency;";
+
+    /// Journal
+
+    static final String INSERT_JOURNAL_QUARANTINE = """
+            INSERT INTO journal_quarantine (server_id, account_id, delta, sequence, quarantined_at)
+            VALUES (?, ?, ?, ?, ?);
+            """;
+
+    static final String SELECT_JOURNAL_SEQUENCE = "SELECT sequence FROM journal_states WHERE server_id = ?;";
+
+    // A server seen for the first time starts from the state stored before the
+    // servers had one each
+    static final String INSERT_JOURNAL_STATE = """
+            INSERT INTO journal_states (server_id, sequence)
+            SELECT ?, sequence FROM journal_states WHERE server_id = '';
+            """;
+
+    // Never goes back, a late flush must not acknowledge less than a replay did
+    static final String UPDATE_JOURNAL_SEQUENCE = """
+            UPDATE journal_states SET sequence = ? WHERE server_id = ? AND sequence < ?;
+            """;
+
+    // The last journal record of a server included in the balance of each
+    // account written after the acknowledged sequence number of the server
+    static final String SELECT_JOURNAL_APPLIED = """
+            SELECT account_id, sequence FROM journal_applied WHERE server_id = ?;
+            """;
+
+    static final String UPSERT_JOURNAL_APPLIED_SQLITE = """
+            INSERT INTO journal_applied (server_id, account_id, sequence) VALUES (?, ?, ?)
+            ON CONFLICT (server_id, account_id) DO UPDATE SET sequence = max(sequence, excluded.sequence);
+            """;
+
+    static final String UPSERT_JOURNAL_APPLIED_MYSQL = """
+            INSERT INTO journal_applied (server_id, account_id, sequence) VALUES (?, ?, ?)
+            ON DUPLICATE KEY UPDATE sequence = GREATEST(sequence, VALUES(sequence));
+            """;
+
+    static final String DELETE_JOURNAL_APPLIED = """
+            DELETE FROM journal_applied WHERE server_id = ? AND sequence <= ?;
+            """;
+
+    /// Transactions
+
+    static final String INSERT_TRANSACTION = """
+            INSERT INTO transactions (from_account, to_account, amount, kind, actor, created_at)
+            VALUES (?, ?, ?, ?, ?, ?);
+            """;
+
+    // Each side of the union reads a page from its own index, the pages are then
+    // merged. The names come from the main relations of the accounts, a shared
+    // account being the main account of several players gives the first name
+    static final String SELECT_TRANSACTIONS_AFTER_CURSOR = """
+            SELECT page.*, (
+                SELECT player_name FROM players_accounts
+                JOIN players ON players.player_uuid = players_accounts.player_uuid
+                WHERE players_accounts.account_id = page.from_account AND players_accounts.main = TRUE
+                ORDER BY player_name
+                LIMIT 1
+            ) AS from_name, (
+                SELECT player_name FROM players_accounts
+                JOIN players ON players.player_uuid = players_accounts.player_uuid
+                WHERE players_accounts.account_id = page.to_account AND players_accounts.main = TRUE
+                ORDER BY player_name
+                LIMIT 1
+            ) AS to_name FROM (
+                SELECT * FROM (
+                    SELECT id, from_account, to_account, amount, kind, actor, created_at FROM transactions
+                    WHERE from_account = ? AND created_at <= ? AND (created_at < ? OR id < ?)
+                    ORDER BY created_at DESC, id DESC
+                    LIMIT ?
+                ) AS sent
+                UNION ALL
+                SELECT * FROM (
+                    SELECT id, from_account, to_account, amount, kind, actor, created_at FROM transactions
+                    WHERE to_account = ? AND created_at <= ? AND (created_at < ? OR id < ?)
+                    ORDER BY created_at DESC, id DESC
+                    LIMIT ?
+                ) AS received
+            ) AS page
+            ORDER BY page.created_at DESC, page.id DESC
+            LIMIT ?;
+            """;
+
+    static final String SELECT_TRANSACTIONS_BEFORE = """
+            SELECT id, from_account, to_account, amount, kind, actor, created_at FROM transactions
+            WHERE created_at < ?
+            ORDER BY created_at, id
+            LIMIT ?;
+            """;
+
+    static final String DELETE_TRANSACTION = "DELETE FROM transactions WHERE id = ?;";
+
+    static final String SELECT_TRANSACTION_SUMMARIES = """
+            SELECT account_id, day, net_delta, transaction_count FROM transaction_summaries
+            WHERE account_id = ? AND day < ?
+            ORDER BY day DESC
+            LIMIT ?;
+            """;
+
+    static final String UPSERT_TRANSACTION_SUMMARY_SQLITE = """
+            INSERT INTO transaction_summaries (account_id, day, net_delta, transaction_count) VALUES (?, ?, ?, ?)
+            ON CONFLICT (account_id, day) DO UPDATE SET
+                net_delta = net_delta + excluded.net_delta,
+                transaction_count = transaction_count + excluded.transaction_count;
+            """;
+
+    static final String UPSERT_TRANSACTION_SUMMARY_MYSQL = """
+            INSERT INTO transaction_summaries (account_id, day, net_delta, transaction_count) VALUES (?, ?, ?, ?)
+            ON DUPLICATE KEY UPDATE
+                net_delta = net_delta + VALUES(net_delta),
+                transaction_count = transaction_count + VALUES(transaction_count);
+            """;
+
+    /// Ranking
+
+    static final String SELECT_TOP_BY_OFFSET = """
+            SELECT accounts.id AS account_id, player_name, balance FROM accounts
+            JOIN players_accounts ON players_accounts.account_id = accounts.id AND main = TRUE
+            LEFT JOIN players ON players_accounts.player_uuid = players.player_uuid
+            ORDER BY balance DESC, accounts.id
+            LIMIT ? OFFSET ?;
+            """;
+
+    static final String SELECT_TOP_AFTER_CURSOR = """
+            SELECT accounts.id AS account_id, player_name, balance FROM accounts
+            JOIN players_accounts ON players_accounts.account_id = accounts.id AND main = TRUE
+            LEFT JOIN players ON players_accounts.player_uuid = players.player_uuid
+            WHERE balance <= ? AND (balance < ? OR accounts.id > ?)
+            ORDER BY balance DESC, accounts.id
+            LIMIT ?;
+            """;
+
+    // The count stops at a limit, so a low rank doesn't scan the whole ranking
+
+    static final String COUNT_RANKED_BEFORE = """
+            SELECT COUNT(*) FROM (
+                SELECT 1 FROM accounts
+                JOIN players_accounts ON players_accounts.account_id = accounts.id AND main = TRUE
+                WHERE balance >= ? AND (balance > ? OR accounts.id < ?)
+                LIMIT ?
+            ) ranked;
+            """;
+
+    /// Statistics
+
+    static final String SELECT_ACCOUNT_TOTALS = """
+            SELECT
+                (SELECT COUNT(*) FROM accounts) AS accounts,
+                (SELECT COALESCE(SUM(balance), 0) FROM accounts) AS money_supply,
+                (SELECT COUNT(*) FROM players) AS players;
+            """;
+
+    /// Export
+
+    static final String SELECT_BALANCES_AFTER = "SELECT id, balance FROM accounts WHERE id > ? ORDER BY id LIMIT ?;";
+
+    static final String SELECT_RELATIONS = """
+            SELECT players_accounts.player_uuid, player_name, account_id, main FROM players_accounts
+            LEFT JOIN players ON players_accounts.player_uuid = players.player_uuid;
+            """;
+
+    /// Account changes
+
+    static final String INSERT_ACCOUNT_CHANGE = """
+            INSERT INTO account_changes (account_id, player_uuid, deleted, origin, changed_at) VALUES (?, ?, ?, ?, ?);
+            """;
+
+    static final String SELECT_ACCOUNT_CHANGES = """
+            SELECT id, account_id, player_uuid, deleted, origin FROM account_changes
+            WHERE id > ?
+            ORDER BY id
+            LIMIT ?;
+            """;
+
+    static final String SELECT_LAST_ACCOUNT_CHANGE = "SELECT MAX(id) FROM account_changes;";
+
+    // The last change is kept, SQLite would give its ID again once the table is
+    // empty and the pollers would skip the next changes. MySQL can't read the
+    // table it deletes from, except through a derived table
+    static final String DELETE_ACCOUNT_CHANGES_BEFORE = """
+            DELETE FROM account_changes
+            WHERE changed_at < ?
+            AND id < (SELECT last_id FROM (SELECT MAX(id) AS last_id FROM account_changes) AS last_change);
+            """;
+
+    /// Shard transfers
+
+    static final String INSERT_SHARD_TRANSFER = """
+            INSERT INTO shard_transfers (from_account, to_shard, to_account, amount) VALUES (?, ?, ?, ?);
+            """;
+
+    static final String SELECT_SHARD_TRANSFERS = """
+            SELECT id, from_account, to_shard, to_account, amount FROM shard_transfers ORDER BY id;
+            """;
+
+    static final String DELETE_SHARD_TRANSFER = "DELETE FROM shard_transfers WHERE id = ?;";
+
+    static final String INSERT_APPLIED_SHARD_TRANSFER = """
+            INSERT INTO shard_transfers_applied (from_shard, transfer_id) VALUES (?, ?);
+            """;
+
+    static final String COUNT_APPLIED_SHARD_TRANSFERS = """
+            SELECT COUNT(*) FROM shard_transfers_applied WHERE from_shard = ? AND transfer_id = ?;
+            """;
+
+    static final String DELETE_APPLIED_SHARD_TRANSFER = """
+            DELETE FROM shard_transfers_applied WHERE from_shard = ? AND transfer_id = ?;
+            """;
+
+    static final String DELETE_APPLIED_SHARD_TRANSFERS = "DELETE FROM shard_transfers_applied;";
+
+}
@@ -0,0 +1,477 @@
+package org.pantouflemc.economy.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.UUID;
+
+import org.jetbrains.annotations.NotNull;
+import org.pantouflemc.economy.Money;
+
+/**
+ * Versioned migrations of the database schema.
+ * <p>
+ * The version of the schema is stored in the schema_version table. Every
+ * migration above it is applied in order, each in its own transaction along
+ * with the new version, so an interrupted upgrade resumes where it stopped
+ * (MySQL commits the schema changes right away, so a failed migration may
+ * leave work behind there). New migrations are appended to the list and never
+ * modified once released.
+ */
+class SchemaMigrator {
+
+    /**
+     * A step of the schema migration, run inside a transaction
+     */
+    @FunctionalInterface
+    private interface Migration {
+        void apply(@NotNull Connection connection) throws SQLException;
+    }
+
+    private final @NotNull DatabaseDialect dialect;
+    private final @NotNull List<Migration> migrations;
+
+    /**
+     * Create a new SchemaMigrator
+     *
+     * @param dialect the dialect of the database
+     */
+    SchemaMigrator(@NotNull DatabaseDialect dialect) {
+        this.dialect = dialect;
+        // The position of a migration in the list is its version, starting at 1
+        this.migrations = List.of(
+                this::createTables,
+                this::migrateToFixedPoint,
+                this::createBalanceIndex,
+                this::migrateToBinaryUuids,
+                this::createJournalState,
+                this::createTransactions,
+                this::createTransactionSummaries,
+                this::createShardTransfers,
+                this::createAccountVersions,
+                this::createAccountChanges,
+                this::createServerJournalStates,
+                this::createJournalApplied,
+                this::createCurrency,
+                this::createJournalQuarantine);
+    }
+
+    /**
+     * Get the version the migrations bring the schema to
+     *
+     * @return the latest version of the schema
+     */
+    int getLatestVersion() {
+        return this.migrations.size();
+    }
+
+    /**
+     * Apply the migrations the database has not seen yet
+     *
+     * @param connection the connection to the database
+     */
+    void migrate(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS schema_version (version INTEGER NOT NULL);");
+        }
+
+        int version = getVersion(connection);
+        if (version > this.getLatestVersion()) {
+            throw new SQLException("The database schema (version " + version
+                    + ") is newer than the plugin (version " + this.getLatestVersion() + ")");
+        }
+
+        for (int i = version; i < this.migrations.size(); i++) {
+            connection.setAutoCommit(false);
+            try {
+                this.migrations.get(i).apply(connection);
+                setVersion(connection, i + 1);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Read the version of the schema
+     */
+    private static int getVersion(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT MAX(version) FROM schema_version;")) {
+            // Databases created before the migrations have no version, the first
+            // migrations are written to accept them
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Write the version of the schema
+     */
+    private static void setVersion(@NotNull Connection connection, int version) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO schema_version (version) VALUES (?);")) {
+            statement.executeUpdate("DELETE FROM schema_version;");
+            insert.setInt(1, version);
+            insert.executeUpdate();
+        }
+    }
+
+    /**
+     * Version 1: create the tables, as they were before the migrations (except
+     * for the balances of the new databases, directly stored in minor units)
+     */
+    private void createTables(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // Create the accounts table
+            statement.execute("""
+                    CREATE TABLE IF NOT EXISTS accounts (
+                        id %s,
+                        balance BIGINT NOT NULL
+                    );
+                    """.formatted(this.dialect.autoIncrementPrimaryKey()));
+
+            // Create the players name - uuid relation table
+            statement.execute("""
+                    CREATE TABLE IF NOT EXISTS players (
+                        player_uuid VARCHAR(36) PRIMARY KEY,
+                        player_name VARCHAR(16) NOT NULL
+                    );
+                    """);
+
+            // Create the players - accounts relation table
+            statement.execute("""
+                    CREATE TABLE IF NOT EXISTS players_accounts (
+                        player_uuid VARCHAR(36),
+                        account_id INTEGER,
+                        main BOOLEAN DEFAULT FALSE,
+                        PRIMARY KEY (player_uuid, account_id),
+                        FOREIGN KEY (player_uuid) REFERENCES players(player_uuid),
+                        FOREIGN KEY (account_id) REFERENCES accounts(id)
+                    );
+                    """);
+        }
+    }
+
+    /**
+     * Version 2: convert the balances from floating point to minor units, if the
+     * accounts table still uses a floating point column
+     */
+    private void migrateToFixedPoint(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT balance FROM accounts LIMIT 0;")) {
+            String type = resultSet.getMetaData().getColumnTypeName(1).toUpperCase();
+            if (!(type.contains("DOUBLE") || type.contains("REAL") || type.contains("FLOAT"))) {
+                return;
+            }
+        }
+
+        try (Statement statement = connection.createStatement();
+                PreparedStatement copy = connection.prepareStatement("""
+                        INSERT INTO accounts_fixed_point (id, balance)
+                        SELECT id, CAST(ROUND(balance * ?) AS %s) FROM accounts;
+                        """.formatted(this.dialect.integerCastType()))) {
+            statement.execute("""
+                    CREATE TABLE accounts_fixed_point (
+                        id %s,
+                        balance BIGINT NOT NULL
+                    );
+                    """.formatted(this.dialect.autoIncrementPrimaryKey()));
+
+            copy.setLong(1, Money.getFactor());
+            copy.executeUpdate();
+
+            statement.execute("DROP TABLE accounts;");
+            statement.execute("ALTER TABLE accounts_fixed_point RENAME TO accounts;");
+        }
+    }
+
+    /**
+     * Version 3: index the accounts in ranking order for the leaderboard
+     * pagination
+     */
+    private void createBalanceIndex(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // The index may already exist in the SQLite databases created before the
+            // migrations
+            statement.execute("""
+                    CREATE INDEX %s accounts_balance_index
+                    ON accounts (balance DESC, id);
+                    """.formatted(this.dialect == DatabaseDialect.SQLITE ? "IF NOT EXISTS" : ""));
+        }
+    }
+
+    /**
+     * Version 4: store the UUIDs of the players as 16 bytes instead of their
+     * textual representation
+     */
+    private void migrateToBinaryUuids(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE players_binary (
+                        player_uuid %s PRIMARY KEY,
+                        player_name VARCHAR(16) NOT NULL
+                    );
+                    """.formatted(this.dialect.uuidType()));
+            statement.execute("""
+                    CREATE TABLE players_accounts_binary (
+                        player_uuid %s,
+                        account_id INTEGER,
+                        main BOOLEAN DEFAULT FALSE,
+                        PRIMARY KEY (player_uuid, account_id),
+                        FOREIGN KEY (player_uuid) REFERENCES players_binary(player_uuid),
+                        FOREIGN KEY (account_id) REFERENCES accounts(id)
+                    );
+                    """.formatted(this.dialect.uuidType()));
+
+            // The UUIDs are converted by the plugin, the databases have no portable
+            // way to do it
+            try (ResultSet players = statement.executeQuery("SELECT player_uuid, player_name FROM players;");
+                    PreparedStatement insert = connection.prepareStatement(
+                            "INSERT INTO players_binary (player_uuid, player_name) VALUES (?, ?);")) {
+                while (players.next()) {
+                    insert.setBytes(1, UuidBytes.toBytes(UUID.fromString(players.getString("player_uuid"))));
+                    insert.setString(2, players.getString("player_name"));
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+
+            try (ResultSet relations = statement.executeQuery(
+                    "SELECT player_uuid, account_id, main FROM players_accounts;");
+                    PreparedStatement insert = connection.prepareStatement(
+                            "INSERT INTO players_accounts_binary (player_uuid, account_id, main) VALUES (?, ?, ?);")) {
+                while (relations.next()) {
+                    insert.setBytes(1, UuidBytes.toBytes(UUID.fromString(relations.getString("player_uuid"))));
+                    insert.setInt(2, relations.getInt("account_id"));
+                    insert.setBoolean(3, relations.getBoolean("main"));
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+
+            statement.execute("DROP TABLE players_accounts;");
+            statement.execute("DROP TABLE players;");
+            statement.execute("ALTER TABLE players_binary RENAME TO players;");
+            statement.execute("ALTER TABLE players_accounts_binary RENAME TO players_accounts;");
+
+            // Same index as the textual table
+            if (this.dialect.supportsPartialIndexes()) {
+                statement.execute("""
+                        CREATE UNIQUE INDEX player_uuid_index
+                        ON players_accounts (player_uuid, account_id) WHERE main = TRUE;
+                        """);
+            }
+        }
+    }
+
+    /**
+     * Version 5: store the sequence number of the last journal record written to
+     * the database
+     */
+    private void createJournalState(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE journal_state (sequence BIGINT NOT NULL);");
+            statement.execute("INSERT INTO journal_state (sequence) VALUES (0);");
+        }
+    }
+
+    /**
+     * Version 6: create the transaction history, indexed by account and time on
+     * both sides of the transactions, and index the relations by account
+     */
+    private void createTransactions(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // The accounts are not foreign keys, the history outlives them
+            statement.execute("""
+                    CREATE TABLE transactions (
+                        id %s,
+                        from_account INTEGER,
+                        to_account INTEGER,
+                        amount BIGINT NOT NULL,
+                        kind VARCHAR(16) NOT NULL,
+                        actor %s,
+                        created_at BIGINT NOT NULL
+                    );
+                    """.formatted(this.dialect.autoIncrementBigPrimaryKey(), this.dialect.uuidType()));
+            statement.execute("""
+                    CREATE INDEX transactions_from_index
+                    ON transactions (from_account, created_at DESC, id DESC);
+                    """);
+            statement.execute("""
+                    CREATE INDEX transactions_to_index
+                    ON transactions (to_account, created_at DESC, id DESC);
+                    """);
+
+            // The names of the history are found from the accounts
+            statement.execute("""
+                    CREATE INDEX players_accounts_account_index
+                    ON players_accounts (account_id);
+                    """);
+        }
+    }
+
+    /**
+     * Version 7: create the daily summaries of the compacted transactions, and
+     * index the transactions by time for the compaction
+     */
+    private void createTransactionSummaries(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE transaction_summaries (
+                        account_id INTEGER NOT NULL,
+                        day INTEGER NOT NULL,
+                        net_delta BIGINT NOT NULL,
+                        transaction_count INTEGER NOT NULL,
+                        PRIMARY KEY (account_id, day)
+                    );
+                    """);
+            statement.execute("""
+                    CREATE INDEX transactions_time_index
+                    ON transactions (created_at, id);
+                    """);
+        }
+    }
+
+    /**
+     * Version 8: create the transfers between the shards of a sharded storage,
+     * pending in the shard of the payer and marked as applied in the shard of
+     * the payee (the tables stay empty in an unsharded database)
+     */
+    private void createShardTransfers(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // The IDs are never reused, an applied transfer is recognized by its ID
+            statement.execute("""
+                    CREATE TABLE shard_transfers (
+                        id %s,
+                        from_account INTEGER NOT NULL,
+                        to_shard INTEGER NOT NULL,
+                        to_account INTEGER NOT NULL,
+                        amount BIGINT NOT NULL
+                    );
+                    """.formatted(this.dialect.autoIncrementPrimaryKey()));
+            statement.execute("""
+                    CREATE TABLE shard_transfers_applied (
+                        from_shard INTEGER NOT NULL,
+                        transfer_id INTEGER NOT NULL,
+                        PRIMARY KEY (from_shard, transfer_id)
+                    );
+                    """);
+        }
+    }
+
+    /**
+     * Version 9: count the changes of the balance of each account, so the
+     * servers sharing the database can tell whether a cached balance is stale
+     */
+    private void createAccountVersions(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE accounts ADD COLUMN version BIGINT NOT NULL DEFAULT 0;");
+        }
+    }
+
+    /**
+     * Version 10: create the feed of the changes of the accounts, tailed by the
+     * servers sharing the database to refresh their caches, and index it by
+     * time for the pruning
+     */
+    private void createAccountChanges(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // The accounts are not foreign keys, the deletions are changes too
+            statement.execute("""
+                    CREATE TABLE account_changes (
+                        id %s,
+                        account_id INTEGER NOT NULL,
+                        player_uuid %s,
+                        deleted BOOLEAN NOT NULL DEFAULT FALSE,
+                        origin BIGINT NOT NULL,
+                        changed_at BIGINT NOT NULL
+                    );
+                    """.formatted(this.dialect.autoIncrementBigPrimaryKey(), this.dialect.uuidType()));
+            statement.execute("""
+                    CREATE INDEX account_changes_time_index
+                    ON account_changes (changed_at);
+                    """);
+        }
+    }
+
+    /**
+     * Version 11: store the sequence number of the last journal record written to
+     * the database for each server sharing it, each server having a journal of
+     * its own (the former state is kept as the state of the server ID '')
+     */
+    private void createServerJournalStates(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE journal_states (
+                        server_id VARCHAR(64) NOT NULL PRIMARY KEY,
+                        sequence BIGINT NOT NULL
+                    );
+                    """);
+            statement.execute("""
+                    INSERT INTO journal_states (server_id, sequence)
+                    SELECT '', sequence FROM journal_state;
+                    """);
+            statement.execute("DROP TABLE journal_state;");
+        }
+    }
+
+    /**
+     * Version 12: store the sequence number of the last journal record included
+     * in the balance of each account, so the records of a server are
+     * acknowledged account by account
+     */
+    private void createJournalApplied(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE journal_applied (
+                        server_id VARCHAR(64) NOT NULL,
+                        account_id INTEGER NOT NULL,
+                        sequence BIGINT NOT NULL,
+                        PRIMARY KEY (server_id, account_id)
+                    );
+                    """);
+        }
+    }
+
+    /**
+     * Version 13: store the number of decimals of the currency the balances are
+     * stored with, the configured one being taken for the existing balances
+     */
+    private void createCurrency(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO currency (decimals) VALUES (?);")) {
+            statement.execute("CREATE TABLE currency (decimals INTEGER NOT NULL);");
+            insert.setInt(1, Money.getDecimals());
+            insert.executeUpdate();
+        }
+    }
+
+    /**
+     * Version 14: keep the replayed journal changes that could not be applied,
+     * for an administrator to settle
+     */
+    private void createJournalQuarantine(@NotNull Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE journal_quarantine (
+                        id %s,
+                        server_id VARCHAR(64) NOT NULL,
+                        account_id INTEGER NOT NULL,
+                        delta BIGINT NOT NULL,
+                        sequence BIGINT NOT NULL,
+                        quarantined_at BIGINT NOT NULL
+                    );
+                    """.formatted(this.dialect.autoIncrementPrimaryKey()));
+        }
+    }
+
+}
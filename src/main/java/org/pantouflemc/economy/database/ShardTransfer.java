@@ -0,0 +1,18 @@
+package org.pantouflemc.economy.database;
+
+/**
+ * A transfer from an account of a shard to an account of another shard,
+ * pending in the shard of the payer until the payee is credited.
+ * <p>
+ * The accounts are identified by their ID in their own shard.
+ *
+ * @param id            The ID of the transfer in the shard of the payer, 0
+ *                      before it is recorded.
+ * @param fromAccountId The ID of the account the amount is removed from.
+ * @param toShard       The index of the shard of the account the amount is
+ *                      added to.
+ * @param toAccountId   The ID of the account the amount is added to.
+ * @param amount        The amount of the transfer, in minor units.
+ */
+public record ShardTransfer(long id, int fromAccountId, int toShard, int toAccountId, long amount) {
+}
@@ -0,0 +1,100 @@
+package org.pantouflemc.economy.database;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Prepared statements kept open while a connection is borrowed from the pool.
+ * <p>
+ * The statements are prepared through the connection of the pool, which tracks
+ * them and closes them when the connection is given back, so a query is
+ * prepared once per borrow rather than once per call. Across borrows, the
+ * driver's own statement cache avoids parsing the query again.
+ * <p>
+ * The statements returned by the cache must not be closed by their users, but
+ * their result sets must be, so the statements can be executed again.
+ */
+class StatementCache implements Closeable {
+
+    // A connection is used by a single thread at a time and the pool hands it
+    // over safely, so the statements of a connection don't need to be
+    // synchronized
+    private final @NotNull Map<Connection, Map<String, PreparedStatement>> statements = new ConcurrentHashMap<>();
+
+    /**
+     * Get the prepared statement of a query for a connection
+     *
+     * @param connection the connection borrowed from the pool
+     * @param query      the query, one of the {@link Queries}
+     * @return the prepared statement
+     */
+    @NotNull
+    PreparedStatement prepare(@NotNull Connection connection, @NotNull String query) throws SQLException {
+        return this.prepare(connection, query, Statement.NO_GENERATED_KEYS);
+    }
+
+    /**
+     * Get the prepared statement of a query for a connection
+     *
+     * @param connection        the connection borrowed from the pool
+     * @param query             the query, one of the {@link Queries}
+     * @param autoGeneratedKeys whether the generated keys are returned, always
+     *                          the same for a query
+     * @return the prepared statement
+     */
+    @NotNull
+    PreparedStatement prepare(@NotNull Connection connection, @NotNull String query, int autoGeneratedKeys)
+            throws SQLException {
+        Map<String, PreparedStatement> connectionStatements = this.statements.get(connection);
+        if (connectionStatements == null) {
+            // A connection was borrowed, forget the statements of the ones given
+            // back, the pool already closed them
+            this.statements.keySet().removeIf(StatementCache::isClosed);
+
+            connectionStatements = new HashMap<>();
+            this.statements.put(connection, connectionStatements);
+        }
+
+        PreparedStatement statement = connectionStatements.get(query);
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(query, autoGeneratedKeys);
+            connectionStatements.put(query, statement);
+        }
+
+        return statement;
+    }
+
+    /**
+     * Check whether a connection was closed
+     */
+    private static boolean isClosed(@NotNull Connection connection) {
+        try {
+            return connection.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Map<String, PreparedStatement> connectionStatements : this.statements.values()) {
+            for (PreparedStatement statement : connectionStatements.values()) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    // The connection is being closed anyway
+                }
+            }
+        }
+        this.statements.clear();
+    }
+
+}
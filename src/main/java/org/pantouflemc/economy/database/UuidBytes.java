@@ -0,0 +1,40 @@
+package org.pantouflemc.economy.database;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Conversion of the UUIDs to the 16 bytes stored in the database.
+ */
+final class UuidBytes {
+
+    private UuidBytes() {
+    }
+
+    /**
+     * Convert a UUID to bytes
+     *
+     * @param uuid the UUID
+     * @return the 16 bytes of the UUID, most significant first
+     */
+    static byte @NotNull [] toBytes(@NotNull UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    /**
+     * Convert bytes read from the database to a UUID
+     *
+     * @param bytes the 16 bytes of the UUID, most significant first
+     * @return the UUID
+     */
+    static @NotNull UUID fromBytes(byte @NotNull [] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+}
@@ -0,0 +1,14 @@
+package org.pantouflemc.economy.database;
+
+/**
+ * The balance of an account along with its version.
+ * <p>
+ * The version of an account is incremented by every change of its balance, so
+ * a server sharing the database can tell whether a balance it read is still
+ * current.
+ *
+ * @param balance The balance of the account, in minor units.
+ * @param version The number of changes of the balance of the account.
+ */
+public record VersionedBalance(long balance, long version) {
+}
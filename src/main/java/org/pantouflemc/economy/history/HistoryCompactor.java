@@ -0,0 +1,216 @@
+package org.pantouflemc.economy.history;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.pantouflemc.economy.TransactionRecord;
+import org.pantouflemc.economy.exceptions.EconomyDatabaseError;
+import org.pantouflemc.economy.storage.StorageEngine;
+
+/**
+ * Background compaction of the old transaction history.
+ * <p>
+ * The transactions older than the retention period are replaced with one
+ * summary per account and day, holding the net change of the balance and the
+ * number of transactions, so the history table only grows with the recent
+ * activity. Before being deleted, the raw transactions can be archived to one
+ * compressed CSV file per month. The history command shows the summaries after
+ * the raw transactions.
+ * <p>
+ * The transactions are compacted in small chunks, each in its own database
+ * transaction, with a pause between them, so the compaction never holds the
+ * database for long while the server is running. Only the transactions whose
+ * deletion matched are summarized and archived, so the servers sharing the
+ * database can all compact it without counting a transaction twice.
+ */
+public class HistoryCompactor implements Closeable {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final String ARCHIVE_HEADER = "id,created_at,kind,from_account,to_account,amount,actor\n";
+
+    private final @NotNull StorageEngine storageEngine;
+    private final @NotNull Logger logger;
+    private final @Nullable Path archiveDirectory;
+    private final long retention;
+    private final int chunkSize;
+    private final long chunkDelay;
+    private final long interval;
+    private final @NotNull ScheduledExecutorService compactor;
+
+    /**
+     * Create a new HistoryCompactor
+     *
+     * @param storageEngine    the storage of the history
+     * @param logger           the logger used to report the failed compactions
+     * @param archiveDirectory the directory of the archives, or null to delete
+     *                         the transactions without archiving them
+     * @param retentionDays    the number of days the raw transactions are kept
+     * @param chunkSize        the number of transactions compacted at once
+     * @param chunkDelay       the time between two chunks, in milliseconds
+     * @param interval         the time between two compactions, in seconds
+     */
+    public HistoryCompactor(@NotNull StorageEngine storageEngine, @NotNull Logger logger,
+            @Nullable Path archiveDirectory, int retentionDays, int chunkSize, long chunkDelay, long interval) {
+        this.storageEngine = storageEngine;
+        this.logger = logger;
+        this.archiveDirectory = archiveDirectory;
+        this.retention = retentionDays * DAY;
+        this.chunkSize = chunkSize;
+        this.chunkDelay = chunkDelay;
+        this.interval = TimeUnit.SECONDS.toMillis(interval);
+
+        this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "economy-history-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.schedule(this.interval);
+    }
+
+    /**
+     * Schedule the next chunk of the compaction
+     *
+     * @param delay the time before the chunk, in milliseconds
+     */
+    private void schedule(long delay) {
+        try {
+            this.compactor.schedule(this::compactQuietly, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The compactor is closed
+        }
+    }
+
+    /**
+     * Compact a chunk of the transactions older than the retention period
+     *
+     * @return true if more transactions may be waiting for the compaction,
+     *         false otherwise
+     */
+    public boolean compact() throws EconomyDatabaseError, IOException {
+        long before = System.currentTimeMillis() - this.retention;
+        List<TransactionRecord> transactions = this.storageEngine.getTransactionsBefore(before, this.chunkSize);
+        if (transactions.isEmpty()) {
+            return false;
+        }
+
+        try {
+            int compacted = this.storageEngine.compactTransactions(transactions,
+                    this.archiveDirectory != null ? this::archive : null);
+            if (compacted < transactions.size()) {
+                this.logger.fine((transactions.size() - compacted)
+                        + " transactions were already compacted by another server");
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        return transactions.size() == this.chunkSize;
+    }
+
+    /**
+     * Append transactions to the archives of their month
+     * <p>
+     * Each append adds a new gzip member to the file, the concatenated members
+     * read as a single file. The files are synced to the disk before the
+     * deletion of the transactions is committed.
+     *
+     * @param transactions the transactions to archive
+     */
+    private void archive(@NotNull List<TransactionRecord> transactions) throws IOException {
+        Map<YearMonth, List<TransactionRecord>> months = new LinkedHashMap<>();
+        for (TransactionRecord transaction : transactions) {
+            YearMonth month = YearMonth.from(Instant.ofEpochMilli(transaction.timestamp()).atOffset(ZoneOffset.UTC));
+            months.computeIfAbsent(month, key -> new ArrayList<>()).add(transaction);
+        }
+
+        Files.createDirectories(this.archiveDirectory);
+        for (Map.Entry<YearMonth, List<TransactionRecord>> entry : months.entrySet()) {
+            Path path = this.archiveDirectory.resolve("transactions-" + entry.getKey() + ".csv.gz");
+            boolean created = Files.notExists(path);
+
+            try (FileOutputStream file = new FileOutputStream(path.toFile(), true)) {
+                GZIPOutputStream gzip = new GZIPOutputStream(file);
+                Writer writer = new OutputStreamWriter(gzip, StandardCharsets.UTF_8);
+                if (created) {
+                    writer.write(ARCHIVE_HEADER);
+                }
+                for (TransactionRecord transaction : entry.getValue()) {
+                    writer.write(toCsv(transaction));
+                }
+                writer.flush();
+                gzip.finish();
+                file.getFD().sync();
+            }
+        }
+    }
+
+    /**
+     * Format a transaction as a line of the archive
+     */
+    private static @NotNull String toCsv(@NotNull TransactionRecord transaction) {
+        return transaction.id() + ","
+                + transaction.timestamp() + ","
+                + transaction.kind() + ","
+                + (transaction.fromAccountId() != null ? transaction.fromAccountId() : "") + ","
+                + (transaction.toAccountId() != null ? transaction.toAccountId() : "") + ","
+                + transaction.amount() + ","
+                + (transaction.actor() != null ? transaction.actor() : "") + "\n";
+    }
+
+    /**
+     * Compact a chunk of the transactions, logging the failures, and schedule
+     * the next one
+     */
+    private void compactQuietly() {
+        boolean remaining = false;
+        try {
+            remaining = this.compact();
+        } catch (EconomyDatabaseError e) {
+            this.logger.log(Level.SEVERE, "Could not compact the transaction history", e);
+        } catch (IOException e) {
+            this.logger.log(Level.SEVERE, "Could not archive the transaction history", e);
+        } catch (RuntimeException e) {
+            // The next compaction is scheduled whatever happened to this one
+            this.logger.log(Level.SEVERE, "Unexpected error while compacting the transaction history", e);
+        }
+
+        this.schedule(remaining ? this.chunkDelay : this.interval);
+    }
+
+    /**
+     * Stop the background compaction, the chunk in progress is finished
+     */
+    @Override
+    public void close() {
+        this.compactor.shutdown();
+        try {
+            this.compactor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
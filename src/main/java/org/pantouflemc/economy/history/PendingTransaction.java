@@ -0,0 +1,22 @@
+package org.pantouflemc.economy.history;
+
+import java.util.UUID;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.pantouflemc.economy.TransactionKind;
+
+/**
+ * A transaction waiting to be written to the history.
+ *
+ * @param fromAccountId The ID of the account the money was taken from, or null.
+ * @param toAccountId   The ID of the account the money was given to, or null.
+ * @param amount        The amount of the transaction, in minor units.
+ * @param kind          The kind of the transaction.
+ * @param actor         The UUID of the player who made the transaction, or null.
+ * @param timestamp     The time of the transaction, in milliseconds since the
+ *                      epoch.
+ */
+public record PendingTransaction(@Nullable Integer fromAccountId, @Nullable Integer toAccountId, long amount,
+        @NotNull TransactionKind kind, @Nullable UUID actor, long timestamp) {
+}
@@ -0,0 +1,23 @@
+package org.pantouflemc.economy.history;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.pantouflemc.economy.TransactionRecord;
+
+/**
+ * The archive of the compacted transactions, appended to before their deletion
+ * is committed.
+ */
+@FunctionalInterface
+public interface TransactionArchive {
+
+    /**
+     * Append transactions to the archive, durably
+     *
+     * @param transactions the transactions to archive
+     */
+    void append(@NotNull List<TransactionRecord> transactions) throws IOException;
+
+}
@@ -0,0 +1,82 @@
+package org.pantouflemc.economy.history;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.pantouflemc.economy.TransactionRecord;
+
+/**
+ * The transactions of an account during a day, aggregated by the compaction of
+ * the history.
+ *
+ * @param accountId The ID of the account.
+ * @param day       The day of the transactions, in days since the epoch (UTC).
+ * @param netDelta  The sum of the changes of the balance, in minor units. The
+ *                  balances that were set have no known change and are not
+ *                  part of it.
+ * @param count     The number of transactions.
+ */
+public record TransactionSummary(int accountId, long day, long netDelta, int count) {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * The key of a summary
+     */
+    private record Key(int accountId, long day) {
+    }
+
+    /**
+     * Aggregate transactions into one summary per account and day
+     *
+     * @param transactions the transactions
+     * @return the summaries of the transactions
+     */
+    public static @NotNull List<TransactionSummary> summarize(@NotNull List<TransactionRecord> transactions) {
+        Map<Key, long[]> totals = new LinkedHashMap<>();
+        for (TransactionRecord transaction : transactions) {
+            long day = Math.floorDiv(transaction.timestamp(), DAY);
+            long amount = transaction.amount();
+            switch (transaction.kind()) {
+                case TRANSFER -> {
+                    add(totals, transaction.fromAccountId(), day, -amount);
+                    add(totals, transaction.toAccountId(), day, amount);
+                }
+                case ADD -> add(totals, transaction.toAccountId(), day, amount);
+                case REMOVE -> add(totals, transaction.fromAccountId(), day, -amount);
+                // The change of a set is unknown, it only counts as a transaction
+                case SET -> add(totals, transaction.toAccountId(), day, 0);
+            }
+        }
+
+        List<TransactionSummary> summaries = new ArrayList<>(totals.size());
+        totals.forEach((key, total) -> summaries.add(
+                new TransactionSummary(key.accountId(), key.day(), total[0], (int) total[1])));
+        return summaries;
+    }
+
+    /**
+     * Add a transaction to the summary of an account
+     *
+     * @param totals    the net change and number of transactions of the
+     *                  summaries
+     * @param accountId the ID of the account, or null
+     * @param day       the day of the transaction, in days since the epoch
+     * @param delta     the change of the balance, in minor units
+     */
+    private static void add(@NotNull Map<Key, long[]> totals, @Nullable Integer accountId, long day, long delta) {
+        if (accountId == null) {
+            return;
+        }
+
+        long[] total = totals.computeIfAbsent(new Key(accountId, day), key -> new long[2]);
+        total[0] += delta;
+        total[1]++;
+    }
+
+}
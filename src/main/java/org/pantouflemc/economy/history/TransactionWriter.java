@@ -0,0 +1,175 @@
+package org.pantouflemc.economy.history;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.pantouflemc.economy.TransactionKind;
+import org.pantouflemc.economy.exceptions.EconomyDatabaseError;
+import org.pantouflemc.economy.storage.StorageEngine;
+
+/**
+ * Background writer of the transaction history.
+ * <p>
+ * Recording a transaction only queues it, so the history adds no database
+ * round trip to the operations. The queued transactions are inserted in a
+ * single batch every flush interval, or as soon as the number of queued
+ * transactions reaches the flush threshold.
+ * <p>
+ * While the database can't be written, the transactions are kept up to a
+ * limit, past which the oldest ones are dropped.
+ */
+public class TransactionWriter implements Closeable {
+
+    private final @NotNull StorageEngine storageEngine;
+    private final @NotNull Logger logger;
+    private final int flushThreshold;
+    private final int maximumPending;
+
+    private final @NotNull Queue<PendingTransaction> queue = new ConcurrentLinkedQueue<>();
+    private final @NotNull AtomicInteger queueSize = new AtomicInteger();
+    private final @NotNull AtomicBoolean flushRequested = new AtomicBoolean();
+    private final @NotNull ScheduledExecutorService writer;
+
+    // The batch of a failed flush, written again before the newer transactions.
+    // Only accessed by the flush, which is synchronized
+    private @NotNull List<PendingTransaction> failedBatch = new ArrayList<>();
+
+    /**
+     * Create a new TransactionWriter
+     *
+     * @param storageEngine  the storage the transactions are written to
+     * @param logger         the logger used to report the failed flushes
+     * @param flushInterval  the time between two flushes, in milliseconds
+     * @param flushThreshold the number of queued transactions triggering a flush
+     * @param maximumPending the number of transactions kept while they can't be
+     *                       written
+     */
+    public TransactionWriter(@NotNull StorageEngine storageEngine, @NotNull Logger logger, long flushInterval,
+            int flushThreshold, int maximumPending) {
+        this.storageEngine = storageEngine;
+        this.logger = logger;
+        this.flushThreshold = flushThreshold;
+        this.maximumPending = maximumPending;
+
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "economy-history-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writer.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue a transaction to be written to the history
+     *
+     * @param fromAccountId the ID of the account the money was taken from, or
+     *                      null
+     * @param toAccountId   the ID of the account the money was given to, or null
+     * @param amount        the amount of the transaction, in minor units
+     * @param kind          the kind of the transaction
+     * @param actor         the UUID of the player who made the transaction, or
+     *                      null
+     */
+    public void record(@Nullable Integer fromAccountId, @Nullable Integer toAccountId, long amount,
+            @NotNull TransactionKind kind, @Nullable UUID actor) {
+        this.queue.add(new PendingTransaction(fromAccountId, toAccountId, amount, kind, actor,
+                System.currentTimeMillis()));
+
+        if (this.queueSize.incrementAndGet() >= this.flushThreshold) {
+            this.requestFlush();
+        }
+    }
+
+    /**
+     * Write the queued transactions in the background, without waiting for the
+     * next flush interval
+     */
+    public void requestFlush() {
+        if (this.flushRequested.compareAndSet(false, true)) {
+            this.writer.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Write the queued transactions to the database
+     */
+    public synchronized void flush() throws EconomyDatabaseError {
+        this.flushRequested.set(false);
+
+        List<PendingTransaction> batch = this.failedBatch;
+        this.failedBatch = new ArrayList<>();
+
+        PendingTransaction transaction;
+        while ((transaction = this.queue.poll()) != null) {
+            this.queueSize.decrementAndGet();
+            batch.add(transaction);
+        }
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            this.storageEngine.insertTransactions(batch);
+        } catch (EconomyDatabaseError e) {
+            if (batch.size() > this.maximumPending) {
+                int dropped = batch.size() - this.maximumPending;
+                batch.subList(0, dropped).clear();
+                this.logger.warning("Dropped the " + dropped
+                        + " oldest transactions of the history, the database can't be written");
+            }
+            this.failedBatch = batch;
+            throw e;
+        }
+    }
+
+    /**
+     * Write the queued transactions to the database, logging the failures
+     */
+    private void flushQuietly() {
+        try {
+            this.flush();
+        } catch (EconomyDatabaseError e) {
+            this.logger.log(Level.SEVERE, "Could not write the transaction history to the database", e);
+        }
+    }
+
+    /**
+     * Get the number of transactions waiting for the next flush
+     *
+     * @return the number of queued transactions
+     */
+    public int getQueueSize() {
+        return this.queueSize.get();
+    }
+
+    /**
+     * Stop the background flushes and write the queued transactions to the
+     * database
+     */
+    @Override
+    public void close() {
+        this.writer.shutdown();
+        try {
+            this.writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.flushQuietly();
+    }
+
+}
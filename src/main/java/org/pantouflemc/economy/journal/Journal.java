@@ -0,0 +1,372 @@
+package org.pantouflemc.economy.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Append-only journal of the balance mutations.
+ * <p>
+ * Every mutation is recorded before it is written to the database, in
+ * memory-mapped segment files. Appending a record only copies it to the mapped
+ * memory, which belongs to the page cache of the system and survives a crash
+ * of the server. The records are forced to the disk in groups every sync
+ * interval, so a single fsync covers all the mutations of the interval and
+ * only a crash of the whole system can lose the last interval.
+ * <p>
+ * Once the database acknowledges a sequence number, the segments holding only
+ * older records are deleted. After a crash, the records above the
+ * acknowledged sequence number are read back with {@link #read} and replayed.
+ */
+public class Journal implements Closeable {
+
+    // Sequence number, timestamp, reason and number of changes of a record
+    private static final int HEADER_SIZE = Long.BYTES + Long.BYTES + Byte.BYTES + Integer.BYTES;
+    // Account ID and delta of a change
+    private static final int CHANGE_SIZE = Integer.BYTES + Long.BYTES;
+    // Size of a record before it and checksum after it
+    private static final int FRAME_SIZE = Integer.BYTES + Integer.BYTES;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * A segment that is no longer written to, deleted once all its records are
+     * acknowledged
+     */
+    private record ClosedSegment(@NotNull Path path, long lastSequence) {
+    }
+
+    private final @NotNull Path directory;
+    private final int segmentSize;
+    private final @NotNull Logger logger;
+    private final @NotNull CRC32C checksum = new CRC32C();
+    private final @NotNull Deque<ClosedSegment> closedSegments = new ConcurrentLinkedDeque<>();
+    private final @NotNull ScheduledExecutorService syncer;
+
+    // The current segment, guarded by this
+    private @NotNull Path segmentPath;
+    private @NotNull FileChannel channel;
+    private @NotNull MappedByteBuffer buffer;
+    private int syncedPosition;
+    private long lastSequence;
+    private boolean closed;
+
+    /**
+     * Create a new Journal, deleting the segments of the previous one
+     * <p>
+     * The records of the previous journal must have been replayed first.
+     *
+     * @param directory    the directory of the segment files
+     * @param segmentSize  the size of a segment file, in bytes
+     * @param syncInterval the time between two syncs to the disk, in
+     *                     milliseconds
+     * @param lastSequence the last sequence number used, the journal continues
+     *                     after it
+     * @param logger       the logger used to report the failed syncs
+     */
+    public Journal(@NotNull Path directory, int segmentSize, long syncInterval, long lastSequence,
+            @NotNull Logger logger) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.logger = logger;
+        this.lastSequence = lastSequence;
+
+        Files.createDirectories(directory);
+        deleteSegments(directory);
+        this.openSegment(lastSequence + 1);
+
+        this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "economy-journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.syncer.scheduleWithFixedDelay(this::syncQuietly, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a segment file and make it the current segment
+     *
+     * @param firstSequence the sequence number of the first record of the
+     *                      segment
+     */
+    private void openSegment(long firstSequence) throws IOException {
+        Path path = this.directory.resolve(segmentName(firstSequence));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            // The file grows to the size of the mapping, filled with zeros
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        this.segmentPath = path;
+        this.channel = channel;
+        this.syncedPosition = 0;
+    }
+
+    /**
+     * Replace the current segment, which is full, with a new one
+     */
+    private void roll() throws IOException {
+        Path previousPath = this.segmentPath;
+        FileChannel previousChannel = this.channel;
+        MappedByteBuffer previousBuffer = this.buffer;
+
+        // Nothing changes if the new segment can't be created
+        this.openSegment(this.lastSequence + 1);
+
+        previousBuffer.force();
+        previousChannel.close();
+        this.closedSegments.add(new ClosedSegment(previousPath, this.lastSequence));
+    }
+
+    /**
+     * Record a mutation
+     * <p>
+     * The record reaches the disk with the next sync.
+     *
+     * @param reason     the operation that caused the mutation
+     * @param accountIds the IDs of the modified accounts
+     * @param deltas     the change of the balance of each account, in minor units
+     * @return the sequence number of the record
+     */
+    public synchronized long append(@NotNull JournalReason reason, int @NotNull [] accountIds,
+            long @NotNull [] deltas) throws IOException {
+        if (this.closed) {
+            throw new IOException("The journal is closed");
+        }
+
+        int size = HEADER_SIZE + accountIds.length * CHANGE_SIZE;
+        if (size + FRAME_SIZE > this.segmentSize) {
+            throw new IOException("The record is larger than a journal segment");
+        }
+        if (this.buffer.remaining() < size + FRAME_SIZE) {
+            this.roll();
+        }
+
+        long sequence = this.lastSequence + 1;
+
+        this.buffer.putInt(size);
+        int start = this.buffer.position();
+        this.buffer.putLong(sequence);
+        this.buffer.putLong(System.currentTimeMillis());
+        this.buffer.put(reason.getCode());
+        this.buffer.putInt(accountIds.length);
+        for (int i = 0; i < accountIds.length; i++) {
+            this.buffer.putInt(accountIds[i]);
+            this.buffer.putLong(deltas[i]);
+        }
+
+        this.checksum.reset();
+        this.checksum.update(this.buffer.slice(start, size));
+        this.buffer.putInt((int) this.checksum.getValue());
+
+        this.lastSequence = sequence;
+        return sequence;
+    }
+
+    /**
+     * Get the sequence number of the last record
+     *
+     * @return the sequence number of the last record
+     */
+    public synchronized long getLastSequence() {
+        return this.lastSequence;
+    }
+
+    /**
+     * Force the records appended since the last sync to the disk
+     */
+    public void sync() {
+        MappedByteBuffer buffer;
+        int from;
+        int to;
+        synchronized (this) {
+            buffer = this.buffer;
+            from = this.syncedPosition;
+            to = buffer.position();
+            this.syncedPosition = to;
+        }
+
+        // Outside of the lock, the appends continue while the pages are written
+        if (to > from) {
+            buffer.force(from, to - from);
+        }
+    }
+
+    /**
+     * Force the records to the disk, logging the failures
+     */
+    private void syncQuietly() {
+        try {
+            this.sync();
+        } catch (UncheckedIOException e) {
+            this.logger.log(Level.SEVERE, "Could not sync the journal to the disk", e);
+        }
+    }
+
+    /**
+     * Delete the segments whose records were all written to the database
+     *
+     * @param sequence the last sequence number written to the database
+     */
+    public void acknowledge(long sequence) {
+        ClosedSegment segment;
+        while ((segment = this.closedSegments.peek()) != null && segment.lastSequence() <= sequence) {
+            this.closedSegments.poll();
+            try {
+                Files.deleteIfExists(segment.path());
+            } catch (IOException e) {
+                this.logger.log(Level.WARNING, "Could not delete the journal segment " + segment.path(), e);
+            }
+        }
+    }
+
+    /**
+     * Stop the background syncs and force the last records to the disk
+     * <p>
+     * The segments are kept, the next journal deletes them once they are
+     * replayed.
+     */
+    @Override
+    public void close() {
+        this.syncer.shutdown();
+        try {
+            this.syncer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.syncQuietly();
+
+        synchronized (this) {
+            this.closed = true;
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                this.logger.log(Level.WARNING, "Could not close the journal", e);
+            }
+        }
+    }
+
+    /**
+     * Read the records of the journal files of a directory
+     *
+     * @param directory     the directory of the segment files
+     * @param afterSequence the sequence number after which the records are read
+     * @return the records above the sequence number, in order
+     */
+    public static @NotNull List<JournalRecord> read(@NotNull Path directory, long afterSequence) throws IOException {
+        List<JournalRecord> records = new ArrayList<>();
+        for (Path segment : listSegments(directory)) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                readSegment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), afterSequence, records);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Read the records of a segment
+     *
+     * @param buffer        the content of the segment
+     * @param afterSequence the sequence number after which the records are read
+     * @param records       the list the records are added to
+     */
+    private static void readSegment(@NotNull ByteBuffer buffer, long afterSequence,
+            @NotNull List<JournalRecord> records) {
+        CRC32C checksum = new CRC32C();
+        while (buffer.remaining() >= FRAME_SIZE) {
+            // A size of zero is the end of the written records, an invalid size or
+            // checksum a record torn by a crash of the system
+            int size = buffer.getInt();
+            if (size < HEADER_SIZE || size > buffer.remaining() - Integer.BYTES) {
+                return;
+            }
+
+            checksum.reset();
+            checksum.update(buffer.slice(buffer.position(), size));
+            if ((int) checksum.getValue() != buffer.getInt(buffer.position() + size)) {
+                return;
+            }
+
+            long sequence = buffer.getLong();
+            long timestamp = buffer.getLong();
+            JournalReason reason = JournalReason.fromCode(buffer.get());
+            int count = buffer.getInt();
+            if (size != HEADER_SIZE + count * CHANGE_SIZE) {
+                return;
+            }
+
+            int[] accountIds = new int[count];
+            long[] deltas = new long[count];
+            for (int i = 0; i < count; i++) {
+                accountIds[i] = buffer.getInt();
+                deltas[i] = buffer.getLong();
+            }
+            buffer.getInt();
+
+            if (sequence > afterSequence) {
+                records.add(new JournalRecord(sequence, timestamp, reason, accountIds, deltas));
+            }
+        }
+    }
+
+    /**
+     * Delete the journal files of a directory
+     *
+     * @param directory the directory of the segment files
+     */
+    private static void deleteSegments(@NotNull Path directory) throws IOException {
+        for (Path segment : listSegments(directory)) {
+            Files.delete(segment);
+        }
+    }
+
+    /**
+     * List the journal files of a directory, in the order of their records
+     */
+    private static @NotNull List<Path> listSegments(@NotNull Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            // The names are zero-padded, so their order is the order of the records
+            return files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().toList();
+        }
+    }
+
+    /**
+     * Get the name of the file of a segment
+     */
+    private static @NotNull String segmentName(long firstSequence) {
+        return SEGMENT_PREFIX + String.format("%020d", firstSequence) + SEGMENT_SUFFIX;
+    }
+
+}
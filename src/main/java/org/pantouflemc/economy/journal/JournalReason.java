@@ -0,0 +1,46 @@
+package org.pantouflemc.economy.journal;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The operation that caused a mutation recorded in the journal.
+ */
+public enum JournalReason {
+
+    SET((byte) 1),
+    ADD((byte) 2),
+    REMOVE((byte) 3),
+    TRANSFER((byte) 4);
+
+    // Written to the journal files, so it must never change once released
+    private final byte code;
+
+    JournalReason(byte code) {
+        this.code = code;
+    }
+
+    /**
+     * Get the code of the reason in the journal files
+     *
+     * @return the code of the reason
+     */
+    byte getCode() {
+        return this.code;
+    }
+
+    /**
+     * Get a reason from its code in the journal files
+     *
+     * @param code the code of the reason
+     * @return the reason
+     */
+    static @NotNull JournalReason fromCode(byte code) {
+        for (JournalReason reason : values()) {
+            if (reason.code == code) {
+                return reason;
+            }
+        }
+        throw new IllegalArgumentException("Unknown journal reason " + code);
+    }
+
+}
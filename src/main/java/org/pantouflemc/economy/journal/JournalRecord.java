@@ -0,0 +1,20 @@
+package org.pantouflemc.economy.journal;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A mutation recorded in the journal.
+ * <p>
+ * The changes of a record belong to a single operation (both sides of a
+ * transfer for example) and are replayed together.
+ *
+ * @param sequence   The sequence number of the record, increasing by one for
+ *                   each record.
+ * @param timestamp  The time of the mutation, in milliseconds since the epoch.
+ * @param reason     The operation that caused the mutation.
+ * @param accountIds The IDs of the modified accounts.
+ * @param deltas     The change of the balance of each account, in minor units.
+ */
+public record JournalRecord(long sequence, long timestamp, @NotNull JournalReason reason, int @NotNull [] accountIds,
+        long @NotNull [] deltas) {
+}
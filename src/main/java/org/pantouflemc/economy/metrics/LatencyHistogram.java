@@ -0,0 +1,184 @@
+package org.pantouflemc.economy.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Histogram of latencies with a bounded relative error.
+ * <p>
+ * Like HdrHistogram, each power of two is split in 32 linear sub-buckets, so
+ * a recorded latency is known within about 3% at any scale. The buckets are a
+ * fixed array of counters: recording a latency takes no lock and allocates
+ * nothing.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // Latencies above 2^37 nanoseconds (about two minutes) share the last
+    // buckets
+    private static final int MAX_EXPONENT = 36;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final @NotNull AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final @NotNull LongAdder count = new LongAdder();
+    private final @NotNull LongAdder sum = new LongAdder();
+    private final @NotNull LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Get the bucket of a latency
+     *
+     * @param value the latency, in nanoseconds
+     * @return the index of the bucket counting the latency
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+    }
+
+    /**
+     * Get the highest latency counted by a bucket
+     *
+     * @param index the index of the bucket
+     * @return the highest latency of the bucket, in nanoseconds
+     */
+    static long highestValue(int index) {
+        int bucket = index >>> SUB_BUCKET_BITS;
+        int subBucket = index & (SUB_BUCKET_COUNT - 1);
+        if (bucket == 0) {
+            return subBucket;
+        }
+        return ((long) (SUB_BUCKET_COUNT + subBucket + 1) << (bucket - 1)) - 1;
+    }
+
+    /**
+     * Record a latency
+     *
+     * @param nanos the latency, in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        this.counts.incrementAndGet(index(value));
+        this.count.increment();
+        this.sum.add(value);
+        this.max.accumulate(value);
+    }
+
+    /**
+     * Add the latencies of another histogram to this one
+     *
+     * @param other the histogram to add
+     */
+    public void add(@NotNull LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long bucketCount = other.counts.get(i);
+            if (bucketCount != 0) {
+                this.counts.addAndGet(i, bucketCount);
+            }
+        }
+        this.count.add(other.count.sum());
+        this.sum.add(other.sum.sum());
+        this.max.accumulate(other.max.get());
+    }
+
+    /**
+     * Get the number of recorded latencies
+     *
+     * @return the number of recorded latencies
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * Get the mean of the recorded latencies
+     *
+     * @return the mean latency, in nanoseconds, or 0 if none was recorded
+     */
+    public double getMean() {
+        long count = this.count.sum();
+        return count == 0 ? 0 : (double) this.sum.sum() / count;
+    }
+
+    /**
+     * Get the sum of the recorded latencies
+     *
+     * @return the sum of the latencies, in nanoseconds
+     */
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * Get the highest recorded latency
+     *
+     * @return the highest latency, in nanoseconds
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Count the recorded latencies below several bounds
+     * <p>
+     * A bucket is counted below a bound if all its latencies are, so the counts
+     * are within the precision of the buckets.
+     *
+     * @param bounds the bounds, in nanoseconds, in ascending order
+     * @return the number of latencies below each bound
+     */
+    public long @NotNull [] getCumulativeCounts(long @NotNull [] bounds) {
+        long[] counts = new long[bounds.length];
+        long seen = 0;
+        int bound = 0;
+        for (int i = 0; i < BUCKET_COUNT && bound < bounds.length; i++) {
+            while (bound < bounds.length && highestValue(i) > bounds[bound]) {
+                counts[bound++] = seen;
+            }
+            seen += this.counts.get(i);
+        }
+        while (bound < bounds.length) {
+            counts[bound++] = seen;
+        }
+        return counts;
+    }
+
+    /**
+     * Get a percentile of the recorded latencies
+     * <p>
+     * The counters are read while latencies are recorded, so the result is
+     * approximate under load.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency below which the percentile of the latencies fall, in
+     *         nanoseconds, or 0 if none was recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += this.counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), this.getMax());
+            }
+        }
+        return this.getMax();
+    }
+
+}
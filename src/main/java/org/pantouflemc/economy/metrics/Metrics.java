@@ -0,0 +1,203 @@
+package org.pantouflemc.economy.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.function.ObjLongConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Registry of the metrics of the plugin.
+ * <p>
+ * The operations are timed by name, the state of the caches and queues is
+ * read by gauges when the metrics are reported. When the metrics are
+ * disabled, timing an operation is a single branch and nothing is recorded.
+ */
+public class Metrics {
+
+    /**
+     * A ratio read from its two counters, such as the hits and misses of a cache
+     */
+    private record Ratio(@NotNull LongSupplier hits, @NotNull LongSupplier misses) {
+    }
+
+    /**
+     * A consumer of the current values of the ratios
+     */
+    @FunctionalInterface
+    public interface RatioConsumer {
+        void accept(@NotNull String name, long hits, long misses);
+    }
+
+    private final boolean enabled;
+    private final @NotNull Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final @NotNull SortedMap<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private final @NotNull SortedMap<String, Ratio> ratios = new ConcurrentSkipListMap<>();
+
+    /**
+     * Create a new Metrics
+     *
+     * @param enabled whether the operations are recorded
+     */
+    public Metrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Check whether the operations are recorded
+     *
+     * @return true if the metrics are enabled, false otherwise
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Get the time to pass to {@link #record} once an operation is done
+     *
+     * @return the current time in nanoseconds, or 0 if the metrics are disabled
+     */
+    public long start() {
+        return this.enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record a call of an operation started with {@link #start}
+     *
+     * @param operation the name of the operation
+     * @param start     the time returned by {@link #start}
+     * @param failed    whether the call threw an exception
+     */
+    public void record(@NotNull String operation, long start, boolean failed) {
+        if (!this.enabled) {
+            return;
+        }
+
+        long nanos = System.nanoTime() - start;
+        OperationMetrics metrics = this.operations.get(operation);
+        if (metrics == null) {
+            metrics = this.operations.computeIfAbsent(operation, name -> new OperationMetrics());
+        }
+        metrics.record(nanos, failed);
+    }
+
+    /**
+     * Register a value read when the metrics are reported
+     *
+     * @param name  the name of the value
+     * @param value the function reading the value
+     */
+    public void gauge(@NotNull String name, @NotNull LongSupplier value) {
+        this.gauges.put(name, value);
+    }
+
+    /**
+     * Register a hit ratio read when the metrics are reported
+     *
+     * @param name   the name of the ratio, such as the name of the cache
+     * @param hits   the function reading the number of hits
+     * @param misses the function reading the number of misses
+     */
+    public void ratio(@NotNull String name, @NotNull LongSupplier hits, @NotNull LongSupplier misses) {
+        this.ratios.put(name, new Ratio(hits, misses));
+    }
+
+    /**
+     * Get the recorded operations
+     *
+     * @return the metrics of the operations, by name
+     */
+    public @NotNull SortedMap<String, OperationMetrics> getOperations() {
+        return new TreeMap<>(this.operations);
+    }
+
+    /**
+     * Read the current value of each gauge
+     *
+     * @param consumer the consumer of the names and values of the gauges
+     */
+    public void forEachGauge(@NotNull ObjLongConsumer<String> consumer) {
+        this.gauges.forEach((name, value) -> consumer.accept(name, value.getAsLong()));
+    }
+
+    /**
+     * Read the current counters of each ratio
+     *
+     * @param consumer the consumer of the names and counters of the ratios
+     */
+    public void forEachRatio(@NotNull RatioConsumer consumer) {
+        this.ratios.forEach((name, ratio) -> consumer.accept(name, ratio.hits().getAsLong(),
+                ratio.misses().getAsLong()));
+    }
+
+    /**
+     * Describe the metrics, one operation, gauge or ratio per line
+     *
+     * @return the lines of the report
+     */
+    public @NotNull List<String> report() {
+        List<String> lines = new ArrayList<>();
+        this.getOperations().forEach((name, metrics) -> {
+            LatencyHistogram latencies = metrics.getLatencies();
+            lines.add(name + ": " + metrics.getCount() + " calls, " + metrics.getErrorCount() + " errors, p50 "
+                    + formatMillis(latencies.getPercentile(50)) + ", p99 "
+                    + formatMillis(latencies.getPercentile(99)) + ", max "
+                    + formatMillis(latencies.getMax()));
+        });
+        this.gauges.forEach((name, value) -> lines.add(name + ": " + value.getAsLong()));
+        this.ratios.forEach((name, ratio) -> lines.add(name + " hit ratio: " + formatRatio(ratio)));
+        return lines;
+    }
+
+    /**
+     * Summarize the metrics on a single line
+     *
+     * @param prefix the prefix of the names of the operations to aggregate
+     * @return the summary of the metrics
+     */
+    public @NotNull String summarize(@NotNull String prefix) {
+        LatencyHistogram latencies = new LatencyHistogram();
+        long errors = 0;
+        for (Map.Entry<String, OperationMetrics> entry : this.operations.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                latencies.add(entry.getValue().getLatencies());
+                errors += entry.getValue().getErrorCount();
+            }
+        }
+
+        StringBuilder summary = new StringBuilder()
+                .append(latencies.getCount()).append(' ').append(prefix).append(" calls (")
+                .append(errors).append(" errors, p50 ").append(formatMillis(latencies.getPercentile(50)))
+                .append(", p99 ").append(formatMillis(latencies.getPercentile(99))).append(')');
+        this.gauges.forEach((name, value) -> summary.append(", ").append(name).append(' ').append(value.getAsLong()));
+        this.ratios.forEach((name, ratio) -> summary.append(", ").append(name).append(" hit ratio ")
+                .append(formatRatio(ratio)));
+        return summary.toString();
+    }
+
+    /**
+     * Format a latency in milliseconds
+     */
+    private static @NotNull String formatMillis(long nanos) {
+        return String.format("%.3f ms", nanos / 1_000_000.0);
+    }
+
+    /**
+     * Format a ratio as a percentage of its total
+     */
+    private static @NotNull String formatRatio(@NotNull Ratio ratio) {
+        long hits = ratio.hits().getAsLong();
+        long total = hits + ratio.misses().getAsLong();
+        if (total == 0) {
+            return "-";
+        }
+        return String.format("%.1f%% (%d/%d)", hits * 100.0 / total, hits, total);
+    }
+
+}
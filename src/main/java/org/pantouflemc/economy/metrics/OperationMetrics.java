@@ -0,0 +1,55 @@
+package org.pantouflemc.economy.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Number of calls, number of errors and latencies of an operation.
+ */
+public class OperationMetrics {
+
+    private final @NotNull LatencyHistogram latencies = new LatencyHistogram();
+    private final @NotNull LongAdder errors = new LongAdder();
+
+    /**
+     * Record a call of the operation
+     *
+     * @param nanos  the time the call took, in nanoseconds
+     * @param failed whether the call threw an exception
+     */
+    public void record(long nanos, boolean failed) {
+        this.latencies.record(nanos);
+        if (failed) {
+            this.errors.increment();
+        }
+    }
+
+    /**
+     * Get the number of calls of the operation
+     *
+     * @return the number of calls
+     */
+    public long getCount() {
+        return this.latencies.getCount();
+    }
+
+    /**
+     * Get the number of calls of the operation that threw an exception
+     *
+     * @return the number of failed calls
+     */
+    public long getErrorCount() {
+        return this.errors.sum();
+    }
+
+    /**
+     * Get the latencies of the calls of the operation
+     *
+     * @return the histogram of the latencies
+     */
+    public @NotNull LatencyHistogram getLatencies() {
+        return this.latencies;
+    }
+
+}
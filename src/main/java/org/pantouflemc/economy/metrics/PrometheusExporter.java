@@ -0,0 +1,364 @@
+package org.pantouflemc.economy.metrics;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.pantouflemc.economy.Money;
+import org.pantouflemc.economy.database.AccountTotals;
+import org.pantouflemc.economy.database.PoolStatistics;
+import org.pantouflemc.economy.exceptions.EconomyDatabaseError;
+import org.pantouflemc.economy.storage.StorageEngine;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP endpoint exposing the metrics in the Prometheus text format.
+ * <p>
+ * The metrics are written to the response as they are read, through a small
+ * buffer, so a scrape never builds the whole page in memory. The requests are
+ * served one at a time on a thread of the exporter, never on the main thread.
+ * <p>
+ * The totals of the accounts need a scan of the accounts, so they are read at
+ * most once per maximum age and the scrapes in between export the last totals.
+ * With the balance cache they also lag behind by the changes not yet written
+ * back.
+ */
+public class PrometheusExporter implements Closeable {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    // The bounds of the buckets of the exported latency histograms, the last one
+    // counts every latency
+    private static final long[] BUCKET_BOUNDS = {
+            50_000L, 100_000L, 250_000L, 500_000L,
+            1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L,
+            100_000_000L, 250_000_000L, 500_000_000L,
+            1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L,
+            Long.MAX_VALUE };
+
+    private final @NotNull Metrics metrics;
+    private final @NotNull StorageEngine storageEngine;
+    private final @NotNull Logger logger;
+    private final @NotNull HttpServer server;
+    private final @NotNull ExecutorService executor;
+    private final long totalsMaxAge;
+
+    // The last totals read, only used by the thread of the exporter
+    private @Nullable AccountTotals totals;
+    private long totalsReadAt;
+
+    /**
+     * Create a new PrometheusExporter and start serving the metrics
+     *
+     * @param metrics       the metrics of the operations, gauges and ratios
+     * @param storageEngine the storage the totals are read from, along with the
+     *                      connection pools of a JDBC storage
+     * @param logger        the logger used to report the failed scrapes
+     * @param host          the address the endpoint is bound to
+     * @param port          the port the endpoint is bound to
+     * @param totalsMaxAge  the time after which the totals of the accounts are
+     *                      read again, in milliseconds
+     */
+    public PrometheusExporter(@NotNull Metrics metrics, @NotNull StorageEngine storageEngine,
+            @NotNull Logger logger, @NotNull String host, int port, long totalsMaxAge) throws IOException {
+        this.metrics = metrics;
+        this.storageEngine = storageEngine;
+        this.logger = logger;
+        this.totalsMaxAge = totalsMaxAge;
+
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "economy-metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/metrics", this::handle);
+        this.server.start();
+    }
+
+    /**
+     * Answer a scrape
+     *
+     * @param exchange the request and its response
+     */
+    private void handle(@NotNull HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            // The length is unknown, the response is sent in chunks
+            exchange.sendResponseHeaders(200, 0);
+
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 8192);
+            this.writeOperations(writer);
+            this.writeGauges(writer);
+            this.writeDatabase(writer);
+            writer.flush();
+        } catch (IOException | RuntimeException e) {
+            this.logger.log(Level.WARNING, "Could not export the metrics", e);
+        }
+    }
+
+    /**
+     * Write the counters and latency histograms of the operations
+     */
+    private void writeOperations(@NotNull Writer writer) throws IOException {
+        Map<String, OperationMetrics> operations = this.metrics.getOperations();
+
+        writeHeader(writer, "economy_operation_calls_total", "counter", "Number of calls of the operations");
+        for (Map.Entry<String, OperationMetrics> entry : operations.entrySet()) {
+            writeSample(writer, "economy_operation_calls_total", "operation", entry.getKey(),
+                    entry.getValue().getCount());
+        }
+
+        writeHeader(writer, "economy_operation_errors_total", "counter",
+                "Number of calls of the operations that threw an exception");
+        for (Map.Entry<String, OperationMetrics> entry : operations.entrySet()) {
+            writeSample(writer, "economy_operation_errors_total", "operation", entry.getKey(),
+                    entry.getValue().getErrorCount());
+        }
+
+        writeHeader(writer, "economy_operation_duration_seconds", "histogram", "Latency of the operations");
+        for (Map.Entry<String, OperationMetrics> entry : operations.entrySet()) {
+            LatencyHistogram latencies = entry.getValue().getLatencies();
+            long[] counts = latencies.getCumulativeCounts(BUCKET_BOUNDS);
+            for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+                writer.write("economy_operation_duration_seconds_bucket{operation=\"");
+                writeLabelValue(writer, entry.getKey());
+                writer.write("\",le=\"");
+                writer.write(BUCKET_BOUNDS[i] == Long.MAX_VALUE ? "+Inf" : toSeconds(BUCKET_BOUNDS[i]));
+                writer.write("\"} ");
+                writer.write(Long.toString(counts[i]));
+                writer.write('\n');
+            }
+            writeSample(writer, "economy_operation_duration_seconds_sum", "operation", entry.getKey(),
+                    toSeconds(latencies.getSum()));
+            writeSample(writer, "economy_operation_duration_seconds_count", "operation", entry.getKey(),
+                    counts[counts.length - 1]);
+        }
+    }
+
+    /**
+     * Write the gauges and ratios registered in the metrics
+     */
+    private void writeGauges(@NotNull Writer writer) throws IOException {
+        IOException[] failure = new IOException[1];
+        this.metrics.forEachGauge((name, value) -> {
+            if (failure[0] != null) {
+                return;
+            }
+            try {
+                String metricName = "economy_" + sanitize(name);
+                writeHeader(writer, metricName, "gauge", "Current value of " + name);
+                writeSample(writer, metricName, value);
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        this.metrics.forEachRatio((name, hits, misses) -> {
+            if (failure[0] != null) {
+                return;
+            }
+            try {
+                String metricName = "economy_" + sanitize(name);
+                writeHeader(writer, metricName + "_hits_total", "counter", "Number of hits of " + name);
+                writeSample(writer, metricName + "_hits_total", hits);
+                writeHeader(writer, metricName + "_misses_total", "counter", "Number of misses of " + name);
+                writeSample(writer, metricName + "_misses_total", misses);
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    /**
+     * Write the totals of the accounts and the statistics of the connection
+     * pools, if the storage has any
+     */
+    private void writeDatabase(@NotNull Writer writer) throws IOException {
+        AccountTotals totals = this.getAccountTotals();
+        if (totals != null) {
+            writeHeader(writer, "economy_accounts", "gauge", "Number of accounts");
+            writeSample(writer, "economy_accounts", totals.accounts());
+            writeHeader(writer, "economy_players", "gauge", "Number of known players");
+            writeSample(writer, "economy_players", totals.players());
+            writeHeader(writer, "economy_money_supply", "gauge", "Sum of the balances of the accounts");
+            writeSample(writer, "economy_money_supply", Double.toString(Money.toMajor(totals.moneySupply())));
+        }
+
+        Map<String, PoolStatistics> pools = this.storageEngine.getPoolStatistics();
+        if (pools.isEmpty()) {
+            return;
+        }
+        writePoolGauge(writer, pools, "economy_pool_active_connections", "Connections in use",
+                PoolStatistics::activeConnections);
+        writePoolGauge(writer, pools, "economy_pool_idle_connections", "Idle connections",
+                PoolStatistics::idleConnections);
+        writePoolGauge(writer, pools, "economy_pool_total_connections", "Open connections",
+                PoolStatistics::totalConnections);
+        writePoolGauge(writer, pools, "economy_pool_pending_threads", "Threads waiting for a connection",
+                PoolStatistics::pendingThreads);
+    }
+
+    /**
+     * Get the totals of the accounts, read again from the storage once they are
+     * older than the maximum age
+     *
+     * @return the totals, or null if they were never read
+     */
+    private @Nullable AccountTotals getAccountTotals() {
+        long now = System.currentTimeMillis();
+        if (this.totals == null || now - this.totalsReadAt >= this.totalsMaxAge) {
+            try {
+                this.totals = this.storageEngine.getAccountTotals();
+                this.totalsReadAt = now;
+            } catch (EconomyDatabaseError e) {
+                // The other metrics are still worth scraping, along with the last totals
+                this.logger.log(Level.FINE, "Could not read the totals of the accounts", e);
+            }
+        }
+        return this.totals;
+    }
+
+    /**
+     * A statistic of a connection pool
+     */
+    @FunctionalInterface
+    private interface PoolStatistic {
+        int read(@NotNull PoolStatistics pool);
+    }
+
+    /**
+     * Write a statistic of each connection pool
+     */
+    private static void writePoolGauge(@NotNull Writer writer, @NotNull Map<String, PoolStatistics> pools,
+            @NotNull String name, @NotNull String help, @NotNull PoolStatistic statistic) throws IOException {
+        writeHeader(writer, name, "gauge", help);
+        for (Map.Entry<String, PoolStatistics> entry : pools.entrySet()) {
+            writeSample(writer, name, "pool", entry.getKey(), statistic.read(entry.getValue()));
+        }
+    }
+
+    /**
+     * Write the help and type of a metric
+     */
+    private static void writeHeader(@NotNull Writer writer, @NotNull String name, @NotNull String type,
+            @NotNull String help) throws IOException {
+        writer.write("# HELP ");
+        writer.write(name);
+        writer.write(' ');
+        writer.write(help);
+        writer.write("\n# TYPE ");
+        writer.write(name);
+        writer.write(' ');
+        writer.write(type);
+        writer.write('\n');
+    }
+
+    /**
+     * Write a sample without labels
+     */
+    private static void writeSample(@NotNull Writer writer, @NotNull String name, long value) throws IOException {
+        writeSample(writer, name, Long.toString(value));
+    }
+
+    /**
+     * Write a sample without labels
+     */
+    private static void writeSample(@NotNull Writer writer, @NotNull String name, @NotNull String value)
+            throws IOException {
+        writer.write(name);
+        writer.write(' ');
+        writer.write(value);
+        writer.write('\n');
+    }
+
+    /**
+     * Write a sample with a single label
+     */
+    private static void writeSample(@NotNull Writer writer, @NotNull String name, @NotNull String label,
+            @NotNull String labelValue, long value) throws IOException {
+        writeSample(writer, name, label, labelValue, Long.toString(value));
+    }
+
+    /**
+     * Write a sample with a single label
+     */
+    private static void writeSample(@NotNull Writer writer, @NotNull String name, @NotNull String label,
+            @NotNull String labelValue, @NotNull String value) throws IOException {
+        writer.write(name);
+        writer.write('{');
+        writer.write(label);
+        writer.write("=\"");
+        writeLabelValue(writer, labelValue);
+        writer.write("\"} ");
+        writer.write(value);
+        writer.write('\n');
+    }
+
+    /**
+     * Write the value of a label, escaped
+     */
+    private static void writeLabelValue(@NotNull Writer writer, @NotNull String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> writer.write("\\\\");
+                case '"' -> writer.write("\\\"");
+                case '\n' -> writer.write("\\n");
+                default -> writer.write(c);
+            }
+        }
+    }
+
+    /**
+     * Convert a name of the metrics to a name of metric of Prometheus
+     */
+    private static @NotNull String sanitize(@NotNull String name) {
+        return name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    /**
+     * Format a duration in seconds
+     */
+    private static @NotNull String toSeconds(long nanos) {
+        return Double.toString(nanos / 1_000_000_000.0);
+    }
+
+    /**
+     * Stop serving the metrics
+     */
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
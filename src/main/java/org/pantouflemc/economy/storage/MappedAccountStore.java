@@ -0,0 +1,398 @@
+package org.pantouflemc.economy.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * File of fixed-width account records, mapped in memory.
+ * <p>
+ * The record of an account is at a position computed from its ID, so reading
+ * or writing a balance is a single access to the mapped memory, with no
+ * lookup and no system call. The file is mapped by segments of a fixed number
+ * of records, a new segment is mapped when the IDs outgrow the last one and
+ * the existing segments are never remapped.
+ * <p>
+ * The values are read and written with volatile semantics, so a balance read
+ * without lock is always a whole value. The writes of an account must be
+ * serialized by the caller.
+ * <p>
+ * A crash can stop a write halfway, and the system writes the modified pages
+ * back to the disk in any order, so after a power loss each record may be in
+ * any state reached since the last {@link #force}. A record is small enough
+ * to be written to the disk as a whole, and holds the sequence number of the
+ * last journal record its balance includes, along with the balance before a
+ * write and the sequence number it brings: a write interrupted after its undo
+ * entry is undone by {@link #recover}, and the journal records the balance
+ * misses are replayed. The acknowledged sequence number is only written to the
+ * file by {@link #force}, once the balances including the records are on the
+ * disk.
+ */
+final class MappedAccountStore implements Closeable {
+
+    private static final int MAGIC = 0x45434F41;
+    private static final int FORMAT_VERSION = 1;
+
+    // Magic number, format version, last account ID, acknowledged journal
+    // sequence number and decimals of the currency, padded to keep the records
+    // aligned
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int FORMAT_VERSION_OFFSET = 4;
+    private static final int LAST_ACCOUNT_ID_OFFSET = 8;
+    private static final int JOURNAL_SEQUENCE_OFFSET = 16;
+    private static final int DECIMALS_OFFSET = 24;
+
+    // Balance, version and flags of an account, the sequence number of the last
+    // journal record its balance includes and the undo entry of its last write,
+    // padded to keep the balances aligned
+    static final int RECORD_SIZE = 64;
+    private static final int BALANCE_OFFSET = 0;
+    private static final int VERSION_OFFSET = 8;
+    private static final int FLAGS_OFFSET = 16;
+    private static final int APPLIED_SEQUENCE_OFFSET = 24;
+    private static final int UNDO_SEQUENCE_OFFSET = 32;
+    private static final int UNDO_BALANCE_OFFSET = 40;
+
+    private static final int FLAG_EXISTS = 1;
+
+    private static final int SEGMENT_BITS = 16;
+    private static final int SEGMENT_RECORDS = 1 << SEGMENT_BITS;
+    private static final long SEGMENT_SIZE = (long) SEGMENT_RECORDS * RECORD_SIZE;
+
+    // The file is the same on every platform
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private final @NotNull FileChannel channel;
+    private final @NotNull MappedByteBuffer header;
+    // Copied on write, a reader always sees whole segments
+    private volatile @NotNull MappedByteBuffer @NotNull [] segments;
+    // Written to the header by the next force
+    private volatile long journalSequence;
+
+    /**
+     * Open the file of the accounts, creating it if needed
+     *
+     * @param path     the path of the file
+     * @param decimals the number of decimals of the currency, which must be the
+     *                 one the balances of the file are stored with
+     */
+    MappedAccountStore(@NotNull Path path, int decimals) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            boolean created = this.channel.size() == 0;
+            this.header = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+            if (created) {
+                INT.setVolatile(this.header, MAGIC_OFFSET, MAGIC);
+                INT.setVolatile(this.header, FORMAT_VERSION_OFFSET, FORMAT_VERSION);
+                INT.setVolatile(this.header, DECIMALS_OFFSET, decimals);
+            } else if ((int) INT.getVolatile(this.header, MAGIC_OFFSET) != MAGIC) {
+                throw new IOException(path + " is not an account file");
+            } else if ((int) INT.getVolatile(this.header, FORMAT_VERSION_OFFSET) != FORMAT_VERSION) {
+                throw new IOException(path + " has an unknown format version");
+            } else if ((int) INT.getVolatile(this.header, DECIMALS_OFFSET) != decimals) {
+                // The balances are stored in minor units, another number of decimals
+                // would scale all of them
+                throw new IOException(path + " stores the balances with "
+                        + (int) INT.getVolatile(this.header, DECIMALS_OFFSET)
+                        + " decimals but currency.decimals is " + decimals);
+            }
+
+            // Map the segments of the existing accounts
+            int segmentCount = segment(this.getLastAccountId()) + 1;
+            MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                segments[i] = this.mapSegment(i);
+            }
+            this.segments = segments;
+            this.journalSequence = this.getJournalSequence();
+        } catch (IOException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Undo the writes interrupted by a crash, the journal records their
+     * balances miss being replayed
+     *
+     * @return the number of writes undone
+     */
+    synchronized int recover() {
+        int undone = 0;
+        for (int accountId = 1; accountId <= this.getLastAccountId(); accountId++) {
+            if (!this.exists(accountId)) {
+                continue;
+            }
+
+            MappedByteBuffer segment = this.segmentOf(accountId);
+            int offset = offset(accountId);
+            if ((long) LONG.getVolatile(segment, offset + UNDO_SEQUENCE_OFFSET)
+                    > (long) LONG.getVolatile(segment, offset + APPLIED_SEQUENCE_OFFSET)) {
+                LONG.setVolatile(segment, offset + BALANCE_OFFSET,
+                        (long) LONG.getVolatile(segment, offset + UNDO_BALANCE_OFFSET));
+                LONG.setVolatile(segment, offset + UNDO_SEQUENCE_OFFSET, 0L);
+                undone++;
+            }
+        }
+        return undone;
+    }
+
+    /**
+     * Map a segment of the file, growing the file if needed
+     */
+    private @NotNull MappedByteBuffer mapSegment(int segment) throws IOException {
+        return this.channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + segment * SEGMENT_SIZE,
+                SEGMENT_SIZE);
+    }
+
+    /**
+     * Get the segment of an account
+     */
+    private static int segment(int accountId) {
+        // The IDs start at 1, the record 0 of the first segment is unused
+        return accountId >>> SEGMENT_BITS;
+    }
+
+    /**
+     * Get the position of the record of an account in its segment
+     */
+    private static int offset(int accountId) {
+        return (accountId & (SEGMENT_RECORDS - 1)) * RECORD_SIZE;
+    }
+
+    /**
+     * Get the segment of an account, or null if the account was never created
+     */
+    private MappedByteBuffer segmentOf(int accountId) {
+        MappedByteBuffer[] segments = this.segments;
+        int segment = segment(accountId);
+        return accountId > 0 && segment < segments.length ? segments[segment] : null;
+    }
+
+    /**
+     * Get the highest ID given to an account
+     *
+     * @return the last account ID, 0 if none
+     */
+    int getLastAccountId() {
+        return (int) (long) LONG.getVolatile(this.header, LAST_ACCOUNT_ID_OFFSET);
+    }
+
+    /**
+     * Create an account with a balance of 0
+     *
+     * @return the ID of the new account
+     */
+    synchronized int create() throws IOException {
+        int accountId = this.getLastAccountId() + 1;
+        if (accountId <= 0) {
+            throw new IOException("No account ID left");
+        }
+        this.reserve(accountId);
+
+        MappedByteBuffer segment = this.segments[segment(accountId)];
+        int offset = offset(accountId);
+        LONG.setVolatile(segment, offset + BALANCE_OFFSET, 0L);
+        LONG.setVolatile(segment, offset + VERSION_OFFSET, 0L);
+        INT.setVolatile(segment, offset + FLAGS_OFFSET, FLAG_EXISTS);
+        LONG.setVolatile(this.header, LAST_ACCOUNT_ID_OFFSET, (long) accountId);
+        return accountId;
+    }
+
+    /**
+     * Create an account with a given ID and balance, to import it
+     *
+     * @param accountId       the ID of the account, above the last one
+     * @param balance         the balance of the account, in minor units
+     * @param appliedSequence the sequence number of the last journal record
+     *                        included in the balance, 0 if none
+     */
+    synchronized void restore(int accountId, long balance, long appliedSequence) throws IOException {
+        if (accountId <= this.getLastAccountId()) {
+            throw new IOException("The accounts must be imported by increasing ID");
+        }
+        this.reserve(accountId);
+
+        MappedByteBuffer segment = this.segments[segment(accountId)];
+        int offset = offset(accountId);
+        LONG.setVolatile(segment, offset + BALANCE_OFFSET, balance);
+        LONG.setVolatile(segment, offset + VERSION_OFFSET, 0L);
+        LONG.setVolatile(segment, offset + APPLIED_SEQUENCE_OFFSET, appliedSequence);
+        INT.setVolatile(segment, offset + FLAGS_OFFSET, FLAG_EXISTS);
+        LONG.setVolatile(this.header, LAST_ACCOUNT_ID_OFFSET, (long) accountId);
+    }
+
+    /**
+     * Map the segments up to the one of an account
+     */
+    private void reserve(int accountId) throws IOException {
+        MappedByteBuffer[] segments = this.segments;
+        int segmentCount = segment(accountId) + 1;
+        if (segmentCount <= segments.length) {
+            return;
+        }
+
+        MappedByteBuffer[] grown = Arrays.copyOf(segments, segmentCount);
+        for (int i = segments.length; i < segmentCount; i++) {
+            grown[i] = this.mapSegment(i);
+        }
+        this.segments = grown;
+    }
+
+    /**
+     * Check whether an account exists
+     *
+     * @param accountId the ID of the account
+     * @return true if the account exists, false otherwise
+     */
+    boolean exists(int accountId) {
+        MappedByteBuffer segment = this.segmentOf(accountId);
+        return segment != null
+                && ((int) INT.getVolatile(segment, offset(accountId) + FLAGS_OFFSET) & FLAG_EXISTS) != 0;
+    }
+
+    /**
+     * Delete an account, its ID is never given again
+     *
+     * @param accountId the ID of the account
+     * @return the balance of the account, or -1 if it does not exist
+     */
+    long delete(int accountId) {
+        if (!this.exists(accountId)) {
+            return -1;
+        }
+
+        MappedByteBuffer segment = this.segmentOf(accountId);
+        int offset = offset(accountId);
+        long balance = (long) LONG.getVolatile(segment, offset + BALANCE_OFFSET);
+        INT.setVolatile(segment, offset + FLAGS_OFFSET, 0);
+        LONG.setVolatile(segment, offset + BALANCE_OFFSET, 0L);
+        return balance;
+    }
+
+    /**
+     * Get the balance of an account
+     *
+     * @param accountId the ID of the account
+     * @return the balance in minor units, or -1 if the account does not exist
+     */
+    long getBalance(int accountId) {
+        if (!this.exists(accountId)) {
+            return -1;
+        }
+        return (long) LONG.getVolatile(this.segmentOf(accountId), offset(accountId) + BALANCE_OFFSET);
+    }
+
+    /**
+     * Set the balance of an existing account and increment its version
+     *
+     * @param accountId       the ID of the account
+     * @param balance         the new balance, in minor units
+     * @param journalSequence the sequence number of the last journal record
+     *                        included in the balance, or 0 if the write is not
+     *                        journaled
+     */
+    void setBalance(int accountId, long balance, long journalSequence) {
+        MappedByteBuffer segment = this.segmentOf(accountId);
+        int offset = offset(accountId);
+        if (journalSequence > 0) {
+            // The undo entry is complete before the balance changes, and the write is
+            // complete once the sequence number is stored
+            LONG.setVolatile(segment, offset + UNDO_BALANCE_OFFSET,
+                    (long) LONG.getVolatile(segment, offset + BALANCE_OFFSET));
+            LONG.setVolatile(segment, offset + UNDO_SEQUENCE_OFFSET, journalSequence);
+        }
+        LONG.setVolatile(segment, offset + BALANCE_OFFSET, balance);
+        LONG.getAndAdd(segment, offset + VERSION_OFFSET, 1L);
+        if (journalSequence > 0) {
+            LONG.setVolatile(segment, offset + APPLIED_SEQUENCE_OFFSET, journalSequence);
+        }
+    }
+
+    /**
+     * Get the sequence number of the last journal record included in the
+     * balance of an account
+     *
+     * @param accountId the ID of the account
+     * @return the sequence number, 0 if none or if the account does not exist
+     */
+    long getAppliedSequence(int accountId) {
+        if (!this.exists(accountId)) {
+            return 0;
+        }
+        return (long) LONG.getVolatile(this.segmentOf(accountId), offset(accountId) + APPLIED_SEQUENCE_OFFSET);
+    }
+
+    /**
+     * Get the number of changes of the balance of an account
+     *
+     * @param accountId the ID of the account
+     * @return the version of the account
+     */
+    long getVersion(int accountId) {
+        return (long) LONG.getVolatile(this.segmentOf(accountId), offset(accountId) + VERSION_OFFSET);
+    }
+
+    /**
+     * Get the sequence number of the last journal record included in the
+     * balances on the disk
+     *
+     * @return the acknowledged sequence number written by the last force, 0 if
+     *         none
+     */
+    long getJournalSequence() {
+        return (long) LONG.getVolatile(this.header, JOURNAL_SEQUENCE_OFFSET);
+    }
+
+    /**
+     * Acknowledge the journal records included in the balances, written to the
+     * file by the next force
+     *
+     * @param sequence the sequence number of the last included record, ignored
+     *                 if below the acknowledged one
+     */
+    synchronized void setJournalSequence(long sequence) {
+        if (sequence > this.journalSequence) {
+            this.journalSequence = sequence;
+        }
+    }
+
+    /**
+     * Write the mapped records to the disk, then the acknowledged sequence
+     * number, so the header never acknowledges a record missing from the disk
+     */
+    synchronized void force() {
+        // Acknowledged after the balances including the records were written
+        long sequence = this.journalSequence;
+        for (MappedByteBuffer segment : this.segments) {
+            segment.force();
+        }
+
+        if (sequence > this.getJournalSequence()) {
+            LONG.setVolatile(this.header, JOURNAL_SEQUENCE_OFFSET, sequence);
+        }
+        this.header.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.force();
+        this.channel.close();
+    }
+
+}
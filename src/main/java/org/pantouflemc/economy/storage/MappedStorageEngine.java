@@ -0,0 +1,1058 @@
+package org.pantouflemc.economy.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.pantouflemc.economy.BalanceUpdateResult;
+import org.pantouflemc.economy.LeaderboardCursor;
+import org.pantouflemc.economy.Money;
+import org.pantouflemc.economy.PlayerBalance;
+import org.pantouflemc.economy.TransactionCursor;
+import org.pantouflemc.economy.TransactionRecord;
+import org.pantouflemc.economy.Transfer;
+import org.pantouflemc.economy.concurrent.StripedLock;
+import org.pantouflemc.economy.database.AccountChange;
+import org.pantouflemc.economy.database.AccountTotals;
+import org.pantouflemc.economy.database.DatabaseManager;
+import org.pantouflemc.economy.database.DatabaseTask;
+import org.pantouflemc.economy.database.PlayerAccountRelation;
+import org.pantouflemc.economy.database.VersionedBalance;
+import org.pantouflemc.economy.exceptions.EconomyAccountNotFoundError;
+import org.pantouflemc.economy.exceptions.EconomyDatabaseError;
+import org.pantouflemc.economy.exceptions.EconomyDriverNotFoundException;
+import org.pantouflemc.economy.exceptions.EconomyInsufficientBalance;
+import org.pantouflemc.economy.exceptions.EconomyInvalidAmountError;
+import org.pantouflemc.economy.history.PendingTransaction;
+import org.pantouflemc.economy.history.TransactionArchive;
+import org.pantouflemc.economy.history.TransactionSummary;
+import org.pantouflemc.economy.journal.JournalRecord;
+import org.pantouflemc.economy.metrics.Metrics;
+
+import com.google.common.collect.Iterators;
+import com.google.common.primitives.UnsignedInteger;
+
+/**
+ * The storage engine keeping the accounts in a memory-mapped file, for a
+ * single server.
+ * <p>
+ * The balances are fixed-width records of a {@link MappedAccountStore}: a read
+ * is a memory access and a write a memory access under the lock of the
+ * account, with no SQL and no system call. The players and their relations
+ * with the accounts are kept in memory and their changes appended to a
+ * {@link RelationLog}. The ranking of the main accounts is kept in memory as
+ * well.
+ * <p>
+ * The mapped memory belongs to the page cache of the system, so a write
+ * survives a crash of the server, but the crash can fall between the writes
+ * of an operation. The system writes the modified pages back in any order, so
+ * after a power loss the file may hold any mix of the changes since the last
+ * checkpoint, which forces every page to the disk. The balances written by
+ * the balance cache record the last journal record they include: a write
+ * interrupted by a crash is undone when the storage is opened, and the
+ * journal replays the records each account misses. The acknowledged sequence
+ * number only reaches the disk at a checkpoint, after the balances including
+ * the records, so the journal keeps them until then. The other changes, made
+ * without the journal, can be lost or half applied by a power loss. The
+ * engine keeps no transaction history.
+ * <p>
+ * When the storage is created, the accounts and relations of the database
+ * configured for the JDBC engine can be imported.
+ */
+public class MappedStorageEngine implements StorageEngine {
+
+    private static final String ACCOUNTS_FILE = "accounts.dat";
+    private static final String RELATIONS_FILE = "relations.log";
+    private static final String IMPORT_SUFFIX = ".import";
+
+    private static final int IMPORT_CHUNK_SIZE = 1000;
+
+    // By decreasing balance, then by increasing ID, like the database ranking
+    private static final Comparator<LeaderboardCursor> RANKING_ORDER = (a, b) -> a.balance() != b.balance()
+            ? Long.compare(b.balance(), a.balance())
+            : Integer.compare(a.accountId(), b.accountId());
+
+    private final @NotNull Metrics metrics;
+    private final @NotNull Logger logger;
+    private final @NotNull MappedAccountStore accounts;
+    private final @NotNull RelationLog relationLog;
+    private final @NotNull StripedLock accountLocks;
+    private final @NotNull ScheduledExecutorService checkpointer;
+
+    // The relations are changed under this lock, always taken after the locks
+    // of the accounts
+    private final @NotNull Object relationLock = new Object();
+    private final @NotNull Map<UUID, String> playerNames = new ConcurrentHashMap<>();
+    private final @NotNull Map<UUID, Integer> mainAccounts = new ConcurrentHashMap<>();
+    private final @NotNull Map<Integer, UUID> mainAccountOwners = new ConcurrentHashMap<>();
+    private final @NotNull Map<UUID, Set<Integer>> playerAccounts = new HashMap<>();
+    private final @NotNull Map<Integer, Set<UUID>> accountPlayers = new HashMap<>();
+    private final @NotNull NavigableSet<LeaderboardCursor> ranking = new ConcurrentSkipListSet<>(RANKING_ORDER);
+
+    /**
+     * Open the storage
+     *
+     * @param config      the storage.mapped section of the configuration
+     * @param importFrom  the database section of the configuration, to import
+     *                    the accounts from when the storage is created, or null
+     * @param lockStripes the number of locks the accounts are spread over
+     * @param metrics     the metrics the operations are recorded in
+     * @param logger      the logger used to report the import and the failed
+     *                    checkpoints
+     */
+    public MappedStorageEngine(@NotNull ConfigurationSection config, @Nullable ConfigurationSection importFrom,
+            int lockStripes, @NotNull Metrics metrics, @NotNull Logger logger) throws EconomyDriverNotFoundException,
+            EconomyDatabaseError {
+        this.metrics = metrics;
+        this.logger = logger;
+        this.accountLocks = new StripedLock(lockStripes);
+
+        Path directory = Path.of(config.getString("directory"));
+        Path accountsPath = directory.resolve(ACCOUNTS_FILE);
+        Path relationsPath = directory.resolve(RELATIONS_FILE);
+        try {
+            Files.createDirectories(directory);
+            if (!Files.exists(accountsPath) && importFrom != null && config.getBoolean("import-from-database")) {
+                this.importDatabase(importFrom, accountsPath, relationsPath);
+            }
+
+            this.accounts = new MappedAccountStore(accountsPath, Money.getDecimals());
+            try {
+                this.relationLog = new RelationLog(relationsPath, new RelationLog.Visitor() {
+                    @Override
+                    public void player(@NotNull UUID playerUuid, @NotNull String playerName) {
+                        MappedStorageEngine.this.playerNames.put(playerUuid, playerName);
+                    }
+
+                    @Override
+                    public void add(@NotNull UUID playerUuid, int accountId, boolean main) {
+                        MappedStorageEngine.this.applyAdd(playerUuid, accountId, main);
+                    }
+
+                    @Override
+                    public void remove(@NotNull UUID playerUuid, int accountId) {
+                        MappedStorageEngine.this.applyRemove(playerUuid, accountId);
+                    }
+                });
+            } catch (IOException e) {
+                this.accounts.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new EconomyDatabaseError("Could not open the storage: " + e.getMessage());
+        }
+
+        int undone = this.accounts.recover();
+        if (undone > 0) {
+            this.logger.warning("Undid " + undone + " balance writes interrupted by a crash,"
+                    + " their journal records are replayed.");
+        }
+
+        for (Map.Entry<Integer, UUID> owner : this.mainAccountOwners.entrySet()) {
+            long balance = this.accounts.getBalance(owner.getKey());
+            if (balance >= 0) {
+                this.ranking.add(new LeaderboardCursor(balance, owner.getKey()));
+            }
+        }
+
+        this.checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "economy-storage-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long checkpointInterval = config.getLong("checkpoint-interval");
+        this.checkpointer.scheduleWithFixedDelay(this::checkpointQuietly, checkpointInterval, checkpointInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Copy the accounts and relations of a database into new storage files
+     * <p>
+     * The files are written aside and moved in place once complete, the
+     * accounts file last: an interrupted import starts over at the next start.
+     */
+    private void importDatabase(@NotNull ConfigurationSection databaseConfig, @NotNull Path accountsPath,
+            @NotNull Path relationsPath) throws IOException, EconomyDriverNotFoundException, EconomyDatabaseError {
+        Path accountsImport = accountsPath.resolveSibling(ACCOUNTS_FILE + IMPORT_SUFFIX);
+        Path relationsImport = relationsPath.resolveSibling(RELATIONS_FILE + IMPORT_SUFFIX);
+        Files.deleteIfExists(accountsImport);
+        Files.deleteIfExists(relationsImport);
+
+        int accountCount = 0;
+        int relationCount = 0;
+        try (DatabaseManager database = new DatabaseManager(databaseConfig);
+                MappedAccountStore accounts = new MappedAccountStore(accountsImport, Money.getDecimals());
+                RelationLog relations = new RelationLog(relationsImport, new RelationLog.Visitor() {
+                    @Override
+                    public void player(@NotNull UUID playerUuid, @NotNull String playerName) {
+                    }
+
+                    @Override
+                    public void add(@NotNull UUID playerUuid, int accountId, boolean main) {
+                    }
+
+                    @Override
+                    public void remove(@NotNull UUID playerUuid, int accountId) {
+                    }
+                })) {
+            // The journal records included in the balances are imported along with
+            // them, so they are not replayed twice
+            Map<Integer, Long> applied = database.getJournalApplied();
+            int after = 0;
+            SortedMap<Integer, Long> balances;
+            do {
+                balances = database.getBalances(after, IMPORT_CHUNK_SIZE);
+                for (Map.Entry<Integer, Long> balance : balances.entrySet()) {
+                    accounts.restore(balance.getKey(), balance.getValue(),
+                            applied.getOrDefault(balance.getKey(), 0L));
+                    after = balance.getKey();
+                    accountCount++;
+                }
+            } while (balances.size() == IMPORT_CHUNK_SIZE);
+            accounts.setJournalSequence(database.getJournalSequence());
+
+            Set<UUID> namedPlayers = new HashSet<>();
+            for (PlayerAccountRelation relation : database.getRelations()) {
+                if (relation.playerName() != null && namedPlayers.add(relation.playerUuid())) {
+                    relations.appendPlayer(relation.playerUuid(), relation.playerName());
+                }
+                relations.appendAdd(relation.playerUuid(), relation.accountId(), relation.main());
+                relationCount++;
+            }
+        }
+
+        Files.move(relationsImport, relationsPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        Files.move(accountsImport, accountsPath, StandardCopyOption.ATOMIC_MOVE);
+        this.logger.info("Imported " + accountCount + " accounts and " + relationCount
+                + " relations from the database.");
+    }
+
+    /**
+     * Write the changes to the disk, logging the failure
+     */
+    private void checkpointQuietly() {
+        try {
+            this.checkpoint();
+        } catch (IOException | RuntimeException e) {
+            this.logger.log(Level.SEVERE, "Could not checkpoint the storage", e);
+        }
+    }
+
+    /**
+     * Write the changes to the disk
+     */
+    public void checkpoint() throws IOException {
+        this.accounts.force();
+        this.relationLog.force();
+    }
+
+    @Override
+    public void close() {
+        this.checkpointer.shutdown();
+        try {
+            this.checkpointer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            this.relationLog.close();
+            this.accounts.close();
+        } catch (IOException e) {
+            this.logger.log(Level.SEVERE, "Could not close the storage", e);
+        }
+    }
+
+    /**
+     * Run an operation, recording its latency and failures in the metrics
+     *
+     * @param operation the name of the operation
+     * @param task      the operation
+     * @return the result of the operation
+     */
+    private <T> T timed(@NotNull String operation, @NotNull DatabaseTask<T> task) throws EconomyDatabaseError {
+        if (!this.metrics.isEnabled()) {
+            return task.call();
+        }
+
+        long start = this.metrics.start();
+        boolean failed = true;
+        try {
+            T result = task.call();
+            failed = false;
+            return result;
+        } finally {
+            this.metrics.record(operation, start, failed);
+        }
+    }
+
+    /// Relations
+
+    /**
+     * Add a relation to the memory
+     */
+    private void applyAdd(@NotNull UUID playerUuid, int accountId, boolean main) {
+        this.playerAccounts.computeIfAbsent(playerUuid, uuid -> new HashSet<>()).add(accountId);
+        this.accountPlayers.computeIfAbsent(accountId, id -> new HashSet<>()).add(playerUuid);
+        if (main) {
+            this.mainAccounts.put(playerUuid, accountId);
+            this.mainAccountOwners.put(accountId, playerUuid);
+        }
+    }
+
+    /**
+     * Remove a relation from the memory
+     */
+    private void applyRemove(@NotNull UUID playerUuid, int accountId) {
+        Set<Integer> accountIds = this.playerAccounts.get(playerUuid);
+        if (accountIds != null && accountIds.remove(accountId) && accountIds.isEmpty()) {
+            this.playerAccounts.remove(playerUuid);
+        }
+        Set<UUID> playerUuids = this.accountPlayers.get(accountId);
+        if (playerUuids != null && playerUuids.remove(playerUuid) && playerUuids.isEmpty()) {
+            this.accountPlayers.remove(accountId);
+        }
+        if (this.mainAccounts.remove(playerUuid, accountId)) {
+            this.mainAccountOwners.remove(accountId, playerUuid);
+        }
+    }
+
+    /**
+     * Delete the relations of a deleted account, with the account locked
+     */
+    private void removeRelations(int accountId, long balance) throws IOException {
+        synchronized (this.relationLock) {
+            Set<UUID> playerUuids = this.accountPlayers.get(accountId);
+            if (playerUuids != null) {
+                for (UUID playerUuid : List.copyOf(playerUuids)) {
+                    this.relationLog.appendRemove(playerUuid, accountId);
+                    this.applyRemove(playerUuid, accountId);
+                }
+            }
+            this.ranking.remove(new LeaderboardCursor(balance, accountId));
+        }
+    }
+
+    /// Accounts
+
+    @Override
+    public @NotNull UnsignedInteger createAccount() throws EconomyDatabaseError {
+        return this.timed("database.createAccount", () -> {
+            try {
+                return UnsignedInteger.fromIntBits(this.accounts.create());
+            } catch (IOException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    @Override
+    public void deleteAccount(UnsignedInteger accountId) throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        this.timed("database.deleteAccount", () -> {
+            int id = accountId.intValue();
+            try (StripedLock.Held held = this.accountLocks.lock(id)) {
+                long balance = this.accounts.delete(id);
+                if (balance < 0) {
+                    throw new EconomyAccountNotFoundError();
+                }
+                this.removeRelations(id, balance);
+            } catch (IOException e) {
+                throw new EconomyDatabaseError();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public @NotNull AccountTotals getAccountTotals() throws EconomyDatabaseError {
+        return this.timed("database.getAccountTotals", () -> {
+            long accounts = 0;
+            long moneySupply = 0;
+            int lastAccountId = this.accounts.getLastAccountId();
+            for (int id = 1; id <= lastAccountId; id++) {
+                long balance = this.accounts.getBalance(id);
+                if (balance >= 0) {
+                    accounts++;
+                    moneySupply += balance;
+                }
+            }
+            return new AccountTotals(accounts, moneySupply, this.playerNames.size());
+        });
+    }
+
+    /// Players
+
+    @Override
+    public @NotNull PlayerBalance ensurePlayer(UUID playerUuid, String playerName) throws EconomyDatabaseError {
+        return this.timed("database.ensurePlayer", () -> {
+            try {
+                synchronized (this.relationLock) {
+                    if (!playerName.equals(this.playerNames.get(playerUuid))) {
+                        this.relationLog.appendPlayer(playerUuid, playerName);
+                        this.playerNames.put(playerUuid, playerName);
+                    }
+
+                    Integer mainAccountId = this.mainAccounts.get(playerUuid);
+                    if (mainAccountId != null) {
+                        long balance = this.accounts.getBalance(mainAccountId);
+                        if (balance >= 0) {
+                            return new PlayerBalance(mainAccountId, playerName, balance);
+                        }
+                    }
+
+                    // The new account is not known to anyone else yet, it needs no lock
+                    int accountId = this.accounts.create();
+                    this.relationLog.appendAdd(playerUuid, accountId, true);
+                    this.applyAdd(playerUuid, accountId, true);
+                    this.ranking.add(new LeaderboardCursor(0, accountId));
+                    return new PlayerBalance(accountId, playerName, 0);
+                }
+            } catch (IOException e) {
+                throw new EconomyDatabaseError();
+            }
+        });
+    }
+
+    @Override
+    public void createPlayerAccountRelation(UUID playerUuid, UnsignedInteger accountId, boolean main)
+            throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        this.timed("database.createPlayerAccountRelation", () -> {
+            int id = accountId.intValue();
+            try (StripedLock.Held held = this.accountLocks.lock(id)) {
+                long balance = this.accounts.getBalance(id);
+                if (balance < 0) {
+                    throw new EconomyAccountNotFoundError();
+                }
+
+                synchronized (this.relationLock) {
+                    // Same constraints as the primary key and main account index of the
+                    // database
+                    Set<Integer> accountIds = this.playerAccounts.get(playerUuid);
+                    if ((accountIds != null && accountIds.contains(id))
+                            || (main && this.mainAccounts.containsKey(playerUuid))) {
+                        throw new EconomyDatabaseError();
+                    }
+
+                    this.relationLog.appendAdd(playerUuid, id, main);
+                    this.applyAdd(playerUuid, id, main);
+                    if (main) {
+                        this.ranking.add(new LeaderboardCursor(balance, id));
+                    }
+                }
+            } catch (IOException e) {
+                throw new EconomyDatabaseError();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void deletePlayerAccountRelation(UUID playerUuid, UnsignedInteger accountId)
+            throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        this.timed("database.deletePlayerAccountRelation", () -> {
+            int id = accountId.intValue();
+            try (StripedLock.Held held = this.accountLocks.lock(id)) {
+                synchronized (this.relationLock) {
+                    Set<Integer> accountIds = this.playerAccounts.get(playerUuid);
+                    if (accountIds == null || !accountIds.contains(id)) {
+                        throw new EconomyAccountNotFoundError();
+                    }
+
+                    long balance = this.accounts.getBalance(id);
+                    this.relationLog.appendRemove(playerUuid, id);
+                    this.applyRemove(playerUuid, id);
+                    if (!this.mainAccountOwners.containsKey(id)) {
+                        this.ranking.remove(new LeaderboardCursor(balance, id));
+                    }
+
+                    // Delete the account with its last player
+                    if (!this.accountPlayers.containsKey(id)) {
+                        this.accounts.delete(id);
+                    }
+                }
+            } catch (IOException e) {
+                throw new EconomyDatabaseError();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public @NotNull List<UUID> getPlayers(UnsignedInteger accountId) throws EconomyDatabaseError {
+        return this.timed("database.getPlayers", () -> {
+            synchronized (this.relationLock) {
+                Set<UUID> playerUuids = this.accountPlayers.get(accountId.intValue());
+                return playerUuids != null ? new ArrayList<>(playerUuids) : new ArrayList<>();
+            }
+        });
+    }
+
+    @Override
+    public @NotNull List<Integer> getAccounts(UUID playerUuid) throws EconomyDatabaseError {
+        return this.timed("database.getAccounts", () -> {
+            synchronized (this.relationLock) {
+                Set<Integer> accountIds = this.playerAccounts.get(playerUuid);
+                return accountIds != null ? new ArrayList<>(accountIds) : new ArrayList<>();
+            }
+        });
+    }
+
+    @Override
+    public @NotNull UnsignedInteger getMainAccount(UUID playerUuid) throws EconomyAccountNotFoundError,
+            EconomyDatabaseError {
+        return this.timed("database.getMainAccount", () -> {
+            Integer accountId = this.mainAccounts.get(playerUuid);
+            if (accountId == null) {
+                throw new EconomyAccountNotFoundError();
+            }
+            return UnsignedInteger.fromIntBits(accountId);
+        });
+    }
+
+    @Override
+    public @NotNull Map<UUID, Integer> getMainAccounts(@NotNull Collection<UUID> playerUuids)
+            throws EconomyDatabaseError {
+        return this.timed("database.getMainAccounts", () -> {
+            Map<UUID, Integer> accounts = new HashMap<>();
+            for (UUID playerUuid : playerUuids) {
+                Integer accountId = this.mainAccounts.get(playerUuid);
+                if (accountId != null) {
+                    accounts.put(playerUuid, accountId);
+                }
+            }
+            return accounts;
+        });
+    }
+
+    /// Balances
+
+    /**
+     * Write the balance of an account, with the account locked, and move it in
+     * the ranking if it is a main account
+     */
+    private void writeBalance(int accountId, long previousBalance, long balance) {
+        this.writeBalance(accountId, previousBalance, balance, 0);
+    }
+
+    /**
+     * Write the balance of an account including journal records, with the
+     * account locked, and move it in the ranking
+     *
+     * @param journalSequence the sequence number of the last journal record
+     *                        included in the balance, or 0 if none
+     */
+    private void writeBalance(int accountId, long previousBalance, long balance, long journalSequence) {
+        this.accounts.setBalance(accountId, balance, journalSequence);
+        if (this.mainAccountOwners.containsKey(accountId) && previousBalance != balance) {
+            // Added before the removal, a concurrent page never misses the account
+            this.ranking.add(new LeaderboardCursor(balance, accountId));
+            this.ranking.remove(new LeaderboardCursor(previousBalance, accountId));
+        }
+    }
+
+    @Override
+    public long getBalanceMinor(UnsignedInteger accountId) throws EconomyAccountNotFoundError,
+            EconomyDatabaseError {
+        return this.timed("database.getBalanceMinor", () -> {
+            long balance = this.accounts.getBalance(accountId.intValue());
+            if (balance < 0) {
+                throw new EconomyAccountNotFoundError();
+            }
+            return balance;
+        });
+    }
+
+    @Override
+    public @NotNull VersionedBalance getVersionedBalanceMinor(UnsignedInteger accountId)
+            throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        return this.timed("database.getVersionedBalanceMinor", () -> {
+            VersionedBalance balance = this.readVersionedBalance(accountId.intValue());
+            if (balance == null) {
+                throw new EconomyAccountNotFoundError();
+            }
+            return balance;
+        });
+    }
+
+    @Override
+    public @NotNull Map<Integer, VersionedBalance> getVersionedBalancesMinor(@NotNull Collection<Integer> accountIds)
+            throws EconomyDatabaseError {
+        return this.timed("database.getVersionedBalancesMinor", () -> {
+            Map<Integer, VersionedBalance> balances = new HashMap<>();
+            for (int accountId : accountIds) {
+                VersionedBalance balance = this.readVersionedBalance(accountId);
+                if (balance != null) {
+                    balances.put(accountId, balance);
+                }
+            }
+            return balances;
+        });
+    }
+
+    /**
+     * Read the balance of an account and its version, with the account locked
+     * so they match
+     *
+     * @return the balance and version, or null if the account does not exist
+     */
+    private @Nullable VersionedBalance readVersionedBalance(int accountId) {
+        try (StripedLock.Held held = this.accountLocks.lock(accountId)) {
+            long balance = this.accounts.getBalance(accountId);
+            if (balance < 0) {
+                return null;
+            }
+            return new VersionedBalance(balance, this.accounts.getVersion(accountId));
+        }
+    }
+
+    @Override
+    public void setBalanceMinor(UnsignedInteger accountId, long balance) throws EconomyInvalidAmountError,
+            EconomyAccountNotFoundError, EconomyDatabaseError {
+        this.timed("database.setBalanceMinor", () -> {
+            if (balance < 0) {
+                throw new EconomyInvalidAmountError();
+            }
+
+            int id = accountId.intValue();
+            try (StripedLock.Held held = this.accountLocks.lock(id)) {
+                long previousBalance = this.accounts.getBalance(id);
+                if (previousBalance < 0) {
+                    throw new EconomyAccountNotFoundError();
+                }
+                this.writeBalance(id, previousBalance, balance);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void addBalanceMinor(UnsignedInteger accountId, long amount) throws EconomyInvalidAmountError,
+            EconomyAccountNotFoundError, EconomyDatabaseError {
+        this.timed("database.addBalanceMinor", () -> {
+            if (amount < 0) {
+                throw new EconomyInvalidAmountError();
+            }
+
+            int id = accountId.intValue();
+            try (StripedLock.Held held = this.accountLocks.lock(id)) {
+                long previousBalance = this.accounts.getBalance(id);
+                if (previousBalance < 0) {
+                    throw new EconomyAccountNotFoundError();
+                }
+                if (previousBalance > Long.MAX_VALUE - amount) {
+                    throw new EconomyInvalidAmountError();
+                }
+                this.writeBalance(id, previousBalance, previousBalance + amount);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void removeBalanceMinor(UnsignedInteger accountId, long amount) throws EconomyInsufficientBalance,
+            EconomyInvalidAmountError, EconomyDatabaseError {
+        this.timed("database.removeBalanceMinor", () -> {
+            if (amount < 0) {
+                throw new EconomyInvalidAmountError();
+            }
+
+            int id = accountId.intValue();
+            try (StripedLock.Held held = this.accountLocks.lock(id)) {
+                long previousBalance = this.accounts.getBalance(id);
+                // Like the database, a missing account is reported as not having enough
+                // balance
+                if (previousBalance < amount) {
+                    throw new EconomyInsufficientBalance();
+                }
+                this.writeBalance(id, previousBalance, previousBalance - amount);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void transferBalanceMinor(UnsignedInteger fromAccountId, UnsignedInteger toAccountId, long amount)
+            throws EconomyAccountNotFoundError, EconomyInsufficientBalance, EconomyInvalidAmountError,
+            EconomyDatabaseError {
+        this.timed("database.transferBalanceMinor", () -> {
+            if (amount < 0) {
+                throw new EconomyInvalidAmountError();
+            }
+
+            SortedMap<Integer, Long> deltas = new TreeMap<>();
+            deltas.merge(fromAccountId.intValue(), -amount, Long::sum);
+            deltas.merge(toAccountId.intValue(), amount, Long::sum);
+            this.applyDeltas(deltas);
+            return null;
+        });
+    }
+
+    @Override
+    public void transferBalances(@NotNull List<Transfer> transfers) throws EconomyAccountNotFoundError,
+            EconomyInsufficientBalance, EconomyInvalidAmountError, EconomyDatabaseError {
+        this.timed("database.transferBalances", () -> {
+            SortedMap<Integer, Long> deltas = new TreeMap<>();
+            for (Transfer transfer : transfers) {
+                long amount = Money.toMinor(transfer.amount());
+                if (amount < 0) {
+                    throw new EconomyInvalidAmountError();
+                }
+
+                deltas.merge(transfer.from().intValue(), -amount, Long::sum);
+                deltas.merge(transfer.to().intValue(), amount, Long::sum);
+            }
+
+            if (!deltas.isEmpty()) {
+                this.applyDeltas(deltas);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Apply the net changes of several accounts, all of them or none
+     *
+     * @param deltas the changes in minor units, by account ID
+     */
+    private void applyDeltas(@NotNull SortedMap<Integer, Long> deltas) throws EconomyAccountNotFoundError,
+            EconomyInsufficientBalance, EconomyInvalidAmountError {
+        int[] accountIds = deltas.keySet().stream().mapToInt(Integer::intValue).toArray();
+        try (StripedLock.Held held = this.accountLocks.lock(accountIds)) {
+            // Check every account before changing any
+            long[] balances = new long[accountIds.length];
+            int i = 0;
+            for (Map.Entry<Integer, Long> delta : deltas.entrySet()) {
+                long previousBalance = this.accounts.getBalance(delta.getKey());
+                if (previousBalance < 0) {
+                    if (delta.getValue() < 0) {
+                        throw new EconomyInsufficientBalance();
+                    }
+                    throw new EconomyAccountNotFoundError();
+                }
+                if (previousBalance + delta.getValue() < 0) {
+                    if (delta.getValue() < 0) {
+                        throw new EconomyInsufficientBalance();
+                    }
+                    // Overflowed
+                    throw new EconomyInvalidAmountError();
+                }
+                balances[i++] = previousBalance;
+            }
+
+            i = 0;
+            for (Map.Entry<Integer, Long> delta : deltas.entrySet()) {
+                this.writeBalance(delta.getKey(), balances[i], balances[i] + delta.getValue());
+                i++;
+            }
+        }
+    }
+
+    @Override
+    public @NotNull Map<Integer, BalanceUpdateResult> setBalancesMinor(@NotNull Map<Integer, Long> balances)
+            throws EconomyDatabaseError {
+        return this.setBalancesMinor(balances, 0);
+    }
+
+    @Override
+    public @NotNull Map<Integer, BalanceUpdateResult> setBalancesMinor(@NotNull Map<Integer, Long> balances,
+            long journalSequence) throws EconomyDatabaseError {
+        return this.timed("database.setBalancesMinor", () -> {
+            Map<Integer, BalanceUpdateResult> failedAccounts = new HashMap<>();
+            for (Map.Entry<Integer, Long> balance : balances.entrySet()) {
+                int id = balance.getKey();
+                try (StripedLock.Held held = this.accountLocks.lock(id)) {
+                    long previousBalance = this.accounts.getBalance(id);
+                    if (previousBalance < 0) {
+                        failedAccounts.put(id, BalanceUpdateResult.ACCOUNT_NOT_FOUND);
+                        continue;
+                    }
+                    this.writeBalance(id, previousBalance, balance.getValue(), journalSequence);
+                }
+            }
+            return failedAccounts;
+        });
+    }
+
+    @Override
+    public @NotNull Map<Integer, BalanceUpdateResult> addBalancesMinor(@NotNull Map<Integer, Long> amounts)
+            throws EconomyDatabaseError {
+        return this.timed("database.addBalancesMinor", () -> {
+            Map<Integer, BalanceUpdateResult> failedAccounts = new HashMap<>();
+            for (Map.Entry<Integer, Long> amount : amounts.entrySet()) {
+                int id = amount.getKey();
+                try (StripedLock.Held held = this.accountLocks.lock(id)) {
+                    long previousBalance = this.accounts.getBalance(id);
+                    if (previousBalance < 0) {
+                        failedAccounts.put(id, BalanceUpdateResult.ACCOUNT_NOT_FOUND);
+                        continue;
+                    }
+                    if (previousBalance > Long.MAX_VALUE - amount.getValue()) {
+                        failedAccounts.put(id, BalanceUpdateResult.INVALID_AMOUNT);
+                        continue;
+                    }
+                    this.writeBalance(id, previousBalance, previousBalance + amount.getValue());
+                }
+            }
+            return failedAccounts;
+        });
+    }
+
+    @Override
+    public @NotNull Map<Integer, BalanceUpdateResult> removeBalancesMinor(@NotNull Map<Integer, Long> amounts)
+            throws EconomyDatabaseError {
+        return this.timed("database.removeBalancesMinor", () -> {
+            Map<Integer, BalanceUpdateResult> failedAccounts = new HashMap<>();
+            for (Map.Entry<Integer, Long> amount : amounts.entrySet()) {
+                int id = amount.getKey();
+                try (StripedLock.Held held = this.accountLocks.lock(id)) {
+                    long previousBalance = this.accounts.getBalance(id);
+                    if (previousBalance < 0) {
+                        failedAccounts.put(id, BalanceUpdateResult.ACCOUNT_NOT_FOUND);
+                        continue;
+                    }
+                    if (previousBalance < amount.getValue()) {
+                        failedAccounts.put(id, BalanceUpdateResult.INSUFFICIENT_BALANCE);
+                        continue;
+                    }
+                    this.writeBalance(id, previousBalance, previousBalance - amount.getValue());
+                }
+            }
+            return failedAccounts;
+        });
+    }
+
+    @Override
+    public @NotNull Set<Integer> compareAndSetBalancesMinor(@NotNull Map<Integer, VersionedBalance> balances,
+            long journalSequence) throws EconomyDatabaseError {
+        return this.timed("database.compareAndSetBalancesMinor", () -> {
+            Set<Integer> failedAccounts = new HashSet<>();
+            int[] accountIds = balances.keySet().stream().mapToInt(Integer::intValue).toArray();
+            try (StripedLock.Held held = this.accountLocks.lock(accountIds)) {
+                for (Map.Entry<Integer, VersionedBalance> balance : balances.entrySet()) {
+                    int id = balance.getKey();
+                    if (!this.accounts.exists(id) || this.accounts.getVersion(id) != balance.getValue().version()) {
+                        failedAccounts.add(id);
+                        continue;
+                    }
+                    this.writeBalance(id, this.accounts.getBalance(id), balance.getValue().balance(),
+                            journalSequence);
+                }
+            }
+            return failedAccounts;
+        });
+    }
+
+    /// Ranking
+
+    /**
+     * Get the ranked account following a position with the name of its player
+     */
+    private @NotNull PlayerBalance toPlayerBalance(@NotNull LeaderboardCursor position) {
+        UUID owner = this.mainAccountOwners.get(position.accountId());
+        String playerName = owner != null ? this.playerNames.get(owner) : null;
+        return new PlayerBalance(position.accountId(), playerName, position.balance());
+    }
+
+    @Override
+    public @NotNull List<PlayerBalance> getTopPlayerBalances(int limit, int offset) throws EconomyDatabaseError {
+        return this.timed("database.getTopPlayerBalances", () -> {
+            List<PlayerBalance> accounts = new ArrayList<>(limit);
+            int skipped = 0;
+            for (LeaderboardCursor position : this.ranking) {
+                if (accounts.size() >= limit) {
+                    break;
+                }
+                if (skipped < offset) {
+                    skipped++;
+                    continue;
+                }
+                accounts.add(this.toPlayerBalance(position));
+            }
+            return accounts;
+        });
+    }
+
+    @Override
+    public @NotNull List<PlayerBalance> getTopPlayerBalances(int limit, @NotNull LeaderboardCursor after)
+            throws EconomyDatabaseError {
+        return this.timed("database.getTopPlayerBalances", () -> {
+            List<PlayerBalance> accounts = new ArrayList<>(limit);
+            for (LeaderboardCursor position : this.ranking.tailSet(after, false)) {
+                if (accounts.size() >= limit) {
+                    break;
+                }
+                accounts.add(this.toPlayerBalance(position));
+            }
+            return accounts;
+        });
+    }
+
+    @Override
+    public long getRank(UnsignedInteger accountId, long balance, long maximumRank) throws EconomyDatabaseError {
+        return this.timed("database.getRank", () -> {
+            // The size of a view of the ranking is counted one entry at a time too
+            long rankedBefore = Iterators.size(Iterators.limit(
+                    this.ranking.headSet(new LeaderboardCursor(balance, accountId.intValue())).iterator(),
+                    (int) Math.min(maximumRank, Integer.MAX_VALUE)));
+            return rankedBefore < maximumRank ? rankedBefore + 1 : 0;
+        });
+    }
+
+    /// Journal
+
+    @Override
+    public long getJournalSequence() throws EconomyDatabaseError {
+        return this.timed("database.getJournalSequence", this.accounts::getJournalSequence);
+    }
+
+    /**
+     * Acknowledge the journal records up to a sequence number at the next
+     * checkpoint
+     * <p>
+     * The records are acknowledged once the balances including them are on the
+     * disk, so only the sequence number acknowledged by the last checkpoint is
+     * returned.
+     */
+    @Override
+    public long acknowledgeJournal(long journalSequence) throws EconomyDatabaseError {
+        return this.timed("database.acknowledgeJournal", () -> {
+            this.accounts.setJournalSequence(journalSequence);
+            return this.accounts.getJournalSequence();
+        });
+    }
+
+    @Override
+    public int replayJournal(@NotNull List<JournalRecord> records) throws EconomyDatabaseError {
+        return this.timed("database.replayJournal", () -> {
+            if (records.isEmpty()) {
+                return 0;
+            }
+
+            // The changes an account already includes are skipped
+            SortedMap<Integer, Long> deltas = new TreeMap<>();
+            for (JournalRecord record : records) {
+                for (int i = 0; i < record.accountIds().length; i++) {
+                    if (record.sequence() > this.accounts.getAppliedSequence(record.accountIds()[i])) {
+                        deltas.merge(record.accountIds()[i], record.deltas()[i], Long::sum);
+                    }
+                }
+            }
+
+            // The file keeps no history, the changes that can't be applied are logged
+            // for an administrator to settle
+            long sequence = records.get(records.size() - 1).sequence();
+            int skipped = 0;
+            for (Map.Entry<Integer, Long> delta : deltas.entrySet()) {
+                int id = delta.getKey();
+                try (StripedLock.Held held = this.accountLocks.lock(id)) {
+                    long previousBalance = this.accounts.getBalance(id);
+                    if (previousBalance < 0 || previousBalance + delta.getValue() < 0
+                            || (delta.getValue() > 0 && previousBalance > Long.MAX_VALUE - delta.getValue())) {
+                        this.logger.warning("Could not replay the change of " + delta.getValue()
+                                + " minor units of account " + id + " from the journal, " + (previousBalance < 0
+                                        ? "the account was deleted"
+                                        : "its balance is " + previousBalance));
+                        skipped++;
+                        continue;
+                    }
+                    this.writeBalance(id, previousBalance, previousBalance + delta.getValue(), sequence);
+                }
+            }
+
+            // Acknowledged at once, the records replayed are about to be deleted
+            this.accounts.setJournalSequence(sequence);
+            this.accounts.force();
+            return skipped;
+        });
+    }
+
+    /// History
+
+    @Override
+    public boolean supportsHistory() {
+        return false;
+    }
+
+    @Override
+    public void insertTransactions(@NotNull List<PendingTransaction> transactions) {
+        // No history is kept
+    }
+
+    @Override
+    public @NotNull List<TransactionRecord> getTransactions(UnsignedInteger accountId, int limit,
+            @NotNull TransactionCursor after) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public @NotNull List<TransactionSummary> getTransactionSummaries(UnsignedInteger accountId, int limit,
+            long beforeDay) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public @NotNull List<TransactionRecord> getTransactionsBefore(long before, int limit) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public int compactTransactions(@NotNull List<TransactionRecord> transactions,
+            @Nullable TransactionArchive archive) {
+        // No history is kept
+        return 0;
+    }
+
+    /// Change feed
+
+    // The file of the accounts is not shared with other servers
+
+    @Override
+    public boolean supportsChangeFeed() {
+        return false;
+    }
+
+    @Override
+    public @NotNull List<AccountChange> getAccountChanges(long after, int limit) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public @NotNull List<AccountChange> getAccountChanges(@NotNull Collection<Long> changeIds) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public long getLastAccountChange() {
+        return 0;
+    }
+
+    @Override
+    public void pruneAccountChanges(long before) {
+        // No change is recorded
+    }
+
+}
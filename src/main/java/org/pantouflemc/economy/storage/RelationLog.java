@@ -0,0 +1,226 @@
+package org.pantouflemc.economy.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Append-only log of the players and of their relations with the accounts.
+ * <p>
+ * The relations change far less often than the balances, so they are kept in
+ * memory by the engine and only their changes are appended to the log. The
+ * log is read back in order when the storage is opened. A record is framed by
+ * its size and a checksum, a record torn by a crash ends the log.
+ */
+final class RelationLog implements Closeable {
+
+    /**
+     * The receiver of the records read back from the log
+     */
+    interface Visitor {
+
+        /**
+         * A player was registered or renamed
+         */
+        void player(@NotNull UUID playerUuid, @NotNull String playerName);
+
+        /**
+         * A relation was created
+         */
+        void add(@NotNull UUID playerUuid, int accountId, boolean main);
+
+        /**
+         * A relation was deleted
+         */
+        void remove(@NotNull UUID playerUuid, int accountId);
+
+    }
+
+    private static final byte PLAYER = 1;
+    private static final byte ADD = 2;
+    private static final byte REMOVE = 3;
+
+    // Size of a record before it and checksum after it
+    private static final int FRAME_SIZE = Integer.BYTES + Integer.BYTES;
+    // Type and player UUID of a record
+    private static final int RECORD_HEADER_SIZE = Byte.BYTES + Long.BYTES + Long.BYTES;
+    // A name is at most 16 characters, more than enough for any record
+    private static final int MAXIMUM_RECORD_SIZE = 1024;
+
+    private final @NotNull FileChannel channel;
+    private final @NotNull CRC32C checksum = new CRC32C();
+    // Guarded by this
+    private final @NotNull ByteBuffer buffer = ByteBuffer.allocate(FRAME_SIZE + MAXIMUM_RECORD_SIZE);
+    private long recordCount;
+
+    /**
+     * Open a log, creating it if needed, and read its records back
+     *
+     * @param path    the path of the log
+     * @param visitor the receiver of the records of the log
+     */
+    RelationLog(@NotNull Path path, @NotNull Visitor visitor) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long end = this.replay(visitor);
+            // Drop the torn record, the next ones are appended after the last
+            // complete one
+            this.channel.truncate(end);
+            this.channel.position(end);
+        } catch (IOException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the records of the log
+     *
+     * @return the position following the last complete record
+     */
+    private long replay(@NotNull Visitor visitor) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES);
+        ByteBuffer record = ByteBuffer.allocate(MAXIMUM_RECORD_SIZE + Integer.BYTES);
+        long position = 0;
+
+        while (true) {
+            frame.clear();
+            if (this.channel.read(frame, position) < Integer.BYTES) {
+                return position;
+            }
+            int size = frame.getInt(0);
+            if (size < RECORD_HEADER_SIZE || size > MAXIMUM_RECORD_SIZE) {
+                return position;
+            }
+
+            record.clear().limit(size + Integer.BYTES);
+            if (this.channel.read(record, position + Integer.BYTES) < size + Integer.BYTES) {
+                return position;
+            }
+            this.checksum.reset();
+            this.checksum.update(record.array(), 0, size);
+            if ((int) this.checksum.getValue() != record.getInt(size)) {
+                return position;
+            }
+
+            record.flip().limit(size);
+            this.visit(record, visitor);
+            this.recordCount++;
+            position += FRAME_SIZE + size;
+        }
+    }
+
+    /**
+     * Pass a record to the visitor
+     */
+    private void visit(@NotNull ByteBuffer record, @NotNull Visitor visitor) throws IOException {
+        byte type = record.get();
+        UUID playerUuid = new UUID(record.getLong(), record.getLong());
+        switch (type) {
+            case PLAYER -> {
+                byte[] name = new byte[record.remaining()];
+                record.get(name);
+                visitor.player(playerUuid, new String(name, StandardCharsets.UTF_8));
+            }
+            case ADD -> visitor.add(playerUuid, record.getInt(), record.get() != 0);
+            case REMOVE -> visitor.remove(playerUuid, record.getInt());
+            default -> throw new IOException("Unknown relation record type " + type);
+        }
+    }
+
+    /**
+     * Get the number of records of the log
+     *
+     * @return the number of records read back and appended
+     */
+    synchronized long getRecordCount() {
+        return this.recordCount;
+    }
+
+    /**
+     * Record the registration or the new name of a player
+     *
+     * @param playerUuid the UUID of the player
+     * @param playerName the name of the player
+     */
+    synchronized void appendPlayer(@NotNull UUID playerUuid, @NotNull String playerName) throws IOException {
+        byte[] name = playerName.getBytes(StandardCharsets.UTF_8);
+        if (RECORD_HEADER_SIZE + name.length > MAXIMUM_RECORD_SIZE) {
+            throw new IOException("The name of the player is too long");
+        }
+        this.start(PLAYER, playerUuid).put(name);
+        this.append();
+    }
+
+    /**
+     * Record the creation of a relation
+     *
+     * @param playerUuid the UUID of the player
+     * @param accountId  the ID of the account
+     * @param main       whether the account is the main account of the player
+     */
+    synchronized void appendAdd(@NotNull UUID playerUuid, int accountId, boolean main) throws IOException {
+        this.start(ADD, playerUuid).putInt(accountId).put((byte) (main ? 1 : 0));
+        this.append();
+    }
+
+    /**
+     * Record the deletion of a relation
+     *
+     * @param playerUuid the UUID of the player
+     * @param accountId  the ID of the account
+     */
+    synchronized void appendRemove(@NotNull UUID playerUuid, int accountId) throws IOException {
+        this.start(REMOVE, playerUuid).putInt(accountId);
+        this.append();
+    }
+
+    /**
+     * Start a record in the buffer, after the space of its size
+     */
+    private @NotNull ByteBuffer start(byte type, @NotNull UUID playerUuid) {
+        return this.buffer.clear()
+                .position(Integer.BYTES)
+                .put(type)
+                .putLong(playerUuid.getMostSignificantBits())
+                .putLong(playerUuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Frame the record of the buffer and write it at the end of the log
+     */
+    private void append() throws IOException {
+        int size = this.buffer.position() - Integer.BYTES;
+        this.checksum.reset();
+        this.checksum.update(this.buffer.array(), Integer.BYTES, size);
+        this.buffer.putInt(0, size).putInt((int) this.checksum.getValue()).flip();
+
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.recordCount++;
+    }
+
+    /**
+     * Write the appended records to the disk
+     */
+    void force() throws IOException {
+        this.channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.force();
+        this.channel.close();
+    }
+
+}
@@ -0,0 +1,1175 @@
+package org.pantouflemc.economy.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.pantouflemc.economy.BalanceUpdateResult;
+import org.pantouflemc.economy.LeaderboardCursor;
+import org.pantouflemc.economy.Money;
+import org.pantouflemc.economy.PlayerBalance;
+import org.pantouflemc.economy.TransactionCursor;
+import org.pantouflemc.economy.TransactionRecord;
+import org.pantouflemc.economy.Transfer;
+import org.pantouflemc.economy.database.AccountChange;
+import org.pantouflemc.economy.database.AccountTotals;
+import org.pantouflemc.economy.database.DatabaseManager;
+import org.pantouflemc.economy.database.DatabaseTask;
+import org.pantouflemc.economy.database.PoolStatistics;
+import org.pantouflemc.economy.database.ShardTransfer;
+import org.pantouflemc.economy.database.VersionedBalance;
+import org.pantouflemc.economy.exceptions.EconomyAccountNotFoundError;
+import org.pantouflemc.economy.exceptions.EconomyDatabaseError;
+import org.pantouflemc.economy.exceptions.EconomyDriverNotFoundException;
+import org.pantouflemc.economy.exceptions.EconomyInsufficientBalance;
+import org.pantouflemc.economy.exceptions.EconomyInvalidAmountError;
+import org.pantouflemc.economy.history.PendingTransaction;
+import org.pantouflemc.economy.history.TransactionArchive;
+import org.pantouflemc.economy.history.TransactionSummary;
+import org.pantouflemc.economy.journal.JournalRecord;
+import org.pantouflemc.economy.metrics.Metrics;
+
+import com.google.common.collect.Iterators;
+import com.google.common.primitives.UnsignedInteger;
+
+/**
+ * The storage engine spreading the accounts over several SQLite databases.
+ * <p>
+ * SQLite allows a single writer per database, so the writes of a single
+ * database are serialized whatever the number of threads. Each shard is a
+ * {@link DatabaseManager} of its own file, with its own write connection, and
+ * the writes of different shards run in parallel.
+ * <p>
+ * The shard of an account is given by its ID: the account N of shard S has
+ * the ID N * shards + S, so the IDs of the shards never collide and keep their
+ * order. The relations of an account are kept in its shard, along with the
+ * players owning a main account there. A player has their main account in a
+ * single shard. The operations on a player or on the whole storage are run on
+ * every shard in parallel and their results merged.
+ * <p>
+ * A transfer between two shards is applied in two phases: the amount is
+ * removed from the payer and the transfer recorded as pending in the shard of
+ * the payer, then the amount is added to the payee and the transfer marked as
+ * applied in the shard of the payee. Each phase is a transaction of its
+ * shard. The payees are checked before the first phase, and can't be deleted
+ * until the transfer is applied, so the transfers of a call are applied all
+ * or none. Once the payer has paid, the transfer is never failed: a transfer
+ * whose second phase fails stays pending, and the pending transfers are
+ * applied again in the background and when the storage is opened, so a crash
+ * or a failed shard between the phases delays the payee but never loses nor
+ * duplicates the amount.
+ * <p>
+ * The number of shards can't change once the storage is created. The engine
+ * keeps no transaction history.
+ */
+public class ShardedStorageEngine implements StorageEngine {
+
+    private static final Pattern SHARD_FILE = Pattern.compile("shard-\\d+\\.db");
+
+    // By decreasing balance, then by increasing ID, like the database ranking
+    private static final Comparator<PlayerBalance> RANKING_ORDER = (a, b) -> a.balance() != b.balance()
+            ? Long.compare(b.balance(), a.balance())
+            : Integer.compare(a.accountId(), b.accountId());
+
+    /**
+     * An operation run on a shard
+     */
+    private interface ShardTask<T> {
+        T call(@NotNull DatabaseManager shard, int index) throws EconomyDatabaseError;
+    }
+
+    private final @NotNull Metrics metrics;
+    private final @NotNull Logger logger;
+    private final @NotNull DatabaseManager @NotNull [] shards;
+    private final @NotNull ExecutorService executor;
+    private final @NotNull ScheduledExecutorService recovery;
+    private final @NotNull AtomicInteger nextShard = new AtomicInteger();
+
+    // Held for reading by the transfers between shards in progress, and for
+    // writing by the recovery, so a transfer is never applied by both, and by
+    // the deletions, so a payee checked by a transfer is not deleted under it
+    private final @NotNull ReadWriteLock transferLock = new ReentrantReadWriteLock();
+    // Held while a main account is looked up then created, so a player never
+    // gets one in two shards
+    private final @NotNull Object mainAccountLock = new Object();
+
+    /**
+     * Open the storage, creating the databases of the shards if needed
+     *
+     * @param config         the storage.sharded section of the configuration
+     * @param databaseConfig the database section of the configuration, for the
+     *                       settings of the connection pools
+     * @param metrics        the metrics the operations are recorded in
+     * @param logger         the logger used to report the recovered transfers
+     */
+    public ShardedStorageEngine(@NotNull ConfigurationSection config, @NotNull ConfigurationSection databaseConfig,
+            @NotNull Metrics metrics, @NotNull Logger logger) throws EconomyDriverNotFoundException,
+            EconomyDatabaseError {
+        this.metrics = metrics;
+        this.logger = logger;
+
+        int shardCount = config.getInt("shards");
+        if (shardCount < 1) {
+            throw new EconomyDatabaseError("The number of shards must be positive");
+        }
+
+        Path directory = Path.of(config.getString("directory"));
+        try {
+            Files.createDirectories(directory);
+            // The shard of an account is computed from the number of shards
+            long existingShards;
+            try (Stream<Path> files = Files.list(directory)) {
+                existingShards = files.filter(file -> SHARD_FILE.matcher(file.getFileName().toString()).matches())
+                        .count();
+            }
+            if (existingShards > 0 && existingShards != shardCount) {
+                throw new EconomyDatabaseError("The storage has " + existingShards + " shards, not " + shardCount);
+            }
+        } catch (IOException e) {
+            throw new EconomyDatabaseError("Could not open the storage: " + e.getMessage());
+        }
+
+        // The shards are opened by the constructor, so the metrics of each
+        // operation are recorded once, by this engine
+        this.shards = new DatabaseManager[shardCount];
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                this.shards[i] = new DatabaseManager(
+                        shardConfiguration(databaseConfig, directory.resolve("shard-" + i + ".db")));
+            }
+        } catch (EconomyDriverNotFoundException | EconomyDatabaseError e) {
+            this.closeShards();
+            throw e;
+        }
+
+        this.executor = Executors.newFixedThreadPool(shardCount, runnable -> {
+            Thread thread = new Thread(runnable, "economy-shard");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.recovery = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "economy-shard-recovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            this.recoverTransfers();
+        } catch (EconomyDatabaseError e) {
+            this.close();
+            throw e;
+        }
+
+        long retryInterval = config.getLong("retry-interval");
+        this.recovery.scheduleWithFixedDelay(this::recoverQuietly, retryInterval, retryInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Build the configuration of the database of a shard
+     */
+    private static @NotNull ConfigurationSection shardConfiguration(@NotNull ConfigurationSection databaseConfig,
+            @NotNull Path path) {
+        ConfigurationSection config = new MemoryConfiguration();
+        config.set("url", "jdbc:sqlite:" + path);
+        config.set("username", "");
+        config.set("password", "");
+        for (String key : List.of("maximum-pool-size", "minimum-idle", "connection-timeout", "idle-timeout",
+                "max-lifetime", "leak-detection-threshold")) {
+            config.set("pool." + key, databaseConfig.getLong("pool." + key));
+        }
+        return config;
+    }
+
+    /**
+     * Apply the transfers left pending by a crash or a failed second phase,
+     * the transfers between shards waiting until it is done
+     */
+    private void recoverTransfers() throws EconomyDatabaseError {
+        this.transferLock.writeLock().lock();
+        try {
+            int recovered = 0;
+            int failed = 0;
+            for (int i = 0; i < this.shards.length; i++) {
+                for (ShardTransfer transfer : this.shards[i].getShardTransfers()) {
+                    if (this.completeTransfer(i, transfer)) {
+                        recovered++;
+                    } else {
+                        failed++;
+                    }
+                }
+            }
+
+            // No transfer is pending anymore, the applied ones left by a crash can
+            // be forgotten
+            if (failed == 0) {
+                for (DatabaseManager shard : this.shards) {
+                    shard.forgetShardTransfers();
+                }
+            }
+
+            if (recovered > 0) {
+                this.logger.warning("Completed " + recovered + " pending transfers between shards.");
+            }
+        } finally {
+            this.transferLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Apply the pending transfers, logging the failures
+     */
+    private void recoverQuietly() {
+        try {
+            this.recoverTransfers();
+        } catch (EconomyDatabaseError e) {
+            this.logger.log(Level.SEVERE, "Could not read the pending transfers between shards", e);
+        }
+    }
+
+    /**
+     * Apply a pending transfer in the shard of its payee and delete it, or give
+     * its amount back if the payee can't take it
+     * <p>
+     * A failure is logged and leaves the transfer pending, to be applied again
+     * by the recovery.
+     *
+     * @param shard    the index of the shard the transfer is pending in
+     * @param transfer the pending transfer
+     * @return true if the transfer is no longer pending, false otherwise
+     */
+    private boolean completeTransfer(int shard, @NotNull ShardTransfer transfer) {
+        try {
+            try {
+                this.shards[transfer.toShard()].applyShardTransfer(shard, transfer);
+            } catch (EconomyAccountNotFoundError e) {
+                this.logger.warning("The payee of the transfer " + transfer.id() + " of shard " + shard
+                        + " can't take its amount, it is given back to the payer");
+                this.shards[shard].cancelShardTransfer(transfer);
+                return true;
+            }
+            this.shards[shard].completeShardTransfer(transfer.id());
+        } catch (EconomyDatabaseError e) {
+            this.logger.log(Level.WARNING, "Could not complete the transfer " + transfer.id() + " of shard " + shard
+                    + ", it is applied again later", e);
+            return false;
+        }
+
+        // A transfer applied but not forgotten is forgotten by the recovery, once
+        // none is pending
+        try {
+            this.shards[transfer.toShard()].forgetShardTransfer(shard, transfer.id());
+        } catch (EconomyDatabaseError e) {
+            this.logger.log(Level.FINE, "Could not forget the transfer " + transfer.id() + " of shard " + shard, e);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        this.recovery.shutdown();
+        try {
+            this.recovery.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.closeShards();
+    }
+
+    /**
+     * Close the shards opened so far
+     */
+    private void closeShards() {
+        for (DatabaseManager shard : this.shards) {
+            if (shard != null)
+                shard.close();
+        }
+    }
+
+    /**
+     * Get the statistics of the connection pools of the shards, for the metrics
+     *
+     * @return the statistics of the pools, by shard and pool name
+     */
+    @Override
+    public @NotNull Map<String, PoolStatistics> getPoolStatistics() {
+        Map<String, PoolStatistics> pools = new TreeMap<>();
+        for (int i = 0; i < this.shards.length; i++) {
+            for (Map.Entry<String, PoolStatistics> pool : this.shards[i].getPoolStatistics().entrySet()) {
+                pools.put("shard-" + i + "-" + pool.getKey(), pool.getValue());
+            }
+        }
+        return pools;
+    }
+
+    /**
+     * Run an operation, recording its latency and failures in the metrics
+     *
+     * @param operation the name of the operation
+     * @param task      the operation
+     * @return the result of the operation
+     */
+    private <T> T timed(@NotNull String operation, @NotNull DatabaseTask<T> task) throws EconomyDatabaseError {
+        if (!this.metrics.isEnabled()) {
+            return task.call();
+        }
+
+        long start = this.metrics.start();
+        boolean failed = true;
+        try {
+            T result = task.call();
+            failed = false;
+            return result;
+        } finally {
+            this.metrics.record(operation, start, failed);
+        }
+    }
+
+    /**
+     * Run an operation on every shard in parallel
+     *
+     * @param task the operation
+     * @return the results of the shards, by shard index
+     */
+    private <T> @NotNull List<T> onEveryShard(@NotNull ShardTask<T> task) throws EconomyDatabaseError {
+        List<Future<T>> futures = new ArrayList<>(this.shards.length);
+        for (int i = 0; i < this.shards.length; i++) {
+            int index = i;
+            futures.add(this.executor.submit(() -> task.call(this.shards[index], index)));
+        }
+
+        List<T> results = new ArrayList<>(this.shards.length);
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EconomyDatabaseError();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof EconomyDatabaseError error) {
+                    throw error;
+                }
+                throw new EconomyDatabaseError();
+            }
+        }
+        return results;
+    }
+
+    /// Identifiers
+
+    /**
+     * Get the index of the shard of an account
+     */
+    private int shardOf(int accountId) {
+        return Math.floorMod(accountId, this.shards.length);
+    }
+
+    /**
+     * Get the ID of an account in its shard
+     */
+    private @NotNull UnsignedInteger localId(int accountId) {
+        return UnsignedInteger.fromIntBits(Math.floorDiv(accountId, this.shards.length));
+    }
+
+    /**
+     * Get the ID of an account from its ID in its shard
+     */
+    private int globalId(int shard, int accountId) {
+        return accountId * this.shards.length + shard;
+    }
+
+    /**
+     * Get the ID of the main account of a player from its ID in its shard
+     */
+    private @NotNull PlayerBalance globalBalance(int shard, @NotNull PlayerBalance balance) {
+        return new PlayerBalance(this.globalId(shard, balance.accountId()), balance.playerName(), balance.balance());
+    }
+
+    /**
+     * Split amounts by account ID between the shards
+     *
+     * @return the amounts by account ID in the shard, by shard index
+     */
+    private <V> @NotNull List<Map<Integer, V>> split(@NotNull Map<Integer, V> amounts) {
+        List<Map<Integer, V>> split = new ArrayList<>(this.shards.length);
+        for (int i = 0; i < this.shards.length; i++) {
+            split.add(new HashMap<>());
+        }
+        for (Map.Entry<Integer, V> amount : amounts.entrySet()) {
+            split.get(this.shardOf(amount.getKey())).put(this.localId(amount.getKey()).intValue(), amount.getValue());
+        }
+        return split;
+    }
+
+    /// Accounts
+
+    @Override
+    public @NotNull UnsignedInteger createAccount() throws EconomyDatabaseError {
+        return this.timed("database.createAccount", () -> {
+            // The new accounts are spread evenly over the shards
+            int shard = Math.floorMod(this.nextShard.getAndIncrement(), this.shards.length);
+            UnsignedInteger accountId = this.shards[shard].createAccount();
+            return UnsignedInteger.valueOf(this.globalId(shard, accountId.intValue()));
+        });
+    }
+
+    @Override
+    public void deleteAccount(UnsignedInteger accountId) throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        this.timed("database.deleteAccount", () -> {
+            this.transferLock.writeLock().lock();
+            try {
+                this.shards[this.shardOf(accountId.intValue())].deleteAccount(this.localId(accountId.intValue()));
+            } finally {
+                this.transferLock.writeLock().unlock();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public @NotNull AccountTotals getAccountTotals() throws EconomyDatabaseError {
+        return this.timed("database.getAccountTotals", () -> {
+            long accounts = 0;
+            long moneySupply = 0;
+            long players = 0;
+            for (AccountTotals totals : this.onEveryShard((shard, index) -> shard.getAccountTotals())) {
+                accounts += totals.accounts();
+                moneySupply += totals.moneySupply();
+                players += totals.players();
+            }
+            return new AccountTotals(accounts, moneySupply, players);
+        });
+    }
+
+    /// Players
+
+    @Override
+    public @NotNull PlayerBalance ensurePlayer(UUID playerUuid, String playerName) throws EconomyDatabaseError {
+        return this.timed("database.ensurePlayer", () -> {
+            // The player is kept in the shard of their main account, which may have
+            // been created in any shard. A new player is placed by their UUID
+            synchronized (this.mainAccountLock) {
+                Integer mainShard = this.mainAccountShard(playerUuid);
+                int shard = mainShard != null ? mainShard : Math.floorMod(playerUuid.hashCode(), this.shards.length);
+                return this.globalBalance(shard, this.shards[shard].ensurePlayer(playerUuid, playerName));
+            }
+        });
+    }
+
+    @Override
+    public void createPlayerAccountRelation(UUID playerUuid, UnsignedInteger accountId, boolean main)
+            throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        this.timed("database.createPlayerAccountRelation", () -> {
+            int shard = this.shardOf(accountId.intValue());
+            if (!main) {
+                this.shards[shard].createPlayerAccountRelation(playerUuid, this.localId(accountId.intValue()), false);
+                return null;
+            }
+
+            synchronized (this.mainAccountLock) {
+                Integer mainShard = this.mainAccountShard(playerUuid);
+                if (mainShard != null && mainShard != shard) {
+                    throw new EconomyDatabaseError("The player already has a main account in another shard");
+                }
+                this.shards[shard].createPlayerAccountRelation(playerUuid, this.localId(accountId.intValue()), true);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Find the shard holding the main account of a player
+     *
+     * @param playerUuid the UUID of the player
+     * @return the index of the first shard with a main account of the player, or
+     *         null if they have none
+     */
+    private @Nullable Integer mainAccountShard(UUID playerUuid) throws EconomyDatabaseError {
+        List<Integer> mainAccounts = this.onEveryShard(
+                (shard, index) -> shard.getMainAccounts(List.of(playerUuid)).get(playerUuid));
+        for (int i = 0; i < mainAccounts.size(); i++) {
+            if (mainAccounts.get(i) != null) {
+                return i;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void deletePlayerAccountRelation(UUID playerUuid, UnsignedInteger accountId)
+            throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        this.timed("database.deletePlayerAccountRelation", () -> {
+            // The account is deleted along with its last relation
+            this.transferLock.writeLock().lock();
+            try {
+                this.shards[this.shardOf(accountId.intValue())].deletePlayerAccountRelation(playerUuid,
+                        this.localId(accountId.intValue()));
+            } finally {
+                this.transferLock.writeLock().unlock();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public @NotNull List<UUID> getPlayers(UnsignedInteger accountId) throws EconomyDatabaseError {
+        return this.timed("database.getPlayers",
+                () -> this.shards[this.shardOf(accountId.intValue())].getPlayers(this.localId(accountId.intValue())));
+    }
+
+    @Override
+    public @NotNull List<Integer> getAccounts(UUID playerUuid) throws EconomyDatabaseError {
+        return this.timed("database.getAccounts", () -> {
+            List<Integer> accounts = new ArrayList<>();
+            List<List<Integer>> shardAccounts = this.onEveryShard((shard, index) -> shard.getAccounts(playerUuid));
+            for (int i = 0; i < shardAccounts.size(); i++) {
+                for (int accountId : shardAccounts.get(i)) {
+                    accounts.add(this.globalId(i, accountId));
+                }
+            }
+            return accounts;
+        });
+    }
+
+    @Override
+    public @NotNull UnsignedInteger getMainAccount(UUID playerUuid) throws EconomyAccountNotFoundError,
+            EconomyDatabaseError {
+        return this.timed("database.getMainAccount", () -> {
+            Integer accountId = this.getMainAccounts(List.of(playerUuid)).get(playerUuid);
+            if (accountId == null) {
+                throw new EconomyAccountNotFoundError();
+            }
+            return UnsignedInteger.valueOf(accountId);
+        });
+    }
+
+    @Override
+    public @NotNull Map<UUID, Integer> getMainAccounts(@NotNull Collection<UUID> playerUuids)
+            throws EconomyDatabaseError {
+        return this.timed("database.getMainAccounts", () -> {
+            Map<UUID, Integer> accounts = new HashMap<>();
+            List<Map<UUID, Integer>> shardAccounts = this.onEveryShard(
+                    (shard, index) -> shard.getMainAccounts(playerUuids));
+            // A player stored before their main account was kept in a single shard
+            // may have one in several shards, the first one is used like in
+            // ensurePlayer
+            for (int i = 0; i < shardAccounts.size(); i++) {
+                for (Map.Entry<UUID, Integer> account : shardAccounts.get(i).entrySet()) {
+                    accounts.putIfAbsent(account.getKey(), this.globalId(i, account.getValue()));
+                }
+            }
+            return accounts;
+        });
+    }
+
+    /// Balances
+
+    @Override
+    public long getBalanceMinor(UnsignedInteger accountId) throws EconomyAccountNotFoundError,
+            EconomyDatabaseError {
+        return this.timed("database.getBalanceMinor",
+                () -> this.shards[this.shardOf(accountId.intValue())]
+                        .getBalanceMinor(this.localId(accountId.intValue())));
+    }
+
+    @Override
+    public @NotNull VersionedBalance getVersionedBalanceMinor(UnsignedInteger accountId)
+            throws EconomyAccountNotFoundError, EconomyDatabaseError {
+        return this.timed("database.getVersionedBalanceMinor",
+                () -> this.shards[this.shardOf(accountId.intValue())]
+                        .getVersionedBalanceMinor(this.localId(accountId.intValue())));
+    }
+
+    @Override
+    public @NotNull Map<Integer, VersionedBalance> getVersionedBalancesMinor(@NotNull Collection<Integer> accountIds)
+            throws EconomyDatabaseError {
+        return this.timed("database.getVersionedBalancesMinor", () -> {
+            List<List<Integer>> split = new ArrayList<>(this.shards.length);
+            for (int i = 0; i < this.shards.length; i++) {
+                split.add(new ArrayList<>());
+            }
+            for (int accountId : accountIds) {
+                split.get(this.shardOf(accountId)).add(this.localId(accountId).intValue());
+            }
+
+            List<Map<Integer, VersionedBalance>> shardBalances = this.onEveryShard(
+                    (shard, index) -> split.get(index).isEmpty()
+                            ? Map.of()
+                            : shard.getVersionedBalancesMinor(split.get(index)));
+
+            Map<Integer, VersionedBalance> balances = new HashMap<>();
+            for (int i = 0; i < shardBalances.size(); i++) {
+                for (Map.Entry<Integer, VersionedBalance> balance : shardBalances.get(i).entrySet()) {
+                    balances.put(this.globalId(i, balance.getKey()), balance.getValue());
+                }
+            }
+            return balances;
+        });
+    }
+
+    @Override
+    public void setBalanceMinor(UnsignedInteger accountId, long balance) throws EconomyInvalidAmountError,
+            EconomyAccountNotFoundError, EconomyDatabaseError {
+        this.timed("database.setBalanceMinor", () -> {
+            this.shards[this.shardOf(accountId.intValue())].setBalanceMinor(this.localId(accountId.intValue()),
+                    balance);
+            return null;
+        });
+    }
+
+    @Override
+    public void addBalanceMinor(UnsignedInteger accountId, long amount) throws EconomyInvalidAmountError,
+            EconomyAccountNotFoundError, EconomyDatabaseError {
+        this.timed("database.addBalanceMinor", () -> {
+            this.shards[this.shardOf(accountId.intValue())].addBalanceMinor(this.localId(accountId.intValue()),
+                    amount);
+            return null;
+        });
+    }
+
+    @Override
+    public void removeBalanceMinor(UnsignedInteger accountId, long amount) throws EconomyInsufficientBalance,
+            EconomyInvalidAmountError, EconomyDatabaseError {
+        this.timed("database.removeBalanceMinor", () -> {
+            this.shards[this.shardOf(accountId.intValue())].removeBalanceMinor(this.localId(accountId.intValue()),
+                    amount);
+            return null;
+        });
+    }
+
+    @Override
+    public void transferBalanceMinor(UnsignedInteger fromAccountId, UnsignedInteger toAccountId, long amount)
+            throws EconomyAccountNotFoundError, EconomyInsufficientBalance, EconomyInvalidAmountError,
+            EconomyDatabaseError {
+        this.timed("database.transferBalanceMinor", () -> {
+            if (amount < 0) {
+                throw new EconomyInvalidAmountError();
+            }
+
+            int fromShard = this.shardOf(fromAccountId.intValue());
+            int toShard = this.shardOf(toAccountId.intValue());
+            if (fromShard == toShard) {
+                this.shards[fromShard].transferBalanceMinor(this.localId(fromAccountId.intValue()),
+                        this.localId(toAccountId.intValue()), amount);
+                return null;
+            }
+
+            this.transferAcrossShards(List.of(new ShardTransfer(0, this.localId(fromAccountId.intValue()).intValue(),
+                    toShard, this.localId(toAccountId.intValue()).intValue(), amount)), List.of(fromShard));
+            return null;
+        });
+    }
+
+    @Override
+    public void transferBalances(@NotNull List<Transfer> transfers) throws EconomyAccountNotFoundError,
+            EconomyInsufficientBalance, EconomyInvalidAmountError, EconomyDatabaseError {
+        this.timed("database.transferBalances", () -> {
+            // Sum the changes of each account, only the net changes move money
+            // between the shards
+            SortedMap<Integer, Long> deltas = new TreeMap<>();
+            Set<Integer> shards = new HashSet<>();
+            List<Transfer> localTransfers = new ArrayList<>(transfers.size());
+            for (Transfer transfer : transfers) {
+                long amount = Money.toMinor(transfer.amount());
+                if (amount < 0) {
+                    throw new EconomyInvalidAmountError();
+                }
+
+                try {
+                    deltas.merge(transfer.from().intValue(), -amount, Math::addExact);
+                    deltas.merge(transfer.to().intValue(), amount, Math::addExact);
+                } catch (ArithmeticException e) {
+                    throw new EconomyInvalidAmountError();
+                }
+                shards.add(this.shardOf(transfer.from().intValue()));
+                shards.add(this.shardOf(transfer.to().intValue()));
+                localTransfers.add(new Transfer(this.localId(transfer.from().intValue()),
+                        this.localId(transfer.to().intValue()), transfer.amount()));
+            }
+
+            if (shards.isEmpty()) {
+                return null;
+            } else if (shards.size() == 1) {
+                this.shards[shards.iterator().next()].transferBalances(localTransfers);
+                return null;
+            }
+
+            // Match the payers with the payees, each payer paying its net change
+            List<ShardTransfer> shardTransfers = new ArrayList<>();
+            List<Integer> fromShards = new ArrayList<>();
+            Iterator<Map.Entry<Integer, Long>> payees = deltas.entrySet().stream()
+                    .filter(delta -> delta.getValue() > 0)
+                    .iterator();
+            Map.Entry<Integer, Long> payee = null;
+            long payeeRemaining = 0;
+            for (Map.Entry<Integer, Long> payer : deltas.entrySet()) {
+                long payerRemaining = -payer.getValue();
+                while (payerRemaining > 0) {
+                    if (payeeRemaining == 0) {
+                        payee = payees.next();
+                        payeeRemaining = payee.getValue();
+                    }
+
+                    long amount = Math.min(payerRemaining, payeeRemaining);
+                    shardTransfers.add(new ShardTransfer(0, this.localId(payer.getKey()).intValue(),
+                            this.shardOf(payee.getKey()), this.localId(payee.getKey()).intValue(), amount));
+                    fromShards.add(this.shardOf(payer.getKey()));
+                    payerRemaining -= amount;
+                    payeeRemaining -= amount;
+                }
+            }
+
+            this.transferAcrossShards(shardTransfers, fromShards);
+            return null;
+        });
+    }
+
+    /**
+     * Apply transfers between shards with the two phases protocol
+     * <p>
+     * The amounts are removed shard by shard, and given back if a shard can't
+     * pay. The payees are checked first and can't be deleted until the end, so
+     * the transfers are applied all or none. Once every payer has paid, the
+     * call no longer fails: a transfer whose payee can't take its amount after
+     * all gets it back to its payer, and a transfer whose payee can't be
+     * reached stays pending and is applied by the recovery.
+     *
+     * @param transfers  the transfers
+     * @param fromShards the index of the shard of the payer of each transfer
+     */
+    private void transferAcrossShards(@NotNull List<ShardTransfer> transfers, @NotNull List<Integer> fromShards)
+            throws EconomyAccountNotFoundError, EconomyInsufficientBalance, EconomyInvalidAmountError,
+            EconomyDatabaseError {
+        this.transferLock.readLock().lock();
+        try {
+            this.transferAcrossShardsLocked(transfers, fromShards);
+        } finally {
+            this.transferLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Apply transfers between shards with the two phases protocol, the
+     * recovery being held off
+     *
+     * @param transfers  the transfers
+     * @param fromShards the index of the shard of the payer of each transfer
+     */
+    private void transferAcrossShardsLocked(@NotNull List<ShardTransfer> transfers,
+            @NotNull List<Integer> fromShards) throws EconomyAccountNotFoundError, EconomyInsufficientBalance,
+            EconomyInvalidAmountError, EconomyDatabaseError {
+        // Every payee must exist and take its amount, a transfer can't be undone
+        // once applied
+        List<Map<Integer, Long>> credits = new ArrayList<>(this.shards.length);
+        for (int i = 0; i < this.shards.length; i++) {
+            credits.add(new HashMap<>());
+        }
+        for (ShardTransfer transfer : transfers) {
+            credits.get(transfer.toShard()).merge(transfer.toAccountId(), transfer.amount(), Math::addExact);
+        }
+        for (int i = 0; i < this.shards.length; i++) {
+            for (Map.Entry<Integer, Long> credit : credits.get(i).entrySet()) {
+                long balance = this.shards[i].getBalanceMinor(UnsignedInteger.fromIntBits(credit.getKey()));
+                if (balance > Long.MAX_VALUE - credit.getValue()) {
+                    throw new EconomyInvalidAmountError();
+                }
+            }
+        }
+
+        List<List<ShardTransfer>> transfersByShard = new ArrayList<>(this.shards.length);
+        for (int i = 0; i < this.shards.length; i++) {
+            transfersByShard.add(new ArrayList<>());
+        }
+        for (int i = 0; i < transfers.size(); i++) {
+            transfersByShard.get(fromShards.get(i)).add(transfers.get(i));
+        }
+
+        // First phase: remove the amounts and record the pending transfers
+        List<List<ShardTransfer>> pendingTransfers = new ArrayList<>(this.shards.length);
+        for (int i = 0; i < this.shards.length; i++) {
+            try {
+                pendingTransfers.add(transfersByShard.get(i).isEmpty()
+                        ? List.of()
+                        : this.shards[i].prepareShardTransfers(transfersByShard.get(i)));
+            } catch (EconomyDatabaseError e) {
+                for (int shard = 0; shard < pendingTransfers.size(); shard++) {
+                    for (ShardTransfer transfer : pendingTransfers.get(shard)) {
+                        this.cancelQuietly(shard, transfer);
+                    }
+                }
+                throw e;
+            }
+        }
+
+        // Second phase: add the amounts to the payees. The payers have paid, so
+        // the transfers that fail are left to the recovery instead of failing
+        // the call, which would be retried and paid twice
+        for (int i = 0; i < this.shards.length; i++) {
+            for (ShardTransfer transfer : pendingTransfers.get(i)) {
+                this.completeTransfer(i, transfer);
+            }
+        }
+    }
+
+    /**
+     * Give the amount of a pending transfer back, logging the failure
+     */
+    private void cancelQuietly(int shard, @NotNull ShardTransfer transfer) {
+        try {
+            this.shards[shard].cancelShardTransfer(transfer);
+        } catch (EconomyDatabaseError e) {
+            this.logger.log(Level.SEVERE, "Could not cancel the transfer " + transfer.id() + " of shard " + shard
+                    + ", it is applied by the recovery", e);
+        }
+    }
+
+    @Override
+    public @NotNull Map<Integer, BalanceUpdateResult> setBalancesMinor(@NotNull Map<Integer, Long> balances)
+            throws EconomyDatabaseError {
+        return this.timed("database.setBalancesMinor",
+                () -> this.updateBalancesReported(balances, (shard, amounts) -> shard.setBalancesMinor(amounts)));
+    }
+
+    /**
+     * Set the balance of several accounts and record the journal records they
+     * include, atomically in each shard
+     */
+    @Override
+    public @NotNull Map<Integer, BalanceUpdateResult> setBalancesMinor(@NotNull Map<Integer, Long> balances,
+            long journalSequence) throws EconomyDatabaseError {
+        return this.timed("database.setBalancesMinor", () -> this.updateBalancesReported(balances,
+                (shard, amounts) -> shard.setBalancesMinor(amounts, journalSequence)));
+    }
+
+    @Override
+    public @NotNull Map<Integer, BalanceUpdateResult> addBalancesMinor(@NotNull Map<Integer, Long> amounts)
+            throws EconomyDatabaseError {
+        return this.timed("database.addBalancesMinor", () -> this.updateBalancesReported(amounts,
+                (shard, shardAmounts) -> shard.addBalancesMinor(shardAmounts)));
+    }
+
+    @Override
+    public @NotNull Map<Integer, BalanceUpdateResult> removeBalancesMinor(@NotNull Map<Integer, Long> amounts)
+            throws EconomyDatabaseError {
+        return this.timed("database.removeBalancesMinor", () -> this.updateBalancesReported(amounts,
+                (shard, shardAmounts) -> shard.removeBalancesMinor(shardAmounts)));
+    }
+
+    /**
+     * Set the balance of the accounts whose version did not change, and record
+     * the journal records their balances include, atomically in each shard
+     */
+    @Override
+    public @NotNull Set<Integer> compareAndSetBalancesMinor(@NotNull Map<Integer, VersionedBalance> balances,
+            long journalSequence) throws EconomyDatabaseError {
+        return this.timed("database.compareAndSetBalancesMinor", () -> this.updateBalances(balances,
+                (shard, shardBalances) -> shard.compareAndSetBalancesMinor(shardBalances, journalSequence)));
+    }
+
+    /**
+     * A balance update of several accounts of a shard
+     */
+    private interface BalancesUpdate<V> {
+        @NotNull Set<Integer> apply(@NotNull DatabaseManager shard, @NotNull Map<Integer, V> amounts)
+                throws EconomyDatabaseError;
+    }
+
+    /**
+     * Run a balance update for several accounts, on their shards in parallel
+     *
+     * @return the IDs of the accounts that were not updated
+     */
+    private <V> @NotNull Set<Integer> updateBalances(@NotNull Map<Integer, V> amounts,
+            @NotNull BalancesUpdate<V> update) throws EconomyDatabaseError {
+        List<Map<Integer, V>> split = this.split(amounts);
+        List<Set<Integer>> shardFailures = this.onEveryShard((shard, index) -> split.get(index).isEmpty()
+                ? Set.of()
+                : update.apply(shard, split.get(index)));
+
+        Set<Integer> failedAccounts = new HashSet<>();
+        for (int i = 0; i < shardFailures.size(); i++) {
+            for (int accountId : shardFailures.get(i)) {
+                failedAccounts.add(this.globalId(i, accountId));
+            }
+        }
+        return failedAccounts;
+    }
+
+    /**
+     * A balance update of several accounts of a shard reporting its failures
+     */
+    private interface ReportedBalancesUpdate {
+        @NotNull Map<Integer, BalanceUpdateResult> apply(@NotNull DatabaseManager shard,
+                @NotNull Map<Integer, Long> amounts) throws EconomyDatabaseError;
+    }
+
+    /**
+     * Run a balance update for several accounts, on their shards in parallel
+     *
+     * @return the reason each account that was not updated failed, by account
+     *         ID
+     */
+    private @NotNull Map<Integer, BalanceUpdateResult> updateBalancesReported(@NotNull Map<Integer, Long> amounts,
+            @NotNull ReportedBalancesUpdate update) throws EconomyDatabaseError {
+        List<Map<Integer, Long>> split = this.split(amounts);
+        List<Map<Integer, BalanceUpdateResult>> shardFailures = this.onEveryShard(
+                (shard, index) -> split.get(index).isEmpty()
+                        ? Map.of()
+                        : update.apply(shard, split.get(index)));
+
+        Map<Integer, BalanceUpdateResult> failedAccounts = new HashMap<>();
+        for (int i = 0; i < shardFailures.size(); i++) {
+            for (Map.Entry<Integer, BalanceUpdateResult> failure : shardFailures.get(i).entrySet()) {
+                failedAccounts.put(this.globalId(i, failure.getKey()), failure.getValue());
+            }
+        }
+        return failedAccounts;
+    }
+
+    /// Ranking
+
+    @Override
+    public @NotNull List<PlayerBalance> getTopPlayerBalances(int limit, int offset) throws EconomyDatabaseError {
+        return this.timed("database.getTopPlayerBalances", () -> {
+            // Any shard may hold the whole page
+            int count = (int) Math.min((long) limit + offset, Integer.MAX_VALUE);
+            return this.merge(this.onEveryShard((shard, index) -> shard.getTopPlayerBalances(count, 0)), offset,
+                    limit);
+        });
+    }
+
+    @Override
+    public @NotNull List<PlayerBalance> getTopPlayerBalances(int limit, @NotNull LeaderboardCursor after)
+            throws EconomyDatabaseError {
+        return this.timed("database.getTopPlayerBalances", () -> this.merge(this.onEveryShard((shard, index) -> {
+            // The accounts of the shard ranked after the cursor are the ones with a
+            // greater ID in the shard for the same balance
+            long accountId = Math.floorDiv((long) after.accountId() - index, this.shards.length);
+            return shard.getTopPlayerBalances(limit, new LeaderboardCursor(after.balance(), (int) accountId));
+        }), 0, limit));
+    }
+
+    /**
+     * Merge the pages of the ranking of every shard
+     *
+     * @param pages the pages of the shards, by shard index
+     * @param skip  the number of accounts to skip
+     * @param limit the maximum number of accounts to return
+     * @return the accounts, by decreasing balance
+     */
+    private @NotNull List<PlayerBalance> merge(@NotNull List<List<PlayerBalance>> pages, int skip, int limit) {
+        List<Iterator<PlayerBalance>> iterators = new ArrayList<>(pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            int shard = i;
+            iterators.add(pages.get(i).stream().map(balance -> this.globalBalance(shard, balance)).iterator());
+        }
+
+        Iterator<PlayerBalance> ranking = Iterators.mergeSorted(iterators, RANKING_ORDER);
+        Iterators.advance(ranking, skip);
+
+        List<PlayerBalance> accounts = new ArrayList<>(limit);
+        Iterators.addAll(accounts, Iterators.limit(ranking, limit));
+        return accounts;
+    }
+
+    @Override
+    public long getRank(UnsignedInteger accountId, long balance, long maximumRank) throws EconomyDatabaseError {
+        return this.timed("database.getRank", () -> {
+            long rank = 1;
+            for (long shardRank : this.onEveryShard((shard, index) -> {
+                // The accounts of the shard ranked before the account are the ones with a
+                // smaller ID in the shard for the same balance
+                long shardAccountId = -Math.floorDiv(index - (long) accountId.intValue(), this.shards.length);
+                return shard.getRank(UnsignedInteger.fromIntBits((int) shardAccountId), balance, maximumRank);
+            })) {
+                if (shardRank == 0) {
+                    return 0L;
+                }
+                rank += shardRank - 1;
+            }
+            return rank <= maximumRank ? rank : 0;
+        });
+    }
+
+    /// Journal
+
+    @Override
+    public long getJournalSequence() throws EconomyDatabaseError {
+        return this.timed("database.getJournalSequence", () -> {
+            long sequence = Long.MAX_VALUE;
+            for (long shardSequence : this.onEveryShard((shard, index) -> shard.getJournalSequence())) {
+                sequence = Math.min(sequence, shardSequence);
+            }
+            return sequence;
+        });
+    }
+
+    /**
+     * Acknowledge the journal records up to a sequence number in every shard
+     */
+    @Override
+    public long acknowledgeJournal(long journalSequence) throws EconomyDatabaseError {
+        return this.timed("database.acknowledgeJournal", () -> {
+            long sequence = Long.MAX_VALUE;
+            for (long shardSequence : this.onEveryShard(
+                    (shard, index) -> shard.acknowledgeJournal(journalSequence))) {
+                sequence = Math.min(sequence, shardSequence);
+            }
+            return sequence;
+        });
+    }
+
+    /**
+     * Apply the journal records lost in a crash and acknowledge them, atomically
+     * in each shard
+     * <p>
+     * Each shard only applies the changes of its accounts from the records it
+     * has not acknowledged yet, skipping the ones its balances include.
+     */
+    @Override
+    public int replayJournal(@NotNull List<JournalRecord> records) throws EconomyDatabaseError {
+        return this.timed("database.replayJournal", () -> {
+            List<Integer> skipped = this.onEveryShard((shard, index) -> {
+                long sequence = shard.getJournalSequence();
+
+                List<JournalRecord> shardRecords = new ArrayList<>();
+                for (JournalRecord record : records) {
+                    if (record.sequence() > sequence) {
+                        shardRecords.add(this.shardRecord(record, index));
+                    }
+                }
+
+                return shard.replayJournal(shardRecords);
+            });
+            return skipped.stream().mapToInt(Integer::intValue).sum();
+        });
+    }
+
+    /**
+     * Keep the changes of the accounts of a shard in a journal record
+     */
+    private @NotNull JournalRecord shardRecord(@NotNull JournalRecord record, int shard) {
+        int count = 0;
+        for (int accountId : record.accountIds()) {
+            if (this.shardOf(accountId) == shard) {
+                count++;
+            }
+        }
+
+        int[] accountIds = new int[count];
+        long[] deltas = new long[count];
+        int position = 0;
+        for (int i = 0; i < record.accountIds().length; i++) {
+            if (this.shardOf(record.accountIds()[i]) == shard) {
+                accountIds[position] = this.localId(record.accountIds()[i]).intValue();
+                deltas[position] = record.deltas()[i];
+                position++;
+            }
+        }
+
+        return new JournalRecord(record.sequence(), record.timestamp(), record.reason(), accountIds, deltas);
+    }
+
+    /// History
+
+    @Override
+    public boolean supportsHistory() {
+        return false;
+    }
+
+    @Override
+    public void insertTransactions(@NotNull List<PendingTransaction> transactions) {
+        // No history is kept
+    }
+
+    @Override
+    public @NotNull List<TransactionRecord> getTransactions(UnsignedInteger accountId, int limit,
+            @NotNull TransactionCursor after) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public @NotNull List<TransactionSummary> getTransactionSummaries(UnsignedInteger accountId, int limit,
+            long beforeDay) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public @NotNull List<TransactionRecord> getTransactionsBefore(long before, int limit) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public int compactTransactions(@NotNull List<TransactionRecord> transactions,
+            @Nullable TransactionArchive archive) {
+        // No history is kept
+        return 0;
+    }
+
+    /// Change feed
+
+    // The files of the shards are not shared with other servers
+
+    @Override
+    public boolean supportsChangeFeed() {
+        return false;
+    }
+
+    @Override
+    public @NotNull List<AccountChange> getAccountChanges(long after, int limit) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public @NotNull List<AccountChange> getAccountChanges(@NotNull Collection<Long> changeIds) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public long getLastAccountChange() {
+        return 0;
+    }
+
+    @Override
+    public void pruneAccountChanges(long before) {
+        // No change is recorded
+    }
+
+}
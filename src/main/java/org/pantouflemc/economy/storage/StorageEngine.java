@@ -0,0 +1,478 @@
+package org.pantouflemc.economy.storage;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.pantouflemc.economy.BalanceUpdateResult;
+import org.pantouflemc.economy.LeaderboardCursor;
+import org.pantouflemc.economy.PlayerBalance;
+import org.pantouflemc.economy.TransactionCursor;
+import org.pantouflemc.economy.TransactionRecord;
+import org.pantouflemc.economy.Transfer;
+import org.pantouflemc.economy.database.AccountChange;
+import org.pantouflemc.economy.database.AccountTotals;
+import org.pantouflemc.economy.database.PoolStatistics;
+import org.pantouflemc.economy.database.VersionedBalance;
+import org.pantouflemc.economy.exceptions.EconomyAccountNotFoundError;
+import org.pantouflemc.economy.exceptions.EconomyDatabaseError;
+import org.pantouflemc.economy.exceptions.EconomyInsufficientBalance;
+import org.pantouflemc.economy.exceptions.EconomyInvalidAmountError;
+import org.pantouflemc.economy.history.PendingTransaction;
+import org.pantouflemc.economy.history.TransactionArchive;
+import org.pantouflemc.economy.history.TransactionSummary;
+import org.pantouflemc.economy.journal.JournalRecord;
+
+import com.google.common.primitives.UnsignedInteger;
+
+/**
+ * The storage of the accounts, players and history of the economy.
+ * <p>
+ * An engine is selected by the storage.engine option of the configuration,
+ * see {@link StorageEngineType}. The amounts are in minor units, and every
+ * method may be called from several threads at once: the engine is
+ * responsible for the atomicity of each call, while the plugin serializes the
+ * changes of an account with its own locks.
+ */
+public interface StorageEngine extends Closeable {
+
+    /// Accounts
+
+    /**
+     * Create a new account
+     *
+     * @return the ID of the new account
+     */
+    @NotNull UnsignedInteger createAccount() throws EconomyDatabaseError;
+
+    /**
+     * Delete an account
+     *
+     * @param accountId the ID of the account
+     */
+    void deleteAccount(UnsignedInteger accountId) throws EconomyAccountNotFoundError, EconomyDatabaseError;
+
+    /**
+     * Get the totals of the accounts, for the metrics
+     *
+     * @return the number of accounts and players and the sum of the balances
+     */
+    @NotNull AccountTotals getAccountTotals() throws EconomyDatabaseError;
+
+    /**
+     * Get the statistics of the connection pools of the storage, for the
+     * metrics
+     *
+     * @return the statistics of the pools, by pool name, none by default
+     */
+    default @NotNull Map<String, PoolStatistics> getPoolStatistics() {
+        return Map.of();
+    }
+
+    /// Players
+
+    /**
+     * Register a player and make sure they have a main account, atomically
+     * <p>
+     * The name of a known player is updated, and a main account is created for
+     * a player who has none.
+     *
+     * @param playerUuid the UUID of the player
+     * @param playerName the current name of the player
+     * @return the main account of the player with its balance
+     */
+    @NotNull PlayerBalance ensurePlayer(UUID playerUuid, String playerName) throws EconomyDatabaseError;
+
+    /**
+     * Create a new player account relation
+     *
+     * @param playerUuid the UUID of the player
+     * @param accountId  the ID of the account
+     * @param main       whether the account is the main account of the player
+     */
+    void createPlayerAccountRelation(UUID playerUuid, UnsignedInteger accountId, boolean main)
+            throws EconomyAccountNotFoundError, EconomyDatabaseError;
+
+    /**
+     * Delete a player account relation and the account if it has no more players
+     * associated
+     *
+     * @param playerUuid the UUID of the player
+     * @param accountId  the ID of the account
+     */
+    void deletePlayerAccountRelation(UUID playerUuid, UnsignedInteger accountId)
+            throws EconomyAccountNotFoundError, EconomyDatabaseError;
+
+    /**
+     * Get the UUIDs of the players associated with an account
+     *
+     * @param accountId the ID of the account
+     * @return the UUIDs of the players associated with the account
+     */
+    @NotNull List<UUID> getPlayers(UnsignedInteger accountId) throws EconomyDatabaseError;
+
+    /**
+     * Get the accounts associated with a player
+     *
+     * @param playerUuid the UUID of the player
+     * @return the IDs of the accounts associated with the player
+     */
+    @NotNull List<Integer> getAccounts(UUID playerUuid) throws EconomyDatabaseError;
+
+    /**
+     * Get the main account of a player
+     *
+     * @param playerUuid the UUID of the player
+     * @return the ID of the main account of the player
+     */
+    @NotNull UnsignedInteger getMainAccount(UUID playerUuid) throws EconomyAccountNotFoundError, EconomyDatabaseError;
+
+    /**
+     * Get the main accounts of several players
+     *
+     * @param playerUuids the UUIDs of the players
+     * @return the IDs of the main accounts, by player UUID (the players without a
+     *         main account are missing)
+     */
+    @NotNull Map<UUID, Integer> getMainAccounts(@NotNull Collection<UUID> playerUuids) throws EconomyDatabaseError;
+
+    /// Balances
+
+    /**
+     * Get the balance of an account in minor units
+     *
+     * @param accountId the ID of the account
+     * @return the balance of the account, in minor units
+     */
+    long getBalanceMinor(UnsignedInteger accountId) throws EconomyAccountNotFoundError, EconomyDatabaseError;
+
+    /**
+     * Get the balance of an account in minor units along with its version
+     *
+     * @param accountId the ID of the account
+     * @return the balance of the account and its version
+     */
+    @NotNull VersionedBalance getVersionedBalanceMinor(UnsignedInteger accountId) throws EconomyAccountNotFoundError,
+            EconomyDatabaseError;
+
+    /**
+     * Get the balances of several accounts in minor units along with their
+     * versions
+     *
+     * @param accountIds the IDs of the accounts
+     * @return the balances and versions, by account ID (the accounts that were
+     *         not found are missing)
+     */
+    @NotNull Map<Integer, VersionedBalance> getVersionedBalancesMinor(@NotNull Collection<Integer> accountIds)
+            throws EconomyDatabaseError;
+
+    /**
+     * Set the balance of an account in minor units
+     *
+     * @param accountId the ID of the account
+     * @param balance   the new balance of the account, in minor units (must be
+     *                  positive)
+     */
+    void setBalanceMinor(UnsignedInteger accountId, long balance) throws EconomyInvalidAmountError,
+            EconomyAccountNotFoundError, EconomyDatabaseError;
+
+    /**
+     * Add an amount in minor units to the balance of an account
+     *
+     * @param accountId the ID of the account
+     * @param amount    the amount to add, in minor units (must be positive)
+     */
+    void addBalanceMinor(UnsignedInteger accountId, long amount) throws EconomyInvalidAmountError,
+            EconomyAccountNotFoundError, EconomyDatabaseError;
+
+    /**
+     * Remove an amount in minor units from the balance of an account
+     *
+     * @param accountId the ID of the account
+     * @param amount    the amount to remove, in minor units (must be positive)
+     */
+    void removeBalanceMinor(UnsignedInteger accountId, long amount) throws EconomyInsufficientBalance,
+            EconomyInvalidAmountError, EconomyDatabaseError;
+
+    /**
+     * Transfer an amount in minor units from one account to another, atomically
+     *
+     * @param fromAccountId the ID of the account to remove the amount from
+     * @param toAccountId   the ID of the account to add the amount to
+     * @param amount        the amount to transfer, in minor units (must be
+     *                      positive)
+     */
+    void transferBalanceMinor(UnsignedInteger fromAccountId, UnsignedInteger toAccountId, long amount)
+            throws EconomyAccountNotFoundError, EconomyInsufficientBalance, EconomyInvalidAmountError,
+            EconomyDatabaseError;
+
+    /**
+     * Apply several transfers atomically
+     * <p>
+     * Only the net change of each account has to be covered by its balance, and
+     * if one account can't be updated none of them is.
+     *
+     * @param transfers the transfers to apply
+     */
+    void transferBalances(@NotNull List<Transfer> transfers) throws EconomyAccountNotFoundError,
+            EconomyInsufficientBalance, EconomyInvalidAmountError, EconomyDatabaseError;
+
+    /**
+     * Set the balance of several accounts atomically
+     *
+     * @param balances the new balances in minor units, by account ID
+     * @return the reason each account that was not updated failed, by account
+     *         ID
+     */
+    @NotNull Map<Integer, BalanceUpdateResult> setBalancesMinor(@NotNull Map<Integer, Long> balances)
+            throws EconomyDatabaseError;
+
+    /**
+     * Set the balance of several accounts and record the journal records they
+     * include, atomically
+     *
+     * @param balances        the new balances in minor units, by account ID
+     * @param journalSequence the sequence number of the last journal record
+     *                        included in the balances, or 0 if none
+     * @return the reason each account that was not updated failed, by account
+     *         ID
+     */
+    @NotNull Map<Integer, BalanceUpdateResult> setBalancesMinor(@NotNull Map<Integer, Long> balances,
+            long journalSequence) throws EconomyDatabaseError;
+
+    /**
+     * Set the balance of the accounts whose version did not change, and record
+     * the journal records their balances include, atomically
+     * <p>
+     * The accounts that were not found or changed are skipped, the others are
+     * updated. The records included in the balance of an account are skipped
+     * when the journal is replayed, even if they are not acknowledged yet.
+     *
+     * @param balances        the new balances in minor units with the version
+     *                        each account is expected to have, by account ID
+     * @param journalSequence the sequence number of the last journal record
+     *                        included in the balances, or 0 if none
+     * @return the IDs of the accounts that were not updated
+     */
+    @NotNull Set<Integer> compareAndSetBalancesMinor(@NotNull Map<Integer, VersionedBalance> balances,
+            long journalSequence) throws EconomyDatabaseError;
+
+    /**
+     * Add an amount to the balance of several accounts
+     * <p>
+     * The accounts that can't be updated are skipped, the others are updated.
+     *
+     * @param amounts the amounts to add in minor units, by account ID
+     * @return the reason each account that was not updated failed, by account
+     *         ID: not found, or an overflow of the balance
+     */
+    @NotNull Map<Integer, BalanceUpdateResult> addBalancesMinor(@NotNull Map<Integer, Long> amounts)
+            throws EconomyDatabaseError;
+
+    /**
+     * Remove an amount from the balance of several accounts
+     * <p>
+     * The accounts that can't be updated are skipped, the others are updated.
+     *
+     * @param amounts the amounts to remove in minor units, by account ID
+     * @return the reason each account that was not updated failed, by account
+     *         ID: not found, or not enough balance
+     */
+    @NotNull Map<Integer, BalanceUpdateResult> removeBalancesMinor(@NotNull Map<Integer, Long> amounts)
+            throws EconomyDatabaseError;
+
+    /// Ranking
+
+    /**
+     * Get the top player accounts with their balance in minor units
+     *
+     * @param limit  the maximum number of accounts to return
+     * @param offset the number of accounts to skip
+     * @return the main accounts of the players, by decreasing balance
+     */
+    @NotNull List<PlayerBalance> getTopPlayerBalances(int limit, int offset) throws EconomyDatabaseError;
+
+    /**
+     * Get the top player accounts following a position of the ranking
+     *
+     * @param limit the maximum number of accounts to return
+     * @param after the position after which the accounts are read
+     * @return the main accounts of the players, by decreasing balance
+     */
+    @NotNull List<PlayerBalance> getTopPlayerBalances(int limit, @NotNull LeaderboardCursor after)
+            throws EconomyDatabaseError;
+
+    /**
+     * Get the rank of a main account in the ranking, counting at most the given
+     * number of accounts ranked before it
+     *
+     * @param accountId   the ID of the account
+     * @param balance     the balance of the account, in minor units
+     * @param maximumRank the highest rank that is counted
+     * @return the rank of the account starting at 1, or 0 if it is ranked after
+     *         the maximum rank
+     */
+    long getRank(UnsignedInteger accountId, long balance, long maximumRank) throws EconomyDatabaseError;
+
+    /// Journal
+
+    /**
+     * Get the sequence number of the last journal record written to the storage
+     *
+     * @return the acknowledged sequence number, 0 if none
+     */
+    long getJournalSequence() throws EconomyDatabaseError;
+
+    /**
+     * Acknowledge the journal records up to a sequence number, once the balance
+     * of every account they change includes them
+     *
+     * @param journalSequence the sequence number of the last record to
+     *                        acknowledge
+     * @return the sequence number of the last record whose acknowledgement is
+     *         durable, the records after it must be kept
+     */
+    long acknowledgeJournal(long journalSequence) throws EconomyDatabaseError;
+
+    /**
+     * Apply the journal records lost in a crash and acknowledge them, atomically
+     * <p>
+     * The changes of an account already included in its balance are skipped.
+     * The change of an account that was deleted, or whose balance would leave
+     * its bounds, is not applied but kept aside or logged by the storage.
+     *
+     * @param records the records to replay, in order
+     * @return the number of account changes that could not be applied
+     */
+    int replayJournal(@NotNull List<JournalRecord> records) throws EconomyDatabaseError;
+
+    /// History
+
+    /**
+     * Check whether the engine keeps the transaction history
+     *
+     * @return true if the history methods are implemented, false if they
+     *         ignore the transactions
+     */
+    default boolean supportsHistory() {
+        return true;
+    }
+
+    /**
+     * Insert transactions into the history
+     *
+     * @param transactions the transactions to insert
+     */
+    void insertTransactions(@NotNull List<PendingTransaction> transactions) throws EconomyDatabaseError;
+
+    /**
+     * Get the transactions of an account, from the most recent to the oldest
+     *
+     * @param accountId the ID of the account
+     * @param limit     the maximum number of transactions to return
+     * @param after     the cursor the page starts after
+     * @return the transactions following the cursor
+     */
+    @NotNull List<TransactionRecord> getTransactions(UnsignedInteger accountId, int limit,
+            @NotNull TransactionCursor after) throws EconomyDatabaseError;
+
+    /**
+     * Get the daily summaries of the compacted transactions of an account, from
+     * the most recent day to the oldest
+     *
+     * @param accountId the ID of the account
+     * @param limit     the maximum number of summaries to return
+     * @param beforeDay the day before which the summaries are read, in days
+     *                  since the epoch
+     * @return the summaries before the day
+     */
+    @NotNull List<TransactionSummary> getTransactionSummaries(UnsignedInteger accountId, int limit, long beforeDay)
+            throws EconomyDatabaseError;
+
+    /**
+     * Get the oldest transactions of the history
+     *
+     * @param before the time before which the transactions are read, in
+     *               milliseconds since the epoch
+     * @param limit  the maximum number of transactions to return
+     * @return the transactions before the time, from the oldest, without the
+     *         names of the players
+     */
+    @NotNull List<TransactionRecord> getTransactionsBefore(long before, int limit) throws EconomyDatabaseError;
+
+    /**
+     * Replace transactions of the history with their daily summaries, atomically
+     * <p>
+     * The transactions are deleted first, only the ones whose deletion matched
+     * are added to the summaries and archived, so the transactions compacted
+     * concurrently by another server are not counted twice. The failures of
+     * the archive are thrown as {@link java.io.UncheckedIOException} and leave
+     * the history unchanged.
+     *
+     * @param transactions the transactions to compact
+     * @param archive      the archive of the compacted transactions, appended
+     *                     to before the deletion is committed, or null
+     * @return the number of transactions compacted
+     */
+    int compactTransactions(@NotNull List<TransactionRecord> transactions, @Nullable TransactionArchive archive)
+            throws EconomyDatabaseError;
+
+    /// Change feed
+
+    /**
+     * Check whether the engine records the changes of the accounts for the
+     * other servers sharing the storage
+     *
+     * @return true if the changes are recorded, false if the change feed
+     *         methods return nothing
+     */
+    default boolean supportsChangeFeed() {
+        return true;
+    }
+
+    /**
+     * Get the changes of the accounts, including the ones made by this server
+     *
+     * @param after the ID of the last change already read
+     * @param limit the maximum number of changes to return
+     * @return the changes following the given one, by increasing ID
+     */
+    @NotNull List<AccountChange> getAccountChanges(long after, int limit) throws EconomyDatabaseError;
+
+    /**
+     * Get some changes of the accounts by their IDs, for example the ones
+     * committed after a change with a higher ID was read
+     *
+     * @param changeIds the IDs of the changes
+     * @return the changes that exist, by increasing ID
+     */
+    @NotNull List<AccountChange> getAccountChanges(@NotNull Collection<Long> changeIds) throws EconomyDatabaseError;
+
+    /**
+     * Get the ID of the last change of the accounts, to start reading the
+     * changes made from now on
+     *
+     * @return the ID of the last change, 0 if none
+     */
+    long getLastAccountChange() throws EconomyDatabaseError;
+
+    /**
+     * Delete the old changes of the accounts
+     *
+     * @param before the time before which the changes are deleted, in
+     *               milliseconds since the epoch
+     */
+    void pruneAccountChanges(long before) throws EconomyDatabaseError;
+
+    /**
+     * Close the storage, once every operation is done
+     */
+    @Override
+    void close();
+
+}
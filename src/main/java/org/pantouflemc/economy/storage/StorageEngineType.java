@@ -0,0 +1,66 @@
+package org.pantouflemc.economy.storage;
+
+import java.util.Locale;
+import java.util.logging.Logger;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.jetbrains.annotations.NotNull;
+import org.pantouflemc.economy.database.DatabaseManager;
+import org.pantouflemc.economy.exceptions.EconomyDatabaseConnectionError;
+import org.pantouflemc.economy.exceptions.EconomyDatabaseError;
+import org.pantouflemc.economy.exceptions.EconomyDriverNotFoundException;
+import org.pantouflemc.economy.metrics.Metrics;
+
+/**
+ * The storage engines that can be selected in the configuration.
+ */
+public enum StorageEngineType {
+
+    // A SQL database reached through JDBC, configured by the database section
+    JDBC,
+    // A memory-mapped file of accounts for a single server, configured by the
+    // storage.mapped section
+    MAPPED,
+    // Several SQLite databases the accounts are spread over, configured by the
+    // storage.sharded section
+    SHARDED;
+
+    /**
+     * Get a storage engine from its name in the configuration
+     *
+     * @param name the name of the engine, case insensitive
+     * @return the storage engine
+     * @throws IllegalArgumentException if no engine has this name
+     */
+    public static @NotNull StorageEngineType fromName(@NotNull String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Open the storage of this engine
+     *
+     * @param config  the root of the configuration
+     * @param metrics the metrics the operations are recorded in
+     * @param logger  the logger of the plugin
+     * @return the opened storage
+     */
+    public @NotNull StorageEngine open(@NotNull ConfigurationSection config, @NotNull Metrics metrics,
+            @NotNull Logger logger)
+            throws EconomyDriverNotFoundException, EconomyDatabaseError, EconomyDatabaseConnectionError {
+        return switch (this) {
+            case JDBC -> new DatabaseManager(config.getConfigurationSection("database"), metrics);
+            case MAPPED -> new MappedStorageEngine(
+                    config.getConfigurationSection("storage.mapped"),
+                    config.getConfigurationSection("database"),
+                    config.getInt("concurrency.lock-stripes"),
+                    metrics,
+                    logger);
+            case SHARDED -> new ShardedStorageEngine(
+                    config.getConfigurationSection("storage.sharded"),
+                    config.getConfigurationSection("database"),
+                    metrics,
+                    logger);
+        };
+    }
+
+}
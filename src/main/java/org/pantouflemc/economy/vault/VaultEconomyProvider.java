@@ -0,0 +1,403 @@
+package org.pantouflemc.economy.vault;
+
+import java.util.List;
+import java.util.logging.Level;
+
+import org.bukkit.OfflinePlayer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.pantouflemc.economy.Economy;
+import org.pantouflemc.economy.Money;
+import org.pantouflemc.economy.exceptions.EconomyAccountNotFoundError;
+import org.pantouflemc.economy.exceptions.EconomyDatabaseError;
+import org.pantouflemc.economy.exceptions.EconomyInsufficientBalance;
+import org.pantouflemc.economy.exceptions.EconomyInvalidAmountError;
+
+import net.milkbowl.vault.economy.EconomyResponse;
+import net.milkbowl.vault.economy.EconomyResponse.ResponseType;
+
+/**
+ * Economy provider of Vault, backed by the main accounts of the players.
+ * <p>
+ * Vault calls are synchronous and mostly made on the main thread, so the
+ * provider is only registered along with the balance cache: the main accounts
+ * and balances of the online players are loaded before they join, and the
+ * mutations are applied in memory and written to the database in the
+ * background. Only the players who are neither online nor recently used are
+ * looked up in the database.
+ * <p>
+ * The worlds are ignored, a player has the same balance everywhere. Banks are
+ * not supported.
+ */
+public class VaultEconomyProvider implements net.milkbowl.vault.economy.Economy {
+
+    private static final String BANKS_NOT_SUPPORTED = "Banks are not supported";
+
+    private final @NotNull Economy plugin;
+    private final @NotNull String currencyNameSingular;
+    private final @NotNull String currencyNamePlural;
+
+    /**
+     * Create a new VaultEconomyProvider
+     *
+     * @param plugin               the plugin holding the accounts
+     * @param currencyNameSingular the name of one unit of the currency
+     * @param currencyNamePlural   the name of several units of the currency
+     */
+    public VaultEconomyProvider(@NotNull Economy plugin, @NotNull String currencyNameSingular,
+            @NotNull String currencyNamePlural) {
+        this.plugin = plugin;
+        this.currencyNameSingular = currencyNameSingular;
+        this.currencyNamePlural = currencyNamePlural;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return this.plugin.isEnabled();
+    }
+
+    @Override
+    public String getName() {
+        return this.plugin.getName();
+    }
+
+    @Override
+    public boolean hasBankSupport() {
+        return false;
+    }
+
+    @Override
+    public int fractionalDigits() {
+        return Money.getDecimals();
+    }
+
+    @Override
+    public String format(double amount) {
+        try {
+            return Money.format(Money.toMinor(amount));
+        } catch (EconomyInvalidAmountError e) {
+            return String.valueOf(amount);
+        }
+    }
+
+    @Override
+    public String currencyNamePlural() {
+        return this.currencyNamePlural;
+    }
+
+    @Override
+    public String currencyNameSingular() {
+        return this.currencyNameSingular;
+    }
+
+    /// The following methods manage the accounts of the players.
+
+    @Override
+    public boolean hasAccount(OfflinePlayer player) {
+        try {
+            return this.plugin.hasMainAccount(player.getUniqueId());
+        } catch (EconomyDatabaseError e) {
+            this.logFailure("check the account of", player, e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean hasAccount(OfflinePlayer player, String worldName) {
+        return this.hasAccount(player);
+    }
+
+    @Override
+    @Deprecated
+    public boolean hasAccount(String playerName) {
+        OfflinePlayer player = this.findPlayer(playerName);
+        return player != null && this.hasAccount(player);
+    }
+
+    @Override
+    @Deprecated
+    public boolean hasAccount(String playerName, String worldName) {
+        return this.hasAccount(playerName);
+    }
+
+    @Override
+    public boolean createPlayerAccount(OfflinePlayer player) {
+        // The players are stored with their name, an unknown one can't be created
+        if (player.getName() == null || this.hasAccount(player)) {
+            return false;
+        }
+
+        try {
+            this.plugin.ensurePlayer(player.getUniqueId(), player.getName());
+            return true;
+        } catch (EconomyDatabaseError e) {
+            this.logFailure("create the account of", player, e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean createPlayerAccount(OfflinePlayer player, String worldName) {
+        return this.createPlayerAccount(player);
+    }
+
+    @Override
+    @Deprecated
+    public boolean createPlayerAccount(String playerName) {
+        OfflinePlayer player = this.findPlayer(playerName);
+        return player != null && this.createPlayerAccount(player);
+    }
+
+    @Override
+    @Deprecated
+    public boolean createPlayerAccount(String playerName, String worldName) {
+        return this.createPlayerAccount(playerName);
+    }
+
+    /// The following methods read and update the balances of the players.
+
+    @Override
+    public double getBalance(OfflinePlayer player) {
+        try {
+            return this.plugin.getBalance(player.getUniqueId());
+        } catch (EconomyAccountNotFoundError e) {
+            return 0;
+        } catch (EconomyDatabaseError e) {
+            this.logFailure("get the balance of", player, e);
+            return 0;
+        }
+    }
+
+    @Override
+    public double getBalance(OfflinePlayer player, String world) {
+        return this.getBalance(player);
+    }
+
+    @Override
+    @Deprecated
+    public double getBalance(String playerName) {
+        OfflinePlayer player = this.findPlayer(playerName);
+        return player != null ? this.getBalance(player) : 0;
+    }
+
+    @Override
+    @Deprecated
+    public double getBalance(String playerName, String world) {
+        return this.getBalance(playerName);
+    }
+
+    @Override
+    public boolean has(OfflinePlayer player, double amount) {
+        return this.getBalance(player) >= amount;
+    }
+
+    @Override
+    public boolean has(OfflinePlayer player, String worldName, double amount) {
+        return this.has(player, amount);
+    }
+
+    @Override
+    @Deprecated
+    public boolean has(String playerName, double amount) {
+        OfflinePlayer player = this.findPlayer(playerName);
+        return player != null && this.has(player, amount);
+    }
+
+    @Override
+    @Deprecated
+    public boolean has(String playerName, String worldName, double amount) {
+        return this.has(playerName, amount);
+    }
+
+    @Override
+    public EconomyResponse withdrawPlayer(OfflinePlayer player, double amount) {
+        if (!(amount >= 0)) {
+            return new EconomyResponse(0, 0, ResponseType.FAILURE, "Cannot withdraw negative funds");
+        }
+        return this.updateBalance(player, amount, false);
+    }
+
+    @Override
+    public EconomyResponse withdrawPlayer(OfflinePlayer player, String worldName, double amount) {
+        return this.withdrawPlayer(player, amount);
+    }
+
+    @Override
+    @Deprecated
+    public EconomyResponse withdrawPlayer(String playerName, double amount) {
+        OfflinePlayer player = this.findPlayer(playerName);
+        return player != null ? this.withdrawPlayer(player, amount) : unknownPlayer();
+    }
+
+    @Override
+    @Deprecated
+    public EconomyResponse withdrawPlayer(String playerName, String worldName, double amount) {
+        return this.withdrawPlayer(playerName, amount);
+    }
+
+    @Override
+    public EconomyResponse depositPlayer(OfflinePlayer player, double amount) {
+        if (!(amount >= 0)) {
+            return new EconomyResponse(0, 0, ResponseType.FAILURE, "Cannot deposit negative funds");
+        }
+        return this.updateBalance(player, amount, true);
+    }
+
+    @Override
+    public EconomyResponse depositPlayer(OfflinePlayer player, String worldName, double amount) {
+        return this.depositPlayer(player, amount);
+    }
+
+    @Override
+    @Deprecated
+    public EconomyResponse depositPlayer(String playerName, double amount) {
+        OfflinePlayer player = this.findPlayer(playerName);
+        return player != null ? this.depositPlayer(player, amount) : unknownPlayer();
+    }
+
+    @Override
+    @Deprecated
+    public EconomyResponse depositPlayer(String playerName, String worldName, double amount) {
+        return this.depositPlayer(playerName, amount);
+    }
+
+    /**
+     * Add an amount to the balance of a player or remove it, in minor units,
+     * reporting the outcome as a Vault response
+     * <p>
+     * An amount smaller than the minor unit is refused rather than reported as
+     * a success that changed nothing.
+     *
+     * @param player  the player
+     * @param amount  the amount of the operation (must be positive)
+     * @param deposit true to add the amount, false to remove it
+     * @return the response of the operation
+     */
+    private @NotNull EconomyResponse updateBalance(@NotNull OfflinePlayer player, double amount, boolean deposit) {
+        try {
+            long minor = Money.toMinor(amount);
+            if (minor == 0) {
+                return amount == 0
+                        ? new EconomyResponse(0, this.getBalance(player), ResponseType.SUCCESS, null)
+                        : new EconomyResponse(0, this.getBalance(player), ResponseType.FAILURE,
+                                "The amount is smaller than the currency allows");
+            }
+
+            if (deposit) {
+                this.plugin.addBalanceMinor(player.getUniqueId(), minor);
+            } else {
+                this.plugin.removeBalanceMinor(player.getUniqueId(), minor);
+            }
+            return new EconomyResponse(Money.toMajor(minor), this.getBalance(player), ResponseType.SUCCESS, null);
+        } catch (EconomyAccountNotFoundError e) {
+            return new EconomyResponse(0, 0, ResponseType.FAILURE, "The player has no account");
+        } catch (EconomyInsufficientBalance e) {
+            return new EconomyResponse(0, this.getBalance(player), ResponseType.FAILURE, "Insufficient funds");
+        } catch (EconomyInvalidAmountError e) {
+            return new EconomyResponse(0, this.getBalance(player), ResponseType.FAILURE, "Invalid amount");
+        } catch (EconomyDatabaseError e) {
+            this.logFailure("update the balance of", player, e);
+            return new EconomyResponse(0, 0, ResponseType.FAILURE, "An internal error occurred");
+        }
+    }
+
+    /// The following methods are for the banks, which are not supported.
+
+    @Override
+    @Deprecated
+    public EconomyResponse createBank(String name, String player) {
+        return bankNotSupported();
+    }
+
+    @Override
+    public EconomyResponse createBank(String name, OfflinePlayer player) {
+        return bankNotSupported();
+    }
+
+    @Override
+    public EconomyResponse deleteBank(String name) {
+        return bankNotSupported();
+    }
+
+    @Override
+    public EconomyResponse bankBalance(String name) {
+        return bankNotSupported();
+    }
+
+    @Override
+    public EconomyResponse bankHas(String name, double amount) {
+        return bankNotSupported();
+    }
+
+    @Override
+    public EconomyResponse bankWithdraw(String name, double amount) {
+        return bankNotSupported();
+    }
+
+    @Override
+    public EconomyResponse bankDeposit(String name, double amount) {
+        return bankNotSupported();
+    }
+
+    @Override
+    @Deprecated
+    public EconomyResponse isBankOwner(String name, String playerName) {
+        return bankNotSupported();
+    }
+
+    @Override
+    public EconomyResponse isBankOwner(String name, OfflinePlayer player) {
+        return bankNotSupported();
+    }
+
+    @Override
+    @Deprecated
+    public EconomyResponse isBankMember(String name, String playerName) {
+        return bankNotSupported();
+    }
+
+    @Override
+    public EconomyResponse isBankMember(String name, OfflinePlayer player) {
+        return bankNotSupported();
+    }
+
+    @Override
+    public List<String> getBanks() {
+        return List.of();
+    }
+
+    /**
+     * Find a player by name without querying the Mojang API
+     *
+     * @param playerName the name of the player
+     * @return the player, or null if they never joined the server
+     */
+    private @Nullable OfflinePlayer findPlayer(@Nullable String playerName) {
+        if (playerName == null) {
+            return null;
+        }
+        return this.plugin.getServer().getOfflinePlayerIfCached(playerName);
+    }
+
+    /**
+     * Log a failed database operation
+     */
+    private void logFailure(@NotNull String action, @NotNull OfflinePlayer player, @NotNull Exception e) {
+        this.plugin.getLogger().log(Level.SEVERE, "Could not " + action + " " + player.getUniqueId(), e);
+    }
+
+    /**
+     * Get the response to an operation on a player who never joined the server
+     */
+    private static @NotNull EconomyResponse unknownPlayer() {
+        return new EconomyResponse(0, 0, ResponseType.FAILURE, "Unknown player");
+    }
+
+    /**
+     * Get the response to an operation on a bank
+     */
+    private static @NotNull EconomyResponse bankNotSupported() {
+        return new EconomyResponse(0, 0, ResponseType.NOT_IMPLEMENTED, BANKS_NOT_SUPPORTED);
+    }
+
+}